@@ -0,0 +1,160 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.ons;
+
+import android.os.Process;
+import android.os.SystemClock;
+import android.telephony.TelephonyManager;
+
+import com.android.internal.annotations.VisibleForTesting;
+import com.android.telephony.Rlog;
+
+import java.io.PrintWriter;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.LongSupplier;
+
+/**
+ * Token bucket admission control for the IOns entry points.
+ *
+ * Each caller gets a bucket per method, identified by uid and method name. The calling package
+ * is not part of the key: it is supplied by the caller, who could rotate it to get fresh
+ * buckets and evict the buckets of other callers. A bucket holds up to burst tokens and refills
+ * at a fixed rate; a call is admitted if a token is available. This keeps a misbehaving app from
+ * restarting scans or switching data preference in a loop, while regular callers are never
+ * throttled. Calls from our own process are always admitted.
+ *
+ * A rejected call is answered with a fixed result which ONS does not use for anything else, so
+ * the caller can tell it apart from a failed request and retry later.
+ */
+public class ONSAdmissionController {
+    private static final String LOG_TAG = "ONSAdmissionController";
+
+    public static final String METHOD_SET_ENABLE = "setEnable";
+    public static final String METHOD_SET_PREFERRED_DATA = "setPreferredDataSubscriptionId";
+    public static final String METHOD_UPDATE_AVAILABLE_NETWORKS = "updateAvailableNetworks";
+
+    /* result of a rejected updateAvailableNetworks call */
+    public static final int UPDATE_AVAILABLE_NETWORKS_THROTTLED =
+            TelephonyManager.UPDATE_AVAILABLE_NETWORKS_REMOTE_SERVICE_EXCEPTION;
+    /* result of a rejected setPreferredDataSubscriptionId call, otherwise only returned when the
+     * subscription service cannot be reached */
+    public static final int SET_PREFERRED_DATA_THROTTLED =
+            TelephonyManager.SET_OPPORTUNISTIC_SUB_REMOTE_SERVICE_EXCEPTION;
+
+    /* buckets are dropped least recently used first beyond this number of callers */
+    @VisibleForTesting
+    static final int MAX_BUCKETS = 64;
+
+    private static final long MILLIS_PER_MINUTE = 60 * 1000;
+
+    private final int mBurst;
+    private final int mRatePerMinute;
+    private final int mExemptUid;
+    private final LongSupplier mClock;
+    private final Map<String, Bucket> mBuckets = new LinkedHashMap<String, Bucket>(
+            16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Bucket> eldest) {
+            return size() > MAX_BUCKETS;
+        }
+    };
+    private long mTotalRejected;
+
+    private static class Bucket {
+        /* one token is MILLIS_PER_MINUTE units, so refilling needs no rounding */
+        long mTokenUnits;
+        long mLastRefillTimeMs;
+        long mAdmitted;
+        long mRejected;
+    }
+
+    /**
+     * @param burst maximum number of calls admitted back to back, 0 to admit all calls.
+     * @param ratePerMinute sustained number of calls admitted per minute.
+     */
+    public ONSAdmissionController(int burst, int ratePerMinute) {
+        this(burst, ratePerMinute, Process.myUid(), SystemClock::elapsedRealtime);
+    }
+
+    @VisibleForTesting
+    ONSAdmissionController(int burst, int ratePerMinute, int exemptUid, LongSupplier clock) {
+        mBurst = burst;
+        mRatePerMinute = ratePerMinute;
+        mExemptUid = exemptUid;
+        mClock = clock;
+    }
+
+    /**
+     * Take a token for a call.
+     * @return true if the call is admitted, false if the caller must be rejected.
+     */
+    public boolean tryAcquire(int uid, String method) {
+        if (mBurst <= 0 || uid == mExemptUid) {
+            return true;
+        }
+        String key = uid + "/" + method;
+        long now = mClock.getAsLong();
+        synchronized (mBuckets) {
+            Bucket bucket = mBuckets.get(key);
+            if (bucket == null) {
+                bucket = new Bucket();
+                bucket.mTokenUnits = mBurst * MILLIS_PER_MINUTE;
+                bucket.mLastRefillTimeMs = now;
+                mBuckets.put(key, bucket);
+            }
+            long elapsed = Math.max(0, now - bucket.mLastRefillTimeMs);
+            bucket.mTokenUnits = Math.min(mBurst * MILLIS_PER_MINUTE,
+                    bucket.mTokenUnits + elapsed * mRatePerMinute);
+            bucket.mLastRefillTimeMs = now;
+            if (bucket.mTokenUnits >= MILLIS_PER_MINUTE) {
+                bucket.mTokenUnits -= MILLIS_PER_MINUTE;
+                bucket.mAdmitted++;
+                return true;
+            }
+            bucket.mRejected++;
+            mTotalRejected++;
+            if (bucket.mRejected == 1 || bucket.mRejected % 100 == 0) {
+                Rlog.d(LOG_TAG, "throttling " + key + ", rejected " + bucket.mRejected);
+            }
+            return false;
+        }
+    }
+
+    @VisibleForTesting
+    long getRejectedCount(int uid, String method) {
+        synchronized (mBuckets) {
+            Bucket bucket = mBuckets.get(uid + "/" + method);
+            return bucket == null ? 0 : bucket.mRejected;
+        }
+    }
+
+    /**
+     * Print the per caller counters.
+     */
+    public void dump(PrintWriter pw) {
+        synchronized (mBuckets) {
+            pw.println("  admission control: burst=" + mBurst + " ratePerMinute="
+                    + mRatePerMinute + " totalRejected=" + mTotalRejected);
+            for (Map.Entry<String, Bucket> entry : mBuckets.entrySet()) {
+                Bucket bucket = entry.getValue();
+                pw.println("    " + entry.getKey() + ": admitted=" + bucket.mAdmitted
+                        + " rejected=" + bucket.mRejected);
+            }
+        }
+    }
+}
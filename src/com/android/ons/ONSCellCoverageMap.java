@@ -0,0 +1,458 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.ons;
+
+import android.content.Context;
+import android.os.SystemProperties;
+import android.telephony.CellIdentityLte;
+import android.telephony.CellIdentityNr;
+import android.telephony.CellInfo;
+import android.telephony.CellInfoLte;
+import android.telephony.CellInfoNr;
+import android.util.AtomicFile;
+
+import com.android.internal.annotations.VisibleForTesting;
+import com.android.telephony.Rlog;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Bounded map from serving cell fingerprints to the opportunistic networks which were found
+ * qualifying while the device was camped on that cell. {@link ONSNetworkScanCtlr} uses it to
+ * scan right away where coverage was seen before and to back off where scans never found any.
+ *
+ * The map is kept in LRU order. As it records where the device has been, it is only persisted in
+ * device protected storage, in a compact binary format that survives reboots, when enabled for
+ * debugging with {@link #PROPERTY_PERSIST}. Otherwise it lives in memory only.
+ */
+public class ONSCellCoverageMap {
+    private static final String LOG_TAG = "ONSCellCoverageMap";
+    private static final boolean DBG = true;
+
+    /* system property enabling persistence of the map */
+    public static final String PROPERTY_PERSIST = "persist.radio.ons.coverage_map";
+
+    @VisibleForTesting
+    static final String FILE_NAME = "ons_cell_coverage_map.bin";
+    private static final int FILE_MAGIC = 0x4f4e5343;
+    private static final int FILE_VERSION = 1;
+
+    @VisibleForTesting
+    static final int MAX_ENTRIES = 128;
+    @VisibleForTesting
+    static final int MAX_PLMNS_PER_ENTRY = 4;
+    /* number of consecutive empty scans after which a location is considered without coverage */
+    @VisibleForTesting
+    static final int NO_COVERAGE_SCAN_THRESHOLD = 3;
+    private static final long MAX_ENTRY_AGE_MS = TimeUnit.DAYS.toMillis(30);
+    private static final int MAX_NEIGHBOR_CELLS = 8;
+
+    public static final long INVALID_FINGERPRINT = 0;
+
+    /* coverage predictions */
+    public static final int PREDICTION_UNKNOWN = 0;
+    public static final int PREDICTION_COVERAGE = 1;
+    public static final int PREDICTION_NO_COVERAGE = 2;
+
+    private static final int INVALID_PLMN = -1;
+
+    /**
+     * History recorded for a single serving cell fingerprint.
+     */
+    @VisibleForTesting
+    static final class Entry {
+        long mLastSeenMillis;
+        int mEmptyScanCount;
+        int mPlmnCount;
+        final int[] mPlmns = new int[MAX_PLMNS_PER_ENTRY];
+        final byte[] mBestRsrp = new byte[MAX_PLMNS_PER_ENTRY];
+
+        int indexOfPlmn(int plmn) {
+            for (int i = 0; i < mPlmnCount; i++) {
+                if (mPlmns[i] == plmn) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+    }
+
+    private final Object mLock = new Object();
+    private final AtomicFile mFile;
+    private final LinkedHashMap<Long, Entry> mEntries =
+            new LinkedHashMap<Long, Entry>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<Long, Entry> eldest) {
+                    return size() > MAX_ENTRIES;
+                }
+            };
+    private boolean mDirty;
+
+    /**
+     * @param context device protected storage context used to store the map if persistence is
+     *        enabled.
+     */
+    public ONSCellCoverageMap(Context context) {
+        this(SystemProperties.getBoolean(PROPERTY_PERSIST, false)
+                ? new File(context.getFilesDir(), FILE_NAME) : null);
+    }
+
+    @VisibleForTesting
+    ONSCellCoverageMap(File file) {
+        mFile = (file != null) ? new AtomicFile(file) : null;
+    }
+
+    /**
+     * Compute the fingerprint of the current serving cell.
+     *
+     * The fingerprint covers the registered cell identity, its tracking area code and the set of
+     * neighbor physical cell ids of the same RAT.
+     *
+     * @param cellInfos cell information as returned by {@link
+     *        android.telephony.TelephonyManager#getAllCellInfo()}.
+     * @return fingerprint or {@link #INVALID_FINGERPRINT} if there is no registered cell.
+     */
+    public static long computeFingerprint(List<CellInfo> cellInfos) {
+        if (cellInfos == null) {
+            return INVALID_FINGERPRINT;
+        }
+
+        CellInfo servingCell = null;
+        for (CellInfo cellInfo : cellInfos) {
+            if (cellInfo.isRegistered()
+                    && (cellInfo instanceof CellInfoLte || cellInfo instanceof CellInfoNr)) {
+                servingCell = cellInfo;
+                break;
+            }
+        }
+        if (servingCell == null) {
+            return INVALID_FINGERPRINT;
+        }
+
+        int[] neighbors = new int[MAX_NEIGHBOR_CELLS];
+        int neighborCount = 0;
+        for (CellInfo cellInfo : cellInfos) {
+            if (cellInfo.isRegistered() || cellInfo.getClass() != servingCell.getClass()) {
+                continue;
+            }
+            int pci = getPci(cellInfo);
+            if (pci != CellInfo.UNAVAILABLE && neighborCount < MAX_NEIGHBOR_CELLS) {
+                neighbors[neighborCount++] = pci;
+            }
+        }
+        Arrays.sort(neighbors, 0, neighborCount);
+
+        long hash = 0xcbf29ce484222325L;
+        if (servingCell instanceof CellInfoLte) {
+            CellIdentityLte identity = ((CellInfoLte) servingCell).getCellIdentity();
+            hash = mix(hash, 4);
+            hash = mix(hash, encodePlmn(identity.getMccString(), identity.getMncString()));
+            hash = mix(hash, identity.getCi());
+            hash = mix(hash, identity.getTac());
+        } else {
+            CellIdentityNr identity = (CellIdentityNr) ((CellInfoNr) servingCell).getCellIdentity();
+            hash = mix(hash, 5);
+            hash = mix(hash, encodePlmn(identity.getMccString(), identity.getMncString()));
+            hash = mix(hash, identity.getNci());
+            hash = mix(hash, identity.getTac());
+        }
+        for (int i = 0; i < neighborCount; i++) {
+            hash = mix(hash, neighbors[i]);
+        }
+
+        return (hash == INVALID_FINGERPRINT) ? 1 : hash;
+    }
+
+    private static int getPci(CellInfo cellInfo) {
+        if (cellInfo instanceof CellInfoLte) {
+            return ((CellInfoLte) cellInfo).getCellIdentity().getPci();
+        } else if (cellInfo instanceof CellInfoNr) {
+            return ((CellIdentityNr) ((CellInfoNr) cellInfo).getCellIdentity()).getPci();
+        }
+        return CellInfo.UNAVAILABLE;
+    }
+
+    private static long mix(long hash, long value) {
+        // FNV-1a over the 8 bytes of the value.
+        for (int i = 0; i < 8; i++) {
+            hash ^= (value >>> (i * 8)) & 0xff;
+            hash *= 0x100000001b3L;
+        }
+        return hash;
+    }
+
+    /**
+     * Encode mcc and mnc as a single integer. The mnc length is kept so that "01" and "001" do
+     * not collide.
+     */
+    @VisibleForTesting
+    static int encodePlmn(String mcc, String mnc) {
+        if (mcc == null || mnc == null || mcc.length() != 3
+                || mnc.length() < 2 || mnc.length() > 3) {
+            return INVALID_PLMN;
+        }
+        try {
+            return ((Integer.parseInt(mcc) * 1000 + Integer.parseInt(mnc)) * 10) + mnc.length();
+        } catch (NumberFormatException e) {
+            return INVALID_PLMN;
+        }
+    }
+
+    @VisibleForTesting
+    static int encodePlmn(String mccMnc) {
+        if (mccMnc == null || mccMnc.length() < 5) {
+            return INVALID_PLMN;
+        }
+        return encodePlmn(mccMnc.substring(0, 3), mccMnc.substring(3));
+    }
+
+    /**
+     * Predict opportunistic network coverage at the given location.
+     *
+     * @param fingerprint serving cell fingerprint.
+     * @param mccMncs opportunistic networks which the caller is interested in.
+     * @return one of {@link #PREDICTION_UNKNOWN}, {@link #PREDICTION_COVERAGE} or
+     *         {@link #PREDICTION_NO_COVERAGE}.
+     */
+    public int predict(long fingerprint, List<String> mccMncs) {
+        if (fingerprint == INVALID_FINGERPRINT) {
+            return PREDICTION_UNKNOWN;
+        }
+        synchronized (mLock) {
+            Entry entry = mEntries.get(fingerprint);
+            if (entry == null
+                    || System.currentTimeMillis() - entry.mLastSeenMillis > MAX_ENTRY_AGE_MS) {
+                return PREDICTION_UNKNOWN;
+            }
+            if (mccMncs != null) {
+                for (String mccMnc : mccMncs) {
+                    int plmn = encodePlmn(mccMnc);
+                    if (plmn != INVALID_PLMN && entry.indexOfPlmn(plmn) >= 0) {
+                        return PREDICTION_COVERAGE;
+                    }
+                }
+            }
+            return (entry.mEmptyScanCount >= NO_COVERAGE_SCAN_THRESHOLD)
+                    ? PREDICTION_NO_COVERAGE : PREDICTION_UNKNOWN;
+        }
+    }
+
+    /**
+     * Record a qualifying opportunistic cell observed while camped on the given cell.
+     */
+    public void recordQualifyingCell(long fingerprint, String mccMnc, int rsrp) {
+        int plmn = encodePlmn(mccMnc);
+        if (fingerprint == INVALID_FINGERPRINT || plmn == INVALID_PLMN) {
+            return;
+        }
+        synchronized (mLock) {
+            Entry entry = getOrCreateEntryLocked(fingerprint);
+            entry.mEmptyScanCount = 0;
+            byte clampedRsrp = (byte) Math.max(Byte.MIN_VALUE, Math.min(Byte.MAX_VALUE, rsrp));
+            int index = entry.indexOfPlmn(plmn);
+            if (index >= 0) {
+                entry.mBestRsrp[index] = (byte) Math.max(entry.mBestRsrp[index], clampedRsrp);
+            } else if (entry.mPlmnCount < MAX_PLMNS_PER_ENTRY) {
+                entry.mPlmns[entry.mPlmnCount] = plmn;
+                entry.mBestRsrp[entry.mPlmnCount] = clampedRsrp;
+                entry.mPlmnCount++;
+            }
+            mDirty = true;
+        }
+    }
+
+    /**
+     * Record a complete scan at the given cell which did not find any qualifying cell.
+     */
+    public void recordEmptyScan(long fingerprint) {
+        if (fingerprint == INVALID_FINGERPRINT) {
+            return;
+        }
+        synchronized (mLock) {
+            Entry entry = getOrCreateEntryLocked(fingerprint);
+            if (entry.mEmptyScanCount < Short.MAX_VALUE) {
+                entry.mEmptyScanCount++;
+            }
+            mDirty = true;
+        }
+    }
+
+    private Entry getOrCreateEntryLocked(long fingerprint) {
+        Entry entry = mEntries.get(fingerprint);
+        if (entry == null) {
+            entry = new Entry();
+            mEntries.put(fingerprint, entry);
+        }
+        entry.mLastSeenMillis = System.currentTimeMillis();
+        return entry;
+    }
+
+    @VisibleForTesting
+    int size() {
+        synchronized (mLock) {
+            return mEntries.size();
+        }
+    }
+
+    @VisibleForTesting
+    boolean contains(long fingerprint) {
+        synchronized (mLock) {
+            return mEntries.containsKey(fingerprint);
+        }
+    }
+
+    /**
+     * Load the map from storage. Entries already in memory are kept and take precedence over the
+     * stored ones.
+     */
+    public void load() {
+        if (mFile == null) {
+            return;
+        }
+        try (FileInputStream fis = mFile.openRead()) {
+            readFrom(new DataInputStream(fis));
+            logDebug("loaded " + size() + " entries");
+        } catch (FileNotFoundException e) {
+            logDebug("no coverage map stored");
+        } catch (IOException e) {
+            log("failed to read coverage map " + e);
+            mFile.delete();
+        }
+    }
+
+    /**
+     * Write the map to storage if it has changed since it was last written.
+     */
+    public void persistIfNeeded() {
+        if (mFile == null) {
+            return;
+        }
+        synchronized (mLock) {
+            if (!mDirty) {
+                return;
+            }
+            FileOutputStream fos = null;
+            try {
+                fos = mFile.startWrite();
+                writeToLocked(new DataOutputStream(fos));
+                mFile.finishWrite(fos);
+                mDirty = false;
+            } catch (IOException e) {
+                log("failed to write coverage map " + e);
+                if (fos != null) {
+                    mFile.failWrite(fos);
+                }
+            }
+        }
+    }
+
+    @VisibleForTesting
+    void writeTo(DataOutputStream out) throws IOException {
+        synchronized (mLock) {
+            writeToLocked(out);
+        }
+    }
+
+    private void writeToLocked(DataOutputStream out) throws IOException {
+        long now = System.currentTimeMillis();
+        out.writeInt(FILE_MAGIC);
+        out.writeByte(FILE_VERSION);
+        out.writeShort(mEntries.size());
+        // LRU order is preserved since entries are written eldest first.
+        for (Map.Entry<Long, Entry> mapEntry : mEntries.entrySet()) {
+            Entry entry = mapEntry.getValue();
+            out.writeLong(mapEntry.getKey());
+            out.writeInt((int) TimeUnit.MILLISECONDS.toMinutes(
+                    Math.max(0, now - entry.mLastSeenMillis)));
+            out.writeShort(entry.mEmptyScanCount);
+            out.writeByte(entry.mPlmnCount);
+            for (int i = 0; i < entry.mPlmnCount; i++) {
+                out.writeInt(entry.mPlmns[i]);
+                out.writeByte(entry.mBestRsrp[i]);
+            }
+        }
+        out.flush();
+    }
+
+    @VisibleForTesting
+    void readFrom(DataInputStream in) throws IOException {
+        if (in.readInt() != FILE_MAGIC || in.readByte() != FILE_VERSION) {
+            throw new IOException("unsupported coverage map format");
+        }
+        long now = System.currentTimeMillis();
+        int count = in.readUnsignedShort();
+        LinkedHashMap<Long, Entry> entries = new LinkedHashMap<>();
+        for (int i = 0; i < count; i++) {
+            long fingerprint = in.readLong();
+            Entry entry = new Entry();
+            entry.mLastSeenMillis = now - TimeUnit.MINUTES.toMillis(in.readInt());
+            entry.mEmptyScanCount = in.readShort();
+            int plmnCount = in.readUnsignedByte();
+            if (plmnCount > MAX_PLMNS_PER_ENTRY) {
+                throw new IOException("invalid plmn count " + plmnCount);
+            }
+            for (int j = 0; j < plmnCount; j++) {
+                entry.mPlmns[j] = in.readInt();
+                entry.mBestRsrp[j] = in.readByte();
+            }
+            entry.mPlmnCount = plmnCount;
+            entries.put(fingerprint, entry);
+        }
+        synchronized (mLock) {
+            // Entries recorded since start up are newer than the stored ones and stay the most
+            // recently used.
+            LinkedHashMap<Long, Entry> recorded = new LinkedHashMap<>(mEntries);
+            mEntries.clear();
+            for (Map.Entry<Long, Entry> mapEntry : entries.entrySet()) {
+                if (!recorded.containsKey(mapEntry.getKey())) {
+                    mEntries.put(mapEntry.getKey(), mapEntry.getValue());
+                }
+            }
+            mEntries.putAll(recorded);
+            // Drop entries which are too old to be useful.
+            Iterator<Entry> iterator = mEntries.values().iterator();
+            while (iterator.hasNext()) {
+                if (now - iterator.next().mLastSeenMillis > MAX_ENTRY_AGE_MS) {
+                    iterator.remove();
+                }
+            }
+            mDirty = !recorded.isEmpty();
+        }
+    }
+
+    private static void log(String msg) {
+        Rlog.d(LOG_TAG, msg);
+    }
+
+    private static void logDebug(String msg) {
+        if (DBG) {
+            Rlog.d(LOG_TAG, msg);
+        }
+    }
+}
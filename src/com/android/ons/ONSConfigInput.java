@@ -36,6 +36,8 @@ public class ONSConfigInput {
     private int mPreferredDataSub;
     private int mPrimarySub;
     private IUpdateAvailableNetworksCallback mAvailableNetworkCallback;
+    /* the callback was answered or handed to the profile selector, which answers it */
+    private volatile boolean mCallbackHandled;
 
     ONSConfigInput(ArrayList<AvailableNetworkInfo> availableNetworkInfos,
             IUpdateAvailableNetworksCallback callback) {
@@ -73,6 +75,14 @@ public class ONSConfigInput {
         return mAvailableNetworkInfos;
     }
 
+    public void setCallbackHandled() {
+        mCallbackHandled = true;
+    }
+
+    public boolean isCallbackHandled() {
+        return mCallbackHandled;
+    }
+
     @Override
     public String toString() {
         return ("ONSConfigInput:"
@@ -0,0 +1,199 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.ons;
+
+import android.net.ConnectivityManager;
+import android.net.Network;
+import android.net.NetworkCapabilities;
+import android.net.NetworkRequest;
+import android.os.Handler;
+import android.util.ArrayMap;
+import android.util.Log;
+
+import com.android.internal.annotations.VisibleForTesting;
+
+import java.io.PrintWriter;
+import java.util.Map;
+
+/**
+ * @class ONSConnectivityTracker
+ * @brief Keeps the set of validated networks and their capabilities, so that connectivity checks
+ * need no IPC, and tells when a network suitable for eSIM download has been stable for a while.
+ *
+ * A network that comes and goes within the stable interval does not trigger a download: the
+ * listener is notified only once the connectivity state has stayed unchanged for the interval.
+ */
+public class ONSConnectivityTracker {
+
+    private static final String TAG = ONSConnectivityTracker.class.getName();
+
+    /**
+     * Listener called on the tracker handler.
+     */
+    public interface Listener {
+        /**
+         * Called on every change of the set of validated networks.
+         */
+        void onConnectivityChanged();
+
+        /**
+         * Called once internet has been available without change for the stable interval.
+         */
+        void onNetworkStable();
+    }
+
+    /* connectivity states, each one includes the previous */
+    @VisibleForTesting protected static final int STATE_NONE = 0;
+    @VisibleForTesting protected static final int STATE_METERED = 1;
+    @VisibleForTesting protected static final int STATE_UNMETERED = 2;
+
+    private final ConnectivityManager mConnectivityManager;
+    private final Handler mHandler;
+    private final long mStableIntervalMs;
+    private final Listener mListener;
+    private final Map<Network, NetworkCapabilities> mNetworks = new ArrayMap<>();
+    private final Runnable mStableRunnable = this::onStable;
+    private int mState = STATE_NONE;
+    private int mStableState = STATE_NONE;
+    /* number of state changes which did not last for the stable interval */
+    private int mFlapCount;
+    private boolean mStarted;
+
+    @VisibleForTesting
+    protected final ConnectivityManager.NetworkCallback mNetworkCallback =
+            new ConnectivityManager.NetworkCallback() {
+                @Override
+                public void onAvailable(Network network) {
+                    // Capabilities follow in onCapabilitiesChanged.
+                    update(network, new NetworkCapabilities());
+                }
+
+                @Override
+                public void onCapabilitiesChanged(Network network,
+                        NetworkCapabilities networkCapabilities) {
+                    update(network, networkCapabilities);
+                }
+
+                @Override
+                public void onLost(Network network) {
+                    update(network, null);
+                }
+            };
+
+    /**
+     * @param stableIntervalMs time a network must stay up before downloads are triggered.
+     */
+    public ONSConnectivityTracker(ConnectivityManager connectivityManager, Handler handler,
+            long stableIntervalMs, Listener listener) {
+        mConnectivityManager = connectivityManager;
+        mHandler = handler;
+        mStableIntervalMs = stableIntervalMs;
+        mListener = listener;
+    }
+
+    /**
+     * Starts tracking the validated networks.
+     */
+    public void start() {
+        if (mStarted) {
+            return;
+        }
+        mStarted = true;
+        NetworkRequest request = new NetworkRequest.Builder().addCapability(
+                NetworkCapabilities.NET_CAPABILITY_VALIDATED).build();
+        mConnectivityManager.registerNetworkCallback(request, mNetworkCallback, mHandler);
+    }
+
+    /**
+     * @return true if at least one validated network is up.
+     */
+    public synchronized boolean isInternetAvailable() {
+        return mState >= STATE_METERED;
+    }
+
+    /**
+     * @return true if a validated unmetered network is up.
+     */
+    public synchronized boolean isUnmeteredAvailable() {
+        return mState == STATE_UNMETERED;
+    }
+
+    /**
+     * @return true if a validated WiFi network is up.
+     */
+    public synchronized boolean isWiFiConnected() {
+        for (NetworkCapabilities capabilities : mNetworks.values()) {
+            if (capabilities.hasTransport(NetworkCapabilities.TRANSPORT_WIFI)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Print the tracked networks.
+     */
+    public synchronized void dump(PrintWriter pw) {
+        pw.println("  connectivity: state=" + mState + " stableState=" + mStableState
+                + " flaps=" + mFlapCount + " networks=" + mNetworks.size());
+    }
+
+    private void update(Network network, NetworkCapabilities capabilities) {
+        synchronized (this) {
+            if (capabilities == null) {
+                mNetworks.remove(network);
+            } else {
+                mNetworks.put(network, capabilities);
+            }
+            int state = computeStateLocked();
+            if (state == mState) {
+                return;
+            }
+            Log.d(TAG, "Connectivity state " + mState + " -> " + state);
+            if (mHandler.hasCallbacks(mStableRunnable)) {
+                mFlapCount++;
+            }
+            mState = state;
+            mHandler.removeCallbacks(mStableRunnable);
+            if (state == STATE_NONE) {
+                mStableState = STATE_NONE;
+            } else if (state != mStableState) {
+                mHandler.postDelayed(mStableRunnable, mStableIntervalMs);
+            }
+        }
+        mListener.onConnectivityChanged();
+    }
+
+    private int computeStateLocked() {
+        int state = STATE_NONE;
+        for (NetworkCapabilities capabilities : mNetworks.values()) {
+            if (capabilities.hasCapability(NetworkCapabilities.NET_CAPABILITY_NOT_METERED)) {
+                return STATE_UNMETERED;
+            }
+            state = STATE_METERED;
+        }
+        return state;
+    }
+
+    private void onStable() {
+        synchronized (this) {
+            mStableState = mState;
+            Log.d(TAG, "Connectivity stable. State:" + mStableState);
+        }
+        mListener.onNetworkStable();
+    }
+}
@@ -0,0 +1,551 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.ons;
+
+import android.content.Context;
+import android.os.SystemClock;
+import android.os.SystemProperties;
+import android.telephony.AvailableNetworkInfo;
+import android.telephony.CellIdentityLte;
+import android.telephony.CellIdentityNr;
+import android.telephony.CellInfo;
+import android.telephony.CellInfoLte;
+import android.telephony.CellInfoNr;
+import android.telephony.CellSignalStrengthLte;
+import android.telephony.CellSignalStrengthNr;
+import android.telephony.SubscriptionInfo;
+
+import com.android.internal.annotations.VisibleForTesting;
+import com.android.telephony.Rlog;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.LongSupplier;
+
+/**
+ * Append-only binary journal of the inputs and outputs of opportunistic network selection.
+ *
+ * Scan batches, availability requests, subscription snapshots and selection outcomes are
+ * written to a memory-mapped segment in device protected storage. When a segment is full it is
+ * rotated, so at most two segments are kept on disk. Journals can be read back with
+ * {@link #read(File)} and replayed through the selection logic to reproduce field behavior.
+ *
+ * Record layout: type (1 byte), payload length (2 bytes), timestamp (8 bytes), payload.
+ *
+ * The journal stores the cell identities and networks seen by the device, so it is only kept
+ * when enabled for debugging with {@link #PROPERTY_ENABLED}.
+ */
+public class ONSDecisionJournal {
+    private static final String LOG_TAG = "ONSDecisionJournal";
+    private static final boolean DBG = true;
+
+    /* system property enabling the journal */
+    public static final String PROPERTY_ENABLED = "persist.radio.ons.decision_journal";
+
+    @VisibleForTesting
+    static final String FILE_NAME = "ons_decision_journal";
+    @VisibleForTesting
+    static final String ROTATED_FILE_SUFFIX = ".old";
+    @VisibleForTesting
+    static final int DEFAULT_SEGMENT_SIZE = 256 * 1024;
+
+    private static final int MAGIC = 0x4f4e534a;
+    private static final short VERSION = 1;
+    /* header: magic, version, reserved, creation wall clock time, write position */
+    private static final int HEADER_WRITE_POSITION_OFFSET = 16;
+    private static final int HEADER_SIZE = 20;
+    private static final int RECORD_HEADER_SIZE = 11;
+    private static final int MAX_PAYLOAD_SIZE = 0xffff;
+
+    /* record types */
+    public static final int RECORD_SCAN_BATCH = 1;
+    public static final int RECORD_AVAILABILITY_REQUEST = 2;
+    public static final int RECORD_SUBSCRIPTION_SNAPSHOT = 3;
+    public static final int RECORD_SELECTION_OUTCOME = 4;
+    public static final int RECORD_SCAN_EVENT = 5;
+    public static final int RECORD_SUB_SELECTED = 6;
+
+    /* scan events */
+    public static final int SCAN_EVENT_START = 1;
+    public static final int SCAN_EVENT_COMPLETE = 2;
+    public static final int SCAN_EVENT_ERROR = 3;
+    public static final int SCAN_EVENT_STOP = 4;
+
+    /* radio access technologies of scanned cells */
+    public static final int RAT_LTE = 1;
+    public static final int RAT_NR = 2;
+
+    /* subscription snapshot flags */
+    public static final int SUB_FLAG_EMBEDDED = 1;
+    public static final int SUB_FLAG_GROUPED = 1 << 1;
+
+    /* stored for signal values the modem reported as unavailable */
+    public static final int UNAVAILABLE_SHORT = Short.MAX_VALUE;
+    public static final int UNAVAILABLE_BYTE = Byte.MAX_VALUE;
+
+    private static final int SCAN_CELL_SIZE = 12;
+    private static final int MAX_SCAN_CELLS = (MAX_PAYLOAD_SIZE - 2) / SCAN_CELL_SIZE;
+    private static final int MAX_NETWORKS = 64;
+    private static final int MAX_SUBSCRIPTIONS = 64;
+    private static final int MAX_PLMNS_PER_NETWORK = 32;
+
+    private final Object mLock = new Object();
+    private final File mFile;
+    private final int mSegmentSize;
+    private final LongSupplier mClock;
+    private FileChannel mChannel;
+    private MappedByteBuffer mBuffer;
+    private boolean mFailed;
+
+    /**
+     * @return true if the journal is enabled for debugging.
+     */
+    public static boolean isEnabled() {
+        return SystemProperties.getBoolean(PROPERTY_ENABLED, false);
+    }
+
+    /**
+     * @param context device protected storage context used to store the journal.
+     */
+    public ONSDecisionJournal(Context context) {
+        this(new File(context.getFilesDir(), FILE_NAME), DEFAULT_SEGMENT_SIZE,
+                SystemClock::elapsedRealtime);
+    }
+
+    @VisibleForTesting
+    ONSDecisionJournal(File file, int segmentSize, LongSupplier clock) {
+        mFile = file;
+        mSegmentSize = segmentSize;
+        mClock = clock;
+    }
+
+    /**
+     * Record a batch of scan results exactly as they were reported by the modem.
+     */
+    public void logScanBatch(List<CellInfo> results) {
+        if (results == null) {
+            return;
+        }
+        synchronized (mLock) {
+            int count = 0;
+            for (CellInfo cellInfo : results) {
+                if (cellInfo instanceof CellInfoLte || cellInfo instanceof CellInfoNr) {
+                    count++;
+                }
+            }
+            count = Math.min(count, MAX_SCAN_CELLS);
+            ByteBuffer buffer = beginRecordLocked(RECORD_SCAN_BATCH, 2 + count * SCAN_CELL_SIZE);
+            if (buffer == null) {
+                return;
+            }
+            buffer.putShort((short) count);
+            int written = 0;
+            for (CellInfo cellInfo : results) {
+                if (written == count) {
+                    break;
+                }
+                if (cellInfo instanceof CellInfoLte) {
+                    CellIdentityLte identity = ((CellInfoLte) cellInfo).getCellIdentity();
+                    CellSignalStrengthLte signal = ((CellInfoLte) cellInfo).getCellSignalStrength();
+                    putCell(buffer, RAT_LTE,
+                            ONSCellCoverageMap.encodePlmn(identity.getMccString(),
+                                    identity.getMncString()),
+                            identity.getPci(), signal.getRsrp(), signal.getRsrq(),
+                            signal.getRssnr(), signal.getLevel());
+                    written++;
+                } else if (cellInfo instanceof CellInfoNr) {
+                    CellIdentityNr identity =
+                            (CellIdentityNr) ((CellInfoNr) cellInfo).getCellIdentity();
+                    CellSignalStrengthNr signal =
+                            (CellSignalStrengthNr) ((CellInfoNr) cellInfo).getCellSignalStrength();
+                    putCell(buffer, RAT_NR,
+                            ONSCellCoverageMap.encodePlmn(identity.getMccString(),
+                                    identity.getMncString()),
+                            identity.getPci(), signal.getSsRsrp(), signal.getSsRsrq(),
+                            signal.getSsSinr(), signal.getLevel());
+                    written++;
+                }
+            }
+            commitRecordLocked(buffer);
+        }
+    }
+
+    private static void putCell(ByteBuffer buffer, int rat, int plmn, int pci, int rsrp,
+            int rsrq, int sinr, int level) {
+        buffer.put((byte) rat);
+        buffer.putInt(plmn);
+        buffer.putShort(clampShort(pci));
+        buffer.putShort(clampShort(rsrp));
+        buffer.put(clampByte(rsrq));
+        buffer.put(clampByte(sinr));
+        buffer.put(clampByte(level));
+    }
+
+    /**
+     * Record the available networks passed to profile selection.
+     */
+    public void logAvailabilityRequest(List<AvailableNetworkInfo> availableNetworks) {
+        if (availableNetworks == null) {
+            return;
+        }
+        synchronized (mLock) {
+            int count = Math.min(availableNetworks.size(), MAX_NETWORKS);
+            int size = 1;
+            for (int i = 0; i < count; i++) {
+                size += 6 + 4 * Math.min(availableNetworks.get(i).getMccMncs().size(),
+                        MAX_PLMNS_PER_NETWORK);
+            }
+            ByteBuffer buffer = beginRecordLocked(RECORD_AVAILABILITY_REQUEST, size);
+            if (buffer == null) {
+                return;
+            }
+            buffer.put((byte) count);
+            for (int i = 0; i < count; i++) {
+                AvailableNetworkInfo availableNetwork = availableNetworks.get(i);
+                List<String> mccMncs = availableNetwork.getMccMncs();
+                int plmnCount = Math.min(mccMncs.size(), MAX_PLMNS_PER_NETWORK);
+                buffer.putInt(availableNetwork.getSubId());
+                buffer.put((byte) availableNetwork.getPriority());
+                buffer.put((byte) plmnCount);
+                for (int j = 0; j < plmnCount; j++) {
+                    buffer.putInt(ONSCellCoverageMap.encodePlmn(mccMncs.get(j)));
+                }
+            }
+            commitRecordLocked(buffer);
+        }
+    }
+
+    /**
+     * Record the opportunistic subscriptions known to the profile selector.
+     */
+    public void logSubscriptionSnapshot(List<SubscriptionInfo> subscriptionInfos) {
+        synchronized (mLock) {
+            int count = (subscriptionInfos == null)
+                    ? 0 : Math.min(subscriptionInfos.size(), MAX_SUBSCRIPTIONS);
+            ByteBuffer buffer = beginRecordLocked(RECORD_SUBSCRIPTION_SNAPSHOT, 1 + count * 5);
+            if (buffer == null) {
+                return;
+            }
+            buffer.put((byte) count);
+            for (int i = 0; i < count; i++) {
+                SubscriptionInfo subscriptionInfo = subscriptionInfos.get(i);
+                int flags = (subscriptionInfo.isEmbedded() ? SUB_FLAG_EMBEDDED : 0)
+                        | (subscriptionInfo.getGroupUuid() != null ? SUB_FLAG_GROUPED : 0);
+                buffer.putInt(subscriptionInfo.getSubscriptionId());
+                buffer.put((byte) flags);
+            }
+            commitRecordLocked(buffer);
+        }
+    }
+
+    /**
+     * Record the result reported to the requester of profile selection.
+     */
+    public void logSelectionOutcome(int subId, int result) {
+        logIntPair(RECORD_SELECTION_OUTCOME, subId, result);
+    }
+
+    /**
+     * Record the subscription picked by the selector.
+     * @param subId selected subscription.
+     * @param active true if the subscription was already active and only needs its modem enabled.
+     */
+    public void logSubscriptionSelected(int subId, boolean active) {
+        logIntPair(RECORD_SUB_SELECTED, subId, active ? 1 : 0);
+    }
+
+    /**
+     * Record a scan life cycle event such as start, completion or error.
+     */
+    public void logScanEvent(int event, int arg) {
+        logIntPair(RECORD_SCAN_EVENT, event, arg);
+    }
+
+    private void logIntPair(int type, int first, int second) {
+        synchronized (mLock) {
+            ByteBuffer buffer = beginRecordLocked(type, 8);
+            if (buffer == null) {
+                return;
+            }
+            buffer.putInt(first);
+            buffer.putInt(second);
+            commitRecordLocked(buffer);
+        }
+    }
+
+    private ByteBuffer beginRecordLocked(int type, int payloadSize) {
+        if (mFailed || payloadSize > MAX_PAYLOAD_SIZE
+                || RECORD_HEADER_SIZE + payloadSize > mSegmentSize - HEADER_SIZE) {
+            return null;
+        }
+        try {
+            if (mBuffer == null) {
+                openLocked();
+            }
+            if (mBuffer.position() + RECORD_HEADER_SIZE + payloadSize > mSegmentSize) {
+                rotateLocked();
+            }
+        } catch (IOException e) {
+            log("journal disabled: " + e);
+            mFailed = true;
+            closeLocked();
+            return null;
+        }
+        mBuffer.put((byte) type);
+        mBuffer.putShort((short) payloadSize);
+        mBuffer.putLong(mClock.getAsLong());
+        return mBuffer;
+    }
+
+    private void commitRecordLocked(ByteBuffer buffer) {
+        // Only publish the record once it has been completely written.
+        buffer.putInt(HEADER_WRITE_POSITION_OFFSET, buffer.position());
+    }
+
+    private void openLocked() throws IOException {
+        RandomAccessFile file = new RandomAccessFile(mFile, "rw");
+        boolean resume = file.length() == mSegmentSize;
+        file.setLength(mSegmentSize);
+        mChannel = file.getChannel();
+        mBuffer = mChannel.map(FileChannel.MapMode.READ_WRITE, 0, mSegmentSize);
+        int position = mBuffer.getInt(HEADER_WRITE_POSITION_OFFSET);
+        if (resume && mBuffer.getInt(0) == MAGIC && mBuffer.getShort(4) == VERSION
+                && position >= HEADER_SIZE && position <= mSegmentSize) {
+            mBuffer.position(position);
+            return;
+        }
+        mBuffer.putInt(0, MAGIC);
+        mBuffer.putShort(4, VERSION);
+        mBuffer.putShort(6, (short) 0);
+        mBuffer.putLong(8, System.currentTimeMillis());
+        mBuffer.putInt(HEADER_WRITE_POSITION_OFFSET, HEADER_SIZE);
+        mBuffer.position(HEADER_SIZE);
+    }
+
+    private void rotateLocked() throws IOException {
+        logDebug("rotating journal");
+        closeLocked();
+        File rotated = new File(mFile.getPath() + ROTATED_FILE_SUFFIX);
+        if (!mFile.renameTo(rotated)) {
+            throw new IOException("cannot rotate " + mFile);
+        }
+        openLocked();
+    }
+
+    private void closeLocked() {
+        if (mBuffer != null) {
+            mBuffer.force();
+            mBuffer = null;
+        }
+        if (mChannel != null) {
+            try {
+                mChannel.close();
+            } catch (IOException e) {
+                log("failed to close journal " + e);
+            }
+            mChannel = null;
+        }
+    }
+
+    /**
+     * Flush the journal to storage and release the mapping.
+     */
+    public void close() {
+        synchronized (mLock) {
+            closeLocked();
+        }
+    }
+
+    private static short clampShort(int value) {
+        return (short) Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, value));
+    }
+
+    private static byte clampByte(int value) {
+        return (byte) Math.max(Byte.MIN_VALUE, Math.min(Byte.MAX_VALUE, value));
+    }
+
+    /**
+     * A decoded journal record. Only the fields of the record type are populated.
+     */
+    public static final class Record {
+        public int type;
+        public long timestamp;
+
+        /* RECORD_SCAN_BATCH, one entry per cell */
+        public int[] rats;
+        public int[] plmns;
+        public int[] pcis;
+        public int[] rsrps;
+        public int[] rsrqs;
+        public int[] sinrs;
+        public int[] levels;
+
+        /* RECORD_AVAILABILITY_REQUEST, one entry per network */
+        public int[] subIds;
+        public int[] priorities;
+        public int[][] networkPlmns;
+
+        /* RECORD_SUBSCRIPTION_SNAPSHOT uses subIds */
+        public int[] subFlags;
+
+        /* RECORD_SELECTION_OUTCOME, RECORD_SUB_SELECTED and RECORD_SCAN_EVENT */
+        public int first;
+        public int second;
+    }
+
+    /**
+     * Read all records of a journal, including its rotated segment if present, oldest first.
+     */
+    public static List<Record> read(File file) throws IOException {
+        List<Record> records = new ArrayList<>();
+        File rotated = new File(file.getPath() + ROTATED_FILE_SUFFIX);
+        if (rotated.exists()) {
+            readSegment(rotated, records);
+        }
+        if (file.exists()) {
+            readSegment(file, records);
+        }
+        return records;
+    }
+
+    private static void readSegment(File file, List<Record> records) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            ByteBuffer buffer = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0,
+                    raf.length());
+            if (buffer.limit() < HEADER_SIZE || buffer.getInt(0) != MAGIC
+                    || buffer.getShort(4) != VERSION) {
+                throw new IOException("not a journal: " + file);
+            }
+            int end = buffer.getInt(HEADER_WRITE_POSITION_OFFSET);
+            if (end < HEADER_SIZE || end > buffer.limit()) {
+                throw new IOException("corrupt journal: " + file);
+            }
+            buffer.position(HEADER_SIZE);
+            buffer.limit(end);
+            while (buffer.remaining() >= RECORD_HEADER_SIZE) {
+                Record record = new Record();
+                record.type = buffer.get();
+                int length = buffer.getShort() & 0xffff;
+                record.timestamp = buffer.getLong();
+                int next = buffer.position() + length;
+                if (next > end) {
+                    throw new IOException("truncated record in " + file);
+                }
+                decodePayload(buffer, record);
+                buffer.position(next);
+                records.add(record);
+            }
+        }
+    }
+
+    private static void decodePayload(ByteBuffer buffer, Record record) {
+        switch (record.type) {
+            case RECORD_SCAN_BATCH: {
+                int count = buffer.getShort() & 0xffff;
+                record.rats = new int[count];
+                record.plmns = new int[count];
+                record.pcis = new int[count];
+                record.rsrps = new int[count];
+                record.rsrqs = new int[count];
+                record.sinrs = new int[count];
+                record.levels = new int[count];
+                for (int i = 0; i < count; i++) {
+                    record.rats[i] = buffer.get();
+                    record.plmns[i] = buffer.getInt();
+                    record.pcis[i] = buffer.getShort();
+                    record.rsrps[i] = buffer.getShort();
+                    record.rsrqs[i] = buffer.get();
+                    record.sinrs[i] = buffer.get();
+                    record.levels[i] = buffer.get();
+                }
+                break;
+            }
+            case RECORD_AVAILABILITY_REQUEST: {
+                int count = buffer.get() & 0xff;
+                record.subIds = new int[count];
+                record.priorities = new int[count];
+                record.networkPlmns = new int[count][];
+                for (int i = 0; i < count; i++) {
+                    record.subIds[i] = buffer.getInt();
+                    record.priorities[i] = buffer.get();
+                    int plmnCount = buffer.get() & 0xff;
+                    record.networkPlmns[i] = new int[plmnCount];
+                    for (int j = 0; j < plmnCount; j++) {
+                        record.networkPlmns[i][j] = buffer.getInt();
+                    }
+                }
+                break;
+            }
+            case RECORD_SUBSCRIPTION_SNAPSHOT: {
+                int count = buffer.get() & 0xff;
+                record.subIds = new int[count];
+                record.subFlags = new int[count];
+                for (int i = 0; i < count; i++) {
+                    record.subIds[i] = buffer.getInt();
+                    record.subFlags[i] = buffer.get();
+                }
+                break;
+            }
+            case RECORD_SELECTION_OUTCOME:
+            case RECORD_SUB_SELECTED:
+            case RECORD_SCAN_EVENT:
+                record.first = buffer.getInt();
+                record.second = buffer.getInt();
+                break;
+            default:
+                // Unknown records are skipped so that older readers can read newer journals.
+                break;
+        }
+    }
+
+    /**
+     * Decode a PLMN encoded by {@link ONSCellCoverageMap#encodePlmn(String, String)} back into
+     * its mcc and mnc string.
+     */
+    public static String decodePlmn(int plmn) {
+        if (plmn < 0) {
+            return null;
+        }
+        int mncLength = plmn % 10;
+        int value = plmn / 10;
+        String mnc = String.valueOf(value % 1000);
+        while (mnc.length() < mncLength) {
+            mnc = "0" + mnc;
+        }
+        String mcc = String.valueOf(value / 1000);
+        while (mcc.length() < 3) {
+            mcc = "0" + mcc;
+        }
+        return mcc + mnc;
+    }
+
+    private static void log(String msg) {
+        Rlog.d(LOG_TAG, msg);
+    }
+
+    private static void logDebug(String msg) {
+        if (DBG) {
+            Rlog.d(LOG_TAG, msg);
+        }
+    }
+}
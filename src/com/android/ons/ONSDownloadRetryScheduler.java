@@ -0,0 +1,299 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.ons;
+
+import android.content.SharedPreferences;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+import android.util.SparseArray;
+
+import com.android.internal.annotations.VisibleForTesting;
+
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+/**
+ * @class ONSDownloadRetryScheduler
+ * @brief Schedules opportunistic eSIM download retries with exponential backoff and keeps the
+ * schedule in SharedPreferences, so that retries resume where they left off after the process is
+ * restarted.
+ */
+public class ONSDownloadRetryScheduler {
+
+    private static final String TAG = ONSDownloadRetryScheduler.class.getName();
+    @VisibleForTesting protected static final String PREF_NAME = "ons_download_retry";
+    private static final String KEY_PREFIX = "retry_";
+
+    /* Overdue retries found on resume are spread over this window. */
+    @VisibleForTesting
+    protected static final long RESUME_JITTER_MS = TimeUnit.SECONDS.toMillis(30);
+    /* Entries not updated for this long belong to a removed SIM or a finished retry cycle. */
+    private static final long MAX_ENTRY_AGE_MS = TimeUnit.DAYS.toMillis(7);
+
+    /**
+     * Listener notified on the scheduler thread when a retry is due.
+     */
+    public interface Listener {
+        /**
+         * Called when the backoff delay of the primary subscription expired.
+         */
+        void onRetryDue(int pSIMSubId);
+    }
+
+    /*
+     * Retry state of a primary subscription. The time of the next retry is not stored, only the
+     * delay and when it started: the wall clock can be changed while the process is stopped.
+     */
+    private static class Entry {
+        int mAttempt;
+        boolean mRetryScheduled;
+        long mDelayMs;
+        /* wall clock time of the last update, the start of the delay if a retry is scheduled */
+        long mUpdateTimeMs;
+
+        String encode() {
+            return mAttempt + "," + (mRetryScheduled ? 1 : 0) + "," + mDelayMs + ","
+                    + mUpdateTimeMs;
+        }
+
+        static Entry decode(String value) {
+            if (value == null) {
+                return null;
+            }
+            String[] fields = value.split(",");
+            if (fields.length != 4) {
+                return null;
+            }
+            try {
+                Entry entry = new Entry();
+                entry.mAttempt = Integer.parseInt(fields[0]);
+                entry.mRetryScheduled = Long.parseLong(fields[1]) != 0;
+                entry.mDelayMs = Long.parseLong(fields[2]);
+                entry.mUpdateTimeMs = Long.parseLong(fields[3]);
+                return entry;
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        }
+    }
+
+    private final SharedPreferences mPrefs;
+    private final Handler mHandler;
+    private final LongSupplier mClock;
+    private final Random mRandom;
+    private final Listener mListener;
+    private final SparseArray<Entry> mEntries = new SparseArray<>();
+    private final SparseArray<Runnable> mPendingRetries = new SparseArray<>();
+
+    /**
+     * @param prefs storage of the schedule, or null to keep it in memory only.
+     * @param looper looper on which the listener is called.
+     */
+    public ONSDownloadRetryScheduler(SharedPreferences prefs, Looper looper, Listener listener) {
+        this(prefs, new Handler(looper), System::currentTimeMillis, new Random(), listener);
+    }
+
+    @VisibleForTesting
+    ONSDownloadRetryScheduler(SharedPreferences prefs, Handler handler, LongSupplier clock,
+            Random random, Listener listener) {
+        mPrefs = prefs;
+        mHandler = handler;
+        mClock = clock;
+        mRandom = random;
+        mListener = listener;
+        load();
+    }
+
+    /**
+     * Reschedule the retries which were pending when the process stopped. Retries whose time has
+     * passed are spread over a short window instead of firing together.
+     */
+    public synchronized void resume() {
+        long now = mClock.getAsLong();
+        for (int i = 0; i < mEntries.size(); i++) {
+            int subId = mEntries.keyAt(i);
+            Entry entry = mEntries.valueAt(i);
+            if (!entry.mRetryScheduled || mPendingRetries.get(subId) != null) {
+                continue;
+            }
+            // The wall clock may have moved either way since the delay started. The time already
+            // waited is bounded by the delay, so a retry is neither lost nor postponed.
+            long delayMs = Math.min(entry.mDelayMs, MAX_ENTRY_AGE_MS);
+            long delay = delayMs - Math.max(0, Math.min(now - entry.mUpdateTimeMs, delayMs));
+            if (delay <= 0) {
+                delay = (long) (mRandom.nextDouble() * RESUME_JITTER_MS);
+            }
+            Log.d(TAG, "Resuming download retry. SubId:" + subId + " attempt:" + entry.mAttempt
+                    + " delay:" + delay);
+            post(subId, delay);
+        }
+    }
+
+    /**
+     * Counts a failed download attempt and schedules the next retry after a backoff delay.
+     * A retry already scheduled for the subscription is replaced.
+     *
+     * @param pSIMSubId primary subscription for which the download failed.
+     * @param maxAttempts maximum number of retries.
+     * @param backoffTimerSec backoff unit in seconds.
+     * @return the delay in milliseconds, or -1 if the maximum number of retries is reached.
+     */
+    public synchronized long scheduleRetry(int pSIMSubId, int maxAttempts, int backoffTimerSec) {
+        Entry entry = mEntries.get(pSIMSubId);
+        if (entry == null) {
+            entry = new Entry();
+            mEntries.put(pSIMSubId, entry);
+        }
+        cancel(pSIMSubId);
+        long now = mClock.getAsLong();
+        entry.mAttempt++;
+        entry.mUpdateTimeMs = now;
+        if (entry.mAttempt > maxAttempts) {
+            entry.mRetryScheduled = false;
+            entry.mDelayMs = 0;
+            save(pSIMSubId, entry);
+            return -1;
+        }
+
+        entry.mDelayMs = calculateBackoffDelay(entry.mAttempt, backoffTimerSec, mRandom);
+        entry.mRetryScheduled = true;
+        save(pSIMSubId, entry);
+        post(pSIMSubId, entry.mDelayMs);
+        return entry.mDelayMs;
+    }
+
+    /**
+     * @return true if a retry is scheduled and has not fired yet.
+     */
+    public synchronized boolean isRetryPending(int pSIMSubId) {
+        return mPendingRetries.get(pSIMSubId) != null;
+    }
+
+    /**
+     * @return number of failed attempts counted for the subscription.
+     */
+    public synchronized int getAttemptCount(int pSIMSubId) {
+        Entry entry = mEntries.get(pSIMSubId);
+        return entry == null ? 0 : entry.mAttempt;
+    }
+
+    /**
+     * Forgets the retry state of a subscription, e.g. after a successful download.
+     */
+    public synchronized void reset(int pSIMSubId) {
+        cancel(pSIMSubId);
+        mEntries.remove(pSIMSubId);
+        if (mPrefs != null) {
+            mPrefs.edit().remove(KEY_PREFIX + pSIMSubId).apply();
+        }
+    }
+
+    /**
+     * Forgets the retry state of all subscriptions.
+     */
+    public synchronized void resetAll() {
+        for (int i = 0; i < mPendingRetries.size(); i++) {
+            mHandler.removeCallbacks(mPendingRetries.valueAt(i));
+        }
+        mPendingRetries.clear();
+        mEntries.clear();
+        if (mPrefs != null) {
+            mPrefs.edit().clear().apply();
+        }
+    }
+
+    /**
+     * Calculates the delay before the next retry with the "Exponential Backoff retry" algorithm.
+     * After the cth failed attempt, retry after k * backoffTimerSec seconds, where k is a random
+     * integer between 1 and 2^c - 1.
+     */
+    static int calculateBackoffDelay(int retryCount, int backoffTimerSec, Random random) {
+        //Calculate 2^c − 1
+        int maxTime = (int) Math.pow(2, retryCount) - 1;
+
+        //Random value between (1 & 2^c − 1) and convert to millisecond
+        return ((random.nextInt(maxTime) + 1)) * backoffTimerSec * 1000;
+    }
+
+    private void load() {
+        if (mPrefs == null) {
+            return;
+        }
+        long now = mClock.getAsLong();
+        SharedPreferences.Editor editor = null;
+        for (Map.Entry<String, ?> pref : mPrefs.getAll().entrySet()) {
+            String key = pref.getKey();
+            Entry entry = null;
+            int subId = 0;
+            if (key.startsWith(KEY_PREFIX) && pref.getValue() instanceof String) {
+                try {
+                    subId = Integer.parseInt(key.substring(KEY_PREFIX.length()));
+                    entry = Entry.decode((String) pref.getValue());
+                } catch (NumberFormatException e) {
+                    Log.e(TAG, "Invalid download retry entry " + key);
+                }
+            }
+            if (entry == null || Math.abs(now - entry.mUpdateTimeMs) > MAX_ENTRY_AGE_MS) {
+                if (editor == null) {
+                    editor = mPrefs.edit();
+                }
+                editor.remove(key);
+                continue;
+            }
+            mEntries.put(subId, entry);
+        }
+        if (editor != null) {
+            editor.apply();
+        }
+    }
+
+    private void save(int pSIMSubId, Entry entry) {
+        if (mPrefs != null) {
+            mPrefs.edit().putString(KEY_PREFIX + pSIMSubId, entry.encode()).apply();
+        }
+    }
+
+    private void post(int pSIMSubId, long delayMs) {
+        Runnable retry = () -> onRetryDue(pSIMSubId);
+        mPendingRetries.put(pSIMSubId, retry);
+        mHandler.postDelayed(retry, delayMs);
+    }
+
+    private void cancel(int pSIMSubId) {
+        Runnable retry = mPendingRetries.get(pSIMSubId);
+        if (retry != null) {
+            mHandler.removeCallbacks(retry);
+            mPendingRetries.remove(pSIMSubId);
+        }
+    }
+
+    private void onRetryDue(int pSIMSubId) {
+        synchronized (this) {
+            mPendingRetries.remove(pSIMSubId);
+            Entry entry = mEntries.get(pSIMSubId);
+            if (entry != null) {
+                entry.mRetryScheduled = false;
+                entry.mUpdateTimeMs = mClock.getAsLong();
+                save(pSIMSubId, entry);
+            }
+        }
+        mListener.onRetryDue(pSIMSubId);
+    }
+}
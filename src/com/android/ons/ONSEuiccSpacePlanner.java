@@ -0,0 +1,200 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.ons;
+
+import android.content.SharedPreferences;
+import android.telephony.SubscriptionInfo;
+import android.util.ArraySet;
+import android.util.Log;
+import android.util.SparseLongArray;
+
+import com.android.internal.annotations.VisibleForTesting;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.IntPredicate;
+import java.util.function.LongSupplier;
+
+/**
+ * @class ONSEuiccSpacePlanner
+ * @brief Tracks when opportunistic eSIM profiles were last in use and chooses which of them to
+ * delete when the eUICC is out of memory.
+ *
+ * A profile is in use while it is active. Its last use time is updated on every subscription
+ * change while it is active and when it becomes inactive, and kept in SharedPreferences.
+ */
+public class ONSEuiccSpacePlanner {
+
+    private static final String TAG = ONSEuiccSpacePlanner.class.getName();
+    @VisibleForTesting protected static final String PREF_NAME = "ons_esim_usage";
+    private static final String KEY_PREFIX = "used_";
+
+    private final SharedPreferences mPrefs;
+    private final LongSupplier mClock;
+    /* last use time by subscription id, 0 if the profile was never seen active */
+    private final SparseLongArray mLastUseTimes = new SparseLongArray();
+    private final Set<Integer> mActiveSubIds = new ArraySet<>();
+
+    /**
+     * @param prefs storage of the last use times, or null to keep them in memory only.
+     */
+    public ONSEuiccSpacePlanner(SharedPreferences prefs) {
+        this(prefs, System::currentTimeMillis);
+    }
+
+    @VisibleForTesting
+    ONSEuiccSpacePlanner(SharedPreferences prefs, LongSupplier clock) {
+        mPrefs = prefs;
+        mClock = clock;
+        load();
+    }
+
+    /**
+     * Updates the last use time of the opportunistic profiles which are active or were active
+     * until now.
+     *
+     * @param activeSubInfos list of active subscriptions, may be null.
+     */
+    public synchronized void updateActiveSubscriptions(List<SubscriptionInfo> activeSubInfos) {
+        Set<Integer> active = new ArraySet<>();
+        if (activeSubInfos != null) {
+            for (int i = 0; i < activeSubInfos.size(); i++) {
+                SubscriptionInfo subInfo = activeSubInfos.get(i);
+                if (subInfo != null && subInfo.isOpportunistic()) {
+                    active.add(subInfo.getSubscriptionId());
+                }
+            }
+        }
+
+        long now = mClock.getAsLong();
+        SharedPreferences.Editor editor = mPrefs == null ? null : mPrefs.edit();
+        for (int subId : mActiveSubIds) {
+            markUsed(subId, now, editor);
+        }
+        for (int subId : active) {
+            markUsed(subId, now, editor);
+        }
+        if (editor != null) {
+            editor.apply();
+        }
+        mActiveSubIds.clear();
+        mActiveSubIds.addAll(active);
+    }
+
+    /**
+     * Forgets a deleted profile.
+     */
+    public synchronized void forget(int subId) {
+        mLastUseTimes.delete(subId);
+        mActiveSubIds.remove(subId);
+        if (mPrefs != null) {
+            mPrefs.edit().remove(KEY_PREFIX + subId).apply();
+        }
+    }
+
+    /**
+     * @return last use time of the profile, 0 if it was never seen active.
+     */
+    public synchronized long getLastUseTime(int subId) {
+        return mLastUseTimes.get(subId, 0);
+    }
+
+    /**
+     * Chooses the profiles to delete to make room for a new opportunistic eSIM.
+     *
+     * Profiles of the operator being downloaded again are deleted first, active or not, since the
+     * download replaces them. Inactive profiles of other operators follow, least recently used
+     * first. Active profiles of other operators are never chosen.
+     *
+     * @param opportunisticSubInfos opportunistic subscriptions on the device.
+     * @param replacedSubIds subscriptions of the operator being downloaded, may be null.
+     * @param isActive tells if a subscription is active.
+     * @param maxCount maximum number of profiles to delete.
+     * @return subscription ids to delete, in deletion order.
+     */
+    public synchronized List<Integer> planReclamation(List<SubscriptionInfo> opportunisticSubInfos,
+            List<Integer> replacedSubIds, IntPredicate isActive, int maxCount) {
+        List<Integer> replaced = new ArrayList<>();
+        List<Integer> inactive = new ArrayList<>();
+        if (replacedSubIds != null) {
+            for (int subId : replacedSubIds) {
+                if (!replaced.contains(subId)) {
+                    replaced.add(subId);
+                }
+            }
+        }
+        if (opportunisticSubInfos != null) {
+            for (int i = 0; i < opportunisticSubInfos.size(); i++) {
+                SubscriptionInfo subInfo = opportunisticSubInfos.get(i);
+                if (subInfo == null) {
+                    continue;
+                }
+                int subId = subInfo.getSubscriptionId();
+                if (!replaced.contains(subId) && !inactive.contains(subId)
+                        && !isActive.test(subId)) {
+                    inactive.add(subId);
+                }
+            }
+        }
+
+        sortByLastUse(replaced);
+        sortByLastUse(inactive);
+        List<Integer> plan = new ArrayList<>(replaced);
+        plan.addAll(inactive);
+        if (plan.size() > maxCount) {
+            plan = new ArrayList<>(plan.subList(0, Math.max(0, maxCount)));
+        }
+        Log.d(TAG, "Reclamation plan:" + plan + " candidates:"
+                + (replaced.size() + inactive.size()));
+        return plan;
+    }
+
+    private void sortByLastUse(List<Integer> subIds) {
+        Collections.sort(subIds, (a, b) -> {
+            int res = Long.compare(mLastUseTimes.get(a, 0), mLastUseTimes.get(b, 0));
+            return res != 0 ? res : Integer.compare(a, b);
+        });
+    }
+
+    private void markUsed(int subId, long now, SharedPreferences.Editor editor) {
+        mLastUseTimes.put(subId, now);
+        if (editor != null) {
+            editor.putLong(KEY_PREFIX + subId, now);
+        }
+    }
+
+    private void load() {
+        if (mPrefs == null) {
+            return;
+        }
+        for (Map.Entry<String, ?> pref : mPrefs.getAll().entrySet()) {
+            String key = pref.getKey();
+            if (!key.startsWith(KEY_PREFIX) || !(pref.getValue() instanceof Long)) {
+                continue;
+            }
+            try {
+                mLastUseTimes.put(Integer.parseInt(key.substring(KEY_PREFIX.length())),
+                        (Long) pref.getValue());
+            } catch (NumberFormatException e) {
+                Log.e(TAG, "Invalid profile usage entry " + key);
+            }
+        }
+    }
+}
@@ -0,0 +1,273 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.ons;
+
+import android.os.Handler;
+import android.telephony.CellInfo;
+import android.telephony.CellSignalStrengthLte;
+import android.telephony.CellSignalStrengthNr;
+import android.telephony.SignalStrength;
+import android.telephony.SubscriptionManager;
+import android.telephony.TelephonyCallback;
+import android.telephony.TelephonyManager;
+import android.util.Log;
+
+import com.android.internal.annotations.VisibleForTesting;
+
+import java.io.PrintWriter;
+
+/**
+ * @class ONSLinkQualityMonitor
+ * @brief Watches the link of the opportunistic subscription preferred for data, and tells when it
+ * is no longer usable so that data can go back to the default subscription.
+ *
+ * The link is lost when the signal of the serving cell stays below the exit thresholds, or when
+ * data stalls: the data connection drops after having been up, or packets are only sent and
+ * never received. A condition must last for the grace interval before the listener is notified,
+ * so that short fades do not bounce data between subscriptions.
+ */
+public class ONSLinkQualityMonitor {
+
+    private static final String TAG = ONSLinkQualityMonitor.class.getName();
+
+    public static final int REASON_WEAK_SIGNAL = 1;
+    public static final int REASON_DATA_STALL = 2;
+
+    /**
+     * Listener called on the monitor handler.
+     */
+    public interface Listener {
+        /**
+         * Called once the link of subId has been unusable for the grace interval. Monitoring
+         * stops before the call.
+         *
+         * @param reason REASON_WEAK_SIGNAL or REASON_DATA_STALL.
+         */
+        void onLinkLost(int subId, int reason);
+    }
+
+    private final Handler mHandler;
+    private final long mGraceIntervalMs;
+    private final Listener mListener;
+    private final Runnable mLinkLostRunnable = this::onLinkLost;
+    private TelephonyManager mTelephonyManager;
+    private int mSubId = SubscriptionManager.INVALID_SUBSCRIPTION_ID;
+    private int mExitRsrp;
+    private int mExitSsRsrp;
+    private boolean mSignalWeak;
+    private boolean mDataConnected;
+    private boolean mDataLost;
+    private boolean mSendOnly;
+    private int mLinkLossCount;
+
+    @VisibleForTesting
+    protected final TelephonyCallback mTelephonyCallback = new LinkCallback();
+
+    private class LinkCallback extends TelephonyCallback implements
+            TelephonyCallback.SignalStrengthsListener,
+            TelephonyCallback.DataConnectionStateListener,
+            TelephonyCallback.DataActivityListener {
+        @Override
+        public void onSignalStrengthsChanged(SignalStrength signalStrength) {
+            updateSignalStrength(signalStrength);
+        }
+
+        @Override
+        public void onDataConnectionStateChanged(int state, int networkType) {
+            updateDataConnectionState(state);
+        }
+
+        @Override
+        public void onDataActivity(int direction) {
+            updateDataActivity(direction);
+        }
+    }
+
+    /**
+     * @param graceIntervalMs time the link must stay unusable before the listener is notified.
+     */
+    public ONSLinkQualityMonitor(Handler handler, long graceIntervalMs, Listener listener) {
+        mHandler = handler;
+        mGraceIntervalMs = graceIntervalMs;
+        mListener = listener;
+    }
+
+    /**
+     * Starts monitoring the link of a subscription, replacing the subscription monitored so far.
+     *
+     * @param telephonyManager bound to subId.
+     * @param exitRsrp RSRP below which an LTE cell is unusable.
+     * @param exitSsRsrp SS-RSRP below which an NR cell is unusable.
+     */
+    public void start(int subId, TelephonyManager telephonyManager, int exitRsrp,
+            int exitSsRsrp) {
+        synchronized (this) {
+            if (mSubId == subId) {
+                return;
+            }
+            stopLocked();
+            if (telephonyManager == null) {
+                return;
+            }
+            try {
+                telephonyManager.registerTelephonyCallback(mHandler::post, mTelephonyCallback);
+            } catch (SecurityException | IllegalStateException e) {
+                Log.e(TAG, "cannot monitor the link of sub " + subId + " " + e);
+                return;
+            }
+            Log.d(TAG, "Monitoring sub " + subId + " exitRsrp=" + exitRsrp
+                    + " exitSsRsrp=" + exitSsRsrp);
+            mTelephonyManager = telephonyManager;
+            mSubId = subId;
+            mExitRsrp = exitRsrp;
+            mExitSsRsrp = exitSsRsrp;
+        }
+    }
+
+    /**
+     * Stops monitoring.
+     */
+    public void stop() {
+        synchronized (this) {
+            stopLocked();
+        }
+    }
+
+    /**
+     * @return the monitored subscription, or INVALID_SUBSCRIPTION_ID.
+     */
+    public synchronized int getMonitoredSubId() {
+        return mSubId;
+    }
+
+    /**
+     * Print the monitor state.
+     */
+    public synchronized void dump(PrintWriter pw) {
+        pw.println("  link quality: subId=" + mSubId + " signalWeak=" + mSignalWeak
+                + " dataLost=" + mDataLost + " sendOnly=" + mSendOnly
+                + " linkLosses=" + mLinkLossCount);
+    }
+
+    private void stopLocked() {
+        if (mTelephonyManager != null) {
+            mTelephonyManager.unregisterTelephonyCallback(mTelephonyCallback);
+            mTelephonyManager = null;
+        }
+        mHandler.removeCallbacks(mLinkLostRunnable);
+        mSubId = SubscriptionManager.INVALID_SUBSCRIPTION_ID;
+        mSignalWeak = false;
+        mDataConnected = false;
+        mDataLost = false;
+        mSendOnly = false;
+    }
+
+    @VisibleForTesting
+    void updateSignalStrength(SignalStrength signalStrength) {
+        synchronized (this) {
+            if (mSubId == SubscriptionManager.INVALID_SUBSCRIPTION_ID) {
+                return;
+            }
+            mSignalWeak = isSignalWeakLocked(signalStrength);
+            updateLinkStateLocked();
+        }
+    }
+
+    @VisibleForTesting
+    void updateDataConnectionState(int state) {
+        synchronized (this) {
+            if (mSubId == SubscriptionManager.INVALID_SUBSCRIPTION_ID) {
+                return;
+            }
+            /* the data connection may still be coming up right after the switch */
+            if (state == TelephonyManager.DATA_CONNECTED) {
+                mDataConnected = true;
+                mDataLost = false;
+            } else if (mDataConnected) {
+                mDataLost = true;
+            }
+            updateLinkStateLocked();
+        }
+    }
+
+    @VisibleForTesting
+    void updateDataActivity(int direction) {
+        synchronized (this) {
+            if (mSubId == SubscriptionManager.INVALID_SUBSCRIPTION_ID || !mDataConnected) {
+                return;
+            }
+            /* sending without receiving anything back is how a stalled link looks */
+            mSendOnly = direction == TelephonyManager.DATA_ACTIVITY_OUT;
+            updateLinkStateLocked();
+        }
+    }
+
+    /**
+     * @return true if every reported LTE or NR cell is below its exit threshold. A signal
+     *         without any reported cell is not weak, losing service drops the data connection.
+     */
+    private boolean isSignalWeakLocked(SignalStrength signalStrength) {
+        boolean reported = false;
+        for (CellSignalStrengthLte lte
+                : signalStrength.getCellSignalStrengths(CellSignalStrengthLte.class)) {
+            int rsrp = lte.getRsrp();
+            if (rsrp == CellInfo.UNAVAILABLE) {
+                continue;
+            }
+            if (rsrp >= mExitRsrp) {
+                return false;
+            }
+            reported = true;
+        }
+        for (CellSignalStrengthNr nr
+                : signalStrength.getCellSignalStrengths(CellSignalStrengthNr.class)) {
+            int ssRsrp = nr.getSsRsrp();
+            if (ssRsrp == CellInfo.UNAVAILABLE) {
+                continue;
+            }
+            if (ssRsrp >= mExitSsRsrp) {
+                return false;
+            }
+            reported = true;
+        }
+        return reported;
+    }
+
+    private void updateLinkStateLocked() {
+        if (!mSignalWeak && !mDataLost && !mSendOnly) {
+            mHandler.removeCallbacks(mLinkLostRunnable);
+        } else if (!mHandler.hasCallbacks(mLinkLostRunnable)) {
+            mHandler.postDelayed(mLinkLostRunnable, mGraceIntervalMs);
+        }
+    }
+
+    private void onLinkLost() {
+        int subId;
+        int reason;
+        synchronized (this) {
+            if (mSubId == SubscriptionManager.INVALID_SUBSCRIPTION_ID) {
+                return;
+            }
+            subId = mSubId;
+            reason = mDataLost || mSendOnly ? REASON_DATA_STALL : REASON_WEAK_SIGNAL;
+            Log.d(TAG, "Link of sub " + subId + " lost, reason " + reason);
+            mLinkLossCount++;
+            stopLocked();
+        }
+        mListener.onLinkLost(subId, reason);
+    }
+}
@@ -27,7 +27,6 @@ import android.telephony.CarrierConfigManager;
 import android.telephony.CellInfo;
 import android.telephony.CellInfoLte;
 import android.telephony.CellInfoNr;
-import android.telephony.CellSignalStrengthNr;
 import android.telephony.NetworkScan;
 import android.telephony.NetworkScanRequest;
 import android.telephony.RadioAccessSpecifier;
@@ -40,7 +39,9 @@ import com.android.telephony.Rlog;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
@@ -56,12 +57,17 @@ public class ONSNetworkScanCtlr {
     private static final int SEARCH_PERIODICITY_FAST = (int) TimeUnit.MINUTES.toSeconds(1);
     private static final int MAX_SEARCH_TIME = (int) TimeUnit.MINUTES.toSeconds(1);
     private static final int SCAN_RESTART_TIME = (int) TimeUnit.MINUTES.toMillis(1);
+    /* restart delays used when the coverage map has history for the serving cell */
+    private static final int SCAN_RESTART_TIME_COVERAGE = (int) TimeUnit.SECONDS.toMillis(10);
+    private static final int SCAN_RESTART_TIME_NO_COVERAGE = (int) TimeUnit.MINUTES.toMillis(10);
+    private static final int COVERAGE_MAP_PERSIST_DELAY = (int) TimeUnit.SECONDS.toMillis(30);
     private final Object mLock = new Object();
 
     /* message  to handle scan responses from modem */
     private static final int MSG_SCAN_RESULTS_AVAILABLE = 1;
     private static final int MSG_SCAN_COMPLETE = 2;
     private static final int MSG_SCAN_ERROR = 3;
+    private static final int MSG_PERSIST_COVERAGE_MAP = 4;
 
     private Boolean mIs4gScanEnabled = null;
 
@@ -89,6 +95,18 @@ public class ONSNetworkScanCtlr {
     private CarrierConfigManager configManager;
     private int mRsrpEntryThreshold;
     private int mSsRsrpEntryThreshold;
+    /* signal quality thresholds of the opportunistic subscription by requested PLMN */
+    private Map<String, ONSSignalQualityPolicy> mSignalQualityPolicies = new HashMap<>();
+    private final ONSSignalQualityPolicy mDefaultSignalQualityPolicy =
+            new ONSSignalQualityPolicy(null);
+    @VisibleForTesting
+    protected ONSCellCoverageMap mCoverageMap;
+    /* fingerprint of the serving cell when the current scan was started */
+    private long mServingCellFingerprint = ONSCellCoverageMap.INVALID_FINGERPRINT;
+    private int mCoveragePrediction = ONSCellCoverageMap.PREDICTION_UNKNOWN;
+    @VisibleForTesting
+    protected boolean mQualifyingCellFound;
+    private ONSDecisionJournal mDecisionJournal;
     @VisibleForTesting
     protected NetworkAvailableCallBack mNetworkAvailableCallBack;
     HandlerThread mThread;
@@ -113,7 +131,7 @@ public class ONSNetworkScanCtlr {
         public void onComplete() {
             logDebug("Scan completed!");
             Message message = Message.obtain(mHandler, MSG_SCAN_COMPLETE, NetworkScan.SUCCESS);
-            mHandler.sendMessageDelayed(message, SCAN_RESTART_TIME);
+            mHandler.sendMessageDelayed(message, getScanRestartDelay());
         }
 
         @Override
@@ -139,6 +157,13 @@ public class ONSNetworkScanCtlr {
          * @param error
          */
         void onError(int error);
+
+        /**
+         * Called when a scan completed, before the next periodic scan is started. The scan is
+         * not restarted if it is stopped from this callback.
+         */
+        default void onScanComplete() {
+        }
     }
 
     private PersistableBundle getConfigBundle() {
@@ -159,6 +184,31 @@ public class ONSNetworkScanCtlr {
         }
     }
 
+    /**
+     * Read the signal quality thresholds of each opportunistic subscription, falling back to the
+     * thresholds of the default subscription if the opportunistic one has none.
+     */
+    private Map<String, ONSSignalQualityPolicy> createSignalQualityPolicies(
+            ArrayList<AvailableNetworkInfo> availableNetworks) {
+        PersistableBundle defaultConfig = getConfigBundle();
+        String[] defaultTable = defaultConfig == null ? null : defaultConfig.getStringArray(
+                ONSSignalQualityPolicy.KEY_SIGNAL_QUALITY_THRESHOLDS_STRING_ARRAY);
+        Map<String, ONSSignalQualityPolicy> policies = new HashMap<>();
+        for (AvailableNetworkInfo availableNetwork : availableNetworks) {
+            PersistableBundle config = configManager == null
+                    ? null : configManager.getConfigForSubId(availableNetwork.getSubId());
+            String[] table = config == null ? null : config.getStringArray(
+                    ONSSignalQualityPolicy.KEY_SIGNAL_QUALITY_THRESHOLDS_STRING_ARRAY);
+            ONSSignalQualityPolicy policy =
+                    new ONSSignalQualityPolicy(table != null ? table : defaultTable);
+            /* the first subscription requesting a PLMN decides its thresholds */
+            for (String mccMnc : availableNetwork.getMccMncs()) {
+                policies.putIfAbsent(mccMnc, policy);
+            }
+        }
+        return policies;
+    }
+
     private boolean getBooleanCarrierConfig(String key) {
         PersistableBundle b = getConfigBundle();
         if (b != null) {
@@ -178,38 +228,130 @@ public class ONSNetworkScanCtlr {
         if (!mIsScanActive || results == null) {
           return;
         }
+        if (mDecisionJournal != null) {
+            mDecisionJournal.logScanBatch(results);
+        }
         List<CellInfo> filteredResults = new ArrayList<CellInfo>();
         mIs4gScanEnabled = getIs4gScanEnabled();
         synchronized (mLock) {
             for (CellInfo cellInfo : results) {
-                if (mMccMncs.contains(getMccMnc(cellInfo))) {
+                String mccMnc = getMccMnc(cellInfo);
+                if (mMccMncs.contains(mccMnc)) {
+                    ONSSignalQualityPolicy policy = mSignalQualityPolicies.getOrDefault(mccMnc,
+                            mDefaultSignalQualityPolicy);
+                    int rsrp = ONSSignalQualityPolicy.getRsrp(cellInfo);
                     if (cellInfo instanceof CellInfoNr) {
-                        CellInfoNr nrCellInfo = (CellInfoNr) cellInfo;
-                        int ssRsrp = ((CellSignalStrengthNr) nrCellInfo.getCellSignalStrength())
-                                .getSsRsrp();
-                        logDebug("cell info ssRsrp: " + ssRsrp);
-                        if (ssRsrp >= mSsRsrpEntryThreshold) {
+                        logDebug("cell info ssRsrp: " + rsrp);
+                        if (policy.isQualified(cellInfo, mSsRsrpEntryThreshold)) {
                             filteredResults.add(cellInfo);
+                            recordQualifyingCellLocked(cellInfo, rsrp);
                         }
                     }
                     if (mIs4gScanEnabled && cellInfo instanceof CellInfoLte) {
-                        int rsrp = ((CellInfoLte) cellInfo).getCellSignalStrength().getRsrp();
                         logDebug("cell info rsrp: " + rsrp);
-                        if (rsrp >= mRsrpEntryThreshold) {
+                        if (policy.isQualified(cellInfo, mRsrpEntryThreshold)) {
                             filteredResults.add(cellInfo);
+                            recordQualifyingCellLocked(cellInfo, rsrp);
                         }
                     }
                 }
             }
         }
+        /* best cells first, the profile selector keeps this order within a signal level */
+        filteredResults.sort(ONSSignalQualityPolicy::compareQuality);
         if ((filteredResults.size() >= 1) && (mNetworkAvailableCallBack != null)) {
             /* Todo: change to aggregate results on success. */
             mNetworkAvailableCallBack.onNetworkAvailability(filteredResults);
         }
     }
 
+    private void recordQualifyingCellLocked(CellInfo cellInfo, int rsrp) {
+        mQualifyingCellFound = true;
+        mCoverageMap.recordQualifyingCell(mServingCellFingerprint, getMccMnc(cellInfo), rsrp);
+        schedulePersistCoverageMap();
+    }
+
+    private void onScanComplete() {
+        logScanEvent(ONSDecisionJournal.SCAN_EVENT_COMPLETE, 0);
+        synchronized (mLock) {
+            if (mIsScanActive && !mQualifyingCellFound) {
+                mCoverageMap.recordEmptyScan(mServingCellFingerprint);
+                schedulePersistCoverageMap();
+            }
+        }
+        if (mNetworkAvailableCallBack != null) {
+            mNetworkAvailableCallBack.onScanComplete();
+        }
+        restartScan();
+    }
+
+    private void schedulePersistCoverageMap() {
+        if (!mHandler.hasMessages(MSG_PERSIST_COVERAGE_MAP)) {
+            mHandler.sendEmptyMessageDelayed(MSG_PERSIST_COVERAGE_MAP,
+                    COVERAGE_MAP_PERSIST_DELAY);
+        }
+    }
+
+    private int getScanRestartDelay() {
+        synchronized (mLock) {
+            switch (mCoveragePrediction) {
+                case ONSCellCoverageMap.PREDICTION_COVERAGE:
+                    return SCAN_RESTART_TIME_COVERAGE;
+                case ONSCellCoverageMap.PREDICTION_NO_COVERAGE:
+                    return SCAN_RESTART_TIME_NO_COVERAGE;
+                default:
+                    return SCAN_RESTART_TIME;
+            }
+        }
+    }
+
+    /**
+     * Read the cells of the default subscription, without holding mLock as this is an IPC.
+     */
+    private List<CellInfo> getServingCellInfos() {
+        try {
+            return mTelephonyManager.getAllCellInfo();
+        } catch (SecurityException | IllegalStateException e) {
+            logDebug("cannot read serving cell " + e);
+            return null;
+        }
+    }
+
+    /**
+     * Fingerprint the serving cell of the default subscription and look up the coverage history
+     * for the requested networks at that location.
+     */
+    private void updateCoveragePredictionLocked(List<CellInfo> cellInfos, List<String> mccMncs) {
+        long fingerprint = ONSCellCoverageMap.computeFingerprint(cellInfos);
+        setCoveragePredictionLocked(fingerprint, mCoverageMap.predict(fingerprint, mccMncs));
+    }
+
+    /**
+     * Start tracking the coverage of a new scan started at the given serving cell.
+     */
+    private void setCoveragePredictionLocked(long fingerprint, int prediction) {
+        mServingCellFingerprint = fingerprint;
+        mCoveragePrediction = prediction;
+        mQualifyingCellFound = false;
+        logDebug("coverage prediction " + mCoveragePrediction + " for cell fingerprint "
+                + Long.toHexString(mServingCellFingerprint));
+    }
+
+    private static int getSearchPeriodicity(int prediction) {
+        return prediction == ONSCellCoverageMap.PREDICTION_NO_COVERAGE
+                ? SEARCH_PERIODICITY_SLOW : SEARCH_PERIODICITY_FAST;
+    }
+
+    private static NetworkScanRequest withSearchPeriodicity(NetworkScanRequest request,
+            int periodicity) {
+        return new NetworkScanRequest(request.getScanType(), request.getSpecifiers(),
+                periodicity, request.getMaxSearchTime(), request.getIncrementalResults(),
+                request.getIncrementalResultsPeriodicity(), request.getPlmns());
+    }
+
     private void invalidateScanOnError(int error) {
         logDebug("scan invalidated on error");
+        logScanEvent(ONSDecisionJournal.SCAN_EVENT_ERROR, error);
         if (mNetworkAvailableCallBack != null) {
             mNetworkAvailableCallBack.onError(error);
         }
@@ -247,12 +389,15 @@ public class ONSNetworkScanCtlr {
                         break;
                     case MSG_SCAN_COMPLETE:
                         logDebug("Msg received for scan complete");
-                        restartScan();
+                        onScanComplete();
                         break;
                     case MSG_SCAN_ERROR:
                         logDebug("Msg received for scan error");
                         invalidateScanOnError((int) msg.obj);
                         break;
+                    case MSG_PERSIST_COVERAGE_MAP:
+                        mCoverageMap.persistIfNeeded();
+                        break;
                     default:
                         log("invalid message");
                         break;
@@ -263,6 +408,22 @@ public class ONSNetworkScanCtlr {
         mNetworkAvailableCallBack = networkAvailableCallBack;
         configManager = (CarrierConfigManager) context.getSystemService(
                 Context.CARRIER_CONFIG_SERVICE);
+        mCoverageMap = new ONSCellCoverageMap(context.createDeviceProtectedStorageContext());
+        mHandler.post(() -> mCoverageMap.load());
+    }
+
+    /**
+     * Set the journal which records scan results and scan life cycle events.
+     * @param decisionJournal journal or null to stop journaling.
+     */
+    public void setDecisionJournal(ONSDecisionJournal decisionJournal) {
+        mDecisionJournal = decisionJournal;
+    }
+
+    private void logScanEvent(int event, int arg) {
+        if (mDecisionJournal != null) {
+            mDecisionJournal.logScanEvent(event, arg);
+        }
     }
 
     /* get mcc mnc from cell info if the cell is for LTE */
@@ -369,17 +530,37 @@ public class ONSNetworkScanCtlr {
 
     /**
      * start less interval network scan
+     *
+     * The scan falls back to the slow periodicity if the coverage history of the serving cell
+     * says that none of the requested networks are available at the current location.
      * @param availableNetworks list of subscriptions for which the scanning needs to be started.
      * @return true if successfully accepted request.
      */
     public boolean startFastNetworkScan(ArrayList<AvailableNetworkInfo> availableNetworks) {
+        ArrayList<String> mccMncs = new ArrayList<String>();
+        for (AvailableNetworkInfo availableNetwork : availableNetworks) {
+            mccMncs.addAll(availableNetwork.getMccMncs());
+        }
+        Map<String, ONSSignalQualityPolicy> signalQualityPolicies =
+                createSignalQualityPolicies(availableNetworks);
+        long fingerprint = ONSCellCoverageMap.computeFingerprint(getServingCellInfos());
+        int prediction;
+        synchronized (mLock) {
+            mSignalQualityPolicies = signalQualityPolicies;
+            prediction = mCoverageMap.predict(fingerprint, mccMncs);
+        }
         NetworkScanRequest networkScanRequest = createNetworkScanRequest(availableNetworks,
-                SEARCH_PERIODICITY_FAST);
-        return startNetworkScan(networkScanRequest);
+                getSearchPeriodicity(prediction));
+        return startNetworkScan(networkScanRequest, fingerprint, prediction);
     }
 
 
-    private boolean startNetworkScan(NetworkScanRequest networkScanRequest) {
+    /**
+     * @param fingerprint serving cell fingerprint the request was built for.
+     * @param prediction coverage prediction the request was built for.
+     */
+    private boolean startNetworkScan(NetworkScanRequest networkScanRequest, long fingerprint,
+            int prediction) {
         NetworkScan networkScan;
         synchronized (mLock) {
             /* if the request is same as existing one, then make sure to not proceed */
@@ -389,6 +570,7 @@ public class ONSNetworkScanCtlr {
 
             /* Need to stop current scan if we already have one */
             stopNetworkScan();
+            setCoveragePredictionLocked(fingerprint, prediction);
 
             /* user lower threshold to enable modem stack */
             mRsrpEntryThreshold =
@@ -406,21 +588,36 @@ public class ONSNetworkScanCtlr {
             mIsScanActive = true;
             mCurrentScanRequest = networkScanRequest;
         }
+        logScanEvent(ONSDecisionJournal.SCAN_EVENT_START,
+                networkScanRequest.getSearchPeriodicity());
 
         logDebug("startNetworkScan " + networkScanRequest);
         return true;
     }
 
-    private void restartScan() {
+    @VisibleForTesting
+    void restartScan() {
         NetworkScan networkScan;
+        int periodicity;
         logDebug("restartScan");
+        /* device may have moved since the last scan */
+        List<CellInfo> cellInfos = getServingCellInfos();
         synchronized (mLock) {
-            if (mCurrentScanRequest != null) {
-                networkScan = mTelephonyManager.requestNetworkScan(mCurrentScanRequest,
-                        mNetworkScanCallback);
-                mIsScanActive = true;
+            if (mCurrentScanRequest == null) {
+                return;
             }
+            updateCoveragePredictionLocked(cellInfos, mMccMncs);
+            periodicity = getSearchPeriodicity(mCoveragePrediction);
+            if (mCurrentScanRequest.getSearchPeriodicity() != periodicity) {
+                logDebug("search periodicity changed to " + periodicity);
+                mCurrentScanRequest = withSearchPeriodicity(mCurrentScanRequest, periodicity);
+            }
+            networkScan = mTelephonyManager.requestNetworkScan(mCurrentScanRequest,
+                    mNetworkScanCallback);
+            mCurrentScan = networkScan;
+            mIsScanActive = true;
         }
+        logScanEvent(ONSDecisionJournal.SCAN_EVENT_START, periodicity);
     }
 
     /**
@@ -438,6 +635,7 @@ public class ONSNetworkScanCtlr {
                 mIsScanActive = false;
                 mCurrentScan = null;
                 mCurrentScanRequest = null;
+                logScanEvent(ONSDecisionJournal.SCAN_EVENT_STOP, 0);
             }
         }
     }
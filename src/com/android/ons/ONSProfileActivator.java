@@ -19,9 +19,6 @@ package com.android.ons;
 import android.annotation.TestApi;
 import android.content.Context;
 import android.net.ConnectivityManager;
-import android.net.Network;
-import android.net.NetworkCapabilities;
-import android.net.NetworkRequest;
 import android.os.Handler;
 import android.os.Looper;
 import android.os.Message;
@@ -32,14 +29,19 @@ import android.telephony.SubscriptionInfo;
 import android.telephony.SubscriptionManager;
 import android.telephony.TelephonyManager;
 import android.telephony.euicc.EuiccManager;
+import android.util.ArraySet;
 import android.util.Log;
+import android.util.SparseArray;
 
 import com.android.internal.annotations.VisibleForTesting;
 import com.android.ons.ONSProfileDownloader.DownloadRetryResultCode;
 
+import java.io.PrintWriter;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Random;
+import java.util.Set;
 
 /**
  * @class ONSProfileActivator
@@ -61,9 +63,37 @@ public class ONSProfileActivator implements ONSProfileConfigurator.ONSProfConfig
     private final ONSStats mONSStats;
     @VisibleForTesting protected boolean mIsInternetConnAvailable = false;
     @VisibleForTesting protected boolean mRetryDownloadWhenNWConnected = false;
+    /* primary subscription whose download waits for a network */
+    private int mRetryDownloadSubId = SubscriptionManager.INVALID_SUBSCRIPTION_ID;
     @VisibleForTesting protected int mDownloadRetryCount = 0;
 
-    @VisibleForTesting protected static final int REQUEST_CODE_DOWNLOAD_RETRY = 2;
+    private static final int MSG_EVALUATE_PROVISIONING = 3;
+    private static final Random sRandom = new Random();
+    private final ONSDownloadRetryScheduler mRetryScheduler;
+    private final ONSConnectivityTracker mConnectivityTracker;
+    /* maximum number of opportunistic eSIMs deleted at once when the eUICC is full */
+    private static final int DEFAULT_RECLAIM_BATCH_SIZE = 2;
+    private final int mReclaimBatchSize;
+    private final ONSProvisioningFunnel mProvisioningFunnel = new ONSProvisioningFunnel();
+
+    /* Memoized result of provisionCBRS and the inputs it was computed from. */
+    private final Object mEvaluationLock = new Object();
+    private List<Object> mLastFingerprint;
+    private Result mLastResult;
+    /* Bumped on events whose effect is not visible in the inputs, e.g. download results. */
+    private int mGeneration;
+    private int mEvaluationCount;
+    private int mAvoidedEvaluationCount;
+    /*
+     * Inputs of provisionCBRS cached from the subscription change and carrier config change
+     * callbacks, so that building the fingerprint makes no IPC. The subscription inputs are null
+     * and a carrier config entry is missing until read again after a change.
+     */
+    private List<Object> mSubscriptionInputs;
+    private int[] mActiveSubIds;
+    private final SparseArray<List<Object>> mCarrierConfigInputs = new SparseArray<>();
+    /* primary subscriptions with an evaluation queued on mHandler */
+    private final Set<Integer> mPendingEvaluations = new ArraySet<>();
 
     public ONSProfileActivator(Context context, ONSStats onsStats) {
         mContext = context;
@@ -72,16 +102,32 @@ public class ONSProfileActivator implements ONSProfileConfigurator.ONSProfConfig
         mCarrierConfigMgr = mContext.getSystemService(CarrierConfigManager.class);
         mEuiccManager = mContext.getSystemService(EuiccManager.class);
         mONSProfileConfig = new ONSProfileConfigurator(mContext, mSubManager,
-                mCarrierConfigMgr, mEuiccManager, this);
+                mCarrierConfigMgr, mEuiccManager, this, new ONSEuiccSpacePlanner(
+                        mContext.createDeviceProtectedStorageContext().getSharedPreferences(
+                                ONSEuiccSpacePlanner.PREF_NAME, Context.MODE_PRIVATE)));
         mONSProfileDownloader = new ONSProfileDownloader(mContext, mCarrierConfigMgr,
-                mEuiccManager, mONSProfileConfig, this);
+                mEuiccManager, mONSProfileConfig, this,
+                mContext.getResources().getInteger(R.integer.ons_download_max_per_card),
+                mContext.getResources().getInteger(R.integer.ons_download_timeout_ms));
+        mRetryScheduler = new ONSDownloadRetryScheduler(
+                mContext.createDeviceProtectedStorageContext().getSharedPreferences(
+                        ONSDownloadRetryScheduler.PREF_NAME, Context.MODE_PRIVATE),
+                Looper.myLooper(), this::onDownloadRetryDue);
+        mRetryScheduler.resume();
 
         //Monitor internet connection.
         mConnectivityManager = context.getSystemService(ConnectivityManager.class);
         mONSStats = onsStats;
-        NetworkRequest request = new NetworkRequest.Builder().addCapability(
-                NetworkCapabilities.NET_CAPABILITY_VALIDATED).build();
-        mConnectivityManager.registerNetworkCallback(request, new NetworkCallback());
+        mConnectivityTracker = new ONSConnectivityTracker(mConnectivityManager, mHandler,
+                mContext.getResources().getInteger(R.integer.ons_download_network_stable_ms),
+                mConnectivityListener);
+        mConnectivityTracker.start();
+        mReclaimBatchSize = mContext.getResources().getInteger(
+                R.integer.ons_esim_reclaim_batch_size);
+        mONSProfileConfig.setProvisioningFunnel(mProvisioningFunnel);
+        mONSProfileDownloader.setProvisioningFunnel(mProvisioningFunnel);
+        mSubManager.addOnSubscriptionsChangedListener(mHandler::post,
+                mSubscriptionsChangedListener);
     }
 
     /**
@@ -102,6 +148,15 @@ public class ONSProfileActivator implements ONSProfileConfigurator.ONSProfConfig
         mONSProfileConfig = onsProfileConfigurator;
         mONSProfileDownloader = onsProfileDownloader;
         mONSStats = onsStats;
+        mRetryScheduler = new ONSDownloadRetryScheduler(null, Looper.myLooper(),
+                this::onDownloadRetryDue);
+        mConnectivityTracker = new ONSConnectivityTracker(mConnectivityManager, mHandler, 0,
+                mConnectivityListener);
+        mReclaimBatchSize = DEFAULT_RECLAIM_BATCH_SIZE;
+        mONSProfileConfig.setProvisioningFunnel(mProvisioningFunnel);
+        mONSProfileDownloader.setProvisioningFunnel(mProvisioningFunnel);
+        mSubManager.addOnSubscriptionsChangedListener(mHandler::post,
+                mSubscriptionsChangedListener);
     }
 
     ONSProfileConfigurator getONSProfileConfigurator() {
@@ -116,38 +171,312 @@ public class ONSProfileActivator implements ONSProfileConfigurator.ONSProfConfig
         @Override
         public void handleMessage(Message msg) {
             switch (msg.what) {
-                case REQUEST_CODE_DOWNLOAD_RETRY: {
-                    Result res = provisionCBRS();
-                    Log.d(TAG, res.toString());
-                    mONSStats.logEvent(new ONSStatsInfo().setProvisioningResult(res));
+                case MSG_EVALUATE_PROVISIONING: {
+                    synchronized (mPendingEvaluations) {
+                        mPendingEvaluations.remove(msg.arg1);
+                    }
+                    evaluateProvisioning();
                 }
                 break;
             }
         }
     };
 
+    private final SubscriptionManager.OnSubscriptionsChangedListener
+            mSubscriptionsChangedListener =
+                    new SubscriptionManager.OnSubscriptionsChangedListener() {
+                        @Override
+                        public void onSubscriptionsChanged() {
+                            invalidateSubscriptionInputs();
+                        }
+                    };
+
     /**
      * Called when SIM state changes. Triggers CBRS Auto provisioning.
      */
     public Result handleCarrierConfigChange() {
-        Result res = provisionCBRS();
-        Log.d(TAG, res.toString());
-        mONSStats.logEvent(new ONSStatsInfo().setProvisioningResult(res));
+        return handleCarrierConfigChange(SubscriptionManager.INVALID_SUBSCRIPTION_ID);
+    }
+
+    /**
+     * Called when the carrier config of a subscription changes. Triggers CBRS Auto provisioning.
+     *
+     * @param subId subscription whose carrier config changed, or INVALID_SUBSCRIPTION_ID if
+     *        unknown, in which case all cached inputs are read again.
+     */
+    public Result handleCarrierConfigChange(int subId) {
+        List<Object> fingerprint;
+        synchronized (mEvaluationLock) {
+            if (SubscriptionManager.isValidSubscriptionId(subId)) {
+                mCarrierConfigInputs.remove(subId);
+            } else {
+                mCarrierConfigInputs.clear();
+                mSubscriptionInputs = null;
+            }
+            fingerprint = computeChangedFingerprintLocked();
+            if (fingerprint == null) {
+                // Nothing provisionCBRS depends on changed, the attempt in progress goes on.
+                return mLastResult;
+            }
+        }
+        mProvisioningFunnel.start();
+        Result res = runProvisioning(fingerprint);
 
         // Reset mDownloadRetryCount as carrier config change event is received. Either new SIM card
         // is inserted or carrier config values are updated.
         if (res == Result.DOWNLOAD_REQUESTED || res == Result.SUCCESS) {
             mDownloadRetryCount = 0;
+            mRetryScheduler.resetAll();
         }
 
         return res;
     }
 
+    private void onDownloadRetryDue(int pSIMSubId) {
+        // A retry must download again even though the inputs did not change.
+        mDownloadRetryCount = mRetryScheduler.getAttemptCount(pSIMSubId);
+        invalidateEvaluation();
+        evaluateProvisioning();
+    }
+
     @Override
     public void onOppSubscriptionDeleted(int pSIMId) {
+        invalidateEvaluation();
+        scheduleEvaluation(pSIMId);
+    }
+
+    @Override
+    public void onOppSubscriptionDeletionFailed(int pSIMId) {
+        //No room was made for the opportunistic eSIM. Try again after a backoff delay, the retry
+        // downloads and reclaims space again if the eUICC is still full.
+        if (!startBackoffTimer(pSIMId)) {
+            Log.e(TAG, "Unable to reclaim eUICC space. Stopping download");
+        }
+    }
+
+    /**
+     * Runs provisionCBRS unless none of its inputs changed since the previous run, in which case
+     * the previous result is returned. The result is logged only when it is computed.
+     */
+    private Result evaluateProvisioning() {
+        List<Object> fingerprint;
+        synchronized (mEvaluationLock) {
+            fingerprint = computeChangedFingerprintLocked();
+            if (fingerprint == null) {
+                return mLastResult;
+            }
+        }
+        return runProvisioning(fingerprint);
+    }
+
+    /**
+     * @return the fingerprint of the provisioning inputs, or null if they did not change since
+     *         the previous run of provisionCBRS.
+     */
+    private List<Object> computeChangedFingerprintLocked() {
+        List<Object> fingerprint = computeProvisioningFingerprint();
+        if (mLastResult != null && fingerprint.equals(mLastFingerprint)) {
+            mAvoidedEvaluationCount++;
+            Log.d(TAG, "Provisioning inputs unchanged. Result:" + mLastResult);
+            return null;
+        }
+        return fingerprint;
+    }
+
+    /**
+     * Runs provisionCBRS and memoizes its result. provisionCBRS makes subscription and eUICC
+     * IPCs, so it runs without holding mEvaluationLock. Evaluations all run on the looper the
+     * activator was created on.
+     */
+    private Result runProvisioning(List<Object> fingerprint) {
         Result res = provisionCBRS();
+        synchronized (mEvaluationLock) {
+            mEvaluationCount++;
+            mLastFingerprint = fingerprint;
+            mLastResult = res;
+        }
         Log.d(TAG, res.toString());
         mONSStats.logEvent(new ONSStatsInfo().setProvisioningResult(res));
+        updateProvisioningFunnel(res);
+        return res;
+    }
+
+    /**
+     * Records the funnel stage reached by an evaluation, or ends the provisioning attempt if the
+     * result means no opportunistic eSIM will be provisioned.
+     */
+    private void updateProvisioningFunnel(Result res) {
+        switch (res) {
+            case ERR_SWITCHING_TO_DUAL_SIM_MODE:
+                mProvisioningFunnel.markStage(ONSProvisioningFunnel.STAGE_MULTI_SIM_SWITCH);
+                break;
+            case ERR_WAITING_FOR_INTERNET_CONNECTION:
+            case ERR_WAITING_FOR_WIFI_CONNECTION:
+                mProvisioningFunnel.markStage(
+                        ONSProvisioningFunnel.STAGE_WAITING_FOR_CONNECTIVITY);
+                break;
+            case ERR_AUTO_PROVISIONING_DISABLED:
+            case ERR_ESIM_NOT_SUPPORTED:
+            case ERR_MULTISIM_NOT_SUPPORTED:
+            case ERR_CARRIER_DOESNT_SUPPORT_CBRS:
+            case ERR_DUAL_ACTIVE_SUBSCRIPTIONS:
+            case ERR_NO_SIM_INSERTED:
+            case ERR_SINGLE_ACTIVE_OPPORTUNISTIC_SIM:
+            case ERR_CANNOT_SWITCH_TO_DUAL_SIM_MODE:
+            case ERR_INVALID_CARRIER_CONFIG:
+                mProvisioningFunnel.abandon();
+                break;
+            default:
+                break;
+        }
+    }
+
+    /**
+     * Queues an evaluation for the given primary subscription. Triggers received while an
+     * evaluation for the same subscription is queued are coalesced into it.
+     */
+    private void scheduleEvaluation(int pSIMSubId) {
+        synchronized (mPendingEvaluations) {
+            if (!mPendingEvaluations.add(pSIMSubId)) {
+                synchronized (mEvaluationLock) {
+                    mAvoidedEvaluationCount++;
+                }
+                return;
+            }
+        }
+        mHandler.sendMessage(mHandler.obtainMessage(MSG_EVALUATE_PROVISIONING, pSIMSubId, 0));
+    }
+
+    /**
+     * Forces the next evaluation to run provisionCBRS.
+     */
+    private void invalidateEvaluation() {
+        synchronized (mEvaluationLock) {
+            mGeneration++;
+        }
+        invalidateSubscriptionInputs();
+    }
+
+    /**
+     * Subscriptions changed, or are known to change before the callback is delivered, e.g.
+     * after a download.
+     */
+    private void invalidateSubscriptionInputs() {
+        synchronized (mEvaluationLock) {
+            mSubscriptionInputs = null;
+        }
+        mONSProfileConfig.invalidateSubscriptionIndex();
+    }
+
+    /**
+     * Collects every input provisionCBRS depends on: device capabilities, active and available
+     * subscriptions with their carrier ids and groups, the relevant carrier config values and
+     * the connectivity state. Subscription and carrier config inputs are only read again after
+     * their change callbacks; connectivity comes from the connectivity tracker.
+     */
+    @VisibleForTesting
+    protected List<Object> computeProvisioningFingerprint() {
+        List<Object> fingerprint = new ArrayList<>();
+        fingerprint.add(mGeneration);
+        fingerprint.add(mIsInternetConnAvailable);
+        fingerprint.add(mConnectivityTracker.isUnmeteredAvailable());
+        if (mSubscriptionInputs == null) {
+            readSubscriptionInputs();
+        }
+        fingerprint.addAll(mSubscriptionInputs);
+        for (int subId : mActiveSubIds) {
+            List<Object> configInputs = mCarrierConfigInputs.get(subId);
+            if (configInputs == null) {
+                configInputs = readCarrierConfigInputs(subId);
+                mCarrierConfigInputs.put(subId, configInputs);
+            }
+            fingerprint.addAll(configInputs);
+        }
+        return fingerprint;
+    }
+
+    /**
+     * Reads the device capabilities and the subscriptions. A change of the eUICC state or of the
+     * multi-SIM configuration is followed by a subscription change.
+     */
+    private void readSubscriptionInputs() {
+        List<Object> inputs = new ArrayList<>();
+        inputs.add(isONSAutoProvisioningEnabled());
+        inputs.add(isESIMSupported());
+        inputs.add(mTelephonyManager.getSupportedModemCount());
+        inputs.add(mTelephonyManager.getActiveModemCount());
+
+        List<SubscriptionInfo> activeSubInfos = mSubManager.getActiveSubscriptionInfoList();
+        mActiveSubIds = addSubscriptionInputs(inputs, activeSubInfos);
+        addSubscriptionInputs(inputs, mSubManager.getAvailableSubscriptionInfoList());
+        mSubscriptionInputs = inputs;
+    }
+
+    /**
+     * @return ids of the subscriptions added.
+     */
+    private int[] addSubscriptionInputs(List<Object> inputs, List<SubscriptionInfo> subInfos) {
+        if (subInfos == null) {
+            inputs.add(null);
+            return new int[0];
+        }
+        int count = subInfos.size();
+        inputs.add(count);
+        int[] subIds = new int[count];
+        int subIdCount = 0;
+        for (int i = 0; i < count; i++) {
+            SubscriptionInfo subInfo = subInfos.get(i);
+            if (subInfo == null) {
+                inputs.add(null);
+                continue;
+            }
+            int subId = subInfo.getSubscriptionId();
+            subIds[subIdCount++] = subId;
+            inputs.add(subId);
+            inputs.add(subInfo.getCarrierId());
+            inputs.add(subInfo.getGroupUuid());
+            inputs.add(subInfo.isEmbedded());
+            inputs.add(subInfo.isOpportunistic());
+        }
+        return Arrays.copyOf(subIds, subIdCount);
+    }
+
+    private List<Object> readCarrierConfigInputs(int subId) {
+        List<Object> inputs = new ArrayList<>();
+        inputs.add(subId);
+        PersistableBundle config = mCarrierConfigMgr.getConfigForSubId(subId);
+        if (config == null) {
+            inputs.add(null);
+            return inputs;
+        }
+        inputs.add(config.getBoolean(
+                CarrierConfigManager.KEY_CARRIER_SUPPORTS_OPP_DATA_AUTO_PROVISIONING_BOOL));
+        inputs.add(config.getBoolean(
+                CarrierConfigManager.KEY_OPPORTUNISTIC_ESIM_DOWNLOAD_VIA_WIFI_ONLY_BOOL));
+        inputs.add(Arrays.toString(config.getIntArray(
+                CarrierConfigManager.KEY_OPPORTUNISTIC_CARRIER_IDS_INT_ARRAY)));
+        inputs.add(config.getString(CarrierConfigManager.KEY_SMDP_SERVER_ADDRESS_STRING));
+        return inputs;
+    }
+
+    @VisibleForTesting
+    protected int getAvoidedEvaluationCount() {
+        synchronized (mEvaluationLock) {
+            return mAvoidedEvaluationCount;
+        }
+    }
+
+    /**
+     * Print the provisioning evaluation counters.
+     */
+    public void dump(PrintWriter pw) {
+        synchronized (mEvaluationLock) {
+            pw.println("  provisioning evaluations=" + mEvaluationCount
+                    + " avoided=" + mAvoidedEvaluationCount + " lastResult=" + mLastResult);
+        }
+        mConnectivityTracker.dump(pw);
+        mONSProfileDownloader.dump(pw);
+        mProvisioningFunnel.dump(pw);
     }
 
     /**
@@ -233,6 +562,10 @@ public class ONSProfileActivator implements ONSProfileConfigurator.ONSProfConfig
                         if (mSubManager.isActiveSubscriptionId(oppSubInfo.getSubscriptionId())
                                 && oppSubInfo.isOpportunistic()) {
                             //Already configured. No action required.
+                            if (!mProvisioningFunnel.hasReached(
+                                    ONSProvisioningFunnel.STAGE_SET_OPPORTUNISTIC)) {
+                                mProvisioningFunnel.abandon();
+                            }
                             return Result.SUCCESS;
                         }
 
@@ -264,19 +597,28 @@ public class ONSProfileActivator implements ONSProfileConfigurator.ONSProfConfig
             return Result.SUCCESS;
         }
 
+        //A download retry is scheduled, e.g. restored after a restart. Wait for it to avoid
+        // retrying ahead of the backoff delay.
+        if (mRetryScheduler.isRetryPending(primaryCBRSSubInfo.getSubscriptionId())) {
+            Log.d(TAG, "Download retry pending. Download will be attempted after backoff");
+            return Result.ERR_WAITING_FOR_DOWNLOAD_RETRY;
+        }
+
         if (!mIsInternetConnAvailable) {
             Log.d(TAG, "No internet connection. Download will be attempted when "
                     + "connection is restored");
             mRetryDownloadWhenNWConnected = true;
+            mRetryDownloadSubId = primaryCBRSSubInfo.getSubscriptionId();
             return Result.ERR_WAITING_FOR_INTERNET_CONNECTION;
         }
 
-        /* If download WiFi only flag is set and WiFi is not connected */
+        /* If download WiFi only flag is set and no unmetered network is connected */
         if (getESIMDownloadViaWiFiOnlyFlag(primaryCBRSSubInfo.getSubscriptionId())
-                && !isWiFiConnected()) {
+                && !mConnectivityTracker.isUnmeteredAvailable()) {
             Log.d(TAG, "Download via WiFi only flag is set but WiFi is not connected."
                     + "Download will be attempted when WiFi connection is restored");
             mRetryDownloadWhenNWConnected = true;
+            mRetryDownloadSubId = primaryCBRSSubInfo.getSubscriptionId();
             return Result.ERR_WAITING_FOR_WIFI_CONNECTION;
         }
 
@@ -295,6 +637,7 @@ public class ONSProfileActivator implements ONSProfileConfigurator.ONSProfConfig
 
     @Override
     public void onDownloadComplete(int primarySubId) {
+        invalidateEvaluation();
         mRetryDownloadWhenNWConnected = false;
         SubscriptionInfo opportunisticESIM = mONSProfileConfig.findOpportunisticSubscription(
                 primarySubId);
@@ -317,6 +660,7 @@ public class ONSProfileActivator implements ONSProfileConfigurator.ONSProfConfig
                     .setProvisioningResult(Result.SUCCESS)
                     .setRetryCount(mDownloadRetryCount)
                     .setWifiConnected(isWiFiConnected()));
+            mRetryScheduler.reset(primarySubId);
         } else {
             Log.d(TAG, "ESIM downloaded but pSIM is not active or removed");
             mONSStats.logEvent(new ONSStatsInfo()
@@ -329,25 +673,22 @@ public class ONSProfileActivator implements ONSProfileConfigurator.ONSProfConfig
     @Override
     public void onDownloadError(int pSIMSubId, DownloadRetryResultCode resultCode,
             int detailedErrorCode) {
+        invalidateEvaluation();
         boolean logStats = true;
         switch (resultCode) {
             case ERR_MEMORY_FULL: {
                 //eUICC Memory full occurred while downloading opportunistic eSIM.
 
-                //First find and delete any opportunistic eSIMs from the operator same as the
-                // current primary SIM.
-                ArrayList<Integer> oppSubIds = mONSProfileConfig
-                        .getOpportunisticSubIdsofPSIMOperator(pSIMSubId);
-                if (oppSubIds != null && oppSubIds.size() > 0) {
-                    mONSProfileConfig.deleteSubscription(oppSubIds.get(0));
-                } else {
-                    //else, find the inactive opportunistic eSIMs (any operator) and delete one of
-                    // them and retry download again.
-                    mONSProfileConfig.deleteInactiveOpportunisticSubscriptions(pSIMSubId);
+                //Delete a batch of opportunistic eSIMs: first the ones from the operator same as
+                // the current primary SIM, then the least recently used inactive ones (any
+                // operator). All deletions are requested together.
+                if (mONSProfileConfig.reclaimSpace(pSIMSubId, mReclaimBatchSize) == 0) {
+                    Log.d(TAG, "No opportunistic eSIM to delete");
                 }
 
-                //Delete subscription -> onOppSubscriptionDeleted callback ->  provisionCBRS ->
-                // triggers eSIM download again.
+                //Batch deleted -> onOppSubscriptionDeleted callback ->  provisionCBRS ->
+                // triggers eSIM download again. If nothing could be deleted,
+                // onOppSubscriptionDeletionFailed retries after a backoff delay.
 
                 //Download retry will stop if there are no opportunistic eSIM profiles to delete.
             }
@@ -376,6 +717,14 @@ public class ONSProfileActivator implements ONSProfileConfigurator.ONSProfConfig
                 }
             }
             break;
+
+            case ERR_RETRY_DOWNLOAD_IMMEDIATE: {
+                // Retried without delay, but still counted against the maximum attempts.
+                if (startRetryTimer(pSIMSubId, 0)) {
+                    logStats = false;
+                }
+            }
+            break;
             default: {
                 // Stop download until SIM change or device reboot.
                 Log.e(TAG, "Download failed with cause=" + resultCode);
@@ -393,56 +742,38 @@ public class ONSProfileActivator implements ONSProfileConfigurator.ONSProfConfig
 
     /**
      * Called when eSIM download fails. Listener is called after a delay based on retry count with
-     * the error code: BACKOFF_TIMER_EXPIRED
+     * the error code: BACKOFF_TIMER_EXPIRED. The retry schedule is persisted and survives a
+     * restart of the process.
      *
      * @param pSIMSubId Primary Subscription ID
      * @return true if backoff timer starts; otherwise false.
      */
     @VisibleForTesting
     protected boolean startBackoffTimer(int pSIMSubId) {
+        return startRetryTimer(pSIMSubId, getDownloadRetryBackOffTimerVal(pSIMSubId));
+    }
+
+    private boolean startRetryTimer(int pSIMSubId, int backoffTimerSec) {
         //retry logic
-        mDownloadRetryCount++;
+        long delay = mRetryScheduler.scheduleRetry(pSIMSubId,
+                getDownloadRetryMaxAttemptsVal(pSIMSubId), backoffTimerSec);
+        mDownloadRetryCount = mRetryScheduler.getAttemptCount(pSIMSubId);
         Log.e(TAG, "Download retry count :" + mDownloadRetryCount);
 
         //Stop download retry if number of retries exceeded max configured value.
-        if (mDownloadRetryCount > getDownloadRetryMaxAttemptsVal(pSIMSubId)) {
+        if (delay < 0) {
             Log.e(TAG, "Max download retry attempted. Stopping retry");
             return false;
         }
 
-        int backoffTimerVal = getDownloadRetryBackOffTimerVal(pSIMSubId);
-        int delay = calculateBackoffDelay(mDownloadRetryCount, backoffTimerVal);
-
-        Message retryMsg = new Message();
-        retryMsg.what = REQUEST_CODE_DOWNLOAD_RETRY;
-        retryMsg.arg2 = pSIMSubId;
-        mHandler.sendMessageDelayed(retryMsg, delay);
-
         Log.d(TAG, "Download failed. Retry after :" + delay + "MilliSecs");
         return true;
     }
 
     @VisibleForTesting
     protected static int calculateBackoffDelay(int retryCount, int backoffTimerVal) {
-        /**
-         * Timer value is calculated using "Exponential Backoff retry" algorithm.
-         * When the first download failure occurs, retry download after
-         * BACKOFF_TIMER_VALUE [Carrier Configurable] seconds.
-         *
-         * If download fails again then, retry after either BACKOFF_TIMER_VALUE,
-         * 2xBACKOFF_TIMER_VALUE, or 3xBACKOFF_TIMER_VALUE seconds.
-         *
-         * In general after the cth failed attempt, retry after k *
-         * BACKOFF_TIMER_VALUE seconds, where k is a random integer between 1 and
-         * 2^c − 1. Max c value is KEY_ESIM_MAX_DOWNLOAD_RETRY_ATTEMPTS_INT
-         * [Carrier configurable]
-         */
-        Random random = new Random();
-        //Calculate 2^c − 1
-        int maxTime = (int) Math.pow(2, retryCount) - 1;
-
-        //Random value between (1 & 2^c − 1) and convert to millisecond
-        return ((random.nextInt(maxTime) + 1)) * backoffTimerVal * 1000;
+        return ONSDownloadRetryScheduler.calculateBackoffDelay(retryCount, backoffTimerVal,
+                sRandom);
     }
 
     /**
@@ -523,13 +854,7 @@ public class ONSProfileActivator implements ONSProfileConfigurator.ONSProfConfig
     }
 
     private boolean isWiFiConnected() {
-        Network activeNetwork = mConnectivityManager.getActiveNetwork();
-        if ((activeNetwork != null) && mConnectivityManager.getNetworkCapabilities(activeNetwork)
-                .hasTransport(NetworkCapabilities.TRANSPORT_WIFI)) {
-            return true;
-        }
-
-        return false;
+        return mConnectivityTracker.isWiFiConnected();
     }
 
     /**
@@ -544,26 +869,22 @@ public class ONSProfileActivator implements ONSProfileConfigurator.ONSProfConfig
                 CarrierConfigManager.KEY_OPPORTUNISTIC_ESIM_DOWNLOAD_VIA_WIFI_ONLY_BOOL);
     }
 
-    private class NetworkCallback extends ConnectivityManager.NetworkCallback {
-        @Override
-        public void onAvailable(Network network) {
-            super.onAvailable(network);
-            Log.d(TAG, "Internet connection available");
-            mIsInternetConnAvailable = true;
-            if (mRetryDownloadWhenNWConnected) {
-                Result res = provisionCBRS();
-                Log.d(TAG, res.toString());
-                mONSStats.logEvent(new ONSStatsInfo().setProvisioningResult(res));
-            }
-        }
+    private final ONSConnectivityTracker.Listener mConnectivityListener =
+            new ONSConnectivityTracker.Listener() {
+                @Override
+                public void onConnectivityChanged() {
+                    mIsInternetConnAvailable = mConnectivityTracker.isInternetAvailable();
+                    Log.d(TAG, "Internet connection available:" + mIsInternetConnAvailable);
+                }
 
-        @Override
-        public void onLost(Network network) {
-            super.onLost(network);
-            Log.d(TAG, "Internet connection lost");
-            mIsInternetConnAvailable = false;
-        }
-    }
+                @Override
+                public void onNetworkStable() {
+                    //Network flaps shorter than the stable interval do not reach here.
+                    if (mRetryDownloadWhenNWConnected) {
+                        scheduleEvaluation(mRetryDownloadSubId);
+                    }
+                }
+            };
 
     /**
      * Enum to map the results of the CBRS provisioning. The order of the defined enums must be kept
@@ -587,6 +908,7 @@ public class ONSProfileActivator implements ONSProfileConfigurator.ONSProfConfig
         ERR_INVALID_CARRIER_CONFIG,
         ERR_DOWNLOADED_ESIM_NOT_FOUND,
         ERR_PSIM_NOT_FOUND,
-        ERR_UNKNOWN;
+        ERR_UNKNOWN,
+        ERR_WAITING_FOR_DOWNLOAD_RETRY;
     }
 }
@@ -28,12 +28,15 @@ import android.telephony.CarrierConfigManager;
 import android.telephony.SubscriptionInfo;
 import android.telephony.SubscriptionManager;
 import android.telephony.euicc.EuiccManager;
+import android.util.ArraySet;
 import android.util.Log;
 
 import com.android.internal.annotations.VisibleForTesting;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
 
 /**
  * @class ONSProfileConfigurator
@@ -47,6 +50,11 @@ public class ONSProfileConfigurator {
     @VisibleForTesting protected static final String PARAM_REQUEST_TYPE = "REQUEST_TYPE";
     @VisibleForTesting protected static final int REQUEST_CODE_ACTIVATE_SUB = 1;
     @VisibleForTesting protected static final int REQUEST_CODE_DELETE_SUB = 2;
+    /* PendingIntent request codes of batch deletions start here, one per deleted profile */
+    private static final int REQUEST_CODE_BATCH_DELETE_BASE = 100;
+    /* the pending deletions of a batch are abandoned if the LPA has not answered by then */
+    @VisibleForTesting
+    protected static final long BATCH_DELETE_TIMEOUT_MS = TimeUnit.MINUTES.toMillis(2);
     @VisibleForTesting
     protected static final String ACTION_ONS_ESIM_CONFIG = "com.android.ons.action.ESIM_CONFIG";
 
@@ -56,15 +64,34 @@ public class ONSProfileConfigurator {
     private final EuiccManager mEuiccManager;
     private ONSProfConfigListener mONSProfConfigListener = null;
     private final Handler mHandler;
+    private final ONSSubscriptionIndex mSubscriptionIndex = new ONSSubscriptionIndex();
+    private volatile boolean mSubscriptionIndexStale = true;
+    private final ONSEuiccSpacePlanner mSpacePlanner;
+    // Profiles of the ongoing batch deletion which have no result yet.
+    private final Set<Integer> mPendingBatchDeletions = new ArraySet<>();
+    private int mBatchDeletedCount;
+    private int mBatchPSIMSubId;
+    private final Runnable mBatchDeletionTimeout = this::onBatchDeletionTimeout;
+    private int mNextBatchDeleteRequestCode = REQUEST_CODE_BATCH_DELETE_BASE;
+    private ONSProvisioningFunnel mProvisioningFunnel;
 
     public ONSProfileConfigurator(Context context, SubscriptionManager subscriptionManager,
                                   CarrierConfigManager carrierConfigManager,
                                   EuiccManager euiccManager, ONSProfConfigListener listener) {
+        this(context, subscriptionManager, carrierConfigManager, euiccManager, listener,
+                new ONSEuiccSpacePlanner(null));
+    }
+
+    public ONSProfileConfigurator(Context context, SubscriptionManager subscriptionManager,
+                                  CarrierConfigManager carrierConfigManager,
+                                  EuiccManager euiccManager, ONSProfConfigListener listener,
+                                  ONSEuiccSpacePlanner spacePlanner) {
         mContext = context;
         mSubscriptionManager = subscriptionManager;
         mCarrierConfigManager = carrierConfigManager;
         mEuiccManager = euiccManager;
         mONSProfConfigListener = listener;
+        mSpacePlanner = spacePlanner;
 
         mHandler = new Handler(Looper.myLooper()) {
             @Override
@@ -73,6 +100,72 @@ public class ONSProfileConfigurator {
                 callbackMsgHandler(msg);
             }
         };
+
+        // The index is brought up to date on the next lookup after a subscription change.
+        mSubscriptionManager.addOnSubscriptionsChangedListener(mHandler::post,
+                new SubscriptionManager.OnSubscriptionsChangedListener() {
+                    @Override
+                    public void onSubscriptionsChanged() {
+                        invalidateSubscriptionIndex();
+                        List<SubscriptionInfo> activeSubInfos =
+                                mSubscriptionManager.getActiveSubscriptionInfoList();
+                        mSpacePlanner.updateActiveSubscriptions(activeSubInfos);
+                        if (hasActiveOpportunisticSubscription(activeSubInfos)) {
+                            markStage(ONSProvisioningFunnel.STAGE_ACTIVATED);
+                        }
+                    }
+                });
+    }
+
+    /**
+     * Sets the funnel in which the configuration stages of provisioning are recorded.
+     */
+    public void setProvisioningFunnel(ONSProvisioningFunnel provisioningFunnel) {
+        mProvisioningFunnel = provisioningFunnel;
+    }
+
+    private void markStage(int stage) {
+        if (mProvisioningFunnel != null) {
+            mProvisioningFunnel.markStage(stage);
+        }
+    }
+
+    private static boolean hasActiveOpportunisticSubscription(
+            List<SubscriptionInfo> activeSubInfos) {
+        if (activeSubInfos == null) {
+            return false;
+        }
+        for (int i = 0; i < activeSubInfos.size(); i++) {
+            SubscriptionInfo subInfo = activeSubInfos.get(i);
+            if (subInfo != null && subInfo.isOpportunistic()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Marks the subscription index as out of date. Used when a subscription is known to have
+     * changed before the subscription change callback is delivered, e.g. after a download.
+     */
+    public void invalidateSubscriptionIndex() {
+        mSubscriptionIndexStale = true;
+    }
+
+    /**
+     * Returns the index of available embedded subscriptions, updating it first if
+     * subscriptions changed since the last lookup.
+     */
+    @VisibleForTesting
+    protected ONSSubscriptionIndex getSubscriptionIndex() {
+        if (mSubscriptionIndexStale) {
+            // Cleared before reading so that a change during the update is not lost.
+            mSubscriptionIndexStale = false;
+            int changes = mSubscriptionIndex.update(
+                    mSubscriptionManager.getAvailableSubscriptionInfoList());
+            Log.d(TAG, "Subscription index updated. Changes:" + changes);
+        }
+        return mSubscriptionIndex;
     }
 
     /**
@@ -101,18 +194,38 @@ public class ONSProfileConfigurator {
                         + intent.getIntExtra(PARAM_SUB_ID, 0));
                 Log.d(TAG, "Detailed result code: " + intent.getIntExtra(
                         EuiccManager.EXTRA_EMBEDDED_SUBSCRIPTION_DETAILED_CODE, 0));
+                if (resultCode == EuiccManager.EMBEDDED_SUBSCRIPTION_RESULT_OK) {
+                    markStage(ONSProvisioningFunnel.STAGE_ACTIVATED);
+                }
             }
             break;
             case REQUEST_CODE_DELETE_SUB: {
-                if (resultCode != EuiccManager.EMBEDDED_SUBSCRIPTION_RESULT_OK) {
+                int subId = intent.getIntExtra(PARAM_SUB_ID, 0);
+                boolean deleted = resultCode == EuiccManager.EMBEDDED_SUBSCRIPTION_RESULT_OK;
+                if (!deleted) {
                     Log.e(TAG, "Error removing euicc opportunistic profile."
                             + "Detailed error code = " + intent.getIntExtra(
                                     EuiccManager.EXTRA_EMBEDDED_SUBSCRIPTION_DETAILED_CODE, 0));
-                } else if (mONSProfConfigListener != null) {
-                    int subId = intent.getIntExtra(PARAM_SUB_ID, 0);
-                    mONSProfConfigListener.onOppSubscriptionDeleted(subId);
+                } else {
+                    mSpacePlanner.forget(subId);
                     Log.d(TAG, "Opportunistic subscription deleted successfully. Id:" + subId);
                 }
+
+                if (mPendingBatchDeletions.remove(subId)) {
+                    // The listener is told once, when the last profile of the batch is processed.
+                    if (deleted) {
+                        mBatchDeletedCount++;
+                    }
+                    if (mPendingBatchDeletions.isEmpty()) {
+                        mHandler.removeCallbacks(mBatchDeletionTimeout);
+                        finishBatchDeletion();
+                    }
+                    break;
+                }
+
+                if (deleted && mONSProfConfigListener != null) {
+                    mONSProfConfigListener.onOppSubscriptionDeleted(subId);
+                }
             }
             break;
         }
@@ -135,12 +248,14 @@ public class ONSProfileConfigurator {
             subList.add(opportunisticESIM.getSubscriptionId());
             mSubscriptionManager.addSubscriptionsIntoGroup(subList, groupUuid);
         }
+        markStage(ONSProvisioningFunnel.STAGE_GROUPED);
 
         if (!opportunisticESIM.isOpportunistic()) {
             Log.d(TAG, "set Opportunistic to TRUE");
             mSubscriptionManager.setOpportunistic(true,
                     opportunisticESIM.getSubscriptionId());
         }
+        markStage(ONSProvisioningFunnel.STAGE_SET_OPPORTUNISTIC);
         //activateSubscription(opportunisticESIM);// -> activate after download flag is passed as
         //true in download request so no need of explicit activation.
     }
@@ -182,6 +297,73 @@ public class ONSProfileConfigurator {
         return false;
     }
 
+    /**
+     * Deletes enough opportunistic profiles in one batch to make room for the opportunistic eSIM
+     * of the given primary SIM. Profiles of the same operator are deleted first, then inactive
+     * profiles least recently used first. The delete requests are sent together and
+     * {@link ONSProfConfigListener#onOppSubscriptionDeleted} or
+     * {@link ONSProfConfigListener#onOppSubscriptionDeletionFailed} is called once, when all of
+     * them have been processed or after {@link #BATCH_DELETE_TIMEOUT_MS}.
+     *
+     * @param pSIMSubId primary SIM for which the download failed.
+     * @param maxCount maximum number of profiles to delete.
+     * @return number of profiles being deleted, 0 if there is nothing to delete.
+     */
+    public int reclaimSpace(int pSIMSubId, int maxCount) {
+        if (!mPendingBatchDeletions.isEmpty()) {
+            Log.d(TAG, "Batch deletion already in progress");
+            return mPendingBatchDeletions.size();
+        }
+
+        List<Integer> plan = mSpacePlanner.planReclamation(
+                mSubscriptionManager.getOpportunisticSubscriptions(),
+                getOpportunisticSubIdsofPSIMOperator(pSIMSubId),
+                mSubscriptionManager::isActiveSubscriptionId, maxCount);
+        mBatchDeletedCount = 0;
+        mBatchPSIMSubId = pSIMSubId;
+        mPendingBatchDeletions.addAll(plan);
+        if (!plan.isEmpty()) {
+            mHandler.postDelayed(mBatchDeletionTimeout, BATCH_DELETE_TIMEOUT_MS);
+        }
+        for (int subId : plan) {
+            sendDeleteRequest(subId, mNextBatchDeleteRequestCode);
+            mNextBatchDeleteRequestCode = mNextBatchDeleteRequestCode == Integer.MAX_VALUE
+                    ? REQUEST_CODE_BATCH_DELETE_BASE : mNextBatchDeleteRequestCode + 1;
+        }
+        return plan.size();
+    }
+
+    /**
+     * Called when the LPA did not answer all the delete requests of a batch in time. The
+     * profiles without result are no longer waited for, so that a later reclamation can start.
+     */
+    @VisibleForTesting
+    protected void onBatchDeletionTimeout() {
+        if (mPendingBatchDeletions.isEmpty()) {
+            return;
+        }
+        Log.e(TAG, "Batch deletion timed out. No result for:" + mPendingBatchDeletions);
+        mPendingBatchDeletions.clear();
+        finishBatchDeletion();
+    }
+
+    /**
+     * Tells the listener whether the batch made any room for the opportunistic eSIM.
+     */
+    private void finishBatchDeletion() {
+        Log.d(TAG, "Batch deletion complete. Deleted:" + mBatchDeletedCount);
+        boolean deleted = mBatchDeletedCount > 0;
+        mBatchDeletedCount = 0;
+        if (mONSProfConfigListener == null) {
+            return;
+        }
+        if (deleted) {
+            mONSProfConfigListener.onOppSubscriptionDeleted(mBatchPSIMSubId);
+        } else {
+            mONSProfConfigListener.onOppSubscriptionDeletionFailed(mBatchPSIMSubId);
+        }
+    }
+
     /**
      * Returns previously downloaded opportunistic eSIM associated with pSIM CBRS operator.
      * Helpful to cleanup before downloading new opportunistic eSIM from the same CBRS operator.
@@ -200,18 +382,12 @@ public class ONSProfileConfigurator {
             return null;
         }
 
-        //2. Get list of all subscriptions
-        List<SubscriptionInfo> oppSubList = mSubscriptionManager.getAvailableSubscriptionInfoList();
-        for (SubscriptionInfo subInfo : oppSubList) {
-            for (int oppCarrierId : oppCarrierIdArr) {
-                //Carrier-id of opportunistic eSIM matches with one of thecarrier-ids in carrier
-                // config of pSIM
-                if (subInfo.isEmbedded() && oppCarrierId == subInfo
-                        .getCarrierId()) {
-                    //3.if carrier-id of eSIM matches with one of the pSIM opportunistic carrier-ids
-                    //and eSIM's pSIM carrier-id matches with new pSIM then delete the subscription
-                    opportunisticSubIds.add(subInfo.getSubscriptionId());
-                }
+        //2. Look up the eSIMs whose carrier-id matches one of the pSIM opportunistic
+        // carrier-ids.
+        ONSSubscriptionIndex index = getSubscriptionIndex();
+        for (int oppCarrierId : oppCarrierIdArr) {
+            for (SubscriptionInfo subInfo : index.getByCarrierId(oppCarrierId)) {
+                opportunisticSubIds.add(subInfo.getSubscriptionId());
             }
         }
 
@@ -223,13 +399,18 @@ public class ONSProfileConfigurator {
      * @param subId
      */
     public void deleteSubscription(int subId) {
+        sendDeleteRequest(subId, REQUEST_CODE_DELETE_SUB);
+    }
+
+    private void sendDeleteRequest(int subId, int requestCode) {
         Log.d(TAG, "deleting subscription. SubId: " + subId);
         Intent intent = new Intent(mContext, ONSProfileResultReceiver.class);
         intent.setAction(ACTION_ONS_ESIM_CONFIG);
         intent.putExtra(PARAM_REQUEST_TYPE, REQUEST_CODE_DELETE_SUB);
         intent.putExtra(PARAM_SUB_ID, subId);
         PendingIntent callbackIntent = PendingIntent.getBroadcast(mContext,
-                REQUEST_CODE_DELETE_SUB, intent, PendingIntent.FLAG_MUTABLE);
+                requestCode, intent,
+                PendingIntent.FLAG_MUTABLE | PendingIntent.FLAG_UPDATE_CURRENT);
         mEuiccManager.deleteSubscription(subId, callbackIntent);
     }
 
@@ -255,11 +436,6 @@ public class ONSProfileConfigurator {
     public SubscriptionInfo findOpportunisticSubscription(int pSIMId) {
         Log.d(TAG, "findOpportunisticSubscription. PSIM Id : " + pSIMId);
 
-        //Get the list of active subscriptions
-        List<SubscriptionInfo> availSubInfoList = mSubscriptionManager
-                .getAvailableSubscriptionInfoList();
-        Log.d(TAG, "Available subscriptions: " + availSubInfoList.size());
-
         //Get the list of opportunistic carrier-ids list from carrier config.
         PersistableBundle config = mCarrierConfigManager.getConfigForSubId(pSIMId);
         int[] oppCarrierIdArr = config.getIntArray(
@@ -269,23 +445,36 @@ public class ONSProfileConfigurator {
             return null;
         }
 
-        ParcelUuid pSIMSubGroupId = mSubscriptionManager.getActiveSubscriptionInfo(pSIMId)
-                .getGroupUuid();
-        for (SubscriptionInfo subInfo : availSubInfoList) {
-            if (subInfo.getSubscriptionId() != pSIMId) {
-                for (int carrId : oppCarrierIdArr) {
-                    if (subInfo.isEmbedded() && carrId == subInfo.getCarrierId()) {
-                        //An active eSIM whose carrier-id is listed as opportunistic carrier in
-                        // carrier config is newly downloaded opportunistic eSIM.
-
-                        ParcelUuid oppSubGroupId = subInfo.getGroupUuid();
-                        if (oppSubGroupId == null /*Immediately after opp eSIM is downloaded case*/
-                                || oppSubGroupId.equals(pSIMSubGroupId) /*Already downloaded and
-                                grouped case.*/) {
-                            Log.d(TAG, "Opp subscription:" + subInfo.getSubscriptionId());
-                            return subInfo;
-                        }
-                    }
+        SubscriptionInfo pSIMSubInfo = mSubscriptionManager.getActiveSubscriptionInfo(pSIMId);
+        if (pSIMSubInfo == null) {
+            Log.e(TAG, "Primary SIM is not active. SubId:" + pSIMId);
+            return null;
+        }
+        ParcelUuid pSIMSubGroupId = pSIMSubInfo.getGroupUuid();
+        ONSSubscriptionIndex index = getSubscriptionIndex();
+
+        //Already downloaded and grouped case.
+        if (pSIMSubGroupId != null) {
+            Set<Integer> oppCarrierIds = new ArraySet<>();
+            for (int carrId : oppCarrierIdArr) {
+                oppCarrierIds.add(carrId);
+            }
+            for (SubscriptionInfo subInfo : index.getByGroupUuid(pSIMSubGroupId)) {
+                if (subInfo.getSubscriptionId() != pSIMId
+                        && oppCarrierIds.contains(subInfo.getCarrierId())) {
+                    Log.d(TAG, "Opp subscription:" + subInfo.getSubscriptionId());
+                    return subInfo;
+                }
+            }
+        }
+
+        //An eSIM whose carrier-id is listed as opportunistic carrier in carrier config and which
+        // is not grouped yet is newly downloaded opportunistic eSIM.
+        for (int carrId : oppCarrierIdArr) {
+            for (SubscriptionInfo subInfo : index.getByCarrierId(carrId)) {
+                if (subInfo.getSubscriptionId() != pSIMId && subInfo.getGroupUuid() == null) {
+                    Log.d(TAG, "Opp subscription:" + subInfo.getSubscriptionId());
+                    return subInfo;
                 }
             }
         }
@@ -301,5 +490,11 @@ public class ONSProfileConfigurator {
          * Called when the delete subscription request is processed successfully.
          */
         void onOppSubscriptionDeleted(int pSIMId);
+
+        /**
+         * Called when no profile of a batch deletion could be deleted, either because the LPA
+         * failed them or because it did not answer in time.
+         */
+        void onOppSubscriptionDeletionFailed(int pSIMId);
     }
 }
@@ -23,15 +23,24 @@ import android.os.Handler;
 import android.os.Looper;
 import android.os.Message;
 import android.os.PersistableBundle;
+import android.os.SystemClock;
 import android.telephony.CarrierConfigManager;
+import android.telephony.TelephonyManager;
 import android.telephony.euicc.DownloadableSubscription;
 import android.telephony.euicc.EuiccManager;
 import android.util.Log;
 import android.util.Pair;
+import android.util.SparseArray;
 
 import com.android.internal.annotations.VisibleForTesting;
 
-import java.util.Stack;
+import java.io.PrintWriter;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
 
 public class ONSProfileDownloader {
 
@@ -45,40 +54,121 @@ public class ONSProfileDownloader {
 
     @VisibleForTesting protected static final String PARAM_PRIMARY_SUBID = "PrimarySubscriptionID";
     @VisibleForTesting protected static final String PARAM_REQUEST_TYPE = "REQUEST";
+    @VisibleForTesting protected static final String PARAM_REQUEST_ID = "RequestID";
     @VisibleForTesting protected static final int REQUEST_CODE_DOWNLOAD_SUB = 1;
+    private static final int MSG_DOWNLOAD_TIMEOUT = 2;
+    private static final int INVALID_REQUEST_ID = -1;
+
+    @VisibleForTesting protected static final int DEFAULT_MAX_DOWNLOADS_PER_CARD = 1;
+    @VisibleForTesting
+    protected static final long DEFAULT_DOWNLOAD_TIMEOUT_MS = TimeUnit.MINUTES.toMillis(10);
 
     private final Handler mHandler;
     private final Context mContext;
     private final CarrierConfigManager mCarrierConfigManager;
     private final EuiccManager mEuiccManager;
     private final ONSProfileConfigurator mONSProfileConfig;
+    private final int mMaxDownloadsPerCard;
+    private final long mDownloadTimeoutMs;
+    private final LongSupplier mClock;
     private IONSProfileDownloaderListener mListener;
+    private ONSProvisioningFunnel mProvisioningFunnel;
+
+    /* A download request. Its id is unique in the process and is used as PendingIntent request
+     * code, so that the LPA result is attributed to the request it answers. */
+    private static class DownloadRequest {
+        final int mRequestId;
+        final int mPSIMSubId;
+        final int mCardId;
+        final String mActivationCode;
+        final long mEnqueueTimeMs;
+        long mStartTimeMs;
+
+        DownloadRequest(int requestId, int pSIMSubId, int cardId, String activationCode,
+                long enqueueTimeMs) {
+            mRequestId = requestId;
+            mPSIMSubId = pSIMSubId;
+            mCardId = cardId;
+            mActivationCode = activationCode;
+            mEnqueueTimeMs = enqueueTimeMs;
+        }
+    }
 
-    // Subscription Id of the CBRS PSIM for which opportunistic eSIM is being downloaded. Used to
-    // ignore duplicate download requests when download is in progress.
-    private int mDownloadingPSimSubId;
+    private final Object mLock = new Object();
+    // Requests waiting for a free slot on their eUICC card, in arrival order.
+    private final ArrayDeque<DownloadRequest> mPendingRequests = new ArrayDeque<>();
+    // Requests sent to the LPA, by request id.
+    private final SparseArray<DownloadRequest> mActiveRequests = new SparseArray<>();
+    private int mNextRequestId = REQUEST_CODE_DOWNLOAD_SUB + 1;
+
+    // Queue metrics, reported in dump.
+    private int mRequestCount;
+    private int mCompletedCount;
+    private int mTimeoutCount;
+    private int mStaleResultCount;
+    private int mMaxQueueDepth;
+    private long mTotalQueueTimeMs;
+    private long mMaxQueueTimeMs;
+    private long mTotalDownloadTimeMs;
+    private long mMaxDownloadTimeMs;
 
     protected enum DownloadRetryResultCode {
         DOWNLOAD_SUCCESSFUL,
         ERR_UNRESOLVABLE,
         ERR_MEMORY_FULL,
         ERR_INSTALL_ESIM_PROFILE_FAILED,
-        ERR_RETRY_DOWNLOAD
+        ERR_RETRY_DOWNLOAD,
+        ERR_RETRY_DOWNLOAD_IMMEDIATE
     };
 
     public ONSProfileDownloader(Context context, CarrierConfigManager carrierConfigManager,
                                 EuiccManager euiccManager,
                                 ONSProfileConfigurator onsProfileConfigurator,
                                 IONSProfileDownloaderListener listener) {
+        this(context, carrierConfigManager, euiccManager, onsProfileConfigurator, listener,
+                DEFAULT_MAX_DOWNLOADS_PER_CARD, DEFAULT_DOWNLOAD_TIMEOUT_MS,
+                SystemClock::elapsedRealtime);
+    }
+
+    /**
+     * @param maxDownloadsPerCard number of downloads sent to the LPA at the same time for one
+     *                            eUICC card. Further requests wait in the queue.
+     * @param downloadTimeoutMs time after which a download without result is failed with
+     *                          {@link DownloadRetryResultCode#ERR_RETRY_DOWNLOAD}.
+     */
+    public ONSProfileDownloader(Context context, CarrierConfigManager carrierConfigManager,
+                                EuiccManager euiccManager,
+                                ONSProfileConfigurator onsProfileConfigurator,
+                                IONSProfileDownloaderListener listener, int maxDownloadsPerCard,
+                                long downloadTimeoutMs) {
+        this(context, carrierConfigManager, euiccManager, onsProfileConfigurator, listener,
+                maxDownloadsPerCard, downloadTimeoutMs, SystemClock::elapsedRealtime);
+    }
+
+    @VisibleForTesting
+    ONSProfileDownloader(Context context, CarrierConfigManager carrierConfigManager,
+                         EuiccManager euiccManager, ONSProfileConfigurator onsProfileConfigurator,
+                         IONSProfileDownloaderListener listener, int maxDownloadsPerCard,
+                         long downloadTimeoutMs, LongSupplier clock) {
         mContext = context;
         mListener = listener;
         mEuiccManager = euiccManager;
         mONSProfileConfig = onsProfileConfigurator;
         mCarrierConfigManager = carrierConfigManager;
+        mMaxDownloadsPerCard = Math.max(1, maxDownloadsPerCard);
+        mDownloadTimeoutMs = downloadTimeoutMs;
+        mClock = clock;
 
         mHandler = new DownloadHandler();
     }
 
+    /**
+     * Sets the funnel in which the download stages of provisioning are recorded.
+     */
+    public void setProvisioningFunnel(ONSProvisioningFunnel provisioningFunnel) {
+        mProvisioningFunnel = provisioningFunnel;
+    }
+
     class DownloadHandler extends Handler {
         DownloadHandler() {
             super(Looper.myLooper());
@@ -92,12 +182,19 @@ public class ONSProfileDownloader {
                 case REQUEST_CODE_DOWNLOAD_SUB: {
                     Log.d(TAG, "REQUEST_CODE_DOWNLOAD_SUB callback received");
 
-                    //Clear downloading subscription flag. Indicates no download in progress.
-                    synchronized (this) {
-                        mDownloadingPSimSubId = -1;
+                    int requestId = ((Intent) msg.obj).getIntExtra(PARAM_REQUEST_ID,
+                            INVALID_REQUEST_ID);
+                    int pSIMSubId = completeRequest(requestId,
+                            ((Intent) msg.obj).getIntExtra(PARAM_PRIMARY_SUBID, 0));
+                    dispatchPendingRequests();
+                    if (pSIMSubId == INVALID_REQUEST_ID) {
+                        Log.d(TAG, "Ignoring result of timed out download request " + requestId);
+                        break;
+                    }
+                    if (mProvisioningFunnel != null) {
+                        mProvisioningFunnel.markStage(ONSProvisioningFunnel.STAGE_LPA_RESULT);
                     }
 
-                    int pSIMSubId = ((Intent) msg.obj).getIntExtra(PARAM_PRIMARY_SUBID, 0);
                     int detailedErrCode = ((Intent) msg.obj).getIntExtra(
                             EuiccManager.EXTRA_EMBEDDED_SUBSCRIPTION_DETAILED_CODE, 0);
                     int operationCode = ((Intent) msg.obj).getIntExtra(
@@ -109,8 +206,8 @@ public class ONSProfileDownloader {
                     Log.d(TAG, "Operation Code : " + operationCode);
                     Log.d(TAG, "Error Code : " + errorCode);
 
-                    DownloadRetryResultCode resultCode = mapDownloaderErrorCode(msg.arg1,
-                            detailedErrCode, operationCode, errorCode);
+                    DownloadRetryResultCode resultCode = mapDownloaderErrorCode(pSIMSubId,
+                            msg.arg1, detailedErrCode, operationCode, errorCode);
                     Log.d(TAG, "DownloadRetryResultCode: " + resultCode);
 
                     switch (resultCode) {
@@ -130,6 +227,23 @@ public class ONSProfileDownloader {
                     }
                 }
                 break;
+
+                case MSG_DOWNLOAD_TIMEOUT: {
+                    DownloadRequest request = (DownloadRequest) msg.obj;
+                    synchronized (mLock) {
+                        if (mActiveRequests.get(request.mRequestId) != request) {
+                            break;
+                        }
+                        mActiveRequests.remove(request.mRequestId);
+                        mTimeoutCount++;
+                    }
+                    Log.e(TAG, "Download request " + request.mRequestId + " timed out. SubId:"
+                            + request.mPSIMSubId);
+                    dispatchPendingRequests();
+                    mListener.onDownloadError(request.mPSIMSubId,
+                            DownloadRetryResultCode.ERR_RETRY_DOWNLOAD, 0);
+                }
+                break;
             }
         }
 
@@ -138,28 +252,46 @@ public class ONSProfileDownloader {
                                                                     int detailedErrCode,
                                                                     int operationCode,
                                                                     int errorCode) {
+            return mapDownloaderErrorCode(INVALID_REQUEST_ID, resultCode, detailedErrCode,
+                    operationCode, errorCode);
+        }
+
+        /**
+         * @param pSIMSubId primary subscription whose carrier config may override the retry
+         *                  class of SM-DP+ errors.
+         */
+        @VisibleForTesting
+        protected DownloadRetryResultCode mapDownloaderErrorCode(int pSIMSubId, int resultCode,
+                                                                    int detailedErrCode,
+                                                                    int operationCode,
+                                                                    int errorCode) {
 
             if (operationCode == EuiccManager.OPERATION_SMDX_SUBJECT_REASON_CODE) {
                 //SMDP Error codes handling
-                Pair<String, String> errCode = decodeSmdxSubjectAndReasonCode(detailedErrCode);
-                Log.e(TAG, " Subject Code: " + errCode.first + " Reason Code: "
-                        + errCode.second);
-
-                //8.1 - eUICC, 4.8 - Insufficient Memory
-                // eUICC does not have sufficient space for this Profile.
-                if (errCode.equals(Pair.create("8.1.0", "4.8"))) {
-                    return DownloadRetryResultCode.ERR_MEMORY_FULL;
-                }
-
-                //8.8.5 - Download order, 4.10 - Time to Live Expired
-                //The Download order has expired
-                if (errCode.equals(Pair.create("8.8.5", "4.10"))) {
-                    return DownloadRetryResultCode.ERR_RETRY_DOWNLOAD;
+                int retryClass = ONSSmdxRetryPolicy.classify(detailedErrCode,
+                        getSmdxRetryPolicyOverrides(pSIMSubId));
+                Log.e(TAG, " Subject Code: " + ONSSmdxRetryPolicy.formatCode(
+                        ONSSmdxRetryPolicy.getSubjectCode(detailedErrCode))
+                        + " Reason Code: " + ONSSmdxRetryPolicy.formatCode(
+                        ONSSmdxRetryPolicy.getReasonCode(detailedErrCode))
+                        + " Retry class: " + retryClass);
+
+                switch (retryClass) {
+                    //e.g. 8.1 - eUICC, 4.8 - Insufficient Memory
+                    case ONSSmdxRetryPolicy.RETRY_AFTER_DELETE:
+                        return DownloadRetryResultCode.ERR_MEMORY_FULL;
+
+                    //e.g. 8.8.5 - Download order, 4.10 - Time to Live Expired
+                    case ONSSmdxRetryPolicy.RETRY_BACKOFF:
+                        return DownloadRetryResultCode.ERR_RETRY_DOWNLOAD;
+
+                    case ONSSmdxRetryPolicy.RETRY_IMMEDIATE:
+                        return DownloadRetryResultCode.ERR_RETRY_DOWNLOAD_IMMEDIATE;
+
+                    //All other errors are unresolvable or retry after SIM State Change
+                    default:
+                        return DownloadRetryResultCode.ERR_UNRESOLVABLE;
                 }
-
-                //All other errors are unresolvable or retry after SIM State Change
-                return DownloadRetryResultCode.ERR_UNRESOLVABLE;
-
             }
 
             switch (errorCode) {
@@ -239,29 +371,183 @@ public class ONSProfileDownloader {
             return DownloadProfileResult.INVALID_SMDP_ADDRESS;
         }
 
-        synchronized (this) {
-            if (mDownloadingPSimSubId == primarySubId) {
+        //Generate Activation code 1${SM-DP+ FQDN}$
+        String activationCode = "1$" + smdpAddress + "$";
+        int cardId = getEuiccCardId();
+
+        synchronized (mLock) {
+            if (findRequestLocked(primarySubId) != null) {
                 Log.d(TAG, "Download already in progress.");
                 return DownloadProfileResult.DUPLICATE_REQUEST;
             }
 
-            mDownloadingPSimSubId = primarySubId;
+            DownloadRequest request = new DownloadRequest(mNextRequestId, primarySubId, cardId,
+                    activationCode, mClock.getAsLong());
+            mNextRequestId = mNextRequestId == Integer.MAX_VALUE
+                    ? REQUEST_CODE_DOWNLOAD_SUB + 1 : mNextRequestId + 1;
+            mPendingRequests.add(request);
+            mRequestCount++;
+            mMaxQueueDepth = Math.max(mMaxQueueDepth, mPendingRequests.size());
         }
 
-        //Generate Activation code 1${SM-DP+ FQDN}$
-        String activationCode = "1$" + smdpAddress + "$";
+        dispatchPendingRequests();
+        return DownloadProfileResult.SUCCESS;
+    }
+
+    /**
+     * @return number of download requests waiting for a free slot.
+     */
+    public int getQueueDepth() {
+        synchronized (mLock) {
+            return mPendingRequests.size();
+        }
+    }
+
+    /**
+     * @return number of download requests sent to the LPA and waiting for a result.
+     */
+    public int getActiveDownloadCount() {
+        synchronized (mLock) {
+            return mActiveRequests.size();
+        }
+    }
+
+    /**
+     * Print the download queue and its metrics.
+     */
+    public void dump(PrintWriter pw) {
+        synchronized (mLock) {
+            pw.println("  download queue: pending=" + mPendingRequests.size()
+                    + " active=" + mActiveRequests.size() + " maxDepth=" + mMaxQueueDepth
+                    + " requests=" + mRequestCount + " completed=" + mCompletedCount
+                    + " timeouts=" + mTimeoutCount + " staleResults=" + mStaleResultCount);
+            pw.println("  download latency: avgQueueMs="
+                    + (mRequestCount == 0 ? 0 : mTotalQueueTimeMs / mRequestCount)
+                    + " maxQueueMs=" + mMaxQueueTimeMs + " avgDownloadMs="
+                    + (mCompletedCount == 0 ? 0 : mTotalDownloadTimeMs / mCompletedCount)
+                    + " maxDownloadMs=" + mMaxDownloadTimeMs);
+        }
+    }
+
+    /**
+     * Sends the waiting requests whose eUICC card has a free slot, in arrival order.
+     */
+    private void dispatchPendingRequests() {
+        List<DownloadRequest> started = new ArrayList<>();
+        synchronized (mLock) {
+            long now = mClock.getAsLong();
+            Iterator<DownloadRequest> iterator = mPendingRequests.iterator();
+            while (iterator.hasNext()) {
+                DownloadRequest request = iterator.next();
+                if (getActiveCountLocked(request.mCardId) >= mMaxDownloadsPerCard) {
+                    continue;
+                }
+                iterator.remove();
+                request.mStartTimeMs = now;
+                long queueTime = now - request.mEnqueueTimeMs;
+                mTotalQueueTimeMs += queueTime;
+                mMaxQueueTimeMs = Math.max(mMaxQueueTimeMs, queueTime);
+                mActiveRequests.put(request.mRequestId, request);
+                started.add(request);
+            }
+        }
+
+        for (DownloadRequest request : started) {
+            sendDownloadRequest(request);
+            mHandler.sendMessageDelayed(
+                    mHandler.obtainMessage(MSG_DOWNLOAD_TIMEOUT, request), mDownloadTimeoutMs);
+        }
+    }
+
+    private void sendDownloadRequest(DownloadRequest request) {
         Intent intent = new Intent(mContext, ONSProfileResultReceiver.class);
         intent.setAction(ACTION_ONS_ESIM_DOWNLOAD);
         intent.putExtra(PARAM_REQUEST_TYPE, REQUEST_CODE_DOWNLOAD_SUB);
-        intent.putExtra(PARAM_PRIMARY_SUBID, primarySubId);
-        PendingIntent callbackIntent = PendingIntent.getBroadcast(mContext,
-                REQUEST_CODE_DOWNLOAD_SUB, intent, PendingIntent.FLAG_MUTABLE);
+        intent.putExtra(PARAM_PRIMARY_SUBID, request.mPSIMSubId);
+        intent.putExtra(PARAM_REQUEST_ID, request.mRequestId);
+        // The request id as request code gives every download its own PendingIntent.
+        PendingIntent callbackIntent = PendingIntent.getBroadcast(mContext, request.mRequestId,
+                intent, PendingIntent.FLAG_MUTABLE | PendingIntent.FLAG_UPDATE_CURRENT);
 
-        Log.d(TAG, "Download Request sent to EUICC Manager");
+        Log.d(TAG, "Download Request " + request.mRequestId + " sent to EUICC Manager");
         mEuiccManager.downloadSubscription(DownloadableSubscription.forActivationCode(
-                activationCode), true, callbackIntent);
+                request.mActivationCode), true, callbackIntent);
+        if (mProvisioningFunnel != null) {
+            mProvisioningFunnel.markStage(ONSProvisioningFunnel.STAGE_DOWNLOAD_REQUESTED);
+        }
+    }
 
-        return DownloadProfileResult.SUCCESS;
+    /**
+     * Removes the request answered by a LPA result from the active requests.
+     *
+     * @param requestId request id carried by the result intent.
+     * @param pSIMSubId primary subscription carried by the result intent, used for results
+     *                  without request id.
+     * @return primary subscription of the request, or {@link #INVALID_REQUEST_ID} if the request
+     * already timed out.
+     */
+    private int completeRequest(int requestId, int pSIMSubId) {
+        synchronized (mLock) {
+            DownloadRequest request = null;
+            if (requestId == INVALID_REQUEST_ID) {
+                for (int i = 0; i < mActiveRequests.size(); i++) {
+                    if (mActiveRequests.valueAt(i).mPSIMSubId == pSIMSubId) {
+                        request = mActiveRequests.valueAt(i);
+                        break;
+                    }
+                }
+            } else {
+                request = mActiveRequests.get(requestId);
+                if (request == null) {
+                    mStaleResultCount++;
+                    return INVALID_REQUEST_ID;
+                }
+                pSIMSubId = request.mPSIMSubId;
+            }
+
+            if (request != null) {
+                mActiveRequests.remove(request.mRequestId);
+                mHandler.removeMessages(MSG_DOWNLOAD_TIMEOUT, request);
+                long downloadTime = mClock.getAsLong() - request.mStartTimeMs;
+                mTotalDownloadTimeMs += downloadTime;
+                mMaxDownloadTimeMs = Math.max(mMaxDownloadTimeMs, downloadTime);
+                mCompletedCount++;
+            }
+            return pSIMSubId;
+        }
+    }
+
+    private DownloadRequest findRequestLocked(int pSIMSubId) {
+        for (DownloadRequest request : mPendingRequests) {
+            if (request.mPSIMSubId == pSIMSubId) {
+                return request;
+            }
+        }
+        for (int i = 0; i < mActiveRequests.size(); i++) {
+            if (mActiveRequests.valueAt(i).mPSIMSubId == pSIMSubId) {
+                return mActiveRequests.valueAt(i);
+            }
+        }
+        return null;
+    }
+
+    private int getActiveCountLocked(int cardId) {
+        int count = 0;
+        for (int i = 0; i < mActiveRequests.size(); i++) {
+            if (mActiveRequests.valueAt(i).mCardId == cardId) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * @return card id of the eUICC the profiles are downloaded to.
+     */
+    private int getEuiccCardId() {
+        TelephonyManager telephonyManager = mContext.getSystemService(TelephonyManager.class);
+        return telephonyManager == null ? TelephonyManager.UNINITIALIZED_CARD_ID
+                : telephonyManager.getCardIdForDefaultEuicc();
     }
 
     /**
@@ -275,6 +561,18 @@ public class ONSProfileDownloader {
         return config.getString(CarrierConfigManager.KEY_SMDP_SERVER_ADDRESS_STRING);
     }
 
+    /**
+     * @return carrier overrides of the SM-DP+ error retry classes, or null if there are none.
+     */
+    private String[] getSmdxRetryPolicyOverrides(int pSIMSubId) {
+        if (pSIMSubId == INVALID_REQUEST_ID || mCarrierConfigManager == null) {
+            return null;
+        }
+        PersistableBundle config = mCarrierConfigManager.getConfigForSubId(pSIMSubId);
+        return config == null ? null
+                : config.getStringArray(ONSSmdxRetryPolicy.KEY_SMDX_RETRY_POLICY_STRING_ARRAY);
+    }
+
     /**
      * Given encoded error code described in
      * {@link android.telephony.euicc.EuiccManager#OPERATION_SMDX_SUBJECT_REASON_CODE} decode it
@@ -288,27 +586,10 @@ public class ONSProfileDownloader {
      */
     @VisibleForTesting
     protected static Pair<String, String> decodeSmdxSubjectAndReasonCode(int resultCode) {
-        final int numOfSections = 6;
-        final int bitsPerSection = 4;
-        final int sectionMask = 0xF;
-
-        final Stack<Integer> sections = new Stack<>();
-
-        // Extracting each section of digits backwards.
-        for (int i = 0; i < numOfSections; ++i) {
-            int sectionDigit = resultCode & sectionMask;
-            sections.push(sectionDigit);
-            resultCode = resultCode >>> bitsPerSection;
-        }
-
-        String subjectCode = sections.pop() + "." + sections.pop() + "." + sections.pop();
-        String reasonCode = sections.pop() + "." + sections.pop() + "." + sections.pop();
-
-        // drop the leading zeros, e.g. 0.1 -> 1, 0.0.3 -> 3, 0.5.1 -> 5.1
-        subjectCode = subjectCode.replaceAll("^(0\\.)*", "");
-        reasonCode = reasonCode.replaceAll("^(0\\.)*", "");
-
-        return Pair.create(subjectCode, reasonCode);
+        // leading zeros are dropped, e.g. 0.1 -> 1, 0.0.3 -> 3, 0.5.1 -> 5.1
+        return Pair.create(
+                ONSSmdxRetryPolicy.formatCode(ONSSmdxRetryPolicy.getSubjectCode(resultCode)),
+                ONSSmdxRetryPolicy.formatCode(ONSSmdxRetryPolicy.getReasonCode(resultCode)));
     }
 
     /**
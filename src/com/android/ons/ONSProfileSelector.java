@@ -21,17 +21,25 @@ import static android.telephony.AvailableNetworkInfo.PRIORITY_LOW;
 
 import android.app.PendingIntent;
 import android.compat.Compatibility;
+import android.content.BroadcastReceiver;
 import android.content.Context;
 import android.content.Intent;
+import android.content.IntentFilter;
 import android.os.AsyncTask;
 import android.os.Handler;
 import android.os.HandlerThread;
 import android.os.Message;
+import android.os.PersistableBundle;
 import android.os.RemoteException;
+import android.telephony.AccessNetworkConstants;
 import android.telephony.AvailableNetworkInfo;
+import android.telephony.CarrierConfigManager;
+import android.telephony.CellIdentity;
 import android.telephony.CellInfo;
 import android.telephony.CellInfoLte;
 import android.telephony.CellInfoNr;
+import android.telephony.NetworkRegistrationInfo;
+import android.telephony.ServiceState;
 import android.telephony.SignalStrength;
 import android.telephony.SubscriptionInfo;
 import android.telephony.SubscriptionManager;
@@ -106,8 +114,21 @@ public class ONSProfileSelector {
     private int mSubId;
     @VisibleForTesting
     protected int mCurrentDataSubId = SubscriptionManager.INVALID_SUBSCRIPTION_ID;
-    private ArrayList<AvailableNetworkInfo> mAvailableNetworkInfos;
+    @VisibleForTesting
+    protected ArrayList<AvailableNetworkInfo> mAvailableNetworkInfos;
     private IUpdateAvailableNetworksCallback mNetworkScanCallback;
+    /* a result of the running scan was found but not worth the cost of the switch */
+    private boolean mSwitchDeclined;
+    @VisibleForTesting
+    protected ONSDecisionJournal mDecisionJournal;
+    @VisibleForTesting
+    protected ONSSwitchCostModel mSwitchCostModel = new ONSSwitchCostModel();
+    /* default data subscription whose serving cell feeds the switch cost model */
+    private int mSwitchCostModelSubId = SubscriptionManager.INVALID_SUBSCRIPTION_ID;
+    @VisibleForTesting
+    protected ONSValidationCache mValidationCache = new ONSValidationCache();
+    @VisibleForTesting
+    protected ONSLinkQualityMonitor mLinkQualityMonitor;
 
     public static final String ACTION_SUB_SWITCH =
             "android.intent.action.SUBSCRIPTION_SWITCH_REPLY";
@@ -126,7 +147,7 @@ public class ONSProfileSelector {
                 public void onNetworkAvailability(List<CellInfo> results) {
                     int subId = retrieveBestSubscription(results);
                     if (subId == SubscriptionManager.INVALID_SUBSCRIPTION_ID) {
-                        sendUpdateNetworksCallbackHelper(mNetworkScanCallback,
+                        sendUpdateNetworksCallbackHelper(mNetworkScanCallback, subId,
                                 TelephonyManager.UPDATE_AVAILABLE_NETWORKS_INVALID_ARGUMENTS);
                         synchronized (mLock) {
                             mNetworkScanCallback = null;
@@ -134,9 +155,46 @@ public class ONSProfileSelector {
                         return;
                     }
 
+                    boolean isActive = mSubscriptionManager.isActiveSubId(subId);
+                    if (!isSwitchWorthwhile(results, subId, isActive)) {
+                        /* keep scanning, a later result of this scan may be worth the switch */
+                        logDebug("switch to sub " + subId + " not worth its cost");
+                        synchronized (mLock) {
+                            mSwitchDeclined = true;
+                        }
+                        return;
+                    }
+
                     /* stop scanning further */
                     mNetworkScanCtlr.stopNetworkScan();
-                    handleNetworkScanResult(subId);
+                    synchronized (mLock) {
+                        mSwitchDeclined = false;
+                    }
+                    handleNetworkScanResult(subId, isActive);
+                }
+
+                @Override
+                public void onScanComplete() {
+                    synchronized (mLock) {
+                        if (!mSwitchDeclined) {
+                            return;
+                        }
+                        mSwitchDeclined = false;
+                    }
+                    /* no result of the whole scan was worth the switch, stop waiting for one */
+                    logDebug("no switch worth its cost found by the scan");
+                    mNetworkScanCtlr.stopNetworkScan();
+                    synchronized (mLock) {
+                        if (Compatibility.isChangeEnabled(
+                                OpportunisticNetworkService.CALLBACK_ON_MORE_ERROR_CODE_CHANGE)) {
+                            sendUpdateNetworksCallbackHelper(mNetworkScanCallback, TelephonyManager
+                                    .UPDATE_AVAILABLE_NETWORKS_NO_OPPORTUNISTIC_SUB_AVAILABLE);
+                        } else {
+                            sendUpdateNetworksCallbackHelper(mNetworkScanCallback,
+                                    TelephonyManager.UPDATE_AVAILABLE_NETWORKS_INVALID_ARGUMENTS);
+                        }
+                        mNetworkScanCallback = null;
+                    }
                 }
 
                 @Override
@@ -145,7 +203,9 @@ public class ONSProfileSelector {
                     synchronized (mLock) {
                         if (mIsEnabled && mAvailableNetworkInfos != null
                             && mAvailableNetworkInfos.size() > 0) {
-                            handleNetworkScanResult(mAvailableNetworkInfos.get(0).getSubId());
+                            int subId = mAvailableNetworkInfos.get(0).getSubId();
+                            handleNetworkScanResult(subId,
+                                    mSubscriptionManager.isActiveSubId(subId));
                         } else {
                             if (mNetworkScanCallback != null) {
                                 if (mIsEnabled) {
@@ -171,21 +231,26 @@ public class ONSProfileSelector {
                     }
                 }
 
-                private void handleNetworkScanResult(int subId) {
+                private void handleNetworkScanResult(int subId, boolean isActive) {
+                    if (mDecisionJournal != null) {
+                        mDecisionJournal.logSubscriptionSelected(subId, isActive);
+                    }
+                    mSwitchCostModel.onSwitchStarted(!isActive);
                     /* if subscription is already active, just enable modem */
-                    if (mSubscriptionManager.isActiveSubId(subId)) {
+                    if (isActive) {
                         if (enableModem(subId, true)) {
-                            sendUpdateNetworksCallbackHelper(mNetworkScanCallback,
+                            mSwitchCostModel.onSwitchCompleted();
+                            sendUpdateNetworksCallbackHelper(mNetworkScanCallback, subId,
                                 TelephonyManager.UPDATE_AVAILABLE_NETWORKS_SUCCESS);
                         } else {
                             if (Compatibility.isChangeEnabled(
                                     OpportunisticNetworkService
                                             .CALLBACK_ON_MORE_ERROR_CODE_CHANGE)) {
-                                sendUpdateNetworksCallbackHelper(mNetworkScanCallback,
+                                sendUpdateNetworksCallbackHelper(mNetworkScanCallback, subId,
                                         TelephonyManager
                                                 .UPDATE_AVAILABLE_NETWORKS_ENABLE_MODEM_FAIL);
                             } else {
-                                sendUpdateNetworksCallbackHelper(mNetworkScanCallback,
+                                sendUpdateNetworksCallbackHelper(mNetworkScanCallback, subId,
                                         TelephonyManager.UPDATE_AVAILABLE_NETWORKS_ABORTED);
                             }
                         }
@@ -294,6 +359,46 @@ public class ONSProfileSelector {
         return mnc;
     }
 
+    /**
+     * Weigh the expected gain of switching to the best scanned cell of the subscription against
+     * the cost of the switch.
+     */
+    private boolean isSwitchWorthwhile(List<CellInfo> results, int subId, boolean isActive) {
+        CellInfo cellInfo = getBestCellOfSubscription(results, subId);
+        if (cellInfo == null) {
+            return true;
+        }
+        CarrierConfigManager configManager = mContext.getSystemService(CarrierConfigManager.class);
+        PersistableBundle config = configManager == null
+                ? null : configManager.getConfigForSubId(subId);
+        int minBenefitKbit = config == null ? ONSSwitchCostModel.DEFAULT_MIN_BENEFIT_KBIT
+                : config.getInt(ONSSwitchCostModel.KEY_SWITCH_MIN_BENEFIT_KBIT_INT,
+                        ONSSwitchCostModel.DEFAULT_MIN_BENEFIT_KBIT);
+        return mSwitchCostModel.isSwitchWorthwhile(cellInfo, isActive, minBenefitKbit);
+    }
+
+    private CellInfo getBestCellOfSubscription(List<CellInfo> results, int subId) {
+        CellInfo bestCellInfo = null;
+        synchronized (mLock) {
+            if (mAvailableNetworkInfos == null) {
+                return null;
+            }
+            for (AvailableNetworkInfo availableNetworkInfo : mAvailableNetworkInfos) {
+                if (availableNetworkInfo.getSubId() != subId) {
+                    continue;
+                }
+                for (CellInfo result : results) {
+                    if (availableNetworkInfo.getMccMncs().contains(getMcc(result) + getMnc(result))
+                            && (bestCellInfo == null || ONSSignalQualityPolicy.compareQuality(
+                                    result, bestCellInfo) < 0)) {
+                        bestCellInfo = result;
+                    }
+                }
+            }
+        }
+        return bestCellInfo;
+    }
+
     private int getSubIdUsingAvailableNetworks(String mcc, String mnc, int priorityLevel) {
         String mccMnc = mcc + mnc;
         synchronized (mLock) {
@@ -369,7 +474,7 @@ public class ONSProfileSelector {
         PendingIntent replyIntent = PendingIntent.getService(mContext,
                 1, callbackIntent, PendingIntent.FLAG_ONE_SHOT | PendingIntent.FLAG_IMMUTABLE);
         if (availableSIMPortIndex == TelephonyManager.INVALID_PORT_INDEX) {
-            sendUpdateNetworksCallbackHelper(mNetworkScanCallback,
+            sendUpdateNetworksCallbackHelper(mNetworkScanCallback, subId,
                     TelephonyManager.UPDATE_AVAILABLE_NETWORKS_SIM_PORT_NOT_AVAILABLE);
             return;
         }
@@ -431,15 +536,16 @@ public class ONSProfileSelector {
         }
 
         if (enableModem(subId, true)) {
-            sendUpdateNetworksCallbackHelper(mNetworkScanCallback,
+            mSwitchCostModel.onSwitchCompleted();
+            sendUpdateNetworksCallbackHelper(mNetworkScanCallback, subId,
                 TelephonyManager.UPDATE_AVAILABLE_NETWORKS_SUCCESS);
         } else {
             if (Compatibility.isChangeEnabled(
                     OpportunisticNetworkService.CALLBACK_ON_MORE_ERROR_CODE_CHANGE)) {
-                sendUpdateNetworksCallbackHelper(mNetworkScanCallback,
+                sendUpdateNetworksCallbackHelper(mNetworkScanCallback, subId,
                         TelephonyManager.UPDATE_AVAILABLE_NETWORKS_ENABLE_MODEM_FAIL);
             } else {
-                sendUpdateNetworksCallbackHelper(mNetworkScanCallback,
+                sendUpdateNetworksCallbackHelper(mNetworkScanCallback, subId,
                         TelephonyManager.UPDATE_AVAILABLE_NETWORKS_ABORTED);
             }
         }
@@ -454,7 +560,8 @@ public class ONSProfileSelector {
         }
     }
 
-    private ArrayList<AvailableNetworkInfo> getFilteredAvailableNetworks(
+    @VisibleForTesting
+    protected ArrayList<AvailableNetworkInfo> getFilteredAvailableNetworks(
             ArrayList<AvailableNetworkInfo> availableNetworks,
             List<SubscriptionInfo> subscriptionInfoList) {
         ArrayList<AvailableNetworkInfo> filteredAvailableNetworks =
@@ -486,7 +593,8 @@ public class ONSProfileSelector {
         return filteredAvailableNetworks;
     }
 
-    private boolean isSame(ArrayList<AvailableNetworkInfo> availableNetworks1,
+    @VisibleForTesting
+    protected boolean isSame(ArrayList<AvailableNetworkInfo> availableNetworks1,
             ArrayList<AvailableNetworkInfo> availableNetworks2) {
         if ((availableNetworks1 == null) || (availableNetworks2 == null)) {
             return false;
@@ -496,6 +604,18 @@ public class ONSProfileSelector {
 
     private void sendUpdateNetworksCallbackHelper(IUpdateAvailableNetworksCallback callback,
             int result) {
+        sendUpdateNetworksCallbackHelper(callback, SubscriptionManager.INVALID_SUBSCRIPTION_ID,
+                result);
+    }
+
+    /**
+     * @param subId subscription the outcome is about.
+     */
+    private void sendUpdateNetworksCallbackHelper(IUpdateAvailableNetworksCallback callback,
+            int subId, int result) {
+        if (mDecisionJournal != null) {
+            mDecisionJournal.logSelectionOutcome(subId, result);
+        }
         if (callback == null) {
             log("callback is null");
             return;
@@ -512,6 +632,9 @@ public class ONSProfileSelector {
                 (ArrayList<AvailableNetworkInfo>) objects[0];
         IUpdateAvailableNetworksCallback callbackStub =
                 (IUpdateAvailableNetworksCallback) objects[1];
+        if (mDecisionJournal != null) {
+            mDecisionJournal.logAvailabilityRequest(availableNetworks);
+        }
         if (mOppSubscriptionInfos == null) {
             logDebug("null subscription infos");
             if (Compatibility.isChangeEnabled(
@@ -560,22 +683,23 @@ public class ONSProfileSelector {
             if ((filteredAvailableNetworks.size() == 1)
                     && ((filteredAvailableNetworks.get(0).getMccMncs() == null)
                     || (filteredAvailableNetworks.get(0).getMccMncs().size() == 0))) {
+                int oppSubId = filteredAvailableNetworks.get(0).getSubId();
                 /* if subscription is not active, activate the sub */
-                if (!mSubscriptionManager.isActiveSubId(filteredAvailableNetworks.get(0).getSubId())) {
+                if (!mSubscriptionManager.isActiveSubId(oppSubId)) {
                     mNetworkScanCallback = callbackStub;
-                    switchToSubscription(filteredAvailableNetworks.get(0).getSubId(),
+                    switchToSubscription(oppSubId,
                             availSIMPortIndex);
                 } else {
-                    if (enableModem(filteredAvailableNetworks.get(0).getSubId(), true)) {
-                        sendUpdateNetworksCallbackHelper(callbackStub,
+                    if (enableModem(oppSubId, true)) {
+                        sendUpdateNetworksCallbackHelper(callbackStub, oppSubId,
                             TelephonyManager.UPDATE_AVAILABLE_NETWORKS_SUCCESS);
                     } else {
                         if (Compatibility.isChangeEnabled(
                                 OpportunisticNetworkService.CALLBACK_ON_MORE_ERROR_CODE_CHANGE)) {
-                            sendUpdateNetworksCallbackHelper(callbackStub,
+                            sendUpdateNetworksCallbackHelper(callbackStub, oppSubId,
                                     TelephonyManager.UPDATE_AVAILABLE_NETWORKS_ENABLE_MODEM_FAIL);
                         } else {
-                            sendUpdateNetworksCallbackHelper(callbackStub,
+                            sendUpdateNetworksCallbackHelper(callbackStub, oppSubId,
                                     TelephonyManager.UPDATE_AVAILABLE_NETWORKS_ABORTED);
                         }
                     }
@@ -689,15 +813,15 @@ public class ONSProfileSelector {
             return;
         }
         if (enableModem(subId, false)) {
-            sendUpdateNetworksCallbackHelper(callbackStub,
+            sendUpdateNetworksCallbackHelper(callbackStub, subId,
                 TelephonyManager.UPDATE_AVAILABLE_NETWORKS_SUCCESS);
         } else {
             if (Compatibility.isChangeEnabled(
                     OpportunisticNetworkService.CALLBACK_ON_MORE_ERROR_CODE_CHANGE)) {
-                sendUpdateNetworksCallbackHelper(callbackStub,
+                sendUpdateNetworksCallbackHelper(callbackStub, subId,
                         TelephonyManager.UPDATE_AVAILABLE_NETWORKS_DISABLE_MODEM_FAIL);
             } else {
-                sendUpdateNetworksCallbackHelper(callbackStub,
+                sendUpdateNetworksCallbackHelper(callbackStub, subId,
                         TelephonyManager.UPDATE_AVAILABLE_NETWORKS_ABORTED);
             }
         }
@@ -741,6 +865,7 @@ public class ONSProfileSelector {
                 mNetworkScanCallback = null;
             }
             mNetworkScanCtlr.stopNetworkScan();
+            mSwitchDeclined = false;
 
             mAvailableNetworkInfos = null;
             mIsEnabled = false;
@@ -766,6 +891,51 @@ public class ONSProfileSelector {
         return false;
     }
 
+    /**
+     * The switch cost model compares the opportunistic cell with the serving cell of the default
+     * data subscription, so it follows that subscription.
+     */
+    private final BroadcastReceiver mDefaultDataSubChangedReceiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            updateSwitchCostModel(intent.getIntExtra(SubscriptionManager.EXTRA_SUBSCRIPTION_INDEX,
+                    SubscriptionManager.INVALID_SUBSCRIPTION_ID));
+        }
+    };
+
+    @VisibleForTesting
+    protected void updateSwitchCostModel(int defaultDataSubId) {
+        if (!SubscriptionManager.isValidSubscriptionId(defaultDataSubId)
+                || defaultDataSubId == mSwitchCostModelSubId) {
+            return;
+        }
+        logDebug("switch cost model follows sub " + defaultDataSubId);
+        mSwitchCostModelSubId = defaultDataSubId;
+        mSwitchCostModel.register(mTelephonyManager.createForSubscriptionId(defaultDataSubId),
+                mHandler::post);
+    }
+
+    /**
+     * @return the model deciding whether a switch is worth its cost.
+     */
+    public ONSSwitchCostModel getSwitchCostModel() {
+        return mSwitchCostModel;
+    }
+
+    /**
+     * @return outcomes of recent data validations.
+     */
+    public ONSValidationCache getValidationCache() {
+        return mValidationCache;
+    }
+
+    /**
+     * @return the monitor of the opportunistic link preferred for data.
+     */
+    public ONSLinkQualityMonitor getLinkQualityMonitor() {
+        return mLinkQualityMonitor;
+    }
+
     public boolean containStandaloneOppSubs(ArrayList<AvailableNetworkInfo> availableNetworks) {
         if (mStandaloneOppSubInfos == null) {
             logDebug("received null subscription infos");
@@ -825,15 +995,90 @@ public class ONSProfileSelector {
         }
     }
 
+    /**
+     * @return identity of the cell the subscription is registered on, or null if unknown.
+     */
+    @VisibleForTesting
+    protected CellIdentity getServingCell(int subId) {
+        TelephonyManager telephonyManager = mTelephonyManager.createForSubscriptionId(subId);
+        if (telephonyManager == null) {
+            return null;
+        }
+        try {
+            ServiceState serviceState = telephonyManager.getServiceState();
+            if (serviceState == null) {
+                return null;
+            }
+            NetworkRegistrationInfo regInfo = serviceState.getNetworkRegistrationInfo(
+                    NetworkRegistrationInfo.DOMAIN_PS,
+                    AccessNetworkConstants.TRANSPORT_TYPE_WWAN);
+            return regInfo == null ? null : regInfo.getCellIdentity();
+        } catch (SecurityException e) {
+            log("No permission to read service state " + e);
+            return null;
+        }
+    }
+
+    /**
+     * @param servingCell serving cell validated on, or null if the switch is not validated.
+     * @return callback recording the validation outcome and watching the link of subId once the
+     *         switch succeeded, before forwarding the result to callbackStub.
+     */
+    private ISetOpportunisticDataCallback createSwitchCallback(int subId,
+            CellIdentity servingCell, ISetOpportunisticDataCallback callbackStub) {
+        return new ISetOpportunisticDataCallback.Stub() {
+            @Override
+            public void onComplete(int result) {
+                if (result == TelephonyManager.SET_OPPORTUNISTIC_SUB_SUCCESS) {
+                    mValidationCache.putResult(subId, servingCell,
+                            ONSValidationCache.RESULT_VALIDATED);
+                    mHandler.post(() -> {
+                        /* a later request may have changed the preferred subscription */
+                        if (mCurrentDataSubId == subId) {
+                            updateLinkQualityMonitor(subId);
+                        }
+                    });
+                } else if (result == TelephonyManager.SET_OPPORTUNISTIC_SUB_VALIDATION_FAILED) {
+                    mValidationCache.putResult(subId, servingCell,
+                            ONSValidationCache.RESULT_FAILED);
+                }
+                sendSetOpptCallbackHelper(callbackStub, result);
+            }
+        };
+    }
+
     /**
      * select opportunistic profile for data if passing a valid subId.
      * @param subId : opportunistic subId or SubscriptionManager.DEFAULT_SUBSCRIPTION_ID if
      *              deselecting previously set preference.
+     * @param needValidation : validate data on subId before switching to it. A validation
+     *              outcome recorded on the same serving cell within its TTL is reused instead.
      */
     public void selectProfileForData(int subId, boolean needValidation,
             ISetOpportunisticDataCallback callbackStub) {
         if ((subId == SubscriptionManager.DEFAULT_SUBSCRIPTION_ID)
                 || (isOpprotunisticSub(subId) && mSubscriptionManager.isActiveSubId(subId))) {
+            ISetOpportunisticDataCallback switchCallback = callbackStub;
+            if (subId == SubscriptionManager.DEFAULT_SUBSCRIPTION_ID) {
+                updateLinkQualityMonitor(subId);
+            } else if (!needValidation) {
+                switchCallback = createSwitchCallback(subId, null, callbackStub);
+            } else {
+                CellIdentity servingCell = getServingCell(subId);
+                int cachedResult = mValidationCache.getResult(subId, servingCell);
+                if (cachedResult == ONSValidationCache.RESULT_FAILED) {
+                    log("Validation recently failed on the serving cell of sub " + subId);
+                    sendSetOpptCallbackHelper(callbackStub,
+                            TelephonyManager.SET_OPPORTUNISTIC_SUB_VALIDATION_FAILED);
+                    return;
+                } else if (cachedResult == ONSValidationCache.RESULT_VALIDATED) {
+                    logDebug("Reusing validation on the serving cell of sub " + subId);
+                    needValidation = false;
+                    switchCallback = createSwitchCallback(subId, null, callbackStub);
+                } else {
+                    switchCallback = createSwitchCallback(subId, servingCell, callbackStub);
+                }
+            }
             ISub iSub = ISub.Stub.asInterface(
                     TelephonyFrameworkInitializer
                             .getTelephonyServiceManager()
@@ -852,7 +1097,7 @@ public class ONSProfileSelector {
                 return;
             }
             try {
-                iSub.setPreferredDataSubscriptionId(subId, needValidation, callbackStub);
+                iSub.setPreferredDataSubscriptionId(subId, needValidation, switchCallback);
             } catch (RemoteException ex) {
                 log("Could not connect to Subscription Service");
                 if (Compatibility.isChangeEnabled(
@@ -884,6 +1129,42 @@ public class ONSProfileSelector {
         }
     }
 
+    /**
+     * Watch the link of the opportunistic subscription preferred for data, if any.
+     */
+    private void updateLinkQualityMonitor(int subId) {
+        if (mLinkQualityMonitor == null) {
+            return;
+        }
+        if (subId == SubscriptionManager.DEFAULT_SUBSCRIPTION_ID) {
+            mLinkQualityMonitor.stop();
+            return;
+        }
+        CarrierConfigManager configManager = mContext.getSystemService(CarrierConfigManager.class);
+        PersistableBundle config = configManager == null
+                ? null : configManager.getConfigForSubId(subId);
+        if (config == null) {
+            config = CarrierConfigManager.getDefaultConfig();
+        }
+        mLinkQualityMonitor.start(subId, mTelephonyManager.createForSubscriptionId(subId),
+                config.getInt(
+                        CarrierConfigManager.KEY_OPPORTUNISTIC_NETWORK_EXIT_THRESHOLD_RSRP_INT),
+                config.getInt(
+                        CarrierConfigManager.OpportunisticNetwork.KEY_EXIT_THRESHOLD_SS_RSRP_INT));
+    }
+
+    private void onOpportunisticLinkLost(int subId, int reason) {
+        synchronized (mLock) {
+            /* data may have moved since the link was lost */
+            if (mCurrentDataSubId != subId) {
+                return;
+            }
+        }
+        log("Link of sub " + subId + " lost, reason " + reason
+                + ", switching data back to the default sub");
+        selectProfileForData(SubscriptionManager.DEFAULT_SUBSCRIPTION_ID, false, null);
+    }
+
     public int getPreferredDataSubscriptionId() {
         return mSubscriptionManager.getPreferredDataSubscriptionId();
     }
@@ -909,6 +1190,9 @@ public class ONSProfileSelector {
                         .filter(subInfo -> subInfo.getGroupUuid() == null)
                         .collect(Collectors.toList());
             }
+            if (mDecisionJournal != null) {
+                mDecisionJournal.logSubscriptionSnapshot(mOppSubscriptionInfos);
+            }
         }
     }
 
@@ -942,6 +1226,11 @@ public class ONSProfileSelector {
         mSubscriptionManager = mContext.getSystemService(SubscriptionManager.class);
         mNetworkScanCtlr = new ONSNetworkScanCtlr(mContext, mSubscriptionBoundTelephonyManager,
                 mNetworkAvailableCallBack);
+        if (ONSDecisionJournal.isEnabled()) {
+            mDecisionJournal = new ONSDecisionJournal(
+                    mContext.createDeviceProtectedStorageContext());
+        }
+        mNetworkScanCtlr.setDecisionJournal(mDecisionJournal);
         mEuiccManager = c.getSystemService(EuiccManager.class);
         updateOpportunisticSubscriptions();
         mThread = new HandlerThread(LOG_TAG);
@@ -980,6 +1269,13 @@ public class ONSProfileSelector {
                 }
             }
         };
+        mContext.registerReceiver(mDefaultDataSubChangedReceiver,
+                new IntentFilter(TelephonyManager.ACTION_DEFAULT_DATA_SUBSCRIPTION_CHANGED), null,
+                mHandler);
+        updateSwitchCostModel(SubscriptionManager.getDefaultDataSubscriptionId());
+        mLinkQualityMonitor = new ONSLinkQualityMonitor(mHandler,
+                c.getResources().getInteger(R.integer.ons_link_loss_grace_ms),
+                this::onOpportunisticLinkLost);
         /* register for profile update events */
         mSubscriptionManager.addOnOpportunisticSubscriptionsChangedListener(
                 AsyncTask.SERIAL_EXECUTOR, mProfileChangeListener);
@@ -0,0 +1,193 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.ons;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.android.internal.annotations.VisibleForTesting;
+
+import java.io.PrintWriter;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+/**
+ * @class ONSProvisioningFunnel
+ * @brief Times the stages of a CBRS provisioning attempt, from the carrier config change of a
+ * newly inserted pSIM to the first activation of its opportunistic eSIM, and keeps a duration
+ * histogram per stage.
+ *
+ * An attempt is started by {@link #start()} and stages are recorded the first time they are
+ * reached. The duration of a stage is the time since the previous stage reached in the attempt,
+ * since stages are skipped when e.g. the device is already in multi-SIM mode.
+ */
+public class ONSProvisioningFunnel {
+
+    private static final String TAG = ONSProvisioningFunnel.class.getName();
+
+    /* stages, in the order they are normally reached */
+    public static final int STAGE_CONFIG_CHANGED = 0;
+    public static final int STAGE_MULTI_SIM_SWITCH = 1;
+    public static final int STAGE_WAITING_FOR_CONNECTIVITY = 2;
+    public static final int STAGE_DOWNLOAD_REQUESTED = 3;
+    public static final int STAGE_LPA_RESULT = 4;
+    public static final int STAGE_GROUPED = 5;
+    public static final int STAGE_SET_OPPORTUNISTIC = 6;
+    public static final int STAGE_ACTIVATED = 7;
+    private static final int STAGE_COUNT = 8;
+
+    private static final String[] STAGE_NAMES = {
+            "configChanged", "multiSimSwitch", "waitingForConnectivity", "downloadRequested",
+            "lpaResult", "grouped", "setOpportunistic", "activated"};
+
+    /* upper bounds of the histogram buckets, the last bucket has no bound */
+    @VisibleForTesting
+    protected static final long[] BUCKET_BOUNDS_MS = {
+            TimeUnit.SECONDS.toMillis(1), TimeUnit.SECONDS.toMillis(5),
+            TimeUnit.SECONDS.toMillis(30), TimeUnit.MINUTES.toMillis(2),
+            TimeUnit.MINUTES.toMillis(10), TimeUnit.HOURS.toMillis(1)};
+
+    private final LongSupplier mClock;
+    /* time each stage was reached in the current attempt, 0 if not reached */
+    private final long[] mStageTimes = new long[STAGE_COUNT];
+    private final int[][] mStageHistograms = new int[STAGE_COUNT][BUCKET_BOUNDS_MS.length + 1];
+    private final int[] mTotalHistogram = new int[BUCKET_BOUNDS_MS.length + 1];
+    private long mStartTimeMs;
+    private long mLastStageTimeMs;
+    private int mCompletedCount;
+    private int mAbandonedCount;
+
+    public ONSProvisioningFunnel() {
+        this(SystemClock::elapsedRealtime);
+    }
+
+    @VisibleForTesting
+    ONSProvisioningFunnel(LongSupplier clock) {
+        mClock = clock;
+    }
+
+    /**
+     * Starts an attempt unless one is in progress, and records {@link #STAGE_CONFIG_CHANGED}.
+     */
+    public synchronized void start() {
+        if (mStartTimeMs != 0) {
+            return;
+        }
+        mStartTimeMs = mClock.getAsLong();
+        mLastStageTimeMs = mStartTimeMs;
+        mStageTimes[STAGE_CONFIG_CHANGED] = mStartTimeMs;
+    }
+
+    /**
+     * Records that the current attempt reached a stage. Stages already reached and stages
+     * reported while no attempt is in progress are ignored. Reaching
+     * {@link #STAGE_ACTIVATED} completes the attempt. It only counts once the eSIM of the attempt
+     * was set opportunistic, since an older opportunistic eSIM may be active meanwhile.
+     */
+    public synchronized void markStage(int stage) {
+        if (mStartTimeMs == 0 || mStageTimes[stage] != 0) {
+            return;
+        }
+        if (stage == STAGE_ACTIVATED && mStageTimes[STAGE_SET_OPPORTUNISTIC] == 0) {
+            return;
+        }
+        long now = mClock.getAsLong();
+        mStageTimes[stage] = now;
+        mStageHistograms[stage][getBucket(now - mLastStageTimeMs)]++;
+        mLastStageTimeMs = now;
+        if (stage == STAGE_ACTIVATED) {
+            mTotalHistogram[getBucket(now - mStartTimeMs)]++;
+            mCompletedCount++;
+            Log.d(TAG, "Provisioning completed in " + (now - mStartTimeMs) + "ms");
+            reset();
+        }
+    }
+
+    /**
+     * @return true if the current attempt reached the stage.
+     */
+    public synchronized boolean hasReached(int stage) {
+        return mStartTimeMs != 0 && mStageTimes[stage] != 0;
+    }
+
+    /**
+     * @return time since the start of the current attempt, or -1 if none is in progress.
+     */
+    public synchronized long getElapsedMs() {
+        return mStartTimeMs == 0 ? -1 : mClock.getAsLong() - mStartTimeMs;
+    }
+
+    /**
+     * Ends the current attempt without recording its total time, e.g. when the inserted SIM is
+     * not a CBRS SIM or the opportunistic eSIM was already provisioned.
+     */
+    public synchronized void abandon() {
+        if (mStartTimeMs != 0) {
+            mAbandonedCount++;
+            reset();
+        }
+    }
+
+    /**
+     * @return number of stage durations recorded in each bucket.
+     */
+    @VisibleForTesting
+    protected synchronized int[] getStageHistogram(int stage) {
+        return Arrays.copyOf(mStageHistograms[stage], mStageHistograms[stage].length);
+    }
+
+    /**
+     * @return number of completed attempts in each total time bucket.
+     */
+    @VisibleForTesting
+    protected synchronized int[] getTotalHistogram() {
+        return Arrays.copyOf(mTotalHistogram, mTotalHistogram.length);
+    }
+
+    /**
+     * Print the stage histograms.
+     */
+    public synchronized void dump(PrintWriter pw) {
+        pw.println("  provisioning funnel: completed=" + mCompletedCount
+                + " abandoned=" + mAbandonedCount + " inProgressMs=" + getElapsedMs());
+        StringBuilder bounds = new StringBuilder("    buckets(ms):");
+        for (long bound : BUCKET_BOUNDS_MS) {
+            bounds.append(" <").append(bound);
+        }
+        pw.println(bounds.append(" >=").append(BUCKET_BOUNDS_MS[BUCKET_BOUNDS_MS.length - 1]));
+        for (int stage = STAGE_MULTI_SIM_SWITCH; stage < STAGE_COUNT; stage++) {
+            pw.println("    " + STAGE_NAMES[stage] + ": "
+                    + Arrays.toString(mStageHistograms[stage]));
+        }
+        pw.println("    total: " + Arrays.toString(mTotalHistogram));
+    }
+
+    private void reset() {
+        mStartTimeMs = 0;
+        mLastStageTimeMs = 0;
+        Arrays.fill(mStageTimes, 0);
+    }
+
+    private static int getBucket(long durationMs) {
+        int bucket = 0;
+        while (bucket < BUCKET_BOUNDS_MS.length && durationMs >= BUCKET_BOUNDS_MS[bucket]) {
+            bucket++;
+        }
+        return bucket;
+    }
+}
@@ -0,0 +1,270 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.ons;
+
+import android.telephony.AvailableNetworkInfo;
+
+import com.android.internal.annotations.VisibleForTesting;
+import com.android.telephony.Rlog;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
+/**
+ * Arbitrates between the apps which report available networks to OpportunisticNetworkService.
+ *
+ * Every requester holds at most one {@link ONSConfigInput}. The requests are kept in an
+ * immutable {@link State} which is replaced atomically on each update, so it can be read from
+ * any thread without locking. Updates go through a single serialized decision point which picks
+ * the request that drives profile selection:
+ * <ol>
+ * <li>requests containing standalone opportunistic subscriptions come first,</li>
+ * <li>then requesters are ordered by their rank, carrier app before system app.</li>
+ * </ol>
+ */
+public class ONSRequestArbitrator {
+    private static final String LOG_TAG = "ONSRequestArbitrator";
+    private static final boolean DBG = true;
+
+    public static final String REQUESTER_CARRIER_APP = "carrierApp";
+    public static final String REQUESTER_SYSTEM_APP = "systemApp";
+
+    /* reasons passed to Listener#onRequestSuperseded */
+    /** The request was replaced by a newer request of the same requester. */
+    public static final int SUPERSEDED_BY_NEWER_REQUEST = 1;
+    /** The request stays pending while a request of higher priority is served. */
+    public static final int SUPERSEDED_BY_HIGHER_PRIORITY = 2;
+    /** The requester withdrew its request. */
+    public static final int SUPERSEDED_BY_WITHDRAWAL = 3;
+
+    /**
+     * Observer of arbitration results.
+     */
+    public interface Listener {
+        /**
+         * Called when a request stops being the one that drives profile selection, or is
+         * replaced before being served.
+         * @param requester requester of the superseded request.
+         * @param request superseded request.
+         * @param reason one of the SUPERSEDED_BY_* constants.
+         */
+        void onRequestSuperseded(String requester, ONSConfigInput request, int reason);
+    }
+
+    /**
+     * Immutable snapshot of the arbitration state.
+     */
+    public static final class State {
+        private final Map<String, ONSConfigInput> mRequests;
+        private final String mWinner;
+
+        private State(Map<String, ONSConfigInput> requests, String winner) {
+            mRequests = Collections.unmodifiableMap(requests);
+            mWinner = winner;
+        }
+
+        /**
+         * @return the request of the requester or null if there is none.
+         */
+        public ONSConfigInput getRequest(String requester) {
+            return mRequests.get(requester);
+        }
+
+        /**
+         * @return the requester whose request wins arbitration or null if there are no requests.
+         */
+        public String getWinner() {
+            return mWinner;
+        }
+
+        /**
+         * @return the winning request or null if there are no requests.
+         */
+        public ONSConfigInput getWinningRequest() {
+            return mWinner == null ? null : mRequests.get(mWinner);
+        }
+
+        @Override
+        public String toString() {
+            return "State{winner=" + mWinner + ", requests=" + mRequests + "}";
+        }
+    }
+
+    private final Object mLock = new Object();
+    /* requesters in descending order of priority */
+    private final List<String> mRequesterRanks;
+    private final Predicate<ArrayList<AvailableNetworkInfo>> mIsStandalone;
+    private final Listener mListener;
+    private volatile State mState;
+
+    /**
+     * @param isStandalone tells whether a list of available networks contains standalone
+     *        opportunistic subscriptions.
+     * @param listener receives supersession callbacks, may be null.
+     */
+    public ONSRequestArbitrator(Predicate<ArrayList<AvailableNetworkInfo>> isStandalone,
+            Listener listener) {
+        this(List.of(REQUESTER_CARRIER_APP, REQUESTER_SYSTEM_APP), isStandalone, listener);
+    }
+
+    @VisibleForTesting
+    ONSRequestArbitrator(List<String> requesterRanks,
+            Predicate<ArrayList<AvailableNetworkInfo>> isStandalone, Listener listener) {
+        mRequesterRanks = List.copyOf(requesterRanks);
+        mIsStandalone = isStandalone;
+        mListener = listener;
+        mState = new State(new HashMap<>(), null);
+    }
+
+    /**
+     * @return the current state. Safe to call from any thread.
+     */
+    public State getState() {
+        return mState;
+    }
+
+    /**
+     * Replace the request of a requester, or withdraw it if request is null, and run
+     * arbitration.
+     * @param action run with the new state inside the decision point, so that the actions
+     *        taken for concurrent updates are applied in the same order as the updates.
+     * @return the new state.
+     */
+    public State update(String requester, ONSConfigInput request, Consumer<State> action) {
+        synchronized (mLock) {
+            State oldState = mState;
+            ONSConfigInput oldRequest = oldState.getRequest(requester);
+            Map<String, ONSConfigInput> requests = new HashMap<>(oldState.mRequests);
+            if (request == null) {
+                requests.remove(requester);
+            } else {
+                requests.put(requester, request);
+            }
+            State newState = new State(requests, decideLocked(requests));
+            mState = newState;
+            logDebug("update from " + requester + ": " + newState);
+
+            if (oldRequest != null && oldRequest != request) {
+                notifySuperseded(requester, oldRequest, request == null
+                        ? SUPERSEDED_BY_WITHDRAWAL : SUPERSEDED_BY_NEWER_REQUEST);
+            }
+            notifyPreempted(oldState, newState);
+            if (request != null && !requester.equals(newState.getWinner())) {
+                notifySuperseded(requester, request, SUPERSEDED_BY_HIGHER_PRIORITY);
+            }
+            if (action != null) {
+                action.accept(newState);
+            }
+            return newState;
+        }
+    }
+
+    /**
+     * Withdraw a request only if it is still the current request of the requester, so that a
+     * newer request submitted concurrently is not dropped.
+     * @return the new state or null if the request was not current.
+     */
+    public State withdrawIfCurrent(String requester, ONSConfigInput request,
+            Consumer<State> action) {
+        synchronized (mLock) {
+            if (mState.getRequest(requester) != request) {
+                return null;
+            }
+            return update(requester, null, action);
+        }
+    }
+
+    /**
+     * Run arbitration as if the request had been submitted, without keeping it.
+     * @return the state that {@link #update} would have produced.
+     */
+    public State evaluate(String requester, ONSConfigInput request) {
+        synchronized (mLock) {
+            Map<String, ONSConfigInput> requests = new HashMap<>(mState.mRequests);
+            requests.put(requester, request);
+            return new State(requests, decideLocked(requests));
+        }
+    }
+
+    /**
+     * Run arbitration again, for example after the service was enabled or the opportunistic
+     * subscriptions changed.
+     * @param action run with the new state inside the decision point.
+     * @return the new state.
+     */
+    public State reevaluate(Consumer<State> action) {
+        synchronized (mLock) {
+            State oldState = mState;
+            Map<String, ONSConfigInput> requests = new HashMap<>(oldState.mRequests);
+            State newState = new State(requests, decideLocked(requests));
+            mState = newState;
+            notifyPreempted(oldState, newState);
+            if (action != null) {
+                action.accept(newState);
+            }
+            return newState;
+        }
+    }
+
+    private String decideLocked(Map<String, ONSConfigInput> requests) {
+        String winner = null;
+        boolean winnerIsStandalone = false;
+        for (String requester : mRequesterRanks) {
+            ONSConfigInput request = requests.get(requester);
+            if (request == null) {
+                continue;
+            }
+            boolean isStandalone = request.getAvailableNetworkInfos() != null
+                    && mIsStandalone.test(request.getAvailableNetworkInfos());
+            if (winner == null || (isStandalone && !winnerIsStandalone)) {
+                winner = requester;
+                winnerIsStandalone = isStandalone;
+            }
+        }
+        return winner;
+    }
+
+    private void notifyPreempted(State oldState, State newState) {
+        String oldWinner = oldState.getWinner();
+        if (oldWinner == null || oldWinner.equals(newState.getWinner())) {
+            return;
+        }
+        /* the previous winner is still there but another request now has priority */
+        ONSConfigInput request = newState.getRequest(oldWinner);
+        if (request != null && request == oldState.getRequest(oldWinner)) {
+            notifySuperseded(oldWinner, request, SUPERSEDED_BY_HIGHER_PRIORITY);
+        }
+    }
+
+    private void notifySuperseded(String requester, ONSConfigInput request, int reason) {
+        logDebug(requester + " request superseded, reason " + reason);
+        if (mListener != null) {
+            mListener.onRequestSuperseded(requester, request, reason);
+        }
+    }
+
+    private void logDebug(String msg) {
+        if (DBG) {
+            Rlog.d(LOG_TAG, msg);
+        }
+    }
+}
@@ -0,0 +1,258 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.ons;
+
+import android.telephony.AccessNetworkConstants;
+import android.telephony.CellInfo;
+import android.telephony.CellInfoLte;
+import android.telephony.CellInfoNr;
+import android.telephony.CellSignalStrengthNr;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * @class ONSSignalQualityPolicy
+ * @brief Decides whether a scanned cell is good enough to switch to, and ranks qualified cells.
+ *
+ * A strong RSRP alone does not make a usable cell: an interference limited CBRS cell can report
+ * a high RSRP with a poor RSRQ and SINR. Carriers can therefore set RSRP, RSRQ and SINR
+ * thresholds per RAT and per band with {@link #KEY_SIGNAL_QUALITY_THRESHOLDS_STRING_ARRAY} in
+ * the carrier config of the opportunistic subscription. Cells not covered by the table are
+ * qualified on RSRP against the default threshold only, as before.
+ */
+public final class ONSSignalQualityPolicy {
+
+    private static final String TAG = ONSSignalQualityPolicy.class.getName();
+
+    /**
+     * Carrier config thresholds, each entry formatted as "rat[:band]=rsrp,rsrq,sinr" with the
+     * RAT "lte" or "nr" and the 3GPP band number, e.g. "nr:48=-110,-12,5" or "lte=,-15,0".
+     * For NR the values are compared with SS-RSRP, SS-RSRQ and SS-SINR. An empty value leaves
+     * the metric unchecked, an empty RSRP falls back to the default RSRP threshold. Entries for a
+     * band take precedence over the entry for the whole RAT.
+     */
+    public static final String KEY_SIGNAL_QUALITY_THRESHOLDS_STRING_ARRAY =
+            "ons_signal_quality_thresholds_string_array";
+
+    private static final int UNCHECKED = CellInfo.UNAVAILABLE;
+    private static final int ANY_BAND = -1;
+    private static final int RAT_UNKNOWN = AccessNetworkConstants.AccessNetworkType.UNKNOWN;
+    private static final int RAT_LTE = AccessNetworkConstants.AccessNetworkType.EUTRAN;
+    private static final int RAT_NR = AccessNetworkConstants.AccessNetworkType.NGRAN;
+    private static final int THRESHOLD_COUNT = 3;
+
+    private static final class Thresholds {
+        final int mRat;
+        final int mBand;
+        final int mRsrp;
+        final int mRsrq;
+        final int mSinr;
+
+        Thresholds(int rat, int band, int rsrp, int rsrq, int sinr) {
+            mRat = rat;
+            mBand = band;
+            mRsrp = rsrp;
+            mRsrq = rsrq;
+            mSinr = sinr;
+        }
+    }
+
+    private final List<Thresholds> mThresholds = new ArrayList<>();
+
+    /**
+     * @param table value of {@link #KEY_SIGNAL_QUALITY_THRESHOLDS_STRING_ARRAY}, may be null.
+     */
+    public ONSSignalQualityPolicy(String[] table) {
+        if (table == null) {
+            return;
+        }
+        for (String entry : table) {
+            Thresholds thresholds = parseEntry(entry);
+            if (thresholds == null) {
+                Log.e(TAG, "Invalid signal quality thresholds " + entry);
+                continue;
+            }
+            mThresholds.add(thresholds);
+        }
+    }
+
+    /**
+     * @param defaultRsrpThreshold RSRP, or SS-RSRP for NR cells, used when the table does not
+     *        set an RSRP threshold for the cell.
+     * @return true if the cell meets all thresholds. Metrics the modem did not report are not
+     *         checked.
+     */
+    public boolean isQualified(CellInfo cellInfo, int defaultRsrpThreshold) {
+        int rat = getRat(cellInfo);
+        if (rat == RAT_UNKNOWN) {
+            return false;
+        }
+        Thresholds thresholds = findThresholds(rat, getBands(cellInfo));
+        int rsrpThreshold = defaultRsrpThreshold;
+        if (thresholds != null && thresholds.mRsrp != UNCHECKED) {
+            rsrpThreshold = thresholds.mRsrp;
+        }
+        if (!meetsThreshold(getRsrp(cellInfo), rsrpThreshold)) {
+            return false;
+        }
+        return thresholds == null || (meetsThreshold(getRsrq(cellInfo), thresholds.mRsrq)
+                && meetsThreshold(getSinr(cellInfo), thresholds.mSinr));
+    }
+
+    /**
+     * Orders cells from the best to the worst expected throughput: by SINR, then by RSRP. Cells
+     * which do not report a metric are ordered after the ones that do.
+     */
+    public static int compareQuality(CellInfo cellInfo1, CellInfo cellInfo2) {
+        int result = compareMetric(getSinr(cellInfo1), getSinr(cellInfo2));
+        if (result != 0) {
+            return result;
+        }
+        return compareMetric(getRsrp(cellInfo1), getRsrp(cellInfo2));
+    }
+
+    /**
+     * @return RSRP of an LTE cell or SS-RSRP of an NR cell, CellInfo.UNAVAILABLE otherwise.
+     */
+    public static int getRsrp(CellInfo cellInfo) {
+        if (cellInfo instanceof CellInfoLte) {
+            return ((CellInfoLte) cellInfo).getCellSignalStrength().getRsrp();
+        } else if (cellInfo instanceof CellInfoNr) {
+            return ((CellSignalStrengthNr) cellInfo.getCellSignalStrength()).getSsRsrp();
+        }
+        return CellInfo.UNAVAILABLE;
+    }
+
+    private static int getRsrq(CellInfo cellInfo) {
+        if (cellInfo instanceof CellInfoLte) {
+            return ((CellInfoLte) cellInfo).getCellSignalStrength().getRsrq();
+        } else if (cellInfo instanceof CellInfoNr) {
+            return ((CellSignalStrengthNr) cellInfo.getCellSignalStrength()).getSsRsrq();
+        }
+        return CellInfo.UNAVAILABLE;
+    }
+
+    /**
+     * @return RSSNR of an LTE cell or SS-SINR of an NR cell in dB, CellInfo.UNAVAILABLE
+     *         otherwise.
+     */
+    public static int getSinr(CellInfo cellInfo) {
+        if (cellInfo instanceof CellInfoLte) {
+            return ((CellInfoLte) cellInfo).getCellSignalStrength().getRssnr();
+        } else if (cellInfo instanceof CellInfoNr) {
+            return ((CellSignalStrengthNr) cellInfo.getCellSignalStrength()).getSsSinr();
+        }
+        return CellInfo.UNAVAILABLE;
+    }
+
+    private static int getRat(CellInfo cellInfo) {
+        if (cellInfo instanceof CellInfoLte) {
+            return RAT_LTE;
+        } else if (cellInfo instanceof CellInfoNr) {
+            return RAT_NR;
+        }
+        return RAT_UNKNOWN;
+    }
+
+    private static int[] getBands(CellInfo cellInfo) {
+        if (cellInfo instanceof CellInfoLte) {
+            return ((CellInfoLte) cellInfo).getCellIdentity().getBands();
+        } else if (cellInfo instanceof CellInfoNr) {
+            return ((CellInfoNr) cellInfo).getCellIdentity().getBands();
+        }
+        return new int[0];
+    }
+
+    private static boolean meetsThreshold(int value, int threshold) {
+        return threshold == UNCHECKED || value == CellInfo.UNAVAILABLE || value >= threshold;
+    }
+
+    private static int compareMetric(int value1, int value2) {
+        if (value1 == value2) {
+            return 0;
+        }
+        if (value1 == CellInfo.UNAVAILABLE) {
+            return 1;
+        }
+        if (value2 == CellInfo.UNAVAILABLE) {
+            return -1;
+        }
+        return Integer.compare(value2, value1);
+    }
+
+    /**
+     * @return thresholds for one of the bands of the cell, else for the RAT, else null.
+     */
+    private Thresholds findThresholds(int rat, int[] bands) {
+        Thresholds ratThresholds = null;
+        for (Thresholds thresholds : mThresholds) {
+            if (thresholds.mRat != rat) {
+                continue;
+            }
+            if (thresholds.mBand == ANY_BAND) {
+                ratThresholds = thresholds;
+                continue;
+            }
+            for (int band : bands) {
+                if (band == thresholds.mBand) {
+                    return thresholds;
+                }
+            }
+        }
+        return ratThresholds;
+    }
+
+    private static Thresholds parseEntry(String entry) {
+        if (entry == null) {
+            return null;
+        }
+        int assignment = entry.indexOf('=');
+        if (assignment < 0) {
+            return null;
+        }
+        String[] key = entry.substring(0, assignment).trim().split(":");
+        String[] values = entry.substring(assignment + 1).split(",", -1);
+        if (key.length > 2 || values.length != THRESHOLD_COUNT) {
+            return null;
+        }
+        int rat;
+        switch (key[0].trim()) {
+            case "lte":
+                rat = RAT_LTE;
+                break;
+            case "nr":
+                rat = RAT_NR;
+                break;
+            default:
+                return null;
+        }
+        try {
+            int band = key.length == 2 ? Integer.parseInt(key[1].trim()) : ANY_BAND;
+            return new Thresholds(rat, band, parseThreshold(values[0]),
+                    parseThreshold(values[1]), parseThreshold(values[2]));
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    private static int parseThreshold(String value) {
+        value = value.trim();
+        return value.isEmpty() ? UNCHECKED : Integer.parseInt(value);
+    }
+}
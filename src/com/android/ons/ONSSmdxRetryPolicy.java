@@ -0,0 +1,232 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.ons;
+
+import android.util.Log;
+import android.util.SparseIntArray;
+
+/**
+ * @class ONSSmdxRetryPolicy
+ * @brief Classifies SM-DP+ and SM-DS errors reported with
+ * {@link android.telephony.euicc.EuiccManager#OPERATION_SMDX_SUBJECT_REASON_CODE} into retry
+ * classes.
+ *
+ * The detailed code packs the SubjectCode[5.2.6.1] and ReasonCode[5.2.6.2] of GSMA SGP.22 as six
+ * 4 bit digits, e.g. 0x810048 for subject 8.1.0 and reason 4.8. Lookups work on the packed value
+ * and do not allocate. Carriers can override the classification with
+ * {@link #KEY_SMDX_RETRY_POLICY_STRING_ARRAY}.
+ */
+public final class ONSSmdxRetryPolicy {
+
+    private static final String TAG = ONSSmdxRetryPolicy.class.getName();
+
+    /**
+     * Carrier config overrides of the retry class, each entry formatted as
+     * "subject/reason=class", e.g. "8.8.5/4.10=backoff". The subject can be "*" to match any
+     * subject. Classes are "immediate", "backoff", "after_delete" and "unresolvable".
+     */
+    public static final String KEY_SMDX_RETRY_POLICY_STRING_ARRAY =
+            "ons_smdx_retry_policy_string_array";
+
+    /* retry classes */
+    public static final int RETRY_UNRESOLVABLE = 0;
+    public static final int RETRY_IMMEDIATE = 1;
+    public static final int RETRY_BACKOFF = 2;
+    public static final int RETRY_AFTER_DELETE = 3;
+    private static final int RETRY_UNKNOWN = -1;
+
+    private static final int CODE_MASK = 0xFFF;
+    private static final int DIGIT_BITS = 4;
+    private static final int DIGIT_MASK = 0xF;
+    /* reason digits identifying the reason group, e.g. 5.x for transport errors */
+    private static final int REASON_GROUP_MASK = 0xFF0;
+
+    /* retry class by packed subject and reason code */
+    private static final SparseIntArray SUBJECT_REASON_TABLE = new SparseIntArray();
+    /* retry class by packed reason code, for any subject */
+    private static final SparseIntArray REASON_TABLE = new SparseIntArray();
+    /* retry class by reason group, for any subject */
+    private static final SparseIntArray REASON_GROUP_TABLE = new SparseIntArray();
+
+    static {
+        // 8.1 eUICC, 4.8 Insufficient Memory
+        SUBJECT_REASON_TABLE.put(0x810048, RETRY_AFTER_DELETE);
+        // 8.2.1 Profile ICCID, 3.3 Already in use: an older copy of the profile is installed.
+        SUBJECT_REASON_TABLE.put(0x821033, RETRY_AFTER_DELETE);
+        // 8.8.5 Download order, 4.10 Time to Live Expired
+        SUBJECT_REASON_TABLE.put(0x88504A, RETRY_BACKOFF);
+        // 8.10.1 TransactionId, 3.9 Unknown: the RSP session was lost, start a new one.
+        SUBJECT_REASON_TABLE.put(0x8A1039, RETRY_IMMEDIATE);
+
+        // 4.8 Insufficient Memory
+        REASON_TABLE.put(0x048, RETRY_AFTER_DELETE);
+        // 4.10 Time to Live Expired
+        REASON_TABLE.put(0x04A, RETRY_BACKOFF);
+        // 4.2 Execution Error
+        REASON_TABLE.put(0x042, RETRY_BACKOFF);
+        // 3.7 Unavailable
+        REASON_TABLE.put(0x037, RETRY_BACKOFF);
+
+        // 5.x Transport errors
+        REASON_GROUP_TABLE.put(0x050, RETRY_BACKOFF);
+        // 1.x Access errors, 2.x Format errors, 6.x Security errors and the remaining codes are
+        // not fixed by retrying the same request.
+        REASON_GROUP_TABLE.put(0x010, RETRY_UNRESOLVABLE);
+        REASON_GROUP_TABLE.put(0x020, RETRY_UNRESOLVABLE);
+        REASON_GROUP_TABLE.put(0x060, RETRY_UNRESOLVABLE);
+    }
+
+    private ONSSmdxRetryPolicy() {
+    }
+
+    /**
+     * @return packed SubjectCode, e.g. 0x810 for 8.1.0.
+     */
+    public static int getSubjectCode(int detailedCode) {
+        return (detailedCode >>> (3 * DIGIT_BITS)) & CODE_MASK;
+    }
+
+    /**
+     * @return packed ReasonCode, e.g. 0x048 for 4.8.
+     */
+    public static int getReasonCode(int detailedCode) {
+        return detailedCode & CODE_MASK;
+    }
+
+    /**
+     * Classifies an error with the built-in table.
+     *
+     * @param detailedCode detailed code of the download result.
+     * @return one of the RETRY_ classes.
+     */
+    public static int classify(int detailedCode) {
+        return classify(detailedCode, null);
+    }
+
+    /**
+     * Classifies an error, applying the carrier overrides first.
+     *
+     * @param detailedCode detailed code of the download result.
+     * @param overrides value of {@link #KEY_SMDX_RETRY_POLICY_STRING_ARRAY}, may be null.
+     * @return one of the RETRY_ classes.
+     */
+    public static int classify(int detailedCode, String[] overrides) {
+        int subject = getSubjectCode(detailedCode);
+        int reason = getReasonCode(detailedCode);
+
+        if (overrides != null) {
+            int retryClass = findOverride(subject, reason, overrides);
+            if (retryClass != RETRY_UNKNOWN) {
+                return retryClass;
+            }
+        }
+
+        int key = (subject << (3 * DIGIT_BITS)) | reason;
+        int retryClass = SUBJECT_REASON_TABLE.get(key, RETRY_UNKNOWN);
+        if (retryClass == RETRY_UNKNOWN) {
+            retryClass = REASON_TABLE.get(reason, RETRY_UNKNOWN);
+        }
+        if (retryClass == RETRY_UNKNOWN) {
+            retryClass = REASON_GROUP_TABLE.get(reason & REASON_GROUP_MASK, RETRY_UNRESOLVABLE);
+        }
+        return retryClass;
+    }
+
+    /**
+     * Formats a packed code as in SGP.22 without the leading zero digits, e.g. 0x048 -> "4.8".
+     */
+    public static String formatCode(int code) {
+        int first = (code >>> (2 * DIGIT_BITS)) & DIGIT_MASK;
+        int second = (code >>> DIGIT_BITS) & DIGIT_MASK;
+        int third = code & DIGIT_MASK;
+        if (first != 0) {
+            return first + "." + second + "." + third;
+        }
+        return second != 0 ? second + "." + third : Integer.toString(third);
+    }
+
+    /**
+     * Parses a code formatted as in SGP.22, e.g. "4.8" -> 0x048.
+     *
+     * @return the packed code, or -1 if the code is invalid.
+     */
+    private static int parseCode(String code) {
+        String[] digits = code.trim().split("\\.");
+        if (digits.length == 0 || digits.length > 3) {
+            return -1;
+        }
+        int packed = 0;
+        for (String digit : digits) {
+            int value;
+            try {
+                value = Integer.parseInt(digit);
+            } catch (NumberFormatException e) {
+                return -1;
+            }
+            if (value < 0 || value > DIGIT_MASK) {
+                return -1;
+            }
+            packed = (packed << DIGIT_BITS) | value;
+        }
+        return packed;
+    }
+
+    private static int parseRetryClass(String retryClass) {
+        switch (retryClass.trim()) {
+            case "immediate":
+                return RETRY_IMMEDIATE;
+            case "backoff":
+                return RETRY_BACKOFF;
+            case "after_delete":
+                return RETRY_AFTER_DELETE;
+            case "unresolvable":
+                return RETRY_UNRESOLVABLE;
+            default:
+                return RETRY_UNKNOWN;
+        }
+    }
+
+    /**
+     * @return retry class of the most specific matching override, or RETRY_UNKNOWN.
+     */
+    private static int findOverride(int subject, int reason, String[] overrides) {
+        int anySubjectClass = RETRY_UNKNOWN;
+        for (String override : overrides) {
+            if (override == null) {
+                continue;
+            }
+            int separator = override.indexOf('/');
+            int assignment = override.indexOf('=');
+            if (separator < 0 || assignment < separator) {
+                Log.e(TAG, "Invalid retry policy override " + override);
+                continue;
+            }
+            String subjectCode = override.substring(0, separator).trim();
+            int retryClass = parseRetryClass(override.substring(assignment + 1));
+            if (retryClass == RETRY_UNKNOWN
+                    || parseCode(override.substring(separator + 1, assignment)) != reason) {
+                continue;
+            }
+            if (subjectCode.equals("*")) {
+                anySubjectClass = retryClass;
+            } else if (parseCode(subjectCode) == subject) {
+                return retryClass;
+            }
+        }
+        return anySubjectClass;
+    }
+}
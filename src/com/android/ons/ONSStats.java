@@ -18,15 +18,23 @@ package com.android.ons;
 
 import android.content.Context;
 import android.content.SharedPreferences;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Message;
 import android.telephony.SubscriptionInfo;
 import android.telephony.SubscriptionManager;
+import android.util.Log;
 
+import com.android.internal.annotations.VisibleForTesting;
 import com.android.ons.ONSProfileActivator.Result;
 import com.android.ons.ONSProfileDownloader.DownloadRetryResultCode;
 
+import java.util.ArrayDeque;
+import java.util.ArrayList;
 import java.util.List;
 
 public class ONSStats {
+    private static final String TAG = ONSStats.class.getName();
     private static final String ONS_ATOM_LOG_FILE = "ons_atom_log_info";
     private static final String KEY_PROVISIONING_RESULT = "_provisioning_result";
     private static final String KEY_DOWNLOAD_RESULT = "_download_result";
@@ -34,27 +42,149 @@ public class ONSStats {
     private static final String KEY_DETAILED_ERROR_CODE = "_detailed_error_code";
     private static final String KEY_OPP_CARRIER_ID = "_opportunistic_carrier_id";
     private static final String KEY_PRIMARY_CARRIER_ID = "_primary_sim_carrier_id";
+
+    /* events accepted but not yet written, further events are dropped */
+    @VisibleForTesting
+    protected static final int MAX_PENDING_EVENTS = 32;
+    private static final int MSG_WRITE_EVENTS = 1;
+
     private final Context mContext;
     private final SubscriptionManager mSubscriptionManager;
+    private final Handler mHandler;
+    private final Object mLock = new Object();
+    /* serializes atom writes and persistence between the worker thread and flush() */
+    private final Object mWriteLock = new Object();
+    /* last logged event, mirrors ONS_ATOM_LOG_FILE so that deduplication does no I/O */
+    private final LoggedState mLastLogged;
+    private final ArrayDeque<PendingEvent> mPendingEvents = new ArrayDeque<>();
+    private int mDroppedEventCount;
+
+    /**
+     * Fields of the last logged event, compared with each new event to skip repeated ones.
+     */
+    private static final class LoggedState {
+        int mProvisioningResult = -1;
+        int mDownloadResult = -1;
+        int mPrimaryCarrierId = -1;
+        int mRetryCount = -1;
+        int mOppCarrierId = -1;
+        int mDetailedErrCode = -1;
+
+        LoggedState copy() {
+            LoggedState state = new LoggedState();
+            state.mProvisioningResult = mProvisioningResult;
+            state.mDownloadResult = mDownloadResult;
+            state.mPrimaryCarrierId = mPrimaryCarrierId;
+            state.mRetryCount = mRetryCount;
+            state.mOppCarrierId = mOppCarrierId;
+            state.mDetailedErrCode = mDetailedErrCode;
+            return state;
+        }
+    }
+
+    /**
+     * Atom fields of an accepted event, captured on the caller's thread since ONSStatsInfo is
+     * mutable.
+     */
+    private static final class PendingEvent {
+        final int mPrimaryCarrierId;
+        final int mOppCarrierId;
+        final boolean mIsWifiConnected;
+        final int mStatsCode;
+        final int mRetryCount;
+        final int mDetailedErrCode;
+
+        PendingEvent(ONSStatsInfo info, int primaryCarrierId, int statsCode) {
+            mPrimaryCarrierId = primaryCarrierId;
+            mOppCarrierId = info.getOppSimCarrierId();
+            mIsWifiConnected = info.isWifiConnected();
+            mStatsCode = statsCode;
+            mRetryCount = info.getRetryCount();
+            mDetailedErrCode = info.getDetailedErrCode();
+        }
+    }
 
     /** Constructor to create instance for ONSStats. */
     public ONSStats(Context context, SubscriptionManager subscriptionManager) {
         mContext = context;
         mSubscriptionManager = subscriptionManager;
+        mLastLogged = loadLastLoggedState();
+        HandlerThread thread = new HandlerThread(TAG);
+        thread.start();
+        mHandler = new Handler(thread.getLooper()) {
+            @Override
+            public void handleMessage(Message msg) {
+                if (msg.what == MSG_WRITE_EVENTS) {
+                    flush();
+                }
+            }
+        };
     }
 
     /**
      * It logs the ONS atom with the info passed as ONSStatsInfo. If the information is already
-     * logged, it will be skipped.
+     * logged, it will be skipped. The atom is written and the logged information persisted on a
+     * worker thread, so the caller does not wait on I/O.
      *
      * @param info information to be logged.
      * @return returns true if information is logged, otherwise false.
      */
     public boolean logEvent(ONSStatsInfo info) {
         // check if the info needs to be ignored.
-        if (ignoreEvent(info)) {
+        if (isIntermediateEvent(info)) {
             return false;
         }
+        int primaryCarrierId = getPrimarySimCarrierId(info);
+        synchronized (mLock) {
+            if (isRepeatedEvent(info, primaryCarrierId)) {
+                return false;
+            }
+            if (mPendingEvents.size() >= MAX_PENDING_EVENTS) {
+                mDroppedEventCount++;
+                Log.w(TAG, "Event queue full, dropped " + mDroppedEventCount + " events");
+                return false;
+            }
+            updateLastLoggedState(info, primaryCarrierId);
+            mPendingEvents.add(new PendingEvent(info, primaryCarrierId, getStatsCode(info)));
+            if (!mHandler.hasMessages(MSG_WRITE_EVENTS)) {
+                mHandler.sendEmptyMessage(MSG_WRITE_EVENTS);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Writes the pending atoms and persists the last logged event with a single editor.
+     */
+    @VisibleForTesting
+    protected void flush() {
+        synchronized (mWriteLock) {
+            List<PendingEvent> events;
+            LoggedState lastLogged;
+            synchronized (mLock) {
+                if (mPendingEvents.isEmpty()) {
+                    return;
+                }
+                events = new ArrayList<>(mPendingEvents);
+                mPendingEvents.clear();
+                lastLogged = mLastLogged.copy();
+            }
+            for (int i = 0; i < events.size(); i++) {
+                PendingEvent event = events.get(i);
+                OnsStatsLog.write(
+                        OnsStatsLog.ONS_OPPORTUNISTIC_ESIM_PROVISIONING_COMPLETE,
+                        event.mPrimaryCarrierId,
+                        event.mOppCarrierId,
+                        event.mIsWifiConnected,
+                        event.mStatsCode,
+                        event.mRetryCount,
+                        event.mDetailedErrCode);
+            }
+            updateSharedPreferences(lastLogged);
+        }
+    }
+
+    private int getStatsCode(ONSStatsInfo info) {
         int statsCode = OnsStatsLog.ONS_OPPORTUNISTIC_ESIM_PROVISIONING_COMPLETE__ERROR_CODE__RESULT_UNKNOWN;
         if (info.isProvisioningResultUpdated()) {
             switch (info.getProvisioningResult()) {
@@ -100,81 +230,103 @@ public class ONSStats {
                     statsCode = OnsStatsLog.ONS_OPPORTUNISTIC_ESIM_PROVISIONING_COMPLETE__ERROR_CODE__RESULT_INSTALL_ESIM_PROFILE_FAILED;
                     break;
                 case ERR_RETRY_DOWNLOAD:
+                case ERR_RETRY_DOWNLOAD_IMMEDIATE:
                     statsCode = OnsStatsLog.ONS_OPPORTUNISTIC_ESIM_PROVISIONING_COMPLETE__ERROR_CODE__RESULT_CONNECTION_ERROR;
                     break;
                 default:
                     break;
             }
         }
-        OnsStatsLog.write(
-                OnsStatsLog.ONS_OPPORTUNISTIC_ESIM_PROVISIONING_COMPLETE,
-                getSimCarrierId(info.getPrimarySimSubId()),
-                info.getOppSimCarrierId(),
-                info.isWifiConnected(),
-                statsCode,
-                info.getRetryCount(),
-                info.getDetailedErrCode());
-        updateSharedPreferences(info);
-        return true;
+        return statsCode;
     }
 
-    private void updateSharedPreferences(ONSStatsInfo info) {
+    private LoggedState loadLastLoggedState() {
         SharedPreferences sharedPref =
                 mContext.getSharedPreferences(ONS_ATOM_LOG_FILE, Context.MODE_PRIVATE);
-        SharedPreferences.Editor editor = sharedPref.edit();
+        LoggedState state = new LoggedState();
+        state.mProvisioningResult = sharedPref.getInt(KEY_PROVISIONING_RESULT, -1);
+        state.mDownloadResult = sharedPref.getInt(KEY_DOWNLOAD_RESULT, -1);
+        state.mPrimaryCarrierId = sharedPref.getInt(KEY_PRIMARY_CARRIER_ID, -1);
+        state.mRetryCount = sharedPref.getInt(KEY_RETRY_COUNT, -1);
+        state.mOppCarrierId = sharedPref.getInt(KEY_OPP_CARRIER_ID, -1);
+        state.mDetailedErrCode = sharedPref.getInt(KEY_DETAILED_ERROR_CODE, -1);
+        return state;
+    }
+
+    private void updateLastLoggedState(ONSStatsInfo info, int primaryCarrierId) {
         if (info.isProvisioningResultUpdated()) {
-            editor.putInt(KEY_PROVISIONING_RESULT, info.getProvisioningResult().ordinal());
+            mLastLogged.mProvisioningResult = info.getProvisioningResult().ordinal();
+            mLastLogged.mDownloadResult = -1;
+        } else {
+            mLastLogged.mDownloadResult = info.getDownloadResult().ordinal();
+            mLastLogged.mProvisioningResult = -1;
+        }
+        mLastLogged.mPrimaryCarrierId = primaryCarrierId;
+        mLastLogged.mRetryCount = info.getRetryCount();
+        mLastLogged.mOppCarrierId = info.getOppSimCarrierId();
+        mLastLogged.mDetailedErrCode = info.getDetailedErrCode();
+    }
+
+    private void updateSharedPreferences(LoggedState state) {
+        SharedPreferences sharedPref =
+                mContext.getSharedPreferences(ONS_ATOM_LOG_FILE, Context.MODE_PRIVATE);
+        SharedPreferences.Editor editor = sharedPref.edit();
+        if (state.mProvisioningResult != -1) {
+            editor.putInt(KEY_PROVISIONING_RESULT, state.mProvisioningResult);
             editor.remove(KEY_DOWNLOAD_RESULT);
         } else {
-            editor.putInt(KEY_DOWNLOAD_RESULT, info.getDownloadResult().ordinal());
+            editor.putInt(KEY_DOWNLOAD_RESULT, state.mDownloadResult);
             editor.remove(KEY_PROVISIONING_RESULT);
         }
-        editor.putInt(KEY_PRIMARY_CARRIER_ID, getSimCarrierId(info.getPrimarySimSubId()))
-                .putInt(KEY_RETRY_COUNT, info.getRetryCount())
-                .putInt(KEY_OPP_CARRIER_ID, info.getOppSimCarrierId())
-                .putInt(KEY_DETAILED_ERROR_CODE, info.getDetailedErrCode())
+        editor.putInt(KEY_PRIMARY_CARRIER_ID, state.mPrimaryCarrierId)
+                .putInt(KEY_RETRY_COUNT, state.mRetryCount)
+                .putInt(KEY_OPP_CARRIER_ID, state.mOppCarrierId)
+                .putInt(KEY_DETAILED_ERROR_CODE, state.mDetailedErrCode)
                 .apply();
     }
 
-    private boolean ignoreEvent(ONSStatsInfo info) {
+    private boolean isIntermediateEvent(ONSStatsInfo info) {
+        if (!info.isProvisioningResultUpdated()) {
+            return false;
+        }
         Result result = info.getProvisioningResult();
-        if (info.isProvisioningResultUpdated()) {
-            info.setDetailedErrCode(result.ordinal());
-            // Codes are ignored since they are intermediate state of CBRS provisioning check.
-            if ((result == Result.DOWNLOAD_REQUESTED)
-                    || result == Result.ERR_NO_SIM_INSERTED
-                    || result == Result.ERR_DUPLICATE_DOWNLOAD_REQUEST
-                    || result == Result.ERR_SWITCHING_TO_DUAL_SIM_MODE) {
-                return true;
-            }
+        info.setDetailedErrCode(result.ordinal());
+        // Codes are ignored since they are intermediate state of CBRS provisioning check.
+        return result == Result.DOWNLOAD_REQUESTED
+                || result == Result.ERR_NO_SIM_INSERTED
+                || result == Result.ERR_DUPLICATE_DOWNLOAD_REQUEST
+                || result == Result.ERR_WAITING_FOR_DOWNLOAD_RETRY
+                || result == Result.ERR_SWITCHING_TO_DUAL_SIM_MODE;
+    }
 
-            // add subscription id for carrier if it doesn't support CBRS.
-            if (result == Result.ERR_CARRIER_DOESNT_SUPPORT_CBRS) {
-                List<SubscriptionInfo> subInfos =
-                        mSubscriptionManager.getAvailableSubscriptionInfoList();
-                info.setPrimarySimSubId(
-                        (subInfos != null && !subInfos.isEmpty())
-                                ? subInfos.get(0).getSubscriptionId()
-                                : -1);
-            }
+    /**
+     * Resolves the carrier id of the primary SIM once per event.
+     */
+    private int getPrimarySimCarrierId(ONSStatsInfo info) {
+        // add subscription id for carrier if it doesn't support CBRS.
+        if (info.isProvisioningResultUpdated()
+                && info.getProvisioningResult() == Result.ERR_CARRIER_DOESNT_SUPPORT_CBRS) {
+            List<SubscriptionInfo> subInfos =
+                    mSubscriptionManager.getAvailableSubscriptionInfoList();
+            SubscriptionInfo subInfo =
+                    (subInfos != null && !subInfos.isEmpty()) ? subInfos.get(0) : null;
+            info.setPrimarySimSubId(subInfo != null ? subInfo.getSubscriptionId() : -1);
+            // the available subscription already carries the carrier id.
+            return subInfo != null ? subInfo.getCarrierId() : -1;
         }
+        return getSimCarrierId(info.getPrimarySimSubId());
+    }
 
-        SharedPreferences sharedPref =
-                mContext.getSharedPreferences(ONS_ATOM_LOG_FILE, Context.MODE_PRIVATE);
-
+    private boolean isRepeatedEvent(ONSStatsInfo info, int primaryCarrierId) {
+        Result result = info.getProvisioningResult();
         boolean errorCodeUpdated =
                 (info.isProvisioningResultUpdated()
-                        ? sharedPref.getInt(KEY_PROVISIONING_RESULT, -1) != result.ordinal()
-                        : sharedPref.getInt(KEY_DOWNLOAD_RESULT, -1)
-                                != info.getDownloadResult().ordinal());
-        boolean carrierIdUpdated =
-                sharedPref.getInt(KEY_PRIMARY_CARRIER_ID, -1)
-                        != getSimCarrierId(info.getPrimarySimSubId());
-        boolean retryCountUpdated = sharedPref.getInt(KEY_RETRY_COUNT, -1) != info.getRetryCount();
-        boolean oppCarrierIdChanged =
-                sharedPref.getInt(KEY_OPP_CARRIER_ID, -1) != info.getOppSimCarrierId();
-        boolean detailedErrorChanged =
-                sharedPref.getInt(KEY_DETAILED_ERROR_CODE, -1) != info.getDetailedErrCode();
+                        ? mLastLogged.mProvisioningResult != result.ordinal()
+                        : mLastLogged.mDownloadResult != info.getDownloadResult().ordinal());
+        boolean carrierIdUpdated = mLastLogged.mPrimaryCarrierId != primaryCarrierId;
+        boolean retryCountUpdated = mLastLogged.mRetryCount != info.getRetryCount();
+        boolean oppCarrierIdChanged = mLastLogged.mOppCarrierId != info.getOppSimCarrierId();
+        boolean detailedErrorChanged = mLastLogged.mDetailedErrCode != info.getDetailedErrCode();
         if (!(errorCodeUpdated
                 || carrierIdUpdated
                 || retryCountUpdated
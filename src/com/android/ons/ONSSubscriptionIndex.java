@@ -0,0 +1,159 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.ons;
+
+import android.os.ParcelUuid;
+import android.telephony.SubscriptionInfo;
+import android.util.ArrayMap;
+import android.util.ArraySet;
+import android.util.SparseArray;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * Index of the available embedded subscriptions by carrier id and by group UUID.
+ *
+ * The index is updated from a full subscription list, but only the subscriptions whose
+ * subscription id, carrier id or group changed are moved between buckets.
+ */
+public class ONSSubscriptionIndex {
+    /* the keys are kept apart from the info so moves are detected even for a reused instance */
+    private static class Entry {
+        final SubscriptionInfo mInfo;
+        final int mCarrierId;
+        final ParcelUuid mGroupUuid;
+
+        Entry(SubscriptionInfo info) {
+            mInfo = info;
+            mCarrierId = info.getCarrierId();
+            mGroupUuid = info.getGroupUuid();
+        }
+    }
+
+    private final SparseArray<Entry> mEntries = new SparseArray<>();
+    private final SparseArray<List<SubscriptionInfo>> mByCarrierId = new SparseArray<>();
+    private final Map<ParcelUuid, List<SubscriptionInfo>> mByGroupUuid = new ArrayMap<>();
+
+    /**
+     * Bring the index in line with the given list of available subscriptions. Subscriptions which
+     * are not embedded are ignored.
+     * @return number of subscriptions which were added, removed or moved.
+     */
+    public synchronized int update(List<SubscriptionInfo> subInfos) {
+        int changes = 0;
+        Set<Integer> present = new ArraySet<>();
+        int count = subInfos == null ? 0 : subInfos.size();
+        for (int i = 0; i < count; i++) {
+            SubscriptionInfo subInfo = subInfos.get(i);
+            if (subInfo == null || !subInfo.isEmbedded()) {
+                continue;
+            }
+            int subId = subInfo.getSubscriptionId();
+            present.add(subId);
+            Entry entry = mEntries.get(subId);
+            if (entry != null && entry.mInfo == subInfo
+                    && entry.mCarrierId == subInfo.getCarrierId()
+                    && Objects.equals(entry.mGroupUuid, subInfo.getGroupUuid())) {
+                continue;
+            }
+            if (entry != null) {
+                remove(entry);
+            }
+            add(new Entry(subInfo));
+            if (entry == null || entry.mCarrierId != subInfo.getCarrierId()
+                    || !Objects.equals(entry.mGroupUuid, subInfo.getGroupUuid())) {
+                changes++;
+            }
+        }
+        for (int i = mEntries.size() - 1; i >= 0; i--) {
+            if (!present.contains(mEntries.keyAt(i))) {
+                remove(mEntries.valueAt(i));
+                changes++;
+            }
+        }
+        return changes;
+    }
+
+    /**
+     * @return the embedded subscriptions with the given carrier id.
+     */
+    public synchronized List<SubscriptionInfo> getByCarrierId(int carrierId) {
+        List<SubscriptionInfo> subInfos = mByCarrierId.get(carrierId);
+        return subInfos == null ? Collections.emptyList() : new ArrayList<>(subInfos);
+    }
+
+    /**
+     * @return the embedded subscriptions in the given group.
+     */
+    public synchronized List<SubscriptionInfo> getByGroupUuid(ParcelUuid groupUuid) {
+        List<SubscriptionInfo> subInfos = mByGroupUuid.get(groupUuid);
+        return subInfos == null ? Collections.emptyList() : new ArrayList<>(subInfos);
+    }
+
+    /**
+     * @return number of indexed subscriptions.
+     */
+    public synchronized int size() {
+        return mEntries.size();
+    }
+
+    private void add(Entry entry) {
+        mEntries.put(entry.mInfo.getSubscriptionId(), entry);
+        List<SubscriptionInfo> byCarrierId = mByCarrierId.get(entry.mCarrierId);
+        if (byCarrierId == null) {
+            byCarrierId = new ArrayList<>();
+            mByCarrierId.put(entry.mCarrierId, byCarrierId);
+        }
+        byCarrierId.add(entry.mInfo);
+        if (entry.mGroupUuid != null) {
+            mByGroupUuid.computeIfAbsent(entry.mGroupUuid, k -> new ArrayList<>())
+                    .add(entry.mInfo);
+        }
+    }
+
+    private void remove(Entry entry) {
+        mEntries.remove(entry.mInfo.getSubscriptionId());
+        List<SubscriptionInfo> byCarrierId = mByCarrierId.get(entry.mCarrierId);
+        if (byCarrierId != null) {
+            removeInstance(byCarrierId, entry.mInfo);
+            if (byCarrierId.isEmpty()) {
+                mByCarrierId.remove(entry.mCarrierId);
+            }
+        }
+        List<SubscriptionInfo> byGroupUuid = mByGroupUuid.get(entry.mGroupUuid);
+        if (byGroupUuid != null) {
+            removeInstance(byGroupUuid, entry.mInfo);
+            if (byGroupUuid.isEmpty()) {
+                mByGroupUuid.remove(entry.mGroupUuid);
+            }
+        }
+    }
+
+    private static void removeInstance(List<SubscriptionInfo> subInfos, SubscriptionInfo info) {
+        for (int i = 0; i < subInfos.size(); i++) {
+            if (subInfos.get(i) == info) {
+                subInfos.remove(i);
+                return;
+            }
+        }
+    }
+}
@@ -0,0 +1,313 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.ons;
+
+import android.os.SystemClock;
+import android.telephony.AccessNetworkConstants;
+import android.telephony.CellIdentity;
+import android.telephony.CellInfo;
+import android.telephony.CellInfoLte;
+import android.telephony.CellInfoNr;
+import android.telephony.LinkCapacityEstimate;
+import android.telephony.NetworkRegistrationInfo;
+import android.telephony.ServiceState;
+import android.telephony.TelephonyCallback;
+import android.telephony.TelephonyManager;
+import android.util.Log;
+
+import com.android.internal.annotations.VisibleForTesting;
+
+import java.io.PrintWriter;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.function.LongSupplier;
+
+/**
+ * Estimates whether switching data to an opportunistic cell pays off.
+ *
+ * A switch interrupts data for the time switchToSubscription and the modem enable take, several
+ * seconds for an inactive profile, and only pays off if the device then stays long enough on the
+ * faster network. The model compares the data transferred over the expected dwell time with and
+ * without the switch:
+ *
+ *   benefit = (candidate - serving) * (dwell - switchTime) - serving * switchTime
+ *
+ * The candidate throughput is estimated from the SINR, RAT and bandwidth of the scanned cell, the
+ * serving throughput from the modem's LinkCapacityEstimate of the default subscription, and the
+ * dwell time from the recent serving cell changes. The switch time is learned from completed
+ * switches.
+ */
+public class ONSSwitchCostModel {
+    private static final String TAG = ONSSwitchCostModel.class.getName();
+
+    /**
+     * Carrier config minimum benefit of a switch in kilobits. A negative value disables the
+     * check. Read from the carrier config of the opportunistic subscription.
+     */
+    public static final String KEY_SWITCH_MIN_BENEFIT_KBIT_INT =
+            "ons_switch_min_benefit_kbit_int";
+    public static final int DEFAULT_MIN_BENEFIT_KBIT = 0;
+
+    /* switch times used until a switch was measured */
+    @VisibleForTesting
+    static final long DEFAULT_SUBSCRIPTION_SWITCH_MS = 5000;
+    @VisibleForTesting
+    static final long DEFAULT_MODEM_ENABLE_MS = 1000;
+    /* dwell time used until enough serving cell changes were seen */
+    @VisibleForTesting
+    static final long DEFAULT_DWELL_MS = 10 * 60 * 1000;
+    private static final long MIN_DWELL_MS = 10 * 1000;
+    private static final long MAX_DWELL_MS = 60 * 60 * 1000;
+    /* serving cell changes used to estimate the dwell time */
+    private static final int CELL_CHANGE_HISTORY = 8;
+    /* weight of a new switch time measurement, in percent */
+    private static final int SWITCH_TIME_WEIGHT_PERCENT = 25;
+
+    /* typical CBRS channel bandwidths, the modem rarely reports it for scanned cells */
+    private static final int DEFAULT_LTE_BANDWIDTH_KHZ = 10000;
+    private static final int DEFAULT_NR_BANDWIDTH_KHZ = 20000;
+    /* spectral efficiency is a fraction of the Shannon bound, capped at 256QAM */
+    private static final double SHANNON_FRACTION = 0.75;
+    private static final double MAX_SPECTRAL_EFFICIENCY = 7.4;
+    /* SINR in dB assumed for each signal level when the modem reports no SINR */
+    private static final int[] LEVEL_SINR_DB = {-5, 0, 5, 13, 20};
+
+    private final Object mLock = new Object();
+    private final LongSupplier mClock;
+    private TelephonyManager mTelephonyManager;
+    private long mSubscriptionSwitchMs = DEFAULT_SUBSCRIPTION_SWITCH_MS;
+    private long mModemEnableMs = DEFAULT_MODEM_ENABLE_MS;
+    private long mSwitchStartTimeMs = -1;
+    private boolean mIsSubscriptionSwitch;
+    private int mServingKbps = LinkCapacityEstimate.INVALID;
+    private CellIdentity mServingCell;
+    /* elapsed realtime of the recent serving cell changes, as a ring buffer */
+    private final long[] mCellChangeTimesMs = new long[CELL_CHANGE_HISTORY];
+    private int mCellChangeCount;
+
+    @VisibleForTesting
+    protected final TelephonyCallback mTelephonyCallback = new ServingCellCallback();
+
+    private class ServingCellCallback extends TelephonyCallback implements
+            TelephonyCallback.ServiceStateListener,
+            TelephonyCallback.LinkCapacityEstimateChangedListener {
+        @Override
+        public void onServiceStateChanged(ServiceState serviceState) {
+            NetworkRegistrationInfo registrationInfo = serviceState.getNetworkRegistrationInfo(
+                    NetworkRegistrationInfo.DOMAIN_PS,
+                    AccessNetworkConstants.TRANSPORT_TYPE_WWAN);
+            onServingCellChanged(registrationInfo == null
+                    ? null : registrationInfo.getCellIdentity());
+        }
+
+        @Override
+        public void onLinkCapacityEstimateChanged(
+                List<LinkCapacityEstimate> linkCapacityEstimateList) {
+            onServingCapacityChanged(linkCapacityEstimateList);
+        }
+    }
+
+    public ONSSwitchCostModel() {
+        this(SystemClock::elapsedRealtime);
+    }
+
+    @VisibleForTesting
+    ONSSwitchCostModel(LongSupplier clock) {
+        mClock = clock;
+    }
+
+    /**
+     * Listen to the serving cell and link capacity of the subscription of telephonyManager,
+     * instead of the subscription listened to so far. The serving cell and capacity of the
+     * previous subscription are forgotten, the learned switch and dwell times are kept.
+     */
+    public void register(TelephonyManager telephonyManager, Executor executor) {
+        synchronized (mLock) {
+            if (mTelephonyManager != null) {
+                mTelephonyManager.unregisterTelephonyCallback(mTelephonyCallback);
+                mTelephonyManager = null;
+            }
+            mServingCell = null;
+            mServingKbps = LinkCapacityEstimate.INVALID;
+            try {
+                telephonyManager.registerTelephonyCallback(executor, mTelephonyCallback);
+                mTelephonyManager = telephonyManager;
+            } catch (SecurityException | IllegalStateException e) {
+                Log.e(TAG, "cannot listen to the serving cell " + e);
+            }
+        }
+    }
+
+    /**
+     * @param cellInfo scanned opportunistic cell.
+     * @param isActive whether the subscription of the cell is active, in which case only the
+     *        modem needs to be enabled.
+     * @param minBenefitKbit value of {@link #KEY_SWITCH_MIN_BENEFIT_KBIT_INT}.
+     * @return true if the expected benefit of switching to the cell reaches minBenefitKbit.
+     */
+    public boolean isSwitchWorthwhile(CellInfo cellInfo, boolean isActive, int minBenefitKbit) {
+        if (minBenefitKbit < 0) {
+            return true;
+        }
+        long benefitKbit = getExpectedBenefitKbit(cellInfo, isActive);
+        Log.d(TAG, "expected benefit " + benefitKbit + " kbit, required " + minBenefitKbit);
+        return benefitKbit >= minBenefitKbit;
+    }
+
+    /**
+     * @return data in kilobits gained by switching over the expected dwell time, negative if the
+     *         switch is expected to cost more than it gains.
+     */
+    @VisibleForTesting
+    long getExpectedBenefitKbit(CellInfo cellInfo, boolean isActive) {
+        long candidateKbps = estimateThroughputKbps(cellInfo);
+        synchronized (mLock) {
+            /* without an estimate for the serving network, assume it is not carrying data */
+            long servingKbps = mServingKbps == LinkCapacityEstimate.INVALID ? 0 : mServingKbps;
+            long switchMs = isActive ? mModemEnableMs : mSubscriptionSwitchMs;
+            long dwellMs = getExpectedDwellMsLocked();
+            return ((candidateKbps - servingKbps) * Math.max(0, dwellMs - switchMs)
+                    - servingKbps * switchMs) / 1000;
+        }
+    }
+
+    /**
+     * A switch to an opportunistic subscription was started.
+     *
+     * @param isSubscriptionSwitch true if a profile is switched, false if only the modem of an
+     *        active subscription is enabled.
+     */
+    public void onSwitchStarted(boolean isSubscriptionSwitch) {
+        synchronized (mLock) {
+            mSwitchStartTimeMs = mClock.getAsLong();
+            mIsSubscriptionSwitch = isSubscriptionSwitch;
+        }
+    }
+
+    /**
+     * The started switch completed, its duration updates the expected switch time.
+     */
+    public void onSwitchCompleted() {
+        synchronized (mLock) {
+            if (mSwitchStartTimeMs < 0) {
+                return;
+            }
+            long switchMs = mClock.getAsLong() - mSwitchStartTimeMs;
+            mSwitchStartTimeMs = -1;
+            if (mIsSubscriptionSwitch) {
+                mSubscriptionSwitchMs = average(mSubscriptionSwitchMs, switchMs);
+            } else {
+                mModemEnableMs = average(mModemEnableMs, switchMs);
+            }
+        }
+    }
+
+    @VisibleForTesting
+    void onServingCellChanged(CellIdentity cellIdentity) {
+        synchronized (mLock) {
+            if (cellIdentity == null || cellIdentity.equals(mServingCell)) {
+                return;
+            }
+            if (mServingCell != null) {
+                mCellChangeTimesMs[mCellChangeCount % CELL_CHANGE_HISTORY] = mClock.getAsLong();
+                mCellChangeCount++;
+            }
+            mServingCell = cellIdentity;
+        }
+    }
+
+    @VisibleForTesting
+    void onServingCapacityChanged(List<LinkCapacityEstimate> estimates) {
+        int combinedKbps = LinkCapacityEstimate.INVALID;
+        int totalKbps = 0;
+        for (LinkCapacityEstimate estimate : estimates) {
+            int downlinkKbps = estimate.getDownlinkCapacityKbps();
+            if (downlinkKbps == LinkCapacityEstimate.INVALID) {
+                continue;
+            }
+            if (estimate.getType() == LinkCapacityEstimate.LCE_TYPE_COMBINED) {
+                combinedKbps = downlinkKbps;
+            } else {
+                totalKbps += downlinkKbps;
+            }
+        }
+        synchronized (mLock) {
+            if (combinedKbps != LinkCapacityEstimate.INVALID) {
+                mServingKbps = combinedKbps;
+            } else {
+                mServingKbps = totalKbps > 0 ? totalKbps : LinkCapacityEstimate.INVALID;
+            }
+        }
+    }
+
+    /**
+     * @return expected downlink throughput of a cell from its SINR, or its signal level if the
+     *         modem did not report the SINR, and its bandwidth.
+     */
+    @VisibleForTesting
+    static long estimateThroughputKbps(CellInfo cellInfo) {
+        int bandwidthKhz;
+        if (cellInfo instanceof CellInfoLte) {
+            bandwidthKhz = ((CellInfoLte) cellInfo).getCellIdentity().getBandwidth();
+            if (bandwidthKhz == CellInfo.UNAVAILABLE || bandwidthKhz <= 0) {
+                bandwidthKhz = DEFAULT_LTE_BANDWIDTH_KHZ;
+            }
+        } else if (cellInfo instanceof CellInfoNr) {
+            bandwidthKhz = DEFAULT_NR_BANDWIDTH_KHZ;
+        } else {
+            return 0;
+        }
+        int sinrDb = ONSSignalQualityPolicy.getSinr(cellInfo);
+        if (sinrDb == CellInfo.UNAVAILABLE) {
+            int level = cellInfo.getCellSignalStrength().getLevel();
+            sinrDb = LEVEL_SINR_DB[Math.max(0, Math.min(level, LEVEL_SINR_DB.length - 1))];
+        }
+        double efficiency = Math.min(MAX_SPECTRAL_EFFICIENCY,
+                SHANNON_FRACTION * Math.log1p(Math.pow(10, sinrDb / 10.0)) / Math.log(2));
+        return (long) (bandwidthKhz * efficiency);
+    }
+
+    private long getExpectedDwellMsLocked() {
+        int count = Math.min(mCellChangeCount, CELL_CHANGE_HISTORY);
+        if (count < 2) {
+            return DEFAULT_DWELL_MS;
+        }
+        long newest = mCellChangeTimesMs[(mCellChangeCount - 1) % CELL_CHANGE_HISTORY];
+        long oldest = mCellChangeTimesMs[(mCellChangeCount - count) % CELL_CHANGE_HISTORY];
+        /* the time on the current cell counts as well, a device at rest has no changes */
+        long dwellMs = Math.max((newest - oldest) / (count - 1), mClock.getAsLong() - newest);
+        return Math.max(MIN_DWELL_MS, Math.min(dwellMs, MAX_DWELL_MS));
+    }
+
+    private static long average(long averageMs, long valueMs) {
+        return (averageMs * (100 - SWITCH_TIME_WEIGHT_PERCENT)
+                + valueMs * SWITCH_TIME_WEIGHT_PERCENT) / 100;
+    }
+
+    /**
+     * Print the model inputs.
+     */
+    public void dump(PrintWriter pw) {
+        synchronized (mLock) {
+            pw.println("  switch cost model: servingKbps=" + mServingKbps
+                    + " subscriptionSwitchMs=" + mSubscriptionSwitchMs
+                    + " modemEnableMs=" + mModemEnableMs
+                    + " expectedDwellMs=" + getExpectedDwellMsLocked()
+                    + " cellChanges=" + mCellChangeCount);
+        }
+    }
+}
@@ -0,0 +1,131 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.ons;
+
+import android.os.SystemClock;
+import android.telephony.CellIdentity;
+import android.util.Pair;
+
+import com.android.internal.annotations.VisibleForTesting;
+
+import java.io.PrintWriter;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.LongSupplier;
+
+/**
+ * Remembers the outcome of data validations per subscription and serving cell.
+ *
+ * Validating an opportunistic subscription takes seconds, and the outcome rarely changes while
+ * the device stays on the same cell. A cached success lets a later preferred data request skip
+ * the validation, a cached failure lets it fail fast. Failures expire sooner than successes so
+ * that a transient problem does not block the subscription for long.
+ */
+public class ONSValidationCache {
+    public static final int RESULT_UNKNOWN = 0;
+    public static final int RESULT_VALIDATED = 1;
+    public static final int RESULT_FAILED = 2;
+
+    @VisibleForTesting
+    static final long VALIDATED_TTL_MS = 10 * 60 * 1000;
+    @VisibleForTesting
+    static final long FAILED_TTL_MS = 60 * 1000;
+    private static final int MAX_ENTRIES = 16;
+
+    private static final class Entry {
+        final int mResult;
+        final long mTimeMs;
+
+        Entry(int result, long timeMs) {
+            mResult = result;
+            mTimeMs = timeMs;
+        }
+    }
+
+    private final Object mLock = new Object();
+    private final LongSupplier mClock;
+    /* entries by subscription id and serving cell, in LRU order */
+    private final LinkedHashMap<Pair<Integer, CellIdentity>, Entry> mEntries =
+            new LinkedHashMap<Pair<Integer, CellIdentity>, Entry>(MAX_ENTRIES, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(
+                        Map.Entry<Pair<Integer, CellIdentity>, Entry> eldest) {
+                    return size() > MAX_ENTRIES;
+                }
+            };
+
+    public ONSValidationCache() {
+        this(SystemClock::elapsedRealtime);
+    }
+
+    @VisibleForTesting
+    ONSValidationCache(LongSupplier clock) {
+        mClock = clock;
+    }
+
+    /**
+     * @param servingCell serving cell of the subscription, nothing is cached if null.
+     * @return one of the RESULT_ values.
+     */
+    public int getResult(int subId, CellIdentity servingCell) {
+        if (servingCell == null) {
+            return RESULT_UNKNOWN;
+        }
+        synchronized (mLock) {
+            Pair<Integer, CellIdentity> key = Pair.create(subId, servingCell);
+            Entry entry = mEntries.get(key);
+            if (entry == null) {
+                return RESULT_UNKNOWN;
+            }
+            long ttlMs = entry.mResult == RESULT_VALIDATED ? VALIDATED_TTL_MS : FAILED_TTL_MS;
+            if (mClock.getAsLong() - entry.mTimeMs >= ttlMs) {
+                mEntries.remove(key);
+                return RESULT_UNKNOWN;
+            }
+            return entry.mResult;
+        }
+    }
+
+    /**
+     * Record the outcome of a validation.
+     *
+     * @param result RESULT_VALIDATED or RESULT_FAILED.
+     */
+    public void putResult(int subId, CellIdentity servingCell, int result) {
+        if (servingCell == null) {
+            return;
+        }
+        synchronized (mLock) {
+            mEntries.put(Pair.create(subId, servingCell), new Entry(result, mClock.getAsLong()));
+        }
+    }
+
+    /**
+     * Print the cached outcomes.
+     */
+    public void dump(PrintWriter pw) {
+        synchronized (mLock) {
+            long now = mClock.getAsLong();
+            pw.println("  validation cache:");
+            for (Map.Entry<Pair<Integer, CellIdentity>, Entry> entry : mEntries.entrySet()) {
+                pw.println("    subId=" + entry.getKey().first
+                        + " result=" + entry.getValue().mResult
+                        + " ageMs=" + (now - entry.getValue().mTimeMs));
+            }
+        }
+    }
+}
@@ -29,10 +29,12 @@ import android.content.pm.PackageManager;
 import android.os.Binder;
 import android.os.Build;
 import android.os.Handler;
+import android.os.HandlerThread;
 import android.os.IBinder;
 import android.os.Looper;
 import android.os.Message;
 import android.os.RemoteException;
+import android.os.SystemClock;
 import android.os.TelephonyServiceManager.ServiceRegisterer;
 import android.telephony.AvailableNetworkInfo;
 import android.telephony.CarrierConfigManager;
@@ -49,9 +51,16 @@ import com.android.internal.telephony.TelephonyIntents;
 import com.android.internal.telephony.TelephonyPermissions;
 import com.android.telephony.Rlog;
 
+import java.io.FileDescriptor;
+import java.io.PrintWriter;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
 
 /**
  * OpportunisticNetworkService implements ions.
@@ -65,21 +74,34 @@ public class OpportunisticNetworkService extends Service {
     private ONSProfileActivator mONSProfileActivator;
     private ONSStats mONSStats;
     private Handler mHandler = null;
+    private HandlerThread mWorkerThread;
+    /* released once initialize() is done, binder calls wait on it */
+    private final CountDownLatch mInitLatch = new CountDownLatch(1);
+    private long mCreateTimeMs;
+    /* duration of each startup phase in milliseconds, in the order they ran */
+    private final Map<String, Long> mStartupTimings = new LinkedHashMap<>();
 
     private final Object mLock = new Object();
     @VisibleForTesting protected boolean mIsEnabled;
     @VisibleForTesting protected ONSProfileSelector mProfileSelector;
     private SharedPreferences mSharedPref;
-    @VisibleForTesting protected HashMap<String, ONSConfigInput> mONSConfigInputHashMap;
+    @VisibleForTesting protected ONSRequestArbitrator mRequestArbitrator;
+    @VisibleForTesting protected ONSAdmissionController mAdmissionController;
+    /* sorted ids of the active subscriptions, null until read again after a subscription change */
+    private int[] mActiveSubIdSnapshot;
+    /* carrier app request last checked against mActiveSubIdSnapshot */
+    private ONSConfigInput mCheckedCarrierAppRequest;
 
     private static final String TAG = "ONS";
     private static final String PREF_NAME = TAG;
     private static final String PREF_ENABLED = "isEnabled";
-    private static final String CARRIER_APP_CONFIG_NAME = "carrierApp";
-    private static final String SYSTEM_APP_CONFIG_NAME = "systemApp";
     private static final boolean DBG = true;
     /* message to indicate sim state update */
     private static final int MSG_SIM_STATE_CHANGE = 1;
+    /* SIM state changes arriving within this window are handled together */
+    private static final long SIM_STATE_CHANGE_DEBOUNCE_MS = 500;
+    /* maximum time a binder call waits for the service to be initialized */
+    private static final long INIT_WAIT_TIMEOUT_MS = 10000;
 
     /**
      * To expand the error codes for {@link TelephonyManager#updateAvailableNetworks} and
@@ -102,16 +124,50 @@ public class OpportunisticNetworkService extends Service {
                 }
             };
 
+    private final ONSRequestArbitrator.Listener mArbitrationListener =
+            new ONSRequestArbitrator.Listener() {
+                @Override
+                public void onRequestSuperseded(String requester, ONSConfigInput request,
+                        int reason) {
+                    logDebug("request of " + requester + " superseded, reason " + reason
+                            + ": " + request);
+                    /* a request dropped before reaching the profile selector would otherwise
+                       never be answered, one that is only outranked stays pending */
+                    if (reason != ONSRequestArbitrator.SUPERSEDED_BY_HIGHER_PRIORITY
+                            && !request.isCallbackHandled()) {
+                        request.setCallbackHandled();
+                        sendUpdateNetworksCallbackHelper(request.getAvailableNetworkCallback(),
+                                TelephonyManager.UPDATE_AVAILABLE_NETWORKS_ABORTED);
+                    }
+                }
+            };
+
     /** Broadcast receiver to get SIM card state changed event */
-    private final BroadcastReceiver mBroadcastReceiver = new BroadcastReceiver() {
+    @VisibleForTesting
+    protected final BroadcastReceiver mBroadcastReceiver = new BroadcastReceiver() {
         @Override
         public void onReceive(Context context, Intent intent) {
-            mHandler.sendEmptyMessage(MSG_SIM_STATE_CHANGE);
+            /* SIM hot swap and eSIM switches send bursts of broadcasts, handle the last one */
+            mHandler.removeMessages(MSG_SIM_STATE_CHANGE);
+            mHandler.sendEmptyMessageDelayed(MSG_SIM_STATE_CHANGE, SIM_STATE_CHANGE_DEBOUNCE_MS);
         }
     };
 
-    private void createMsgHandler() {
-        mHandler = new Handler(Looper.myLooper()) {
+    /* SIM state changes are checked against the cached active subscriptions until they change */
+    @VisibleForTesting
+    protected final SubscriptionManager.OnSubscriptionsChangedListener
+            mSubscriptionsChangedListener =
+                    new SubscriptionManager.OnSubscriptionsChangedListener() {
+                        @Override
+                        public void onSubscriptionsChanged() {
+                            synchronized (mLock) {
+                                mActiveSubIdSnapshot = null;
+                            }
+                        }
+                    };
+
+    private void createMsgHandler(Looper looper) {
+        mHandler = new Handler(looper) {
             @Override
             public void handleMessage(Message msg) {
                 switch (msg.what) {
@@ -129,28 +185,50 @@ public class OpportunisticNetworkService extends Service {
     }
 
     private void startWorkerThreadAndInit() {
-        Thread thread = new Thread() {
-            @Override
-            public void run() {
-                super.run();
-                Looper.prepare();
-                Looper looper = Looper.myLooper();
-                initialize(getBaseContext());
-                synchronized (this) {
-                    this.notifyAll();
-                }
-                looper.loop();
-            }
-        };
+        mWorkerThread = new HandlerThread(TAG);
+        mWorkerThread.start();
+        createMsgHandler(mWorkerThread.getLooper());
+        mHandler.post(() -> {
+            recordStartupPhase("queued", mCreateTimeMs);
+            initialize(getBaseContext());
+        });
+    }
 
-        thread.start();
-        synchronized (thread) {
-            try {
-                thread.wait();
-            } catch (Exception e) {
-                log(e.getLocalizedMessage());
+    private void recordStartupPhase(String phase, long startTimeMs) {
+        long duration = SystemClock.elapsedRealtime() - startTimeMs;
+        synchronized (mStartupTimings) {
+            mStartupTimings.put(phase, duration);
+        }
+        logDebug("startup phase " + phase + " took " + duration + "ms");
+    }
+
+    /**
+     * Wait until the service is initialized. Binder calls which arrive while the worker thread
+     * is still initializing are held here instead of blocking the main thread in onCreate.
+     * @return false if initialization did not complete in time.
+     */
+    private boolean waitForInitialization() {
+        try {
+            if (mInitLatch.await(INIT_WAIT_TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+                return true;
             }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        log("service is not initialized");
+        return false;
+    }
+
+    /**
+     * Check the calling app against its call budget for the method.
+     * @return true if the call may proceed.
+     */
+    private boolean admitCall(String callingPackage, String method) {
+        if (mAdmissionController.tryAcquire(Binder.getCallingUid(), method)) {
+            return true;
         }
+        log(method + " from " + callingPackage + " rejected by admission control");
+        return false;
     }
 
     private static boolean enforceModifyPhoneStatePermission(Context context) {
@@ -166,34 +244,70 @@ public class OpportunisticNetworkService extends Service {
     protected void handleSimStateChange() {
         logDebug("SIM state changed");
 
-        ONSConfigInput carrierAppConfigInput = mONSConfigInputHashMap.get(CARRIER_APP_CONFIG_NAME);
+        ONSConfigInput carrierAppConfigInput = mRequestArbitrator.getState().getRequest(
+                ONSRequestArbitrator.REQUESTER_CARRIER_APP);
         if (carrierAppConfigInput == null) {
             return;
         }
-        List<SubscriptionInfo> subscriptionInfos =
-            mSubscriptionManager.getActiveSubscriptionInfoList(false);
-        if (subscriptionInfos == null) {
-          return;
-        }
-
-        logDebug("handleSimStateChange: subscriptionInfos - " + subscriptionInfos);
-        for (SubscriptionInfo subscriptionInfo : subscriptionInfos) {
-            if (subscriptionInfo.getSubscriptionId() == carrierAppConfigInput.getPrimarySub()) {
-                return;
+        if (mActiveSubIdSnapshot == null) {
+            List<SubscriptionInfo> subscriptionInfos =
+                mSubscriptionManager.getActiveSubscriptionInfoList(false);
+            if (subscriptionInfos == null) {
+              return;
             }
-        }
-
-        logDebug("Carrier subscription is not available, removing entry");
-        mONSConfigInputHashMap.put(CARRIER_APP_CONFIG_NAME, null);
-        if (!mIsEnabled) {
+            logDebug("handleSimStateChange: subscriptionInfos - " + subscriptionInfos);
+            int[] activeSubIds = new int[subscriptionInfos.size()];
+            for (int i = 0; i < activeSubIds.length; i++) {
+                activeSubIds[i] = subscriptionInfos.get(i).getSubscriptionId();
+            }
+            Arrays.sort(activeSubIds);
+            mActiveSubIdSnapshot = activeSubIds;
+        } else if (carrierAppConfigInput == mCheckedCarrierAppRequest) {
+            logDebug("handleSimStateChange: active subscriptions unchanged");
             return;
         }
-        if (mONSConfigInputHashMap.get(SYSTEM_APP_CONFIG_NAME) != null) {
-            mProfileSelector.startProfileSelection(
-                    mONSConfigInputHashMap.get(SYSTEM_APP_CONFIG_NAME).getAvailableNetworkInfos(),
-                    mONSConfigInputHashMap.get(
-                            SYSTEM_APP_CONFIG_NAME).getAvailableNetworkCallback());
+        mCheckedCarrierAppRequest = carrierAppConfigInput;
+        if (Arrays.binarySearch(mActiveSubIdSnapshot, carrierAppConfigInput.getPrimarySub())
+                >= 0) {
+            return;
         }
+
+        logDebug("Carrier subscription is not available, removing entry");
+        mRequestArbitrator.withdrawIfCurrent(ONSRequestArbitrator.REQUESTER_CARRIER_APP,
+                carrierAppConfigInput, state -> {
+                    if (mIsEnabled && state.getWinningRequest() != null) {
+                        startProfileSelection(state.getWinningRequest());
+                    }
+                });
+    }
+
+    private void startProfileSelection(ONSConfigInput request) {
+        request.setCallbackHandled();
+        mProfileSelector.startProfileSelection(request.getAvailableNetworkInfos(),
+                request.getAvailableNetworkCallback());
+    }
+
+    /**
+     * Withdraw the request of a requester which reported that no network is available, and
+     * fall back to the remaining request if there is one.
+     */
+    private void withdrawAvailableNetworks(String requester,
+            IUpdateAvailableNetworksCallback callbackStub) {
+        mRequestArbitrator.update(requester, null, state -> {
+            if (!mIsEnabled) {
+                sendUpdateNetworksCallbackHelper(callbackStub,
+                        TelephonyManager.UPDATE_AVAILABLE_NETWORKS_SUCCESS);
+                return;
+            }
+            if (state.getWinningRequest() != null) {
+                sendUpdateNetworksCallbackHelper(callbackStub,
+                        TelephonyManager.UPDATE_AVAILABLE_NETWORKS_SUCCESS);
+                log("Try to start " + state.getWinner() + " request");
+                startProfileSelection(state.getWinningRequest());
+            } else {
+                mProfileSelector.stopProfileSelection(callbackStub);
+            }
+        });
     }
 
     private boolean hasOpportunisticSubPrivilege(String callingPackage, int subId) {
@@ -216,13 +330,20 @@ public class OpportunisticNetworkService extends Service {
          *
          * @param enable enable(True) or disable(False)
          * @param callingPackage caller's package name
-         * @return returns true if successfully set.
+         * @return returns true if successfully set, false if the service is not initialized or
+         *         the caller is throttled by admission control.
          */
         @Override
         public boolean setEnable(boolean enable, String callingPackage) {
+            if (!waitForInitialization()) {
+                return false;
+            }
             TelephonyPermissions.enforceCallingOrSelfModifyPermissionOrCarrierPrivilege(
                     mContext, mSubscriptionManager.getDefaultSubscriptionId(), "setEnable");
             log("setEnable: " + enable);
+            if (!admitCall(callingPackage, ONSAdmissionController.METHOD_SET_ENABLE)) {
+                return false;
+            }
 
             final long identity = Binder.clearCallingIdentity();
             try {
@@ -249,6 +370,9 @@ public class OpportunisticNetworkService extends Service {
          */
         @Override
         public boolean isEnabled(String callingPackage) {
+            if (!waitForInitialization()) {
+                return false;
+            }
             TelephonyPermissions
                     .enforceCallingOrSelfReadPrivilegedPhoneStatePermissionOrCarrierPrivilege(
                             mContext, mSubscriptionManager.getDefaultSubscriptionId(), "isEnabled");
@@ -274,6 +398,11 @@ public class OpportunisticNetworkService extends Service {
                 ISetOpportunisticDataCallback callbackStub, String callingPackage) {
             logDebug("setPreferredDataSubscriptionId subId:" + subId
                     + " callingPackage:" + callingPackage);
+            if (!waitForInitialization()) {
+                sendSetOpptCallbackHelper(callbackStub,
+                        TelephonyManager.SET_OPPORTUNISTIC_SUB_VALIDATION_FAILED);
+                return;
+            }
             if (!enforceModifyPhoneStatePermission(mContext)) {
                 TelephonyPermissions.enforceCallingOrSelfCarrierPrivilege(mContext,
                         mSubscriptionManager.getDefaultSubscriptionId(), "setPreferredDataSubscriptionId");
@@ -282,13 +411,21 @@ public class OpportunisticNetworkService extends Service {
                             "setPreferredDataSubscriptionId");
                 }
             } else {
-                if (mONSConfigInputHashMap.get(CARRIER_APP_CONFIG_NAME) != null) {
+                if (mRequestArbitrator.getState().getRequest(
+                        ONSRequestArbitrator.REQUESTER_CARRIER_APP) != null) {
                     sendSetOpptCallbackHelper(callbackStub,
                         TelephonyManager.SET_OPPORTUNISTIC_SUB_VALIDATION_FAILED);
                     return;
                 }
             }
 
+            /* an app must always be able to drop the preference it set */
+            if (subId != SubscriptionManager.DEFAULT_SUBSCRIPTION_ID && !admitCall(callingPackage,
+                    ONSAdmissionController.METHOD_SET_PREFERRED_DATA)) {
+                sendSetOpptCallbackHelper(callbackStub,
+                        ONSAdmissionController.SET_PREFERRED_DATA_THROTTLED);
+                return;
+            }
 
             final long identity = Binder.clearCallingIdentity();
             try {
@@ -313,6 +450,9 @@ public class OpportunisticNetworkService extends Service {
         @Override
         public int getPreferredDataSubscriptionId(String callingPackage,
                 String callingFeatureId) {
+            if (!waitForInitialization()) {
+                return SubscriptionManager.DEFAULT_SUBSCRIPTION_ID;
+            }
             TelephonyPermissions
                     .checkCallingOrSelfReadPhoneState(mContext,
                             mSubscriptionManager.getDefaultSubscriptionId(),
@@ -345,14 +485,33 @@ public class OpportunisticNetworkService extends Service {
         public void updateAvailableNetworks(List<AvailableNetworkInfo> availableNetworks,
                 IUpdateAvailableNetworksCallback callbackStub, String callingPackage) {
             logDebug("updateAvailableNetworks: " + availableNetworks);
+            if (!waitForInitialization()) {
+                sendUpdateNetworksCallbackHelper(callbackStub,
+                        TelephonyManager.UPDATE_AVAILABLE_NETWORKS_ABORTED);
+                return;
+            }
+            /* an app must always be able to stop the scans it requested */
+            boolean isWithdrawal = availableNetworks == null || availableNetworks.isEmpty();
             /* check if system app */
             if (enforceModifyPhoneStatePermission(mContext)) {
+                if (!isWithdrawal && !admitCall(callingPackage,
+                        ONSAdmissionController.METHOD_UPDATE_AVAILABLE_NETWORKS)) {
+                    sendUpdateNetworksCallbackHelper(callbackStub,
+                            ONSAdmissionController.UPDATE_AVAILABLE_NETWORKS_THROTTLED);
+                    return;
+                }
                 handleSystemAppAvailableNetworks(
                         (ArrayList<AvailableNetworkInfo>) availableNetworks, callbackStub);
             } else {
                 /* check if the app has primary carrier permission */
                 TelephonyPermissions.enforceCallingOrSelfCarrierPrivilege(mContext,
                         mSubscriptionManager.getDefaultSubscriptionId(), "updateAvailableNetworks");
+                if (!isWithdrawal && !admitCall(callingPackage,
+                        ONSAdmissionController.METHOD_UPDATE_AVAILABLE_NETWORKS)) {
+                    sendUpdateNetworksCallbackHelper(callbackStub,
+                            ONSAdmissionController.UPDATE_AVAILABLE_NETWORKS_THROTTLED);
+                    return;
+                }
                 handleCarrierAppAvailableNetworks(
                         (ArrayList<AvailableNetworkInfo>) availableNetworks, callbackStub,
                         callingPackage);
@@ -367,6 +526,7 @@ public class OpportunisticNetworkService extends Service {
 
     @Override
     public void onCreate() {
+        mCreateTimeMs = SystemClock.elapsedRealtime();
         startWorkerThreadAndInit();
 
         /* register the service */
@@ -376,6 +536,7 @@ public class OpportunisticNetworkService extends Service {
         if (opportunisticNetworkServiceRegisterer.get() == null) {
             opportunisticNetworkServiceRegisterer.register(mBinder);
         }
+        recordStartupPhase("onCreate", mCreateTimeMs);
     }
 
     @Override
@@ -408,24 +569,42 @@ public class OpportunisticNetworkService extends Service {
                     break;
 
                     case ONSProfileDownloader.ACTION_ONS_ESIM_DOWNLOAD: {
-                        mONSProfileActivator.getONSProfileDownloader().onCallbackIntentReceived(
-                                mIntent.getParcelableExtra(Intent.EXTRA_INTENT),
-                                mIntent.getIntExtra(ONSProfileResultReceiver.EXTRA_RESULT_CODE, 0)
-                        );
+                        ONSProfileActivator activator = getProfileActivator();
+                        if (activator != null) {
+                            activator.getONSProfileDownloader().onCallbackIntentReceived(
+                                    mIntent.getParcelableExtra(Intent.EXTRA_INTENT),
+                                    mIntent.getIntExtra(
+                                            ONSProfileResultReceiver.EXTRA_RESULT_CODE, 0));
+                        }
                     }
                     break;
 
                     case ONSProfileConfigurator.ACTION_ONS_ESIM_CONFIG: {
-                        mONSProfileActivator.getONSProfileConfigurator().onCallbackIntentReceived(
-                                mIntent.getParcelableExtra(Intent.EXTRA_INTENT),
-                                mIntent.getIntExtra(ONSProfileResultReceiver.EXTRA_RESULT_CODE, 0)
-                        );
+                        ONSProfileActivator activator = getProfileActivator();
+                        if (activator != null) {
+                            activator.getONSProfileConfigurator().onCallbackIntentReceived(
+                                    mIntent.getParcelableExtra(Intent.EXTRA_INTENT),
+                                    mIntent.getIntExtra(
+                                            ONSProfileResultReceiver.EXTRA_RESULT_CODE, 0));
+                        }
                     }
                     break;
 
-                    case CarrierConfigManager.ACTION_CARRIER_CONFIG_CHANGED:
-                        mONSProfileActivator.handleCarrierConfigChange();
-                        break;
+                    case CarrierConfigManager.ACTION_CARRIER_CONFIG_CHANGED: {
+                        ONSProfileActivator activator = getProfileActivator();
+                        if (activator != null) {
+                            Intent broadcast = mIntent.getParcelableExtra(Intent.EXTRA_INTENT);
+                            activator.handleCarrierConfigChange(broadcast == null
+                                    ? SubscriptionManager.INVALID_SUBSCRIPTION_ID
+                                    : broadcast.getIntExtra(
+                                            CarrierConfigManager.EXTRA_SUBSCRIPTION_INDEX,
+                                            SubscriptionManager.INVALID_SUBSCRIPTION_ID));
+                        } else {
+                            mONSStats.logEvent(new ONSStatsInfo().setProvisioningResult(
+                                    ONSProfileActivator.Result.ERR_AUTO_PROVISIONING_DISABLED));
+                        }
+                    }
+                    break;
                 }
             }
         }.setIntent(intent));
@@ -448,21 +627,57 @@ public class OpportunisticNetworkService extends Service {
      */
     @VisibleForTesting
     protected void initialize(Context context) {
+        long initStartTimeMs = SystemClock.elapsedRealtime();
         mContext = context;
         Context deviceProtectedContext = mContext.createDeviceProtectedStorageContext();
-        createMsgHandler();
+        if (mHandler == null) {
+            createMsgHandler(Looper.myLooper());
+        }
         mTelephonyManager = TelephonyManager.from(mContext);
+        long phaseStartTimeMs = SystemClock.elapsedRealtime();
         mProfileSelector = new ONSProfileSelector(mContext, mProfileSelectionCallback);
+        recordStartupPhase("profileSelector", phaseStartTimeMs);
+        phaseStartTimeMs = SystemClock.elapsedRealtime();
         mSharedPref = deviceProtectedContext.getSharedPreferences(
                 PREF_NAME, Context.MODE_PRIVATE);
         mSubscriptionManager = (SubscriptionManager) mContext.getSystemService(
                 Context.TELEPHONY_SUBSCRIPTION_SERVICE);
-        mONSConfigInputHashMap = new HashMap<String, ONSConfigInput>();
+        mSubscriptionManager.addOnSubscriptionsChangedListener(mHandler::post,
+                mSubscriptionsChangedListener);
+        mAdmissionController = new ONSAdmissionController(
+                mContext.getResources().getInteger(R.integer.ons_admission_burst),
+                mContext.getResources().getInteger(R.integer.ons_admission_rate_per_minute));
+        mRequestArbitrator = new ONSRequestArbitrator(
+                networks -> mProfileSelector.containStandaloneOppSubs(networks),
+                mArbitrationListener);
         mONSStats = new ONSStats(deviceProtectedContext, mSubscriptionManager);
+        recordStartupPhase("stats", phaseStartTimeMs);
         mContext.registerReceiver(mBroadcastReceiver,
             new IntentFilter(TelephonyIntents.ACTION_SIM_STATE_CHANGED));
+        phaseStartTimeMs = SystemClock.elapsedRealtime();
         enableOpportunisticNetwork(getPersistentEnableState());
-        mONSProfileActivator = new ONSProfileActivator(mContext, mONSStats);
+        recordStartupPhase("enableState", phaseStartTimeMs);
+        recordStartupPhase("initialize", initStartTimeMs);
+        mInitLatch.countDown();
+    }
+
+    /**
+     * Get the provisioning subsystem, creating it on first use. The activator registers for
+     * connectivity updates and builds the downloader and configurator, so it is only created
+     * when auto provisioning is enabled.
+     * @return the activator or null if auto provisioning is disabled.
+     */
+    @VisibleForTesting
+    protected ONSProfileActivator getProfileActivator() {
+        if (mONSProfileActivator == null) {
+            if (!mContext.getResources().getBoolean(R.bool.enable_ons_auto_provisioning)) {
+                return null;
+            }
+            long startTimeMs = SystemClock.elapsedRealtime();
+            mONSProfileActivator = new ONSProfileActivator(mContext, mONSStats);
+            recordStartupPhase("profileActivator", startTimeMs);
+        }
+        return mONSProfileActivator;
     }
 
     private void handleCarrierAppAvailableNetworks(
@@ -523,32 +738,36 @@ public class OpportunisticNetworkService extends Service {
             final long identity = Binder.clearCallingIdentity();
             try {
                 ONSConfigInput onsConfigInput = new ONSConfigInput(availableNetworks, callbackStub);
-                SubscriptionInfo subscriptionInfo = mSubscriptionManager.getDefaultVoiceSubscriptionInfo();
-                if (subscriptionInfo != null) {
-                    onsConfigInput.setPrimarySub(subscriptionInfo.getSubscriptionId());
-                    onsConfigInput.setPreferredDataSub(availableNetworks.get(0).getSubId());
-                    mONSConfigInputHashMap.put(CARRIER_APP_CONFIG_NAME, onsConfigInput);
-                }
-                /* standalone opportunistic subscription should be handled in priority. */
-                if (mONSConfigInputHashMap.get(SYSTEM_APP_CONFIG_NAME) != null) {
-                    if (mProfileSelector.containStandaloneOppSubs(mONSConfigInputHashMap.get(
-                            SYSTEM_APP_CONFIG_NAME).getAvailableNetworkInfos())) {
+                Consumer<ONSRequestArbitrator.State> action = state -> {
+                    /* standalone opportunistic subscription should be handled in priority. */
+                    if (!ONSRequestArbitrator.REQUESTER_CARRIER_APP.equals(state.getWinner())) {
                         log("standalone opportunistic subscription is using.");
                         return;
                     }
-                }
-
-                if (mIsEnabled) {
-                    /*  if carrier is reporting availability, then it takes higher priority. */
-                    mProfileSelector.startProfileSelection(availableNetworks, callbackStub);
-                } else {
-                    if (Compatibility.isChangeEnabled(CALLBACK_ON_MORE_ERROR_CODE_CHANGE)) {
-                        sendUpdateNetworksCallbackHelper(callbackStub,
-                                TelephonyManager.UPDATE_AVAILABLE_NETWORKS_SERVICE_IS_DISABLED);
+                    if (mIsEnabled) {
+                        /*  if carrier is reporting availability, then it takes higher priority. */
+                        startProfileSelection(onsConfigInput);
                     } else {
-                        sendUpdateNetworksCallbackHelper(callbackStub,
-                                TelephonyManager.UPDATE_AVAILABLE_NETWORKS_ABORTED);
+                        onsConfigInput.setCallbackHandled();
+                        if (Compatibility.isChangeEnabled(CALLBACK_ON_MORE_ERROR_CODE_CHANGE)) {
+                            sendUpdateNetworksCallbackHelper(callbackStub, TelephonyManager
+                                    .UPDATE_AVAILABLE_NETWORKS_SERVICE_IS_DISABLED);
+                        } else {
+                            sendUpdateNetworksCallbackHelper(callbackStub,
+                                    TelephonyManager.UPDATE_AVAILABLE_NETWORKS_ABORTED);
+                        }
                     }
+                };
+                SubscriptionInfo subscriptionInfo = mSubscriptionManager.getDefaultVoiceSubscriptionInfo();
+                if (subscriptionInfo != null) {
+                    onsConfigInput.setPrimarySub(subscriptionInfo.getSubscriptionId());
+                    onsConfigInput.setPreferredDataSub(availableNetworks.get(0).getSubId());
+                    mRequestArbitrator.update(ONSRequestArbitrator.REQUESTER_CARRIER_APP,
+                            onsConfigInput, action);
+                } else {
+                    /* without a primary subscription the request is served but not kept */
+                    action.accept(mRequestArbitrator.evaluate(
+                            ONSRequestArbitrator.REQUESTER_CARRIER_APP, onsConfigInput));
                 }
             } finally {
                 Binder.restoreCallingIdentity(identity);
@@ -556,25 +775,10 @@ public class OpportunisticNetworkService extends Service {
         } else {
             final long identity = Binder.clearCallingIdentity();
             try {
-                mONSConfigInputHashMap.put(CARRIER_APP_CONFIG_NAME, null);
-                if (!mIsEnabled) {
-                    sendUpdateNetworksCallbackHelper(callbackStub,
-                        TelephonyManager.UPDATE_AVAILABLE_NETWORKS_SUCCESS);
-                    return;
-                }
                 /* if carrier is reporting unavailability, then decide whether to start
                    system app request or not. */
-                if (mONSConfigInputHashMap.get(SYSTEM_APP_CONFIG_NAME) != null) {
-                    sendUpdateNetworksCallbackHelper(callbackStub,
-                            TelephonyManager.UPDATE_AVAILABLE_NETWORKS_SUCCESS);
-                    mProfileSelector.startProfileSelection(
-                            mONSConfigInputHashMap.get(SYSTEM_APP_CONFIG_NAME)
-                                    .getAvailableNetworkInfos(),
-                            mONSConfigInputHashMap.get(
-                                    SYSTEM_APP_CONFIG_NAME).getAvailableNetworkCallback());
-                } else {
-                    mProfileSelector.stopProfileSelection(callbackStub);
-                }
+                withdrawAvailableNetworks(ONSRequestArbitrator.REQUESTER_CARRIER_APP,
+                        callbackStub);
             } finally {
                 Binder.restoreCallingIdentity(identity);
             }
@@ -622,46 +826,31 @@ public class OpportunisticNetworkService extends Service {
                     }
                     return;
                 }
-                mONSConfigInputHashMap.put(SYSTEM_APP_CONFIG_NAME,
-                        new ONSConfigInput(availableNetworks, callbackStub));
                 /* reporting availability. proceed if carrier app has not requested any, but
                    standalone opportunistic subscription should be handled in priority. */
-                if (mIsEnabled) {
-                    if (mONSConfigInputHashMap.get(CARRIER_APP_CONFIG_NAME) == null
-                            || mProfileSelector.containStandaloneOppSubs(availableNetworks)) {
-                        mProfileSelector.startProfileSelection(availableNetworks, callbackStub);
-                    }
-                } else {
-                    if (Compatibility.isChangeEnabled(CALLBACK_ON_MORE_ERROR_CODE_CHANGE)) {
-                        sendUpdateNetworksCallbackHelper(callbackStub,
-                                TelephonyManager.UPDATE_AVAILABLE_NETWORKS_SERVICE_IS_DISABLED);
+                ONSConfigInput onsConfigInput = new ONSConfigInput(availableNetworks, callbackStub);
+                mRequestArbitrator.update(ONSRequestArbitrator.REQUESTER_SYSTEM_APP,
+                        onsConfigInput, state -> {
+                    if (mIsEnabled) {
+                        if (ONSRequestArbitrator.REQUESTER_SYSTEM_APP.equals(state.getWinner())) {
+                            startProfileSelection(onsConfigInput);
+                        }
                     } else {
-                        sendUpdateNetworksCallbackHelper(callbackStub,
-                                TelephonyManager.UPDATE_AVAILABLE_NETWORKS_ABORTED);
+                        onsConfigInput.setCallbackHandled();
+                        if (Compatibility.isChangeEnabled(CALLBACK_ON_MORE_ERROR_CODE_CHANGE)) {
+                            sendUpdateNetworksCallbackHelper(callbackStub, TelephonyManager
+                                    .UPDATE_AVAILABLE_NETWORKS_SERVICE_IS_DISABLED);
+                        } else {
+                            sendUpdateNetworksCallbackHelper(callbackStub,
+                                    TelephonyManager.UPDATE_AVAILABLE_NETWORKS_ABORTED);
+                        }
                     }
-                }
+                });
             } else {
-                if (!mIsEnabled) {
-                    mONSConfigInputHashMap.put(SYSTEM_APP_CONFIG_NAME, null);
-                    sendUpdateNetworksCallbackHelper(callbackStub,
-                        TelephonyManager.UPDATE_AVAILABLE_NETWORKS_SUCCESS);
-                    return;
-                }
                 /* if system is reporting unavailability, then decide whether to start
                    carrier app request or not. */
-                mONSConfigInputHashMap.put(SYSTEM_APP_CONFIG_NAME, null);
-                if (mONSConfigInputHashMap.get(CARRIER_APP_CONFIG_NAME) == null) {
-                    mProfileSelector.stopProfileSelection(callbackStub);
-                } else {
-                    sendUpdateNetworksCallbackHelper(callbackStub,
-                            TelephonyManager.UPDATE_AVAILABLE_NETWORKS_SUCCESS);
-                    log("Try to start carrier app request");
-                    mProfileSelector.startProfileSelection(
-                            mONSConfigInputHashMap.get(CARRIER_APP_CONFIG_NAME)
-                                    .getAvailableNetworkInfos(),
-                            mONSConfigInputHashMap.get(
-                                    CARRIER_APP_CONFIG_NAME).getAvailableNetworkCallback());
-                }
+                withdrawAvailableNetworks(ONSRequestArbitrator.REQUESTER_SYSTEM_APP,
+                        callbackStub);
             }
         } finally {
             Binder.restoreCallingIdentity(identity);
@@ -685,29 +874,47 @@ public class OpportunisticNetworkService extends Service {
                 if (!mIsEnabled) {
                     mProfileSelector.stopProfileSelection(null);
                 } else {
-                    if (mONSConfigInputHashMap.get(CARRIER_APP_CONFIG_NAME) != null &&
-                        mONSConfigInputHashMap.get(CARRIER_APP_CONFIG_NAME)
-                            .getAvailableNetworkInfos() != null) {
-                        mProfileSelector.startProfileSelection(
-                            mONSConfigInputHashMap.get(CARRIER_APP_CONFIG_NAME)
-                                .getAvailableNetworkInfos(),
-                            mONSConfigInputHashMap.get(
-                                CARRIER_APP_CONFIG_NAME).getAvailableNetworkCallback());
-                    } else if (mONSConfigInputHashMap.get(SYSTEM_APP_CONFIG_NAME) != null &&
-                        mONSConfigInputHashMap.get(SYSTEM_APP_CONFIG_NAME)
-                            .getAvailableNetworkInfos() != null) {
-                        mProfileSelector.startProfileSelection(
-                            mONSConfigInputHashMap.get(SYSTEM_APP_CONFIG_NAME)
-                                .getAvailableNetworkInfos(),
-                            mONSConfigInputHashMap.get(
-                                SYSTEM_APP_CONFIG_NAME).getAvailableNetworkCallback());
-                    }
+                    mRequestArbitrator.reevaluate(state -> {
+                        ONSConfigInput request = state.getWinningRequest();
+                        if (request != null && request.getAvailableNetworkInfos() != null) {
+                            startProfileSelection(request);
+                        }
+                    });
                 }
             }
         }
         logDebug("service is enable state " + mIsEnabled);
     }
 
+    @Override
+    protected void dump(FileDescriptor fd, PrintWriter pw, String[] args) {
+        pw.println("OpportunisticNetworkService:");
+        pw.println("  initialized=" + (mInitLatch.getCount() == 0));
+        pw.println("  enabled=" + mIsEnabled);
+        pw.println("  provisioning=" + (mONSProfileActivator != null));
+        pw.println("  startup timings (ms):");
+        synchronized (mStartupTimings) {
+            for (Map.Entry<String, Long> entry : mStartupTimings.entrySet()) {
+                pw.println("    " + entry.getKey() + "=" + entry.getValue());
+            }
+        }
+        if (mAdmissionController != null) {
+            mAdmissionController.dump(pw);
+        }
+        if (mONSProfileActivator != null) {
+            mONSProfileActivator.dump(pw);
+        }
+        if (mProfileSelector != null && mProfileSelector.getSwitchCostModel() != null) {
+            mProfileSelector.getSwitchCostModel().dump(pw);
+        }
+        if (mProfileSelector != null && mProfileSelector.getValidationCache() != null) {
+            mProfileSelector.getValidationCache().dump(pw);
+        }
+        if (mProfileSelector != null && mProfileSelector.getLinkQualityMonitor() != null) {
+            mProfileSelector.getLinkQualityMonitor().dump(pw);
+        }
+    }
+
     private void log(String msg) {
         Rlog.d(TAG, msg);
     }
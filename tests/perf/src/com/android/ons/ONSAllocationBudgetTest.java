@@ -0,0 +1,187 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.ons;
+
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+import static org.mockito.Mockito.mock;
+
+import android.content.Context;
+import android.os.Debug;
+import android.os.SystemClock;
+import android.telephony.AvailableNetworkInfo;
+import android.telephony.CellInfo;
+import android.telephony.TelephonyManager;
+import android.util.Log;
+
+import androidx.test.InstrumentationRegistry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Checks the bytes allocated per scan batch and per selection decision against recorded
+ * budgets. ONS runs in the persistent phone process, so garbage created for every scan result
+ * is collected at the expense of the whole telephony stack.
+ *
+ * The decision journal is attached as in ONSProfileSelector#init, so that the measured path is
+ * the one a device with the journal enabled runs.
+ *
+ * Every test logs its measured value. When a change legitimately needs more memory, set the
+ * budget to the measured value plus BUDGET_HEADROOM_PERCENT.
+ */
+@RunWith(JUnit4.class)
+public class ONSAllocationBudgetTest {
+    private static final String TAG = "ONSAllocationBudgetTest";
+    private static final int PLMN_COUNT = 100;
+    private static final int NETWORK_COUNT = 20;
+    private static final int CELL_COUNT = 100;
+    private static final int MATCHING_PERCENT = 20;
+    private static final int WARMUP_ITERATIONS = 100;
+    private static final int ITERATIONS = 1000;
+    /* large enough for the records of all runs, a rotation would be measured as an allocation */
+    private static final int JOURNAL_SEGMENT_SIZE = 4 * 1024 * 1024;
+
+    /* margin over the measured value for run to run variation of the runtime */
+    private static final int BUDGET_HEADROOM_PERCENT = 10;
+    /*
+     * Budgets in bytes for a batch of CELL_COUNT cells. They count the objects each path
+     * allocates with their ART sizes, plus 25% for framework internals:
+     * - analyzeScanResults: the mcc mnc string of each cell, about 10 KB.
+     * - retrieveBestSubscription, and onNetworkAvailability which finds no subscription in
+     *   mUnknownCells: no cell matches a high or medium priority network, so both levels walk all
+     *   cells. Per cell and level, a mcc mnc string and a network iterator. Per network of the
+     *   level, a copy of its PLMN list and its iterator. About 148 KB.
+     */
+    private static final long ANALYZE_SCAN_RESULTS_BUDGET = 12_800;
+    private static final long RETRIEVE_BEST_SUBSCRIPTION_BUDGET = 185_000;
+    private static final long NETWORK_AVAILABILITY_CALLBACK_BUDGET = 185_000;
+
+    /* kept reachable so that the probe allocation is not optimized away */
+    private static volatile Object sProbe;
+
+    private File mJournalFile;
+    private ONSDecisionJournal mDecisionJournal;
+    private ONSNetworkScanCtlr mNetworkScanCtlr;
+    private ONSProfileSelector mProfileSelector;
+    private ArrayList<AvailableNetworkInfo> mAvailableNetworks;
+    private List<CellInfo> mCells;
+    private List<CellInfo> mUnknownCells;
+
+    @Before
+    public void setUp() throws IOException {
+        Context context = InstrumentationRegistry.getTargetContext();
+        mJournalFile = File.createTempFile("ons_budget_journal", null);
+        mJournalFile.delete();
+        mDecisionJournal = new ONSDecisionJournal(mJournalFile, JOURNAL_SEGMENT_SIZE,
+                SystemClock::elapsedRealtime);
+        mNetworkScanCtlr = new ONSNetworkScanCtlr(context, mock(TelephonyManager.class),
+                new ONSNetworkScanCtlr.NetworkAvailableCallBack() {
+                    @Override
+                    public void onNetworkAvailability(List<CellInfo> results) {
+                    }
+
+                    @Override
+                    public void onError(int error) {
+                    }
+                });
+        mNetworkScanCtlr.setIs4gScanEnabled(true);
+        mNetworkScanCtlr.setDecisionJournal(mDecisionJournal);
+        mProfileSelector = new ONSProfileSelector(context, () -> { });
+        /* the journal is only created when enabled */
+        mProfileSelector.mDecisionJournal = mDecisionJournal;
+        mProfileSelector.mNetworkScanCtlr.setDecisionJournal(mDecisionJournal);
+        List<String> plmns = ONSPerfDataGenerator.createPlmns(PLMN_COUNT);
+        mAvailableNetworks = ONSPerfDataGenerator.createAvailableNetworks(NETWORK_COUNT, plmns);
+        mCells = ONSPerfDataGenerator.createCells(CELL_COUNT, plmns, MATCHING_PERCENT);
+        mUnknownCells = ONSPerfDataGenerator.createCells(CELL_COUNT, plmns, 0);
+        mProfileSelector.mAvailableNetworkInfos = mAvailableNetworks;
+    }
+
+    @After
+    public void tearDown() {
+        mNetworkScanCtlr.mThread.quitSafely();
+        mProfileSelector.mThread.quitSafely();
+        mDecisionJournal.close();
+        mJournalFile.delete();
+        new File(mJournalFile.getPath() + ONSDecisionJournal.ROTATED_FILE_SUFFIX).delete();
+    }
+
+    @Test
+    public void testAnalyzeScanResults() {
+        /* the results are only analyzed while a scan for the requested PLMNs is active */
+        mNetworkScanCtlr.startFastNetworkScan(mAvailableNetworks);
+        assertWithinBudget("analyzeScanResults", ANALYZE_SCAN_RESULTS_BUDGET,
+                () -> mNetworkScanCtlr.analyzeScanResults(mCells));
+    }
+
+    @Test
+    public void testRetrieveBestSubscription() {
+        /* sorting in place makes later runs see sorted input, which costs the same memory */
+        assertWithinBudget("retrieveBestSubscription", RETRIEVE_BEST_SUBSCRIPTION_BUDGET,
+                () -> mProfileSelector.retrieveBestSubscription(mCells));
+    }
+
+    @Test
+    public void testNetworkAvailabilityCallback() {
+        /* cells without a requested PLMN keep the decision off the subscription switch path */
+        assertWithinBudget("onNetworkAvailability", NETWORK_AVAILABILITY_CALLBACK_BUDGET,
+                () -> mProfileSelector.mNetworkAvailableCallBack
+                        .onNetworkAvailability(mUnknownCells));
+    }
+
+    private void assertWithinBudget(String name, long budgetBytes, Runnable runnable) {
+        long bytes = measureAllocatedBytes(runnable);
+        Log.d(TAG, name + " allocated " + bytes + " bytes per call, budget " + budgetBytes
+                + ", measured budget " + bytes * (100 + BUDGET_HEADROOM_PERCENT) / 100);
+        assertTrue(name + " allocated " + bytes + " bytes per call, budget is " + budgetBytes,
+                bytes <= budgetBytes);
+    }
+
+    /**
+     * @return average bytes allocated by the calling thread per run.
+     */
+    @SuppressWarnings("deprecation")
+    private static long measureAllocatedBytes(Runnable runnable) {
+        for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+            runnable.run();
+        }
+        Debug.startAllocCounting();
+        try {
+            Debug.resetThreadAllocSize();
+            sProbe = new Object[64];
+            /* the counters are optional in the runtime, skip if they stay at zero */
+            assumeTrue("thread allocation counting unsupported",
+                    Debug.getThreadAllocSize() > 0);
+            Debug.resetThreadAllocSize();
+            for (int i = 0; i < ITERATIONS; i++) {
+                runnable.run();
+            }
+            return Debug.getThreadAllocSize() / ITERATIONS;
+        } finally {
+            Debug.stopAllocCounting();
+        }
+    }
+}
@@ -0,0 +1,111 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.ons;
+
+import static org.mockito.Mockito.mock;
+
+import android.content.Context;
+import android.telephony.AvailableNetworkInfo;
+import android.telephony.CellInfo;
+import android.telephony.TelephonyManager;
+
+import androidx.benchmark.BenchmarkState;
+import androidx.benchmark.junit4.BenchmarkRule;
+import androidx.test.InstrumentationRegistry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Benchmarks of building the network scan request and of filtering the scan results in
+ * ONSNetworkScanCtlr.
+ */
+@RunWith(Parameterized.class)
+public class ONSNetworkScanCtlrBenchmark {
+    private static final int NETWORK_COUNT = 100;
+    private static final int SEARCH_PERIODICITY = 60;
+    private static final int MATCHING_PERCENT = 20;
+
+    @Rule
+    public BenchmarkRule mBenchmarkRule = new BenchmarkRule();
+
+    @Parameterized.Parameter(0)
+    public int mCellCount;
+
+    @Parameterized.Parameter(1)
+    public int mPlmnCount;
+
+    private ONSNetworkScanCtlr mNetworkScanCtlr;
+    private ArrayList<AvailableNetworkInfo> mAvailableNetworks;
+    private List<CellInfo> mCells;
+
+    @Parameterized.Parameters(name = "cells={0},plmns={1}")
+    public static Collection<Object[]> getParameters() {
+        return Arrays.asList(new Object[][] {{1000, 100}, {1000, 500}, {10000, 500}});
+    }
+
+    @Before
+    public void setUp() {
+        Context context = InstrumentationRegistry.getTargetContext();
+        mNetworkScanCtlr = new ONSNetworkScanCtlr(context, mock(TelephonyManager.class),
+                new ONSNetworkScanCtlr.NetworkAvailableCallBack() {
+                    @Override
+                    public void onNetworkAvailability(List<CellInfo> results) {
+                    }
+
+                    @Override
+                    public void onError(int error) {
+                    }
+                });
+        mNetworkScanCtlr.setIs4gScanEnabled(true);
+        List<String> plmns = ONSPerfDataGenerator.createPlmns(mPlmnCount);
+        mAvailableNetworks = ONSPerfDataGenerator.createAvailableNetworks(NETWORK_COUNT, plmns);
+        mCells = ONSPerfDataGenerator.createCells(mCellCount, plmns, MATCHING_PERCENT);
+    }
+
+    @After
+    public void tearDown() {
+        mNetworkScanCtlr.mThread.quitSafely();
+    }
+
+    @Test
+    public void createNetworkScanRequest() {
+        final BenchmarkState state = mBenchmarkRule.getState();
+        while (state.keepRunning()) {
+            mNetworkScanCtlr.createNetworkScanRequest(mAvailableNetworks, SEARCH_PERIODICITY);
+        }
+    }
+
+    @Test
+    public void analyzeScanResults() {
+        /* the results are only analyzed while a scan for the requested PLMNs is active */
+        mNetworkScanCtlr.startFastNetworkScan(mAvailableNetworks);
+        final BenchmarkState state = mBenchmarkRule.getState();
+        while (state.keepRunning()) {
+            mNetworkScanCtlr.analyzeScanResults(mCells);
+        }
+    }
+}
@@ -0,0 +1,146 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.ons;
+
+import android.telephony.AccessNetworkConstants;
+import android.telephony.AvailableNetworkInfo;
+import android.telephony.CellIdentityLte;
+import android.telephony.CellIdentityNr;
+import android.telephony.CellInfo;
+import android.telephony.CellInfoLte;
+import android.telephony.CellInfoNr;
+import android.telephony.CellSignalStrengthLte;
+import android.telephony.CellSignalStrengthNr;
+import android.telephony.RadioAccessSpecifier;
+import android.telephony.SubscriptionInfo;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Synthetic inputs for the ONS benchmarks. The generators are seeded so that every run of a
+ * benchmark measures the same data.
+ */
+public final class ONSPerfDataGenerator {
+    private static final long SEED = 0x4f4e53L;
+    private static final int FIRST_MCC = 310;
+    private static final int MNCS_PER_MCC = 100;
+    /* every fourth cell is an NR cell */
+    private static final int NR_CELL_INTERVAL = 4;
+    private static final int MIN_RSRP = -140;
+    private static final int MAX_RSRP = -44;
+    private static final int[] EUTRAN_BANDS = {
+            AccessNetworkConstants.EutranBand.BAND_48, AccessNetworkConstants.EutranBand.BAND_71};
+    private static final int[] NGRAN_BANDS = {
+            AccessNetworkConstants.NgranBands.BAND_48, AccessNetworkConstants.NgranBands.BAND_71};
+
+    private ONSPerfDataGenerator() {
+    }
+
+    /**
+     * @return distinct PLMNs, e.g. "310000", "310001".
+     */
+    public static List<String> createPlmns(int count) {
+        List<String> plmns = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            plmns.add(String.format("%03d%03d", FIRST_MCC + i / MNCS_PER_MCC, i % MNCS_PER_MCC));
+        }
+        return plmns;
+    }
+
+    /**
+     * Spreads the PLMNs over the networks, with sub ids starting at 1 and priorities cycling
+     * from high to low. The list is shuffled since callers receive it in any order.
+     */
+    public static ArrayList<AvailableNetworkInfo> createAvailableNetworks(int networkCount,
+            List<String> plmns) {
+        Random random = new Random(SEED);
+        ArrayList<AvailableNetworkInfo> availableNetworks = new ArrayList<>(networkCount);
+        int plmnsPerNetwork = Math.max(1, plmns.size() / networkCount);
+        for (int i = 0; i < networkCount; i++) {
+            int from = Math.min(i * plmnsPerNetwork, plmns.size() - 1);
+            int to = Math.min(from + plmnsPerNetwork, plmns.size());
+            List<RadioAccessSpecifier> ras = new ArrayList<>();
+            ras.add(new RadioAccessSpecifier(AccessNetworkConstants.AccessNetworkType.EUTRAN,
+                    EUTRAN_BANDS, null));
+            if (i % 2 == 0) {
+                ras.add(new RadioAccessSpecifier(AccessNetworkConstants.AccessNetworkType.NGRAN,
+                        NGRAN_BANDS, null));
+            }
+            availableNetworks.add(new AvailableNetworkInfo.Builder(i + 1)
+                    .setPriority(AvailableNetworkInfo.PRIORITY_HIGH
+                            + i % AvailableNetworkInfo.PRIORITY_LOW)
+                    .setMccMncs(new ArrayList<>(plmns.subList(from, to)))
+                    .setRadioAccessSpecifiers(ras)
+                    .build());
+        }
+        Collections.shuffle(availableNetworks, random);
+        return availableNetworks;
+    }
+
+    /**
+     * Creates opportunistic subscriptions for every other sub id up to maxSubId, in shuffled
+     * order.
+     */
+    public static List<SubscriptionInfo> createSubscriptionInfos(int maxSubId) {
+        Random random = new Random(SEED);
+        List<SubscriptionInfo> subInfos = new ArrayList<>();
+        for (int subId = 1; subId <= maxSubId; subId += 2) {
+            subInfos.add(new SubscriptionInfo(subId, "", 1, null, null, 0, 0, null, 0, null,
+                    "310", "210", null, true, null, null));
+        }
+        Collections.shuffle(subInfos, random);
+        return subInfos;
+    }
+
+    /**
+     * Creates scan results on the given PLMNs with random signal strength, mixing LTE and NR
+     * cells. A share of the cells is on PLMNs that were not requested.
+     *
+     * @param matchingPercent percentage of cells on one of the given PLMNs.
+     */
+    public static List<CellInfo> createCells(int cellCount, List<String> plmns,
+            int matchingPercent) {
+        Random random = new Random(SEED);
+        List<CellInfo> cells = new ArrayList<>(cellCount);
+        for (int i = 0; i < cellCount; i++) {
+            String plmn = random.nextInt(100) < matchingPercent
+                    ? plmns.get(random.nextInt(plmns.size())) : "001001";
+            String mcc = plmn.substring(0, 3);
+            String mnc = plmn.substring(3);
+            int rsrp = MIN_RSRP + random.nextInt(MAX_RSRP - MIN_RSRP + 1);
+            int pci = random.nextInt(504);
+            if (i % NR_CELL_INTERVAL == 0) {
+                CellIdentityNr cellIdentityNr = new CellIdentityNr(pci, 0, 0, new int[]{0}, mcc,
+                        mnc, 0, "", "", Collections.emptyList());
+                cells.add(new CellInfoNr(0, false, 0, cellIdentityNr,
+                        new CellSignalStrengthNr(CellInfo.UNAVAILABLE, CellInfo.UNAVAILABLE,
+                                CellInfo.UNAVAILABLE, rsrp, -10, 10)));
+            } else {
+                CellInfoLte cellInfoLte = new CellInfoLte();
+                cellInfoLte.setCellIdentity(new CellIdentityLte(Integer.parseInt(mcc),
+                        Integer.parseInt(mnc), 0, pci, 0));
+                cellInfoLte.setCellSignalStrength(new CellSignalStrengthLte(CellInfo.UNAVAILABLE,
+                        rsrp, -10, 10, CellInfo.UNAVAILABLE, CellInfo.UNAVAILABLE));
+                cells.add(cellInfoLte);
+            }
+        }
+        return cells;
+    }
+}
@@ -0,0 +1,115 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.ons;
+
+import android.content.Context;
+import android.telephony.AvailableNetworkInfo;
+import android.telephony.CellInfo;
+import android.telephony.SubscriptionInfo;
+
+import androidx.benchmark.BenchmarkState;
+import androidx.benchmark.junit4.BenchmarkRule;
+import androidx.test.InstrumentationRegistry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Benchmarks of the ONSProfileSelector paths run for each scan result and each
+ * updateAvailableNetworks request.
+ */
+@RunWith(Parameterized.class)
+public class ONSProfileSelectorBenchmark {
+    private static final int PLMN_COUNT = 300;
+    private static final int NETWORK_COUNT = 100;
+    private static final int MATCHING_PERCENT = 20;
+
+    @Rule
+    public BenchmarkRule mBenchmarkRule = new BenchmarkRule();
+
+    @Parameterized.Parameter
+    public int mCellCount;
+
+    private ONSProfileSelector mProfileSelector;
+    private ArrayList<AvailableNetworkInfo> mAvailableNetworks;
+    private List<SubscriptionInfo> mSubscriptionInfos;
+    private List<CellInfo> mCells;
+
+    @Parameterized.Parameters(name = "cells={0}")
+    public static Collection<Object[]> getParameters() {
+        return Arrays.asList(new Object[][] {{1000}, {10000}});
+    }
+
+    @Before
+    public void setUp() {
+        Context context = InstrumentationRegistry.getTargetContext();
+        mProfileSelector = new ONSProfileSelector(context, () -> { });
+        List<String> plmns = ONSPerfDataGenerator.createPlmns(PLMN_COUNT);
+        mAvailableNetworks = ONSPerfDataGenerator.createAvailableNetworks(NETWORK_COUNT, plmns);
+        mSubscriptionInfos = ONSPerfDataGenerator.createSubscriptionInfos(NETWORK_COUNT);
+        mCells = ONSPerfDataGenerator.createCells(mCellCount, plmns, MATCHING_PERCENT);
+        mProfileSelector.mAvailableNetworkInfos = mAvailableNetworks;
+    }
+
+    @After
+    public void tearDown() {
+        mProfileSelector.mThread.quitSafely();
+    }
+
+    @Test
+    public void retrieveBestSubscription() {
+        final BenchmarkState state = mBenchmarkRule.getState();
+        while (state.keepRunning()) {
+            /* the results are sorted in place, start each run from the scan order */
+            state.pauseTiming();
+            List<CellInfo> cells = new ArrayList<>(mCells);
+            state.resumeTiming();
+            mProfileSelector.retrieveBestSubscription(cells);
+        }
+    }
+
+    @Test
+    public void getFilteredAvailableNetworks() {
+        final BenchmarkState state = mBenchmarkRule.getState();
+        while (state.keepRunning()) {
+            /* both lists are sorted in place, start each run from the request order */
+            state.pauseTiming();
+            ArrayList<AvailableNetworkInfo> availableNetworks = new ArrayList<>(mAvailableNetworks);
+            List<SubscriptionInfo> subscriptionInfos = new ArrayList<>(mSubscriptionInfos);
+            state.resumeTiming();
+            mProfileSelector.getFilteredAvailableNetworks(availableNetworks, subscriptionInfos);
+        }
+    }
+
+    @Test
+    public void isSame() {
+        ArrayList<AvailableNetworkInfo> availableNetworks = new ArrayList<>(mAvailableNetworks);
+        final BenchmarkState state = mBenchmarkRule.getState();
+        while (state.keepRunning()) {
+            mProfileSelector.isSame(mAvailableNetworks, availableNetworks);
+        }
+    }
+}
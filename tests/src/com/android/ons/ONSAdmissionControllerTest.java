@@ -0,0 +1,117 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.ons;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+
+@RunWith(JUnit4.class)
+public class ONSAdmissionControllerTest {
+    private static final int BURST = 3;
+    private static final int RATE_PER_MINUTE = 6;
+    private static final int UID = 10100;
+    private static final int EXEMPT_UID = 1001;
+    private static final String METHOD = ONSAdmissionController.METHOD_UPDATE_AVAILABLE_NETWORKS;
+
+    private long mTime;
+    private ONSAdmissionController mController;
+
+    @Before
+    public void setUp() {
+        mTime = 0;
+        mController = new ONSAdmissionController(BURST, RATE_PER_MINUTE, EXEMPT_UID,
+                () -> mTime);
+    }
+
+    @Test
+    public void testBurstThenReject() {
+        for (int i = 0; i < BURST; i++) {
+            assertTrue(mController.tryAcquire(UID, METHOD));
+        }
+        assertFalse(mController.tryAcquire(UID, METHOD));
+        assertEquals(1, mController.getRejectedCount(UID, METHOD));
+    }
+
+    @Test
+    public void testRefill() {
+        for (int i = 0; i < BURST; i++) {
+            mController.tryAcquire(UID, METHOD);
+        }
+        /* one token every 10 seconds, refilled in small steps without rounding loss */
+        for (int i = 0; i < 9; i++) {
+            mTime += 1000;
+            assertFalse(mController.tryAcquire(UID, METHOD));
+        }
+        mTime += 1000;
+        assertTrue(mController.tryAcquire(UID, METHOD));
+        assertFalse(mController.tryAcquire(UID, METHOD));
+
+        /* the bucket never holds more than the burst */
+        mTime += 60 * 60 * 1000;
+        for (int i = 0; i < BURST; i++) {
+            assertTrue(mController.tryAcquire(UID, METHOD));
+        }
+        assertFalse(mController.tryAcquire(UID, METHOD));
+    }
+
+    @Test
+    public void testBucketsAreIndependent() {
+        for (int i = 0; i < BURST; i++) {
+            mController.tryAcquire(UID, METHOD);
+        }
+        assertFalse(mController.tryAcquire(UID, METHOD));
+        assertTrue(mController.tryAcquire(UID,
+                ONSAdmissionController.METHOD_SET_ENABLE));
+        assertTrue(mController.tryAcquire(UID + 1, METHOD));
+    }
+
+    @Test
+    public void testDisabled() {
+        mController = new ONSAdmissionController(0, RATE_PER_MINUTE, EXEMPT_UID, () -> mTime);
+        for (int i = 0; i < 100; i++) {
+            assertTrue(mController.tryAcquire(UID, METHOD));
+        }
+    }
+
+    @Test
+    public void testExemptUid() {
+        for (int i = 0; i < 100; i++) {
+            assertTrue(mController.tryAcquire(EXEMPT_UID, METHOD));
+        }
+        assertEquals(0, mController.getRejectedCount(EXEMPT_UID, METHOD));
+    }
+
+    @Test
+    public void testDump() {
+        for (int i = 0; i <= BURST; i++) {
+            mController.tryAcquire(UID, METHOD);
+        }
+        StringWriter stringWriter = new StringWriter();
+        mController.dump(new PrintWriter(stringWriter));
+        assertTrue(stringWriter.toString().contains(
+                UID + "/" + METHOD + ": admitted=3 rejected=1"));
+    }
+}
@@ -0,0 +1,188 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.ons;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+import android.telephony.CellIdentityLte;
+import android.telephony.CellInfo;
+import android.telephony.CellInfoLte;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+@RunWith(JUnit4.class)
+public class ONSCellCoverageMapTest {
+    private static final long TEST_FINGERPRINT_1 = 0x1234L;
+    private static final long TEST_FINGERPRINT_2 = 0x5678L;
+    private static final List<String> TEST_MCC_MNCS = Arrays.asList("310210");
+
+    private ONSCellCoverageMap mCoverageMap;
+
+    @Before
+    public void setUp() {
+        mCoverageMap = new ONSCellCoverageMap((File) null);
+    }
+
+    @Test
+    public void testPredictUnknownLocation() {
+        assertEquals(ONSCellCoverageMap.PREDICTION_UNKNOWN,
+                mCoverageMap.predict(TEST_FINGERPRINT_1, TEST_MCC_MNCS));
+        assertEquals(ONSCellCoverageMap.PREDICTION_UNKNOWN,
+                mCoverageMap.predict(ONSCellCoverageMap.INVALID_FINGERPRINT, TEST_MCC_MNCS));
+    }
+
+    @Test
+    public void testPredictCoverage() {
+        mCoverageMap.recordQualifyingCell(TEST_FINGERPRINT_1, "310210", -100);
+
+        assertEquals(ONSCellCoverageMap.PREDICTION_COVERAGE,
+                mCoverageMap.predict(TEST_FINGERPRINT_1, TEST_MCC_MNCS));
+        // A different opportunistic network was never seen at this location.
+        assertEquals(ONSCellCoverageMap.PREDICTION_UNKNOWN,
+                mCoverageMap.predict(TEST_FINGERPRINT_1, Arrays.asList("310211")));
+    }
+
+    @Test
+    public void testPredictNoCoverageAfterRepeatedEmptyScans() {
+        for (int i = 0; i < ONSCellCoverageMap.NO_COVERAGE_SCAN_THRESHOLD - 1; i++) {
+            mCoverageMap.recordEmptyScan(TEST_FINGERPRINT_1);
+        }
+        assertEquals(ONSCellCoverageMap.PREDICTION_UNKNOWN,
+                mCoverageMap.predict(TEST_FINGERPRINT_1, TEST_MCC_MNCS));
+
+        mCoverageMap.recordEmptyScan(TEST_FINGERPRINT_1);
+        assertEquals(ONSCellCoverageMap.PREDICTION_NO_COVERAGE,
+                mCoverageMap.predict(TEST_FINGERPRINT_1, TEST_MCC_MNCS));
+
+        // A qualifying cell resets the empty scan history.
+        mCoverageMap.recordQualifyingCell(TEST_FINGERPRINT_1, "310210", -100);
+        assertEquals(ONSCellCoverageMap.PREDICTION_COVERAGE,
+                mCoverageMap.predict(TEST_FINGERPRINT_1, TEST_MCC_MNCS));
+    }
+
+    @Test
+    public void testLruEviction() {
+        for (int i = 1; i <= ONSCellCoverageMap.MAX_ENTRIES; i++) {
+            mCoverageMap.recordEmptyScan(i);
+        }
+        // Touch the eldest entry so that the second one becomes least recently used.
+        mCoverageMap.predict(1, TEST_MCC_MNCS);
+        mCoverageMap.recordEmptyScan(ONSCellCoverageMap.MAX_ENTRIES + 1);
+
+        assertEquals(ONSCellCoverageMap.MAX_ENTRIES, mCoverageMap.size());
+        assertTrue(mCoverageMap.contains(1));
+        assertFalse(mCoverageMap.contains(2));
+        assertTrue(mCoverageMap.contains(ONSCellCoverageMap.MAX_ENTRIES + 1));
+    }
+
+    @Test
+    public void testSerialization() throws Exception {
+        mCoverageMap.recordQualifyingCell(TEST_FINGERPRINT_1, "310210", -95);
+        for (int i = 0; i < ONSCellCoverageMap.NO_COVERAGE_SCAN_THRESHOLD; i++) {
+            mCoverageMap.recordEmptyScan(TEST_FINGERPRINT_2);
+        }
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        mCoverageMap.writeTo(new DataOutputStream(bytes));
+
+        ONSCellCoverageMap restored = new ONSCellCoverageMap((File) null);
+        restored.readFrom(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+
+        assertEquals(2, restored.size());
+        assertEquals(ONSCellCoverageMap.PREDICTION_COVERAGE,
+                restored.predict(TEST_FINGERPRINT_1, TEST_MCC_MNCS));
+        assertEquals(ONSCellCoverageMap.PREDICTION_NO_COVERAGE,
+                restored.predict(TEST_FINGERPRINT_2, TEST_MCC_MNCS));
+    }
+
+    @Test
+    public void testReadKeepsRecordedEntries() throws Exception {
+        for (int i = 0; i < ONSCellCoverageMap.NO_COVERAGE_SCAN_THRESHOLD; i++) {
+            mCoverageMap.recordEmptyScan(TEST_FINGERPRINT_1);
+        }
+        mCoverageMap.recordEmptyScan(TEST_FINGERPRINT_2);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        mCoverageMap.writeTo(new DataOutputStream(bytes));
+
+        /* recorded before the stored map was read back */
+        ONSCellCoverageMap restored = new ONSCellCoverageMap((File) null);
+        restored.recordQualifyingCell(TEST_FINGERPRINT_1, "310210", -95);
+        restored.readFrom(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+
+        assertEquals(2, restored.size());
+        assertEquals(ONSCellCoverageMap.PREDICTION_COVERAGE,
+                restored.predict(TEST_FINGERPRINT_1, TEST_MCC_MNCS));
+        assertTrue(restored.contains(TEST_FINGERPRINT_2));
+    }
+
+    @Test
+    public void testEncodePlmn() {
+        assertNotEquals(ONSCellCoverageMap.encodePlmn("31001"),
+                ONSCellCoverageMap.encodePlmn("310001"));
+        assertEquals(ONSCellCoverageMap.encodePlmn("310", "210"),
+                ONSCellCoverageMap.encodePlmn("310210"));
+        assertEquals(-1, ONSCellCoverageMap.encodePlmn(null));
+        assertEquals(-1, ONSCellCoverageMap.encodePlmn("31a21"));
+    }
+
+    @Test
+    public void testComputeFingerprint() {
+        CellInfoLte servingCell = createLteCell(1, 100, true);
+        CellInfoLte neighborCell = createLteCell(2, 200, false);
+
+        assertEquals(ONSCellCoverageMap.INVALID_FINGERPRINT,
+                ONSCellCoverageMap.computeFingerprint(null));
+        assertEquals(ONSCellCoverageMap.INVALID_FINGERPRINT,
+                ONSCellCoverageMap.computeFingerprint(Collections.singletonList(neighborCell)));
+
+        List<CellInfo> cells = new ArrayList<>(Arrays.asList(servingCell, neighborCell));
+        long fingerprint = ONSCellCoverageMap.computeFingerprint(cells);
+        assertNotEquals(ONSCellCoverageMap.INVALID_FINGERPRINT, fingerprint);
+
+        // Order of the reported cells does not matter.
+        Collections.reverse(cells);
+        assertEquals(fingerprint, ONSCellCoverageMap.computeFingerprint(cells));
+
+        // A different neighbor set is a different location.
+        cells.add(createLteCell(3, 300, false));
+        assertNotEquals(fingerprint, ONSCellCoverageMap.computeFingerprint(cells));
+    }
+
+    private CellInfoLte createLteCell(int ci, int pci, boolean registered) {
+        CellIdentityLte cellIdentityLte = new CellIdentityLte(310, 260, ci, pci, 1);
+        CellInfoLte cellInfoLte = new CellInfoLte();
+        cellInfoLte.setCellIdentity(cellIdentityLte);
+        cellInfoLte.setRegistered(registered);
+        return cellInfoLte;
+    }
+}
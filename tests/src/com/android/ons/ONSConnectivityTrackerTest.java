@@ -0,0 +1,126 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.ons;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import android.net.ConnectivityManager;
+import android.net.Network;
+import android.net.NetworkCapabilities;
+import android.os.Handler;
+import android.os.HandlerThread;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+@RunWith(JUnit4.class)
+public class ONSConnectivityTrackerTest {
+    private static final long STABLE_INTERVAL_MS = 300;
+
+    @Mock ConnectivityManager mMockConnectivityManager;
+    private HandlerThread mThread;
+    private Handler mHandler;
+    private ONSConnectivityTracker mTracker;
+    private final AtomicInteger mStableCount = new AtomicInteger();
+    private volatile CountDownLatch mStableLatch = new CountDownLatch(1);
+
+    @Before
+    public void setUp() {
+        MockitoAnnotations.initMocks(this);
+        mThread = new HandlerThread("ONSConnectivityTrackerTest");
+        mThread.start();
+        mHandler = new Handler(mThread.getLooper());
+        mTracker = new ONSConnectivityTracker(mMockConnectivityManager, mHandler,
+                STABLE_INTERVAL_MS, new ONSConnectivityTracker.Listener() {
+                    @Override
+                    public void onConnectivityChanged() {
+                    }
+
+                    @Override
+                    public void onNetworkStable() {
+                        mStableCount.incrementAndGet();
+                        mStableLatch.countDown();
+                    }
+                });
+    }
+
+    @After
+    public void tearDown() {
+        mThread.quitSafely();
+    }
+
+    @Test
+    public void testLosingOneOfTwoNetworks() {
+        Network wifi = new Network(100);
+        Network cellular = new Network(101);
+        mTracker.mNetworkCallback.onCapabilitiesChanged(wifi, createWifiCapabilities());
+        mTracker.mNetworkCallback.onCapabilitiesChanged(cellular, createCellularCapabilities());
+        assertTrue(mTracker.isWiFiConnected());
+        assertTrue(mTracker.isUnmeteredAvailable());
+
+        mTracker.mNetworkCallback.onLost(wifi);
+        assertTrue(mTracker.isInternetAvailable());
+        assertFalse(mTracker.isWiFiConnected());
+        assertFalse(mTracker.isUnmeteredAvailable());
+
+        mTracker.mNetworkCallback.onLost(cellular);
+        assertFalse(mTracker.isInternetAvailable());
+    }
+
+    @Test
+    public void testFlapsAreDebounced() throws Exception {
+        Network wifi = new Network(100);
+        for (int i = 0; i < 5; i++) {
+            mTracker.mNetworkCallback.onCapabilitiesChanged(wifi, createWifiCapabilities());
+            mTracker.mNetworkCallback.onLost(wifi);
+        }
+        mTracker.mNetworkCallback.onCapabilitiesChanged(wifi, createWifiCapabilities());
+
+        assertTrue(mStableLatch.await(STABLE_INTERVAL_MS * 10, TimeUnit.MILLISECONDS));
+        /* capability updates that keep the state do not restart the interval */
+        mStableLatch = new CountDownLatch(1);
+        mTracker.mNetworkCallback.onCapabilitiesChanged(wifi, createWifiCapabilities());
+        assertFalse(mStableLatch.await(STABLE_INTERVAL_MS * 2, TimeUnit.MILLISECONDS));
+        assertEquals(1, mStableCount.get());
+    }
+
+    private NetworkCapabilities createWifiCapabilities() {
+        return new NetworkCapabilities.Builder()
+                .addTransportType(NetworkCapabilities.TRANSPORT_WIFI)
+                .addCapability(NetworkCapabilities.NET_CAPABILITY_NOT_METERED)
+                .addCapability(NetworkCapabilities.NET_CAPABILITY_VALIDATED)
+                .build();
+    }
+
+    private NetworkCapabilities createCellularCapabilities() {
+        return new NetworkCapabilities.Builder()
+                .addTransportType(NetworkCapabilities.TRANSPORT_CELLULAR)
+                .addCapability(NetworkCapabilities.NET_CAPABILITY_VALIDATED)
+                .build();
+    }
+}
@@ -0,0 +1,181 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.ons;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import android.telephony.AvailableNetworkInfo;
+import android.telephony.CellIdentityLte;
+import android.telephony.CellInfo;
+import android.telephony.CellInfoLte;
+import android.telephony.CellSignalStrengthLte;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+@RunWith(JUnit4.class)
+public class ONSDecisionJournalTest {
+    private static final int TEST_SEGMENT_SIZE = 1024;
+
+    private File mFile;
+    private long mTime;
+    private ONSDecisionJournal mJournal;
+
+    @Before
+    public void setUp() throws Exception {
+        mFile = File.createTempFile("ons_decision_journal", null);
+        mFile.delete();
+        mTime = 1000;
+        mJournal = new ONSDecisionJournal(mFile, TEST_SEGMENT_SIZE, () -> mTime);
+    }
+
+    @After
+    public void tearDown() {
+        mJournal.close();
+        mFile.delete();
+        new File(mFile.getPath() + ONSDecisionJournal.ROTATED_FILE_SUFFIX).delete();
+    }
+
+    @Test
+    public void testReadBackRecords() throws Exception {
+        mJournal.logAvailabilityRequest(createAvailableNetworks(5, 1, "310210"));
+        mTime += 100;
+        mJournal.logScanBatch(Collections.singletonList(createLteCell(310, 210, -90)));
+        mTime += 10;
+        mJournal.logSubscriptionSelected(5, false);
+        mJournal.close();
+
+        List<ONSDecisionJournal.Record> records = ONSDecisionJournal.read(mFile);
+        assertEquals(3, records.size());
+
+        ONSDecisionJournal.Record request = records.get(0);
+        assertEquals(ONSDecisionJournal.RECORD_AVAILABILITY_REQUEST, request.type);
+        assertEquals(1000, request.timestamp);
+        assertArrayEquals(new int[]{5}, request.subIds);
+        assertEquals("310210", ONSDecisionJournal.decodePlmn(request.networkPlmns[0][0]));
+
+        ONSDecisionJournal.Record scan = records.get(1);
+        assertEquals(ONSDecisionJournal.RECORD_SCAN_BATCH, scan.type);
+        assertEquals(1100, scan.timestamp);
+        assertEquals(ONSDecisionJournal.RAT_LTE, scan.rats[0]);
+        assertEquals(-90, scan.rsrps[0]);
+
+        ONSDecisionJournal.Record selected = records.get(2);
+        assertEquals(ONSDecisionJournal.RECORD_SUB_SELECTED, selected.type);
+        assertEquals(5, selected.first);
+    }
+
+    @Test
+    public void testResumeAfterReopen() throws Exception {
+        mJournal.logScanEvent(ONSDecisionJournal.SCAN_EVENT_START, 0);
+        mJournal.close();
+
+        mJournal = new ONSDecisionJournal(mFile, TEST_SEGMENT_SIZE, () -> mTime);
+        mJournal.logScanEvent(ONSDecisionJournal.SCAN_EVENT_COMPLETE, 0);
+        mJournal.close();
+
+        List<ONSDecisionJournal.Record> records = ONSDecisionJournal.read(mFile);
+        assertEquals(2, records.size());
+        assertEquals(ONSDecisionJournal.SCAN_EVENT_START, records.get(0).first);
+        assertEquals(ONSDecisionJournal.SCAN_EVENT_COMPLETE, records.get(1).first);
+    }
+
+    @Test
+    public void testRotation() throws Exception {
+        int count = 200;
+        for (int i = 0; i < count; i++) {
+            mTime = i;
+            mJournal.logScanEvent(ONSDecisionJournal.SCAN_EVENT_START, i);
+        }
+        mJournal.close();
+
+        assertTrue(new File(mFile.getPath() + ONSDecisionJournal.ROTATED_FILE_SUFFIX).exists());
+        assertEquals(TEST_SEGMENT_SIZE, mFile.length());
+
+        /* the oldest records are dropped and the rest are read back in order */
+        List<ONSDecisionJournal.Record> records = ONSDecisionJournal.read(mFile);
+        assertTrue(records.size() < count);
+        for (int i = 0; i < records.size(); i++) {
+            assertEquals(count - records.size() + i, records.get(i).second);
+        }
+    }
+
+    @Test
+    public void testDecodePlmn() {
+        assertEquals("310210", ONSDecisionJournal.decodePlmn(
+                ONSCellCoverageMap.encodePlmn("310210")));
+        assertEquals("00101", ONSDecisionJournal.decodePlmn(
+                ONSCellCoverageMap.encodePlmn("00101")));
+        assertEquals("001001", ONSDecisionJournal.decodePlmn(
+                ONSCellCoverageMap.encodePlmn("001001")));
+        assertEquals(null, ONSDecisionJournal.decodePlmn(-1));
+    }
+
+    @Test
+    public void testReplay() throws Exception {
+        mJournal.logAvailabilityRequest(createAvailableNetworks(5, 1, "310210"));
+        /* below the entry threshold, no decision */
+        mTime += 1000;
+        mJournal.logScanBatch(Collections.singletonList(createLteCell(310, 210, -120)));
+        mTime += 1000;
+        mJournal.logScanBatch(Collections.singletonList(createLteCell(310, 210, -90)));
+        mJournal.logSubscriptionSelected(5, false);
+
+        mTime += 5000;
+        mJournal.logAvailabilityRequest(createAvailableNetworks(6, 1, "310211"));
+        mTime += 500;
+        mJournal.logScanBatch(Arrays.asList(createLteCell(310, 260, -80),
+                createLteCell(310, 211, -100)));
+        mJournal.logSubscriptionSelected(6, false);
+        mJournal.close();
+
+        ONSJournalReplayer.Report report = new ONSJournalReplayer().replay(mFile);
+        assertEquals(2, report.requests);
+        assertEquals(2, report.decisions);
+        assertEquals(2, report.switches);
+        assertEquals(0, report.mismatches);
+        assertEquals(Arrays.asList(2000L, 500L), report.decisionLatenciesMs);
+        assertEquals(2000, report.getMaxDecisionLatencyMs());
+    }
+
+    private ArrayList<AvailableNetworkInfo> createAvailableNetworks(int subId, int priority,
+            String mccMnc) {
+        ArrayList<AvailableNetworkInfo> availableNetworks = new ArrayList<>();
+        availableNetworks.add(new AvailableNetworkInfo(subId, priority,
+                new ArrayList<>(Arrays.asList(mccMnc)), new ArrayList<Integer>()));
+        return availableNetworks;
+    }
+
+    private CellInfo createLteCell(int mcc, int mnc, int rsrp) {
+        CellInfoLte cellInfoLte = new CellInfoLte();
+        cellInfoLte.setCellIdentity(new CellIdentityLte(mcc, mnc, 1, 1, 1));
+        cellInfoLte.setCellSignalStrength(new CellSignalStrengthLte(CellInfo.UNAVAILABLE, rsrp,
+                -10, 10, CellInfo.UNAVAILABLE, CellInfo.UNAVAILABLE));
+        return cellInfoLte;
+    }
+}
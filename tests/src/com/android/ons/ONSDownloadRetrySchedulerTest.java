@@ -0,0 +1,209 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.ons;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Message;
+import android.os.SystemClock;
+
+import androidx.test.InstrumentationRegistry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+@RunWith(JUnit4.class)
+public class ONSDownloadRetrySchedulerTest {
+    private static final String TEST_PREF_NAME = "test_ons_download_retry";
+    private static final int TEST_SUB_ID = 1;
+    private static final int MAX_ATTEMPTS = 3;
+
+    private SharedPreferences mPrefs;
+    private ManualHandler mHandler;
+    private long mTime;
+    private final List<Integer> mRetries = new ArrayList<>();
+
+    /* Handler whose messages are only delivered when the test fires them. */
+    private static class ManualHandler extends Handler {
+        final List<Message> mMessages = new ArrayList<>();
+        final List<Long> mUptimes = new ArrayList<>();
+
+        ManualHandler() {
+            super(Looper.getMainLooper());
+        }
+
+        @Override
+        public boolean sendMessageAtTime(Message msg, long uptimeMillis) {
+            mMessages.add(msg);
+            mUptimes.add(uptimeMillis);
+            return true;
+        }
+
+        void fireAll() {
+            List<Message> messages = new ArrayList<>(mMessages);
+            mMessages.clear();
+            mUptimes.clear();
+            for (Message msg : messages) {
+                dispatchMessage(msg);
+            }
+        }
+    }
+
+    @Before
+    public void setUp() {
+        mPrefs = InstrumentationRegistry.getTargetContext().getSharedPreferences(
+                TEST_PREF_NAME, Context.MODE_PRIVATE);
+        mPrefs.edit().clear().commit();
+        mHandler = new ManualHandler();
+        mTime = 1000000;
+    }
+
+    @After
+    public void tearDown() {
+        mPrefs.edit().clear().commit();
+    }
+
+    @Test
+    public void testRetryFiresAfterBackoff() {
+        ONSDownloadRetryScheduler scheduler = createScheduler();
+
+        /* the first retry waits exactly one backoff unit */
+        long now = SystemClock.uptimeMillis();
+        assertEquals(1000, scheduler.scheduleRetry(TEST_SUB_ID, MAX_ATTEMPTS, 1));
+        assertTrue(scheduler.isRetryPending(TEST_SUB_ID));
+        assertEquals(1, mHandler.mMessages.size());
+        assertTrue(mHandler.mUptimes.get(0) >= now + 1000);
+
+        mHandler.fireAll();
+        assertEquals(1, mRetries.size());
+        assertFalse(scheduler.isRetryPending(TEST_SUB_ID));
+        assertEquals(1, scheduler.getAttemptCount(TEST_SUB_ID));
+    }
+
+    @Test
+    public void testMaxAttempts() {
+        ONSDownloadRetryScheduler scheduler = createScheduler();
+
+        for (int i = 1; i <= MAX_ATTEMPTS; i++) {
+            assertTrue(scheduler.scheduleRetry(TEST_SUB_ID, MAX_ATTEMPTS, 100) > 0);
+        }
+        assertEquals(-1, scheduler.scheduleRetry(TEST_SUB_ID, MAX_ATTEMPTS, 100));
+        assertFalse(scheduler.isRetryPending(TEST_SUB_ID));
+
+        scheduler.reset(TEST_SUB_ID);
+        assertEquals(0, scheduler.getAttemptCount(TEST_SUB_ID));
+    }
+
+    @Test
+    public void testResumeAfterRestart() {
+        ONSDownloadRetryScheduler scheduler = createScheduler();
+        scheduler.scheduleRetry(TEST_SUB_ID, MAX_ATTEMPTS, 100);
+        scheduler.scheduleRetry(TEST_SUB_ID, MAX_ATTEMPTS, 100);
+        /* the process dies, the pending retry is lost with it */
+        mHandler = new ManualHandler();
+
+        ONSDownloadRetryScheduler restored = createScheduler();
+        assertEquals(2, restored.getAttemptCount(TEST_SUB_ID));
+        assertFalse(restored.isRetryPending(TEST_SUB_ID));
+
+        /* the retry is overdue and fires within the resume window */
+        mTime += TimeUnit.HOURS.toMillis(1);
+        long now = SystemClock.uptimeMillis();
+        restored.resume();
+        assertTrue(restored.isRetryPending(TEST_SUB_ID));
+        assertEquals(1, mHandler.mMessages.size());
+        assertTrue(mHandler.mUptimes.get(0) <= SystemClock.uptimeMillis()
+                + ONSDownloadRetryScheduler.RESUME_JITTER_MS);
+        assertTrue(mHandler.mUptimes.get(0) >= now);
+
+        mHandler.fireAll();
+        assertEquals(1, mRetries.size());
+        assertFalse(restored.isRetryPending(TEST_SUB_ID));
+    }
+
+    @Test
+    public void testResumeWaitsForRemainingDelay() {
+        /* the first retry waits exactly one backoff unit */
+        createScheduler().scheduleRetry(TEST_SUB_ID, MAX_ATTEMPTS, 100);
+        mHandler = new ManualHandler();
+
+        mTime += TimeUnit.SECONDS.toMillis(40);
+        long now = SystemClock.uptimeMillis();
+        createScheduler().resume();
+        assertEquals(1, mHandler.mMessages.size());
+        assertTrue(mHandler.mUptimes.get(0) >= now + TimeUnit.SECONDS.toMillis(60));
+        assertTrue(mHandler.mUptimes.get(0) <= SystemClock.uptimeMillis()
+                + TimeUnit.SECONDS.toMillis(60));
+    }
+
+    @Test
+    public void testResumeAfterClockMovedBack() {
+        createScheduler().scheduleRetry(TEST_SUB_ID, MAX_ATTEMPTS, 100);
+        mHandler = new ManualHandler();
+
+        /* the retry is not postponed beyond its delay */
+        mTime -= TimeUnit.DAYS.toMillis(1);
+        long now = SystemClock.uptimeMillis();
+        createScheduler().resume();
+        assertEquals(1, mHandler.mMessages.size());
+        assertTrue(mHandler.mUptimes.get(0) >= now + TimeUnit.SECONDS.toMillis(100));
+        assertTrue(mHandler.mUptimes.get(0) <= SystemClock.uptimeMillis()
+                + TimeUnit.SECONDS.toMillis(100));
+    }
+
+    @Test
+    public void testResumeAfterClockMovedForward() {
+        createScheduler().scheduleRetry(TEST_SUB_ID, MAX_ATTEMPTS, 100);
+        mHandler = new ManualHandler();
+
+        /* the retry is overdue and fires within the resume window */
+        mTime += TimeUnit.DAYS.toMillis(6);
+        createScheduler().resume();
+        assertEquals(1, mHandler.mMessages.size());
+        assertTrue(mHandler.mUptimes.get(0) <= SystemClock.uptimeMillis()
+                + ONSDownloadRetryScheduler.RESUME_JITTER_MS);
+    }
+
+    @Test
+    public void testStaleEntriesDropped() {
+        createScheduler().scheduleRetry(TEST_SUB_ID, MAX_ATTEMPTS, 100);
+        mHandler = new ManualHandler();
+
+        mTime += TimeUnit.DAYS.toMillis(30);
+        ONSDownloadRetryScheduler restored = createScheduler();
+        assertEquals(0, restored.getAttemptCount(TEST_SUB_ID));
+    }
+
+    private ONSDownloadRetryScheduler createScheduler() {
+        return new ONSDownloadRetryScheduler(mPrefs, mHandler, () -> mTime, new Random(),
+                mRetries::add);
+    }
+}
@@ -0,0 +1,122 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.ons;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.telephony.SubscriptionInfo;
+
+import androidx.test.InstrumentationRegistry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+@RunWith(JUnit4.class)
+public class ONSEuiccSpacePlannerTest {
+    private static final String TEST_PREF_NAME = "test_ons_esim_usage";
+
+    private SharedPreferences mPrefs;
+    private long mTime;
+
+    @Before
+    public void setUp() {
+        mPrefs = InstrumentationRegistry.getTargetContext().getSharedPreferences(
+                TEST_PREF_NAME, Context.MODE_PRIVATE);
+        mPrefs.edit().clear().commit();
+        mTime = 1000;
+    }
+
+    @After
+    public void tearDown() {
+        mPrefs.edit().clear().commit();
+    }
+
+    @Test
+    public void testLeastRecentlyUsedFirst() {
+        ONSEuiccSpacePlanner planner = createPlanner();
+        useInOrder(planner, 3, 2, 4);
+
+        List<SubscriptionInfo> subs = createOpportunisticSubs(2, 3, 4, 5);
+        /* 5 was never seen active, then 3 was used before 2 and 4 */
+        assertEquals(Arrays.asList(5, 3, 2),
+                planner.planReclamation(subs, null, subId -> false, 3));
+    }
+
+    @Test
+    public void testReplacedProfilesFirstAndActiveSkipped() {
+        ONSEuiccSpacePlanner planner = createPlanner();
+        useInOrder(planner, 2, 3, 4);
+
+        List<SubscriptionInfo> subs = createOpportunisticSubs(2, 3, 4);
+        /* 4 belongs to the operator being downloaded, 2 is active */
+        assertEquals(Arrays.asList(4, 3),
+                planner.planReclamation(subs, Collections.singletonList(4),
+                        subId -> subId == 2, 5));
+    }
+
+    @Test
+    public void testLastUseTimeRestored() {
+        ONSEuiccSpacePlanner planner = createPlanner();
+        useInOrder(planner, 2);
+        long lastUse = planner.getLastUseTime(2);
+
+        ONSEuiccSpacePlanner restored = createPlanner();
+        assertEquals(lastUse, restored.getLastUseTime(2));
+
+        restored.forget(2);
+        assertEquals(0, createPlanner().getLastUseTime(2));
+    }
+
+    /**
+     * Makes each subscription active and then inactive, one after the other.
+     */
+    private void useInOrder(ONSEuiccSpacePlanner planner, int... subIds) {
+        for (int subId : subIds) {
+            mTime += 1000;
+            planner.updateActiveSubscriptions(createOpportunisticSubs(subId));
+            mTime += 1000;
+            planner.updateActiveSubscriptions(null);
+        }
+    }
+
+    private List<SubscriptionInfo> createOpportunisticSubs(int... subIds) {
+        List<SubscriptionInfo> subs = new ArrayList<>();
+        for (int subId : subIds) {
+            SubscriptionInfo subInfo = mock(SubscriptionInfo.class);
+            doReturn(subId).when(subInfo).getSubscriptionId();
+            doReturn(true).when(subInfo).isOpportunistic();
+            subs.add(subInfo);
+        }
+        return subs;
+    }
+
+    private ONSEuiccSpacePlanner createPlanner() {
+        return new ONSEuiccSpacePlanner(mPrefs, () -> mTime);
+    }
+}
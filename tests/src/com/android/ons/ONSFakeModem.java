@@ -0,0 +1,278 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.ons;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.SystemClock;
+import android.telephony.CellInfo;
+import android.telephony.NetworkScan;
+import android.telephony.NetworkScanRequest;
+import android.telephony.TelephonyManager;
+import android.telephony.TelephonyScanManager;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+/**
+ * Stand-in modem for driving ONSNetworkScanCtlr and ONSProfileSelector without a radio.
+ *
+ * {@link #getTelephonyManager()} returns a TelephonyManager whose network scans play the
+ * current {@link ScanScript}: each step is delivered to the scan callback after its delay, on
+ * the modem thread, until the script ends or the scan is stopped. Every scan request restarts
+ * the script, so periodic restarts by the scan controller see the same cells again.
+ * enableModemForSlot blocks the caller for the configured latency, as the real call does while
+ * the modem stack is brought up. Counters are kept for scan churn and modem toggles.
+ */
+public class ONSFakeModem {
+    private static final int STEP_RESULTS = 0;
+    private static final int STEP_COMPLETE = 1;
+    private static final int STEP_ERROR = 2;
+    private static final int STEP_STALL = 3;
+
+    private final Object mLock = new Object();
+    private final HandlerThread mThread;
+    private final Handler mHandler;
+    private final TelephonyManager mTelephonyManager;
+    private ScanScript mScript = new ScanScript();
+    private long mEnableModemLatencyMs;
+    private int mScanRequestCount;
+    private int mScanStopCount;
+    private int mBatchCount;
+    private int mEnableModemCount;
+    private long mLastBatchTimeMs;
+    private final List<NetworkScanRequest> mScanRequests = new ArrayList<>();
+
+    /**
+     * Steps played for each scan request. Delays are relative to the previous step.
+     */
+    public static class ScanScript {
+        private final List<Step> mSteps = new ArrayList<>();
+
+        /** Deliver a batch of cells, e.g. one band of a partial scan. */
+        public ScanScript results(long delayMs, List<CellInfo> cells) {
+            mSteps.add(new Step(STEP_RESULTS, delayMs, cells, 0));
+            return this;
+        }
+
+        /** Complete the scan, the scan controller then schedules a restart. */
+        public ScanScript complete(long delayMs) {
+            mSteps.add(new Step(STEP_COMPLETE, delayMs, null, 0));
+            return this;
+        }
+
+        /** Fail the scan with one of the NetworkScan error codes. */
+        public ScanScript error(long delayMs, int error) {
+            mSteps.add(new Step(STEP_ERROR, delayMs, null, error));
+            return this;
+        }
+
+        /** Report nothing for a while, the scan stays active. */
+        public ScanScript stall(long delayMs) {
+            mSteps.add(new Step(STEP_STALL, delayMs, null, 0));
+            return this;
+        }
+    }
+
+    private static class Step {
+        final int mType;
+        final long mDelayMs;
+        final List<CellInfo> mCells;
+        final int mError;
+
+        Step(int type, long delayMs, List<CellInfo> cells, int error) {
+            mType = type;
+            mDelayMs = delayMs;
+            mCells = cells;
+            mError = error;
+        }
+    }
+
+    /**
+     * Scan started by a request, used as the token of its pending steps.
+     */
+    private class Scan {
+        final TelephonyScanManager.NetworkScanCallback mCallback;
+        boolean mIsStopped;
+
+        Scan(TelephonyScanManager.NetworkScanCallback callback) {
+            mCallback = callback;
+        }
+
+        void deliver(Step step) {
+            synchronized (mLock) {
+                if (mIsStopped) {
+                    return;
+                }
+                if (step.mType == STEP_RESULTS) {
+                    mBatchCount++;
+                    mLastBatchTimeMs = SystemClock.elapsedRealtime();
+                } else if (step.mType != STEP_STALL) {
+                    mIsStopped = true;
+                }
+            }
+            switch (step.mType) {
+                case STEP_RESULTS:
+                    mCallback.onResults(new ArrayList<>(step.mCells));
+                    break;
+                case STEP_COMPLETE:
+                    mCallback.onComplete();
+                    break;
+                case STEP_ERROR:
+                    mCallback.onError(step.mError);
+                    break;
+                default:
+                    break;
+            }
+        }
+
+        void stop() {
+            synchronized (mLock) {
+                if (mIsStopped) {
+                    return;
+                }
+                mIsStopped = true;
+                mScanStopCount++;
+            }
+            mHandler.removeCallbacksAndMessages(this);
+        }
+    }
+
+    public ONSFakeModem() {
+        this(2);
+    }
+
+    public ONSFakeModem(int phoneCount) {
+        mThread = new HandlerThread("ONSFakeModem");
+        mThread.start();
+        mHandler = new Handler(mThread.getLooper());
+        mTelephonyManager = mock(TelephonyManager.class);
+        doReturn(mTelephonyManager).when(mTelephonyManager).createForSubscriptionId(anyInt());
+        doReturn(phoneCount).when(mTelephonyManager).getPhoneCount();
+        doAnswer(invocation -> startScan(invocation.getArgument(0), invocation.getArgument(1)))
+                .when(mTelephonyManager).requestNetworkScan(any(NetworkScanRequest.class),
+                        any(TelephonyScanManager.NetworkScanCallback.class));
+        doAnswer(invocation -> startScan(invocation.getArgument(0), invocation.getArgument(2)))
+                .when(mTelephonyManager).requestNetworkScan(any(NetworkScanRequest.class),
+                        any(Executor.class), any(TelephonyScanManager.NetworkScanCallback.class));
+        doAnswer(invocation -> enableModem()).when(mTelephonyManager)
+                .enableModemForSlot(anyInt(), anyBoolean());
+    }
+
+    public TelephonyManager getTelephonyManager() {
+        return mTelephonyManager;
+    }
+
+    /**
+     * Sets the script played by the following scan requests.
+     */
+    public void setScanScript(ScanScript script) {
+        synchronized (mLock) {
+            mScript = script;
+        }
+    }
+
+    public void setEnableModemLatencyMs(long latencyMs) {
+        synchronized (mLock) {
+            mEnableModemLatencyMs = latencyMs;
+        }
+    }
+
+    public int getScanRequestCount() {
+        synchronized (mLock) {
+            return mScanRequestCount;
+        }
+    }
+
+    /** @return scans stopped by the scan controller before the script ended. */
+    public int getScanStopCount() {
+        synchronized (mLock) {
+            return mScanStopCount;
+        }
+    }
+
+    public int getBatchCount() {
+        synchronized (mLock) {
+            return mBatchCount;
+        }
+    }
+
+    public int getEnableModemCount() {
+        synchronized (mLock) {
+            return mEnableModemCount;
+        }
+    }
+
+    /** @return elapsed realtime of the last delivered batch, to measure decision latency. */
+    public long getLastBatchTimeMs() {
+        synchronized (mLock) {
+            return mLastBatchTimeMs;
+        }
+    }
+
+    public List<NetworkScanRequest> getScanRequests() {
+        synchronized (mLock) {
+            return Collections.unmodifiableList(new ArrayList<>(mScanRequests));
+        }
+    }
+
+    public void shutdown() {
+        mThread.quitSafely();
+    }
+
+    private NetworkScan startScan(NetworkScanRequest request,
+            TelephonyScanManager.NetworkScanCallback callback) {
+        Scan scan;
+        List<Step> steps;
+        synchronized (mLock) {
+            scan = new Scan(callback);
+            mScanRequestCount++;
+            mScanRequests.add(request);
+            steps = new ArrayList<>(mScript.mSteps);
+        }
+        long delayMs = 0;
+        for (Step step : steps) {
+            delayMs += step.mDelayMs;
+            mHandler.postDelayed(() -> scan.deliver(step), scan, delayMs);
+        }
+        NetworkScan networkScan = mock(NetworkScan.class);
+        doAnswer(invocation -> {
+            scan.stop();
+            return null;
+        }).when(networkScan).stopScan();
+        return networkScan;
+    }
+
+    private boolean enableModem() {
+        long latencyMs;
+        synchronized (mLock) {
+            mEnableModemCount++;
+            latencyMs = mEnableModemLatencyMs;
+        }
+        SystemClock.sleep(latencyMs);
+        return true;
+    }
+}
@@ -0,0 +1,169 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.ons;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import android.os.SystemClock;
+import android.telephony.AvailableNetworkInfo;
+import android.telephony.CellIdentityLte;
+import android.telephony.CellInfo;
+import android.telephony.CellInfoLte;
+import android.telephony.NetworkScan;
+
+import androidx.test.InstrumentationRegistry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+@RunWith(JUnit4.class)
+public class ONSFakeModemTest {
+    private static final long WAIT_MS = 1000;
+
+    private ONSFakeModem mModem;
+    private ONSNetworkScanCtlr mNetworkScanCtlr;
+    private final List<List<CellInfo>> mResults = new ArrayList<>();
+    private CountDownLatch mResultsLatch;
+    private CountDownLatch mErrorLatch;
+    private int mError;
+
+    @Before
+    public void setUp() {
+        mModem = new ONSFakeModem();
+        mResultsLatch = new CountDownLatch(1);
+        mErrorLatch = new CountDownLatch(1);
+        mNetworkScanCtlr = new ONSNetworkScanCtlr(InstrumentationRegistry.getTargetContext(),
+                mModem.getTelephonyManager(),
+                new ONSNetworkScanCtlr.NetworkAvailableCallBack() {
+                    @Override
+                    public void onNetworkAvailability(List<CellInfo> results) {
+                        synchronized (mResults) {
+                            mResults.add(results);
+                        }
+                        mResultsLatch.countDown();
+                    }
+
+                    @Override
+                    public void onError(int error) {
+                        mError = error;
+                        mErrorLatch.countDown();
+                    }
+                });
+        mNetworkScanCtlr.setIs4gScanEnabled(true);
+    }
+
+    @After
+    public void tearDown() {
+        mNetworkScanCtlr.stopNetworkScan();
+        mNetworkScanCtlr.mThread.quitSafely();
+        mModem.shutdown();
+    }
+
+    @Test
+    public void testPartialBatchesDelivered() throws Exception {
+        CellInfo matching = createLteCell(310, 210);
+        mResultsLatch = new CountDownLatch(2);
+        mModem.setScanScript(new ONSFakeModem.ScanScript()
+                .results(10, Arrays.asList(matching))
+                .results(10, Arrays.asList(createLteCell(311, 480)))
+                .results(10, Arrays.asList(matching)));
+
+        assertTrue(mNetworkScanCtlr.startFastNetworkScan(createAvailableNetworks("310210")));
+
+        assertTrue(mResultsLatch.await(WAIT_MS, TimeUnit.MILLISECONDS));
+        /* the batch without a requested PLMN is filtered out */
+        synchronized (mResults) {
+            assertEquals(2, mResults.size());
+            assertEquals(Arrays.asList(matching), mResults.get(0));
+        }
+        assertEquals(3, mModem.getBatchCount());
+        assertEquals(1, mModem.getScanRequestCount());
+    }
+
+    @Test
+    public void testScanErrorReported() throws Exception {
+        mModem.setScanScript(new ONSFakeModem.ScanScript()
+                .error(10, NetworkScan.ERROR_MODEM_ERROR));
+
+        mNetworkScanCtlr.startFastNetworkScan(createAvailableNetworks("310210"));
+
+        assertTrue(mErrorLatch.await(WAIT_MS, TimeUnit.MILLISECONDS));
+        assertEquals(NetworkScan.ERROR_MODEM_ERROR, mError);
+    }
+
+    @Test
+    public void testStoppedScanDeliversNothing() throws Exception {
+        mModem.setScanScript(new ONSFakeModem.ScanScript()
+                .stall(100)
+                .results(10, Arrays.asList(createLteCell(310, 210))));
+
+        mNetworkScanCtlr.startFastNetworkScan(createAvailableNetworks("310210"));
+        mNetworkScanCtlr.stopNetworkScan();
+
+        assertFalse(mResultsLatch.await(300, TimeUnit.MILLISECONDS));
+        assertEquals(1, mModem.getScanStopCount());
+        assertEquals(0, mModem.getBatchCount());
+    }
+
+    @Test
+    public void testScanRestartedForNewRequest() {
+        mModem.setScanScript(new ONSFakeModem.ScanScript().stall(WAIT_MS));
+
+        mNetworkScanCtlr.startFastNetworkScan(createAvailableNetworks("310210"));
+        /* the same request keeps the running scan */
+        mNetworkScanCtlr.startFastNetworkScan(createAvailableNetworks("310210"));
+        mNetworkScanCtlr.startFastNetworkScan(createAvailableNetworks("311480"));
+
+        assertEquals(2, mModem.getScanRequestCount());
+        assertEquals(1, mModem.getScanStopCount());
+    }
+
+    @Test
+    public void testEnableModemLatency() {
+        mModem.setEnableModemLatencyMs(50);
+
+        long start = SystemClock.elapsedRealtime();
+        assertTrue(mModem.getTelephonyManager().enableModemForSlot(1, true));
+
+        assertTrue(SystemClock.elapsedRealtime() - start >= 50);
+        assertEquals(1, mModem.getEnableModemCount());
+    }
+
+    private ArrayList<AvailableNetworkInfo> createAvailableNetworks(String mccMnc) {
+        ArrayList<AvailableNetworkInfo> availableNetworks = new ArrayList<>();
+        availableNetworks.add(new AvailableNetworkInfo(1, AvailableNetworkInfo.PRIORITY_HIGH,
+                new ArrayList<>(Arrays.asList(mccMnc)), new ArrayList<Integer>()));
+        return availableNetworks;
+    }
+
+    private CellInfo createLteCell(int mcc, int mnc) {
+        CellInfoLte cellInfoLte = new CellInfoLte();
+        cellInfoLte.setCellIdentity(new CellIdentityLte(mcc, mnc, 1, 1, 1));
+        return cellInfoLte;
+    }
+}
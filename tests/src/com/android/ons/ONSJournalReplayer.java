@@ -0,0 +1,267 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.ons;
+
+import android.content.Context;
+import android.telephony.AvailableNetworkInfo;
+import android.telephony.CellIdentityLte;
+import android.telephony.CellIdentityNr;
+import android.telephony.CellInfo;
+import android.telephony.CellInfoLte;
+import android.telephony.CellInfoNr;
+import android.telephony.CellSignalStrengthLte;
+import android.telephony.CellSignalStrengthNr;
+import android.telephony.SubscriptionManager;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Replays a {@link ONSDecisionJournal} through the profile selection logic.
+ *
+ * Time is taken from the journal records, so a replay is deterministic and runs as fast as the
+ * selection logic allows. The resulting {@link Report} can be compared between builds to catch
+ * regressions in decision latency or switch counts using traces collected in the field.
+ */
+public class ONSJournalReplayer {
+    /* default entry thresholds of CarrierConfigManager */
+    public static final int DEFAULT_RSRP_THRESHOLD = -108;
+    public static final int DEFAULT_SS_RSRP_THRESHOLD = -110;
+
+    private final ReplaySelector mSelector;
+    private final int mRsrpThreshold;
+    private final int mSsRsrpThreshold;
+
+    /**
+     * Summary of a replay.
+     */
+    public static class Report {
+        public int requests;
+        public int decisions;
+        public int switches;
+        /* decisions which differ from the selection recorded in the journal */
+        public int mismatches;
+        public final List<Long> decisionLatenciesMs = new ArrayList<>();
+
+        public long getMeanDecisionLatencyMs() {
+            if (decisionLatenciesMs.isEmpty()) {
+                return 0;
+            }
+            long total = 0;
+            for (long latency : decisionLatenciesMs) {
+                total += latency;
+            }
+            return total / decisionLatenciesMs.size();
+        }
+
+        public long getMaxDecisionLatencyMs() {
+            return decisionLatenciesMs.isEmpty() ? 0 : Collections.max(decisionLatenciesMs);
+        }
+
+        @Override
+        public String toString() {
+            return "Report{requests=" + requests + ", decisions=" + decisions
+                    + ", switches=" + switches + ", mismatches=" + mismatches
+                    + ", meanLatencyMs=" + getMeanDecisionLatencyMs()
+                    + ", maxLatencyMs=" + getMaxDecisionLatencyMs() + "}";
+        }
+    }
+
+    /**
+     * Profile selector without system service dependencies. Only the decision logic is used.
+     */
+    private static class ReplaySelector extends ONSProfileSelector {
+        private final IdentityHashMap<CellInfo, String> mPlmns = new IdentityHashMap<>();
+
+        ReplaySelector() {
+            super(null, null);
+        }
+
+        @Override
+        protected void init(Context c, ONSProfileSelectionCallback profileSelectionCallback) {
+        }
+
+        @Override
+        protected String getMcc(CellInfo cellInfo) {
+            String plmn = mPlmns.get(cellInfo);
+            return plmn == null ? "" : plmn.substring(0, 3);
+        }
+
+        @Override
+        protected String getMnc(CellInfo cellInfo) {
+            String plmn = mPlmns.get(cellInfo);
+            return plmn == null ? "" : plmn.substring(3);
+        }
+    }
+
+    public ONSJournalReplayer() {
+        this(DEFAULT_RSRP_THRESHOLD, DEFAULT_SS_RSRP_THRESHOLD);
+    }
+
+    public ONSJournalReplayer(int rsrpThreshold, int ssRsrpThreshold) {
+        mSelector = new ReplaySelector();
+        mRsrpThreshold = rsrpThreshold;
+        mSsRsrpThreshold = ssRsrpThreshold;
+    }
+
+    public Report replay(File journal) throws IOException {
+        return replay(ONSDecisionJournal.read(journal));
+    }
+
+    public Report replay(List<ONSDecisionJournal.Record> records) {
+        Report report = new Report();
+        Set<Integer> oppSubIds = null;
+        long requestTime = -1;
+        int selectedSubId = SubscriptionManager.INVALID_SUBSCRIPTION_ID;
+        int replayedSubId = SubscriptionManager.INVALID_SUBSCRIPTION_ID;
+        mSelector.mAvailableNetworkInfos = null;
+
+        for (ONSDecisionJournal.Record record : records) {
+            switch (record.type) {
+                case ONSDecisionJournal.RECORD_SUBSCRIPTION_SNAPSHOT:
+                    oppSubIds = new HashSet<>();
+                    for (int subId : record.subIds) {
+                        oppSubIds.add(subId);
+                    }
+                    break;
+                case ONSDecisionJournal.RECORD_AVAILABILITY_REQUEST: {
+                    report.requests++;
+                    ArrayList<AvailableNetworkInfo> networks =
+                            toAvailableNetworks(record, oppSubIds);
+                    requestTime = record.timestamp;
+                    if (networks.size() == 1 && networks.get(0).getMccMncs().isEmpty()) {
+                        /* selected without scanning */
+                        replayedSubId = networks.get(0).getSubId();
+                        selectedSubId = onDecision(report, replayedSubId, selectedSubId, 0);
+                        mSelector.mAvailableNetworkInfos = null;
+                    } else {
+                        mSelector.mAvailableNetworkInfos = networks;
+                    }
+                    break;
+                }
+                case ONSDecisionJournal.RECORD_SCAN_BATCH: {
+                    if (mSelector.mAvailableNetworkInfos == null) {
+                        break;
+                    }
+                    List<CellInfo> cells = toQualifyingCells(record);
+                    if (cells.isEmpty()) {
+                        break;
+                    }
+                    int subId = mSelector.retrieveBestSubscription(cells);
+                    if (subId == SubscriptionManager.INVALID_SUBSCRIPTION_ID) {
+                        break;
+                    }
+                    replayedSubId = subId;
+                    selectedSubId = onDecision(report, subId, selectedSubId,
+                            record.timestamp - requestTime);
+                    mSelector.mAvailableNetworkInfos = null;
+                    break;
+                }
+                case ONSDecisionJournal.RECORD_SUB_SELECTED:
+                    if (record.first != replayedSubId) {
+                        report.mismatches++;
+                    }
+                    break;
+                default:
+                    break;
+            }
+        }
+        return report;
+    }
+
+    private static int onDecision(Report report, int subId, int selectedSubId, long latencyMs) {
+        report.decisions++;
+        report.decisionLatenciesMs.add(latencyMs);
+        if (subId != selectedSubId) {
+            report.switches++;
+        }
+        return subId;
+    }
+
+    private static ArrayList<AvailableNetworkInfo> toAvailableNetworks(
+            ONSDecisionJournal.Record record, Set<Integer> oppSubIds) {
+        ArrayList<AvailableNetworkInfo> networks = new ArrayList<>();
+        for (int i = 0; i < record.subIds.length; i++) {
+            if (oppSubIds != null && !oppSubIds.contains(record.subIds[i])) {
+                continue;
+            }
+            ArrayList<String> mccMncs = new ArrayList<>();
+            for (int plmn : record.networkPlmns[i]) {
+                String mccMnc = ONSDecisionJournal.decodePlmn(plmn);
+                if (mccMnc != null) {
+                    mccMncs.add(mccMnc);
+                }
+            }
+            networks.add(new AvailableNetworkInfo(record.subIds[i], record.priorities[i],
+                    mccMncs, new ArrayList<Integer>()));
+        }
+        Collections.sort(networks, (a, b) -> a.getPriority() - b.getPriority());
+        return networks;
+    }
+
+    /* rebuild the cells which passed the entry thresholds of the scan controller */
+    private List<CellInfo> toQualifyingCells(ONSDecisionJournal.Record record) {
+        List<CellInfo> cells = new ArrayList<>();
+        mSelector.mPlmns.clear();
+        for (int i = 0; i < record.rats.length; i++) {
+            String plmn = ONSDecisionJournal.decodePlmn(record.plmns[i]);
+            int rsrp = unavailableIfClamped(record.rsrps[i],
+                    ONSDecisionJournal.UNAVAILABLE_SHORT);
+            int rsrq = unavailableIfClamped(record.rsrqs[i], ONSDecisionJournal.UNAVAILABLE_BYTE);
+            int sinr = unavailableIfClamped(record.sinrs[i], ONSDecisionJournal.UNAVAILABLE_BYTE);
+            if (plmn == null || rsrp == CellInfo.UNAVAILABLE) {
+                continue;
+            }
+            CellInfo cellInfo;
+            if (record.rats[i] == ONSDecisionJournal.RAT_NR) {
+                if (rsrp < mSsRsrpThreshold) {
+                    continue;
+                }
+                CellIdentityNr cellIdentityNr = new CellIdentityNr(record.pcis[i], 0, 0,
+                        new int[]{0}, plmn.substring(0, 3), plmn.substring(3), 0, "", "",
+                        Collections.emptyList());
+                cellInfo = new CellInfoNr(0, false, 0, cellIdentityNr,
+                        new CellSignalStrengthNr(CellInfo.UNAVAILABLE, CellInfo.UNAVAILABLE,
+                                CellInfo.UNAVAILABLE, rsrp, rsrq, sinr));
+            } else {
+                if (rsrp < mRsrpThreshold) {
+                    continue;
+                }
+                CellInfoLte cellInfoLte = new CellInfoLte();
+                cellInfoLte.setCellIdentity(new CellIdentityLte(
+                        Integer.parseInt(plmn.substring(0, 3)),
+                        Integer.parseInt(plmn.substring(3)), 0, record.pcis[i], 0));
+                cellInfoLte.setCellSignalStrength(new CellSignalStrengthLte(CellInfo.UNAVAILABLE,
+                        rsrp, rsrq, sinr, CellInfo.UNAVAILABLE, CellInfo.UNAVAILABLE));
+                cellInfo = cellInfoLte;
+            }
+            mSelector.mPlmns.put(cellInfo, plmn);
+            cells.add(cellInfo);
+        }
+        return cells;
+    }
+
+    private static int unavailableIfClamped(int value, int unavailable) {
+        return value == unavailable ? CellInfo.UNAVAILABLE : value;
+    }
+}
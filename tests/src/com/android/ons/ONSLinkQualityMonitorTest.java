@@ -0,0 +1,165 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.ons;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.verify;
+
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.telephony.CellInfo;
+import android.telephony.CellSignalStrengthCdma;
+import android.telephony.CellSignalStrengthGsm;
+import android.telephony.CellSignalStrengthLte;
+import android.telephony.CellSignalStrengthNr;
+import android.telephony.CellSignalStrengthTdscdma;
+import android.telephony.CellSignalStrengthWcdma;
+import android.telephony.SignalStrength;
+import android.telephony.SubscriptionManager;
+import android.telephony.TelephonyManager;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+@RunWith(JUnit4.class)
+public class ONSLinkQualityMonitorTest {
+    private static final long GRACE_INTERVAL_MS = 300;
+    private static final int SUB_ID = 5;
+    private static final int EXIT_RSRP = -118;
+    private static final int EXIT_SS_RSRP = -115;
+
+    @Mock TelephonyManager mMockTelephonyManager;
+    private HandlerThread mThread;
+    private Handler mHandler;
+    private ONSLinkQualityMonitor mMonitor;
+    private final AtomicInteger mLostSubId =
+            new AtomicInteger(SubscriptionManager.INVALID_SUBSCRIPTION_ID);
+    private final AtomicInteger mLostReason = new AtomicInteger();
+    private volatile CountDownLatch mLostLatch = new CountDownLatch(1);
+
+    @Before
+    public void setUp() {
+        MockitoAnnotations.initMocks(this);
+        mThread = new HandlerThread("ONSLinkQualityMonitorTest");
+        mThread.start();
+        mHandler = new Handler(mThread.getLooper());
+        mMonitor = new ONSLinkQualityMonitor(mHandler, GRACE_INTERVAL_MS, (subId, reason) -> {
+            mLostSubId.set(subId);
+            mLostReason.set(reason);
+            mLostLatch.countDown();
+        });
+        mMonitor.start(SUB_ID, mMockTelephonyManager, EXIT_RSRP, EXIT_SS_RSRP);
+    }
+
+    @After
+    public void tearDown() {
+        mThread.quitSafely();
+    }
+
+    @Test
+    public void testWeakSignalReported() throws Exception {
+        verify(mMockTelephonyManager).registerTelephonyCallback(any(),
+                eq(mMonitor.mTelephonyCallback));
+        mMonitor.updateSignalStrength(createSignalStrength(-120, CellInfo.UNAVAILABLE));
+
+        assertTrue(mLostLatch.await(GRACE_INTERVAL_MS * 10, TimeUnit.MILLISECONDS));
+        assertEquals(SUB_ID, mLostSubId.get());
+        assertEquals(ONSLinkQualityMonitor.REASON_WEAK_SIGNAL, mLostReason.get());
+        assertEquals(SubscriptionManager.INVALID_SUBSCRIPTION_ID, mMonitor.getMonitoredSubId());
+        verify(mMockTelephonyManager).unregisterTelephonyCallback(mMonitor.mTelephonyCallback);
+    }
+
+    @Test
+    public void testShortFadeIgnored() throws Exception {
+        mMonitor.updateSignalStrength(createSignalStrength(-120, CellInfo.UNAVAILABLE));
+        mMonitor.updateSignalStrength(createSignalStrength(-100, CellInfo.UNAVAILABLE));
+
+        assertFalse(mLostLatch.await(GRACE_INTERVAL_MS * 3, TimeUnit.MILLISECONDS));
+        assertEquals(SUB_ID, mMonitor.getMonitoredSubId());
+    }
+
+    @Test
+    public void testNrCellKeepsLinkUp() throws Exception {
+        /* the LTE anchor is weak but the NR cell is above its exit threshold */
+        mMonitor.updateSignalStrength(createSignalStrength(-120, -110));
+        /* no cell reported at all */
+        mMonitor.updateSignalStrength(
+                createSignalStrength(CellInfo.UNAVAILABLE, CellInfo.UNAVAILABLE));
+
+        assertFalse(mLostLatch.await(GRACE_INTERVAL_MS * 3, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void testDataLostAfterConnected() throws Exception {
+        /* data not yet up right after the switch */
+        mMonitor.updateDataConnectionState(TelephonyManager.DATA_CONNECTING);
+        assertFalse(mLostLatch.await(GRACE_INTERVAL_MS * 3, TimeUnit.MILLISECONDS));
+
+        mMonitor.updateDataConnectionState(TelephonyManager.DATA_CONNECTED);
+        mMonitor.updateDataConnectionState(TelephonyManager.DATA_DISCONNECTED);
+        /* no activity does not hide the lost connection */
+        mMonitor.updateDataActivity(TelephonyManager.DATA_ACTIVITY_NONE);
+
+        assertTrue(mLostLatch.await(GRACE_INTERVAL_MS * 10, TimeUnit.MILLISECONDS));
+        assertEquals(ONSLinkQualityMonitor.REASON_DATA_STALL, mLostReason.get());
+    }
+
+    @Test
+    public void testSendOnlyActivityReported() throws Exception {
+        mMonitor.updateDataConnectionState(TelephonyManager.DATA_CONNECTED);
+        mMonitor.updateDataActivity(TelephonyManager.DATA_ACTIVITY_OUT);
+        mMonitor.updateDataActivity(TelephonyManager.DATA_ACTIVITY_INOUT);
+        assertFalse(mLostLatch.await(GRACE_INTERVAL_MS * 3, TimeUnit.MILLISECONDS));
+
+        mMonitor.updateDataActivity(TelephonyManager.DATA_ACTIVITY_OUT);
+
+        assertTrue(mLostLatch.await(GRACE_INTERVAL_MS * 10, TimeUnit.MILLISECONDS));
+        assertEquals(ONSLinkQualityMonitor.REASON_DATA_STALL, mLostReason.get());
+    }
+
+    @Test
+    public void testStopCancelsPendingLoss() throws Exception {
+        mMonitor.updateSignalStrength(createSignalStrength(-120, CellInfo.UNAVAILABLE));
+        mMonitor.stop();
+
+        assertFalse(mLostLatch.await(GRACE_INTERVAL_MS * 3, TimeUnit.MILLISECONDS));
+        verify(mMockTelephonyManager).unregisterTelephonyCallback(mMonitor.mTelephonyCallback);
+    }
+
+    private SignalStrength createSignalStrength(int rsrp, int ssRsrp) {
+        return new SignalStrength(new CellSignalStrengthCdma(), new CellSignalStrengthGsm(),
+                new CellSignalStrengthWcdma(), new CellSignalStrengthTdscdma(),
+                new CellSignalStrengthLte(CellInfo.UNAVAILABLE, rsrp, CellInfo.UNAVAILABLE,
+                        CellInfo.UNAVAILABLE, CellInfo.UNAVAILABLE, CellInfo.UNAVAILABLE),
+                new CellSignalStrengthNr(CellInfo.UNAVAILABLE, CellInfo.UNAVAILABLE,
+                        CellInfo.UNAVAILABLE, ssRsrp, CellInfo.UNAVAILABLE,
+                        CellInfo.UNAVAILABLE));
+    }
+}
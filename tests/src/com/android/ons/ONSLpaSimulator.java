@@ -0,0 +1,336 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.ons;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+
+import android.app.PendingIntent;
+import android.content.Intent;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.telephony.SubscriptionManager;
+import android.telephony.euicc.DownloadableSubscription;
+import android.telephony.euicc.EuiccManager;
+import android.util.SparseBooleanArray;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * In-process stand-in for the LPA behind EuiccManager and SubscriptionManager.
+ *
+ * downloadSubscription, deleteSubscription and switchToSubscription complete after a latency
+ * drawn from a per operation range, on the simulator thread. The result is reported to the
+ * {@link ResultSink} with the callback intent of the request and the extras the LPA adds, the
+ * same way OpportunisticNetworkService hands LPA results to the downloader and configurator.
+ * The eUICC holds a limited number of profiles; a download into a full eUICC fails with
+ * SGP.22 8.1.0 / 4.8 like a real SM-DP+. Errors can be queued for the next downloads or drawn
+ * at random for soak tests. All randomness is seeded so runs are reproducible.
+ */
+public class ONSLpaSimulator {
+    public static final int OP_DOWNLOAD = 0;
+    public static final int OP_DELETE = 1;
+    public static final int OP_SWITCH = 2;
+    private static final int OP_COUNT = 3;
+
+    /* subject 8.1.0 eUICC, reason 4.8 Insufficient Memory */
+    public static final int SUBJECT_EUICC = 0x810;
+    public static final int REASON_INSUFFICIENT_MEMORY = 0x048;
+    private static final int FIRST_SUB_ID = 100;
+    private static final long SEED = 0x4c5041L;
+
+    private final Object mLock = new Object();
+    private final HandlerThread mThread;
+    private final Handler mHandler;
+    private final Random mRandom = new Random(SEED);
+    private final EuiccManager mEuiccManager;
+    private final ResultSink mResultSink;
+    private final long[] mMinLatencyMs = new long[OP_COUNT];
+    private final long[] mMaxLatencyMs = new long[OP_COUNT];
+    private final int[] mRequestCounts = new int[OP_COUNT];
+    private final int[] mErrorCounts = new int[OP_COUNT];
+    private final List<Integer> mInstalledSubIds = new ArrayList<>();
+    private final SparseBooleanArray mUnavailablePorts = new SparseBooleanArray();
+    private final ArrayDeque<Fault> mQueuedFaults = new ArrayDeque<>();
+    private Fault mRandomFault;
+    private int mRandomFaultPercent;
+    private int mCapacity = Integer.MAX_VALUE;
+    private int mNextSubId = FIRST_SUB_ID;
+
+    /**
+     * Receives the result of each operation, see EuiccManager#EXTRA_EMBEDDED_SUBSCRIPTION_*.
+     */
+    public interface ResultSink {
+        void onResult(Intent intent, int resultCode);
+    }
+
+    private static class Fault {
+        final int mOperationCode;
+        final int mErrorCode;
+        final int mDetailedCode;
+
+        Fault(int operationCode, int errorCode, int detailedCode) {
+            mOperationCode = operationCode;
+            mErrorCode = errorCode;
+            mDetailedCode = detailedCode;
+        }
+
+        static Fault smdx(int subjectCode, int reasonCode) {
+            return new Fault(EuiccManager.OPERATION_SMDX_SUBJECT_REASON_CODE, 0,
+                    (EuiccManager.OPERATION_SMDX_SUBJECT_REASON_CODE << 24)
+                            | (subjectCode << 12) | reasonCode);
+        }
+    }
+
+    public ONSLpaSimulator(ResultSink resultSink) {
+        mResultSink = resultSink;
+        mThread = new HandlerThread("ONSLpaSimulator");
+        mThread.start();
+        mHandler = new Handler(mThread.getLooper());
+        mEuiccManager = mock(EuiccManager.class);
+        doReturn(true).when(mEuiccManager).isEnabled();
+        doAnswer(invocation -> {
+            download(invocation.getArgument(2));
+            return null;
+        }).when(mEuiccManager).downloadSubscription(any(DownloadableSubscription.class),
+                anyBoolean(), any(PendingIntent.class));
+        doAnswer(invocation -> {
+            delete(invocation.getArgument(0), invocation.getArgument(1));
+            return null;
+        }).when(mEuiccManager).deleteSubscription(anyInt(), any(PendingIntent.class));
+        doAnswer(invocation -> {
+            switchTo(invocation.getArgument(0), invocation.getArgument(1));
+            return null;
+        }).when(mEuiccManager).switchToSubscription(anyInt(), any(PendingIntent.class));
+        doAnswer(invocation -> isPortAvailable(invocation.getArgument(0)))
+                .when(mEuiccManager).isSimPortAvailable(anyInt());
+    }
+
+    public EuiccManager getEuiccManager() {
+        return mEuiccManager;
+    }
+
+    /**
+     * Routes switchToSubscription of a mocked SubscriptionManager to the simulator.
+     */
+    public void attach(SubscriptionManager subscriptionManager) {
+        doAnswer(invocation -> {
+            switchTo(invocation.getArgument(0), invocation.getArgument(1));
+            return null;
+        }).when(subscriptionManager).switchToSubscription(anyInt(), any(PendingIntent.class));
+    }
+
+    /**
+     * Sets the latency range of an operation, latencies are drawn uniformly from it.
+     */
+    public void setLatencyMs(int operation, long minMs, long maxMs) {
+        synchronized (mLock) {
+            mMinLatencyMs[operation] = minMs;
+            mMaxLatencyMs[operation] = Math.max(minMs, maxMs);
+        }
+    }
+
+    /**
+     * Sets the number of profiles the eUICC can hold, including the installed ones.
+     */
+    public void setCapacity(int profiles) {
+        synchronized (mLock) {
+            mCapacity = profiles;
+        }
+    }
+
+    /**
+     * Adds a profile as if it had been downloaded before.
+     *
+     * @return subscription id of the profile.
+     */
+    public int installProfile() {
+        synchronized (mLock) {
+            int subId = mNextSubId++;
+            mInstalledSubIds.add(subId);
+            return subId;
+        }
+    }
+
+    public void setPortAvailable(int portIndex, boolean available) {
+        synchronized (mLock) {
+            mUnavailablePorts.put(portIndex, !available);
+        }
+    }
+
+    /**
+     * Fails the next download not failed by an earlier injected error with the given SGP.22
+     * subject and reason code, e.g. 0x885 and 0x04A for 8.8.5 / 4.10.
+     */
+    public void injectSmdxError(int subjectCode, int reasonCode) {
+        synchronized (mLock) {
+            mQueuedFaults.add(Fault.smdx(subjectCode, reasonCode));
+        }
+    }
+
+    /**
+     * Fails the next download not failed by an earlier injected error with an EuiccManager
+     * error, e.g. {@link EuiccManager#ERROR_TIME_OUT}.
+     */
+    public void injectEuiccError(int operationCode, int errorCode) {
+        synchronized (mLock) {
+            mQueuedFaults.add(new Fault(operationCode, errorCode,
+                    (operationCode << 24) | errorCode));
+        }
+    }
+
+    /**
+     * Fails the given percentage of downloads, drawn at random, with an SGP.22 error.
+     */
+    public void setRandomSmdxError(int percent, int subjectCode, int reasonCode) {
+        synchronized (mLock) {
+            mRandomFaultPercent = percent;
+            mRandomFault = Fault.smdx(subjectCode, reasonCode);
+        }
+    }
+
+    public int getRequestCount(int operation) {
+        synchronized (mLock) {
+            return mRequestCounts[operation];
+        }
+    }
+
+    public int getErrorCount(int operation) {
+        synchronized (mLock) {
+            return mErrorCounts[operation];
+        }
+    }
+
+    public List<Integer> getInstalledSubIds() {
+        synchronized (mLock) {
+            return new ArrayList<>(mInstalledSubIds);
+        }
+    }
+
+    public void shutdown() {
+        mThread.quitSafely();
+    }
+
+    private void download(PendingIntent callbackIntent) {
+        Fault fault;
+        long latencyMs;
+        synchronized (mLock) {
+            mRequestCounts[OP_DOWNLOAD]++;
+            latencyMs = drawLatencyLocked(OP_DOWNLOAD);
+            fault = mQueuedFaults.poll();
+            if (fault == null && mRandomFault != null
+                    && mRandom.nextInt(100) < mRandomFaultPercent) {
+                fault = mRandomFault;
+            }
+        }
+        final Fault injected = fault;
+        mHandler.postDelayed(() -> {
+            Fault result = injected;
+            synchronized (mLock) {
+                // Capacity is checked when the download completes, as the LPA does.
+                if (result == null && mInstalledSubIds.size() >= mCapacity) {
+                    result = Fault.smdx(SUBJECT_EUICC, REASON_INSUFFICIENT_MEMORY);
+                }
+                if (result == null) {
+                    mInstalledSubIds.add(mNextSubId++);
+                } else {
+                    mErrorCounts[OP_DOWNLOAD]++;
+                }
+            }
+            sendResult(callbackIntent, result);
+        }, latencyMs);
+    }
+
+    private void delete(int subId, PendingIntent callbackIntent) {
+        long latencyMs;
+        synchronized (mLock) {
+            mRequestCounts[OP_DELETE]++;
+            latencyMs = drawLatencyLocked(OP_DELETE);
+        }
+        mHandler.postDelayed(() -> {
+            boolean deleted;
+            synchronized (mLock) {
+                deleted = mInstalledSubIds.remove(Integer.valueOf(subId));
+                if (!deleted) {
+                    mErrorCounts[OP_DELETE]++;
+                }
+            }
+            sendResult(callbackIntent, deleted ? null : new Fault(EuiccManager.OPERATION_EUICC_CARD,
+                    0, EuiccManager.OPERATION_EUICC_CARD << 24));
+        }, latencyMs);
+    }
+
+    private void switchTo(int subId, PendingIntent callbackIntent) {
+        long latencyMs;
+        synchronized (mLock) {
+            mRequestCounts[OP_SWITCH]++;
+            latencyMs = drawLatencyLocked(OP_SWITCH);
+        }
+        mHandler.postDelayed(() -> {
+            boolean switched;
+            synchronized (mLock) {
+                switched = mInstalledSubIds.contains(subId) && isPortAvailable(0);
+                if (!switched) {
+                    mErrorCounts[OP_SWITCH]++;
+                }
+            }
+            sendResult(callbackIntent, switched ? null : new Fault(
+                    EuiccManager.OPERATION_SWITCH, 0, EuiccManager.OPERATION_SWITCH << 24));
+        }, latencyMs);
+    }
+
+    private boolean isPortAvailable(int portIndex) {
+        synchronized (mLock) {
+            return !mUnavailablePorts.get(portIndex, false);
+        }
+    }
+
+    private long drawLatencyLocked(int operation) {
+        long range = mMaxLatencyMs[operation] - mMinLatencyMs[operation];
+        return mMinLatencyMs[operation]
+                + (range > 0 ? (long) (mRandom.nextDouble() * (range + 1)) : 0);
+    }
+
+    /**
+     * Reports the result with the callback intent of the request, null fault meaning success.
+     */
+    private void sendResult(PendingIntent callbackIntent, Fault fault) {
+        Intent intent = new Intent(callbackIntent.getIntent());
+        int resultCode;
+        if (fault == null) {
+            resultCode = EuiccManager.EMBEDDED_SUBSCRIPTION_RESULT_OK;
+            intent.putExtra(EuiccManager.EXTRA_EMBEDDED_SUBSCRIPTION_ERROR_CODE,
+                    EuiccManager.EMBEDDED_SUBSCRIPTION_RESULT_OK);
+        } else {
+            resultCode = EuiccManager.EMBEDDED_SUBSCRIPTION_RESULT_ERROR;
+            intent.putExtra(EuiccManager.EXTRA_EMBEDDED_SUBSCRIPTION_DETAILED_CODE,
+                    fault.mDetailedCode);
+            intent.putExtra(EuiccManager.EXTRA_EMBEDDED_SUBSCRIPTION_OPERATION_CODE,
+                    fault.mOperationCode);
+            intent.putExtra(EuiccManager.EXTRA_EMBEDDED_SUBSCRIPTION_ERROR_CODE,
+                    fault.mErrorCode);
+        }
+        mResultSink.onResult(intent, resultCode);
+    }
+}
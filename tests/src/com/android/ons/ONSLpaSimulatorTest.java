@@ -0,0 +1,152 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.ons;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.PersistableBundle;
+import android.telephony.CarrierConfigManager;
+import android.telephony.euicc.EuiccManager;
+
+import androidx.test.InstrumentationRegistry;
+
+import com.android.ons.ONSProfileDownloader.DownloadRetryResultCode;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+@RunWith(JUnit4.class)
+public class ONSLpaSimulatorTest {
+    private static final long WAIT_MS = 2000;
+
+    private ONSLpaSimulator mLpa;
+    private HandlerThread mDownloaderThread;
+    private volatile ONSProfileDownloader mDownloader;
+    private CountDownLatch mResultLatch;
+    private volatile int mCompletedSubId;
+    private volatile DownloadRetryResultCode mErrorResult;
+
+    @Before
+    public void setUp() throws Exception {
+        mLpa = new ONSLpaSimulator(
+                (intent, resultCode) -> mDownloader.onCallbackIntentReceived(intent, resultCode));
+        mLpa.setLatencyMs(ONSLpaSimulator.OP_DOWNLOAD, 5, 20);
+
+        PersistableBundle config = new PersistableBundle();
+        config.putString(CarrierConfigManager.KEY_SMDP_SERVER_ADDRESS_STRING, "smdp.test");
+        CarrierConfigManager carrierConfigManager = mock(CarrierConfigManager.class);
+        doReturn(config).when(carrierConfigManager).getConfigForSubId(anyInt());
+
+        ONSProfileDownloader.IONSProfileDownloaderListener listener =
+                new ONSProfileDownloader.IONSProfileDownloaderListener() {
+                    @Override
+                    public void onDownloadComplete(int primarySubId) {
+                        mCompletedSubId = primarySubId;
+                        mResultLatch.countDown();
+                    }
+
+                    @Override
+                    public void onDownloadError(int pSIMSubId,
+                            DownloadRetryResultCode resultCode, int detailErrCode) {
+                        mErrorResult = resultCode;
+                        mResultLatch.countDown();
+                    }
+                };
+
+        // The downloader handles results on the looper it is created on.
+        mDownloaderThread = new HandlerThread("ONSLpaSimulatorTest");
+        mDownloaderThread.start();
+        CountDownLatch created = new CountDownLatch(1);
+        new Handler(mDownloaderThread.getLooper()).post(() -> {
+            mDownloader = new ONSProfileDownloader(InstrumentationRegistry.getTargetContext(),
+                    carrierConfigManager, mLpa.getEuiccManager(),
+                    mock(ONSProfileConfigurator.class), listener);
+            created.countDown();
+        });
+        assertTrue(created.await(WAIT_MS, TimeUnit.MILLISECONDS));
+    }
+
+    @After
+    public void tearDown() {
+        mLpa.shutdown();
+        mDownloaderThread.quitSafely();
+    }
+
+    @Test
+    public void testDownloadUntilMemoryFull() throws Exception {
+        mLpa.setCapacity(1);
+
+        download(1);
+        assertEquals(1, mCompletedSubId);
+        assertEquals(1, mLpa.getInstalledSubIds().size());
+
+        download(2);
+        assertEquals(DownloadRetryResultCode.ERR_MEMORY_FULL, mErrorResult);
+        assertEquals(1, mLpa.getErrorCount(ONSLpaSimulator.OP_DOWNLOAD));
+    }
+
+    @Test
+    public void testInjectedErrorsMappedToRetryClass() throws Exception {
+        // 8.8.5 Download order / 4.10 Time to Live Expired
+        mLpa.injectSmdxError(0x885, 0x04A);
+        download(1);
+        assertEquals(DownloadRetryResultCode.ERR_RETRY_DOWNLOAD, mErrorResult);
+
+        mLpa.injectEuiccError(EuiccManager.OPERATION_DOWNLOAD, EuiccManager.ERROR_INSTALL_PROFILE);
+        download(1);
+        assertEquals(DownloadRetryResultCode.ERR_INSTALL_ESIM_PROFILE_FAILED, mErrorResult);
+
+        /* the queued errors are used up */
+        download(1);
+        assertEquals(1, mCompletedSubId);
+    }
+
+    @Test
+    public void testRandomErrorsCounted() throws Exception {
+        mLpa.setRandomSmdxError(50, ONSLpaSimulator.SUBJECT_EUICC, 0x042);
+        int errors = 0;
+        for (int i = 0; i < 10; i++) {
+            mErrorResult = null;
+            download(1);
+            if (mErrorResult != null) {
+                errors++;
+            }
+        }
+
+        assertEquals(errors, mLpa.getErrorCount(ONSLpaSimulator.OP_DOWNLOAD));
+        assertEquals(10 - errors, mLpa.getInstalledSubIds().size());
+    }
+
+    private void download(int primarySubId) throws Exception {
+        mResultLatch = new CountDownLatch(1);
+        assertEquals(ONSProfileDownloader.DownloadProfileResult.SUCCESS,
+                mDownloader.downloadProfile(primarySubId));
+        assertTrue(mResultLatch.await(WAIT_MS, TimeUnit.MILLISECONDS));
+    }
+}
@@ -27,6 +27,7 @@ import android.telephony.CellIdentityNr;
 import android.telephony.CellInfo;
 import android.telephony.CellInfoLte;
 import android.telephony.CellInfoNr;
+import android.telephony.CellSignalStrengthLte;
 import android.telephony.NetworkScan;
 import android.telephony.NetworkScanRequest;
 import android.telephony.RadioAccessSpecifier;
@@ -35,11 +36,14 @@ import android.telephony.SubscriptionInfo;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
+import org.mockito.ArgumentCaptor;
 
+import java.io.File;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
 
 public class ONSNetworkScanCtlrTest extends ONSBaseTest {
     private ONSNetworkScanCtlr mONSNetworkScanCtlr;
@@ -150,6 +154,108 @@ public class ONSNetworkScanCtlrTest extends ONSBaseTest {
         assertEquals(expectedResults, mResults);
     }
 
+    @Test
+    public void testQualifiedCellsRankedBySinr() {
+        ArrayList<AvailableNetworkInfo> availableNetworkInfos = new ArrayList<>();
+        availableNetworkInfos.add(new AvailableNetworkInfo(1, 1,
+                new ArrayList<>(Arrays.asList("310210")), new ArrayList<Integer>()));
+        CellInfoLte lowSinrCell = createLteCell(2);
+        CellInfoLte highSinrCell = createLteCell(20);
+
+        initONSNetworkScanCtrl();
+
+        mONSNetworkScanCtlr.startFastNetworkScan(availableNetworkInfos);
+        mONSNetworkScanCtlr.mNetworkScanCallback.onResults(
+                new ArrayList<>(Arrays.asList(lowSinrCell, highSinrCell)));
+        waitUntilReady(100);
+        assertEquals(Arrays.asList(highSinrCell, lowSinrCell), mResults);
+    }
+
+    private CellInfoLte createLteCell(int rssnr) {
+        CellInfoLte cellInfoLte = new CellInfoLte();
+        cellInfoLte.setCellIdentity(new CellIdentityLte(310, 210, 1, 1, 1));
+        cellInfoLte.setCellSignalStrength(new CellSignalStrengthLte(CellInfo.UNAVAILABLE,
+                CellInfo.UNAVAILABLE, CellInfo.UNAVAILABLE, rssnr, CellInfo.UNAVAILABLE,
+                CellInfo.UNAVAILABLE));
+        return cellInfoLte;
+    }
+
+    @Test
+    public void testRestartScanSlowsDownWithoutCoverage() {
+        CellInfoLte servingCell = new CellInfoLte();
+        servingCell.setCellIdentity(new CellIdentityLte(310, 260, 1, 1, 1));
+        servingCell.setRegistered(true);
+        List<CellInfo> servingCells = Collections.singletonList(servingCell);
+        doReturn(servingCells).when(mMockTelephonyManager).getAllCellInfo();
+        AvailableNetworkInfo availableNetworkInfo = new AvailableNetworkInfo(1, 1,
+                new ArrayList<>(Arrays.asList("310210")), new ArrayList<Integer>());
+        ArrayList<AvailableNetworkInfo> availableNetworkInfos =
+                new ArrayList<>(Arrays.asList(availableNetworkInfo));
+
+        initONSNetworkScanCtrl();
+        mONSNetworkScanCtlr.startFastNetworkScan(availableNetworkInfos);
+        /* scans keep coming back empty at this location */
+        long fingerprint = ONSCellCoverageMap.computeFingerprint(servingCells);
+        for (int i = 0; i < ONSCellCoverageMap.NO_COVERAGE_SCAN_THRESHOLD; i++) {
+            mONSNetworkScanCtlr.mCoverageMap.recordEmptyScan(fingerprint);
+        }
+        mONSNetworkScanCtlr.restartScan();
+
+        ArgumentCaptor<NetworkScanRequest> requestCaptor =
+                ArgumentCaptor.forClass(NetworkScanRequest.class);
+        verify(mMockTelephonyManager, times(2)).requestNetworkScan(requestCaptor.capture(),
+                anyObject());
+        assertEquals(SEARCH_PERIODICITY,
+                requestCaptor.getAllValues().get(0).getSearchPeriodicity());
+        assertEquals(TimeUnit.MINUTES.toSeconds(5),
+                requestCaptor.getAllValues().get(1).getSearchPeriodicity());
+        assertEquals(requestCaptor.getAllValues().get(0).getPlmns(),
+                requestCaptor.getAllValues().get(1).getPlmns());
+    }
+
+    @Test
+    public void testDuplicateStartKeepsScanState() {
+        ArrayList<AvailableNetworkInfo> availableNetworkInfos = new ArrayList<>();
+        availableNetworkInfos.add(new AvailableNetworkInfo(1, 1,
+                new ArrayList<>(Arrays.asList("310210")), new ArrayList<Integer>()));
+
+        initONSNetworkScanCtrl();
+        mONSNetworkScanCtlr.startFastNetworkScan(availableNetworkInfos);
+        /* the running scan already reported a qualifying cell */
+        mONSNetworkScanCtlr.mQualifyingCellFound = true;
+        mONSNetworkScanCtlr.startFastNetworkScan(availableNetworkInfos);
+
+        verify(mMockTelephonyManager, times(1)).requestNetworkScan(anyObject(), anyObject());
+        assertTrue(mONSNetworkScanCtlr.mQualifyingCellFound);
+    }
+
+    @Test
+    public void testRestartScanJournalsStart() throws Exception {
+        File journalFile = File.createTempFile("ons_decision_journal", null);
+        journalFile.delete();
+        ONSDecisionJournal journal = new ONSDecisionJournal(journalFile,
+                ONSDecisionJournal.DEFAULT_SEGMENT_SIZE, () -> 0L);
+        ArrayList<AvailableNetworkInfo> availableNetworkInfos = new ArrayList<>();
+        availableNetworkInfos.add(new AvailableNetworkInfo(1, 1,
+                new ArrayList<>(Arrays.asList("310210")), new ArrayList<Integer>()));
+
+        initONSNetworkScanCtrl();
+        mONSNetworkScanCtlr.setDecisionJournal(journal);
+        mONSNetworkScanCtlr.startFastNetworkScan(availableNetworkInfos);
+        mONSNetworkScanCtlr.restartScan();
+        journal.close();
+
+        List<Integer> startPeriodicities = new ArrayList<>();
+        for (ONSDecisionJournal.Record record : ONSDecisionJournal.read(journalFile)) {
+            if (record.type == ONSDecisionJournal.RECORD_SCAN_EVENT
+                    && record.first == ONSDecisionJournal.SCAN_EVENT_START) {
+                startPeriodicities.add(record.second);
+            }
+        }
+        journalFile.delete();
+        assertEquals(Arrays.asList(SEARCH_PERIODICITY, SEARCH_PERIODICITY), startPeriodicities);
+    }
+
     @Test
     public void testStopNetworkScan() {
         List<CellInfo> expectedResults = new ArrayList<CellInfo>();
@@ -42,6 +42,8 @@ import org.junit.Test;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
 
+import java.io.PrintWriter;
+import java.io.StringWriter;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.UUID;
@@ -432,6 +434,107 @@ public class ONSProfileActivatorTest extends ONSBaseTest {
                 onsProfileActivator.handleCarrierConfigChange());
     }
 
+    @Test
+    public void testUnchangedInputsSkipEvaluation() {
+
+        doReturn(true).when(mMockResources).getBoolean(R.bool.enable_ons_auto_provisioning);
+        doReturn(true).when(mMockEuiccManager).isEnabled();
+        doReturn(2).when(mMockTeleManager).getSupportedModemCount();
+        doReturn(2).when(mMockTeleManager).getActiveModemCount();
+
+        doReturn(mMockactiveSubInfos).when(mMockSubManager).getActiveSubscriptionInfoList();
+        doReturn(1).when(mMockactiveSubInfos).size();
+        doReturn(mMockSubInfo).when(mMockactiveSubInfos).get(0);
+        doReturn(false).when(mMockSubInfo).isOpportunistic();
+        doReturn(TEST_SUBID_1).when(mMockSubInfo).getSubscriptionId();
+        doReturn(null).when(mMockSubInfo).getGroupUuid();
+        doReturn(ONSProfileDownloader.DownloadProfileResult.SUCCESS).when(mMockONSProfileDownloader)
+                .downloadProfile(TEST_SUBID_1);
+
+        ONSProfileActivator onsProfileActivator = new ONSProfileActivator(mMockContext,
+                mMockSubManager, mMockTeleManager, mMockCarrierConfigManager, mMockEuiccManager,
+                mMockConnectivityManager, mMockONSProfileConfigurator, mMockONSProfileDownloader,
+                mMockONSStats);
+
+        onsProfileActivator.mIsInternetConnAvailable = true;
+        assertEquals(ONSProfileActivator.Result.DOWNLOAD_REQUESTED,
+                onsProfileActivator.handleCarrierConfigChange());
+        //The memoized result leaves the retries of the download in progress alone.
+        onsProfileActivator.mDownloadRetryCount = 2;
+        assertEquals(ONSProfileActivator.Result.DOWNLOAD_REQUESTED,
+                onsProfileActivator.handleCarrierConfigChange());
+        assertEquals(2, onsProfileActivator.mDownloadRetryCount);
+        verify(mMockONSProfileDownloader, times(1)).downloadProfile(TEST_SUBID_1);
+        assertEquals(1, onsProfileActivator.getAvoidedEvaluationCount());
+
+        //A download result is not visible in the inputs and forces a new evaluation.
+        onsProfileActivator.onDownloadError(TEST_SUBID_1,
+                ONSProfileDownloader.DownloadRetryResultCode.ERR_UNRESOLVABLE, 0);
+        onsProfileActivator.handleCarrierConfigChange();
+        verify(mMockONSProfileDownloader, times(2)).downloadProfile(TEST_SUBID_1);
+
+        //So does a change of connectivity.
+        onsProfileActivator.mIsInternetConnAvailable = false;
+        assertEquals(ONSProfileActivator.Result.ERR_WAITING_FOR_INTERNET_CONNECTION,
+                onsProfileActivator.handleCarrierConfigChange());
+        assertEquals(1, onsProfileActivator.getAvoidedEvaluationCount());
+    }
+
+    @Test
+    public void testUnchangedInputsDoNotStartProvisioningAttempt() {
+
+        doReturn(false).when(mMockResources).getBoolean(R.bool.enable_ons_auto_provisioning);
+
+        ONSProfileActivator onsProfileActivator = new ONSProfileActivator(mMockContext,
+                mMockSubManager, mMockTeleManager, mMockCarrierConfigManager, mMockEuiccManager,
+                mMockConnectivityManager, mMockONSProfileConfigurator, mMockONSProfileDownloader,
+                mMockONSStats);
+
+        assertEquals(ONSProfileActivator.Result.ERR_AUTO_PROVISIONING_DISABLED,
+                onsProfileActivator.handleCarrierConfigChange());
+        assertEquals(ONSProfileActivator.Result.ERR_AUTO_PROVISIONING_DISABLED,
+                onsProfileActivator.handleCarrierConfigChange());
+        assertEquals(1, onsProfileActivator.getAvoidedEvaluationCount());
+
+        //The abandoned attempt is not restarted by the memoized result.
+        StringWriter stringWriter = new StringWriter();
+        onsProfileActivator.dump(new PrintWriter(stringWriter));
+        assertTrue(stringWriter.toString().contains("abandoned=1 inProgressMs=-1"));
+    }
+
+    @Test
+    public void testCarrierConfigChangeRereadsOnlyItsSubscription() {
+
+        doReturn(true).when(mMockResources).getBoolean(R.bool.enable_ons_auto_provisioning);
+        doReturn(true).when(mMockEuiccManager).isEnabled();
+        doReturn(2).when(mMockTeleManager).getSupportedModemCount();
+        doReturn(2).when(mMockTeleManager).getActiveModemCount();
+
+        doReturn(mMockactiveSubInfos).when(mMockSubManager).getActiveSubscriptionInfoList();
+        doReturn(1).when(mMockactiveSubInfos).size();
+        doReturn(mMockSubInfo).when(mMockactiveSubInfos).get(0);
+        doReturn(false).when(mMockSubInfo).isOpportunistic();
+        doReturn(TEST_SUBID_1).when(mMockSubInfo).getSubscriptionId();
+        doReturn(null).when(mMockSubInfo).getGroupUuid();
+        doReturn(ONSProfileDownloader.DownloadProfileResult.SUCCESS).when(mMockONSProfileDownloader)
+                .downloadProfile(TEST_SUBID_1);
+
+        ONSProfileActivator onsProfileActivator = new ONSProfileActivator(mMockContext,
+                mMockSubManager, mMockTeleManager, mMockCarrierConfigManager, mMockEuiccManager,
+                mMockConnectivityManager, mMockONSProfileConfigurator, mMockONSProfileDownloader,
+                mMockONSStats);
+
+        onsProfileActivator.mIsInternetConnAvailable = true;
+        assertEquals(ONSProfileActivator.Result.DOWNLOAD_REQUESTED,
+                onsProfileActivator.handleCarrierConfigChange(TEST_SUBID_1));
+        assertEquals(ONSProfileActivator.Result.DOWNLOAD_REQUESTED,
+                onsProfileActivator.handleCarrierConfigChange(TEST_SUBID_1));
+        assertEquals(1, onsProfileActivator.getAvoidedEvaluationCount());
+
+        //Subscriptions are cached until they change.
+        verify(mMockSubManager, times(1)).getAvailableSubscriptionInfoList();
+    }
+
     @Test
     public void testCalculateBackoffDelay() {
         final Object lock = new Object();
@@ -16,7 +16,12 @@
 
 package com.android.ons;
 
+import static org.mockito.Mockito.any;
+import static org.mockito.Mockito.anyInt;
 import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.eq;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.verifyNoMoreInteractions;
 
@@ -224,6 +229,140 @@ public class ONSProfileConfiguratorTest extends ONSBaseTest {
         assertEquals(oppSubscription, mMockSubscriptionInfo2);
     }
 
+    @Test
+    public void testFindOpportunisticSubscriptionWithInactivePSIM() {
+        ONSProfileConfigurator mOnsProfileConfigurator = new ONSProfileConfigurator(mContext,
+                mMockSubManager, mMockCarrierConfigManager, mMockEuiccMngr, mMockConfigListener);
+
+        int[] oppCarrierList = {2};
+        PersistableBundle persistableBundle = new PersistableBundle();
+        persistableBundle.putIntArray(
+                CarrierConfigManager.KEY_OPPORTUNISTIC_CARRIER_IDS_INT_ARRAY, oppCarrierList);
+        doReturn(persistableBundle).when(mMockCarrierConfigManager).getConfigForSubId(TEST_SUB_ID);
+        doReturn(null).when(mMockSubManager).getActiveSubscriptionInfo(TEST_SUB_ID);
+
+        assertEquals(null, mOnsProfileConfigurator.findOpportunisticSubscription(TEST_SUB_ID));
+    }
+
+    @Test
+    public void testGetOpportunisticSubIdsofPSIMOperator() {
+        ONSProfileConfigurator mOnsProfileConfigurator = new ONSProfileConfigurator(mContext,
+                mMockSubManager, mMockCarrierConfigManager, mMockEuiccMngr, mMockConfigListener);
+
+        int[] oppCarrierList = {2};
+        PersistableBundle persistableBundle = new PersistableBundle();
+        persistableBundle.putIntArray(
+                CarrierConfigManager.KEY_OPPORTUNISTIC_CARRIER_IDS_INT_ARRAY, oppCarrierList);
+        doReturn(persistableBundle).when(mMockCarrierConfigManager).getConfigForSubId(TEST_SUB_ID);
+
+        ArrayList<SubscriptionInfo> availSubList = new ArrayList<>();
+        availSubList.add(mMockSubscriptionInfo1);
+        doReturn(availSubList).when(mMockSubManager).getAvailableSubscriptionInfoList();
+        doReturn(true).when(mMockSubscriptionInfo1).isEmbedded();
+        doReturn(2).when(mMockSubscriptionInfo1).getCarrierId();
+        doReturn(5).when(mMockSubscriptionInfo1).getSubscriptionId();
+
+        assertEquals(5, (int) mOnsProfileConfigurator.getOpportunisticSubIdsofPSIMOperator(
+                TEST_SUB_ID).get(0));
+
+        //A new subscription is only seen once the index is invalidated.
+        availSubList.add(mMockSubscriptionInfo2);
+        doReturn(true).when(mMockSubscriptionInfo2).isEmbedded();
+        doReturn(2).when(mMockSubscriptionInfo2).getCarrierId();
+        doReturn(6).when(mMockSubscriptionInfo2).getSubscriptionId();
+        assertEquals(1, mOnsProfileConfigurator.getOpportunisticSubIdsofPSIMOperator(
+                TEST_SUB_ID).size());
+        mOnsProfileConfigurator.invalidateSubscriptionIndex();
+        assertEquals(2, mOnsProfileConfigurator.getOpportunisticSubIdsofPSIMOperator(
+                TEST_SUB_ID).size());
+    }
+
+    @Test
+    public void testReclaimSpaceNotifiesOnceForBatch() {
+        ONSProfileConfigurator mOnsProfileConfigurator = new ONSProfileConfigurator(mContext,
+                mMockSubManager, mMockCarrierConfigManager, mMockEuiccMngr, mMockConfigListener);
+
+        doReturn(new PersistableBundle()).when(mMockCarrierConfigManager)
+                .getConfigForSubId(TEST_SUB_ID);
+        doReturn(2).when(mMockSubscriptionInfo1).getSubscriptionId();
+        doReturn(3).when(mMockSubscriptionInfo2).getSubscriptionId();
+        ArrayList<SubscriptionInfo> oppSubList = new ArrayList<>();
+        oppSubList.add(mMockSubscriptionInfo1);
+        oppSubList.add(mMockSubscriptionInfo2);
+        doReturn(oppSubList).when(mMockSubManager).getOpportunisticSubscriptions();
+        doReturn(false).when(mMockSubManager).isActiveSubscriptionId(anyInt());
+
+        assertEquals(2, mOnsProfileConfigurator.reclaimSpace(TEST_SUB_ID, 2));
+        verify(mMockEuiccMngr).deleteSubscription(eq(2), any());
+        verify(mMockEuiccMngr).deleteSubscription(eq(3), any());
+
+        mOnsProfileConfigurator.callbackMsgHandler(createDeleteResult(2));
+        verify(mMockConfigListener, never()).onOppSubscriptionDeleted(anyInt());
+
+        mOnsProfileConfigurator.callbackMsgHandler(createDeleteResult(3));
+        verify(mMockConfigListener).onOppSubscriptionDeleted(TEST_SUB_ID);
+    }
+
+    @Test
+    public void testReclaimSpaceReportsFailedBatch() {
+        ONSProfileConfigurator mOnsProfileConfigurator = createReclaimingConfigurator();
+
+        assertEquals(2, mOnsProfileConfigurator.reclaimSpace(TEST_SUB_ID, 2));
+        mOnsProfileConfigurator.callbackMsgHandler(
+                createDeleteResult(2, EuiccManager.EMBEDDED_SUBSCRIPTION_RESULT_ERROR));
+        mOnsProfileConfigurator.callbackMsgHandler(
+                createDeleteResult(3, EuiccManager.EMBEDDED_SUBSCRIPTION_RESULT_ERROR));
+
+        verify(mMockConfigListener).onOppSubscriptionDeletionFailed(TEST_SUB_ID);
+        verify(mMockConfigListener, never()).onOppSubscriptionDeleted(anyInt());
+    }
+
+    @Test
+    public void testReclaimSpaceTimeoutClearsBatch() {
+        ONSProfileConfigurator mOnsProfileConfigurator = createReclaimingConfigurator();
+
+        assertEquals(2, mOnsProfileConfigurator.reclaimSpace(TEST_SUB_ID, 2));
+        //The LPA never answers.
+        mOnsProfileConfigurator.onBatchDeletionTimeout();
+        verify(mMockConfigListener).onOppSubscriptionDeletionFailed(TEST_SUB_ID);
+
+        //A new batch can start, a late result of the old one is ignored.
+        assertEquals(2, mOnsProfileConfigurator.reclaimSpace(TEST_SUB_ID, 2));
+        verify(mMockEuiccMngr, times(2)).deleteSubscription(eq(2), any());
+    }
+
+    private ONSProfileConfigurator createReclaimingConfigurator() {
+        ONSProfileConfigurator onsProfileConfigurator = new ONSProfileConfigurator(mContext,
+                mMockSubManager, mMockCarrierConfigManager, mMockEuiccMngr, mMockConfigListener);
+
+        doReturn(new PersistableBundle()).when(mMockCarrierConfigManager)
+                .getConfigForSubId(TEST_SUB_ID);
+        doReturn(2).when(mMockSubscriptionInfo1).getSubscriptionId();
+        doReturn(3).when(mMockSubscriptionInfo2).getSubscriptionId();
+        ArrayList<SubscriptionInfo> oppSubList = new ArrayList<>();
+        oppSubList.add(mMockSubscriptionInfo1);
+        oppSubList.add(mMockSubscriptionInfo2);
+        doReturn(oppSubList).when(mMockSubManager).getOpportunisticSubscriptions();
+        doReturn(false).when(mMockSubManager).isActiveSubscriptionId(anyInt());
+        return onsProfileConfigurator;
+    }
+
+    private Message createDeleteResult(int subId) {
+        return createDeleteResult(subId, EuiccManager.EMBEDDED_SUBSCRIPTION_RESULT_OK);
+    }
+
+    private Message createDeleteResult(int subId, int resultCode) {
+        Intent intent = new Intent();
+        intent.putExtra(
+                ONSProfileConfigurator.PARAM_REQUEST_TYPE,
+                ONSProfileConfigurator.REQUEST_CODE_DELETE_SUB);
+        intent.putExtra(ONSProfileConfigurator.PARAM_SUB_ID, subId);
+        Message msg = new Message();
+        msg.obj = intent;
+        msg.arg1 = resultCode;
+        return msg;
+    }
+
     @After
     public void tearDown() throws Exception {
         super.tearDown();
@@ -16,15 +16,19 @@
 
 package com.android.ons;
 
+import static org.mockito.Mockito.after;
 import static org.mockito.Mockito.any;
+import static org.mockito.Mockito.anyInt;
 import static org.mockito.Mockito.doNothing;
 import static org.mockito.Mockito.doReturn;
 import static org.mockito.Mockito.eq;
 import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.verifyZeroInteractions;
 
+import android.app.PendingIntent;
 import android.content.Context;
 import android.content.Intent;
 import android.os.Looper;
@@ -41,12 +45,14 @@ import com.android.ons.ONSProfileDownloader.DownloadProfileResult;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
+import org.mockito.ArgumentCaptor;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
 
 public class ONSProfileDownloaderTest extends ONSBaseTest {
     private static final String TAG = ONSProfileDownloaderTest.class.getName();
     private static final int TEST_SUB_ID = 1;
+    private static final int TEST_SUB_ID_2 = 2;
     private static final String TEST_SMDP_ADDRESS = "TEST-ESIM.COM";
 
     @Mock
@@ -685,6 +691,87 @@ public class ONSProfileDownloaderTest extends ONSBaseTest {
         verify(mMockEUICCManager).downloadSubscription(any(), eq(true), any());
     }
 
+    @Test
+    public void testRequestsQueuedPerCard() {
+        PersistableBundle config = new PersistableBundle();
+        config.putString(CarrierConfigManager.KEY_SMDP_SERVER_ADDRESS_STRING, TEST_SMDP_ADDRESS);
+        doReturn(config).when(mMockCarrierConfigManager).getConfigForSubId(anyInt());
+
+        ONSProfileDownloader onsProfileDownloader = new ONSProfileDownloader(mContext,
+                mMockCarrierConfigManager, mMockEUICCManager, mMockONSProfileConfig,
+                mMockDownloadListener, 1, ONSProfileDownloader.DEFAULT_DOWNLOAD_TIMEOUT_MS);
+
+        // Second primary SIM waits until the download of the first one completes.
+        assertEquals(DownloadProfileResult.SUCCESS,
+                onsProfileDownloader.downloadProfile(TEST_SUB_ID));
+        assertEquals(DownloadProfileResult.SUCCESS,
+                onsProfileDownloader.downloadProfile(TEST_SUB_ID_2));
+        assertEquals(DownloadProfileResult.DUPLICATE_REQUEST,
+                onsProfileDownloader.downloadProfile(TEST_SUB_ID_2));
+        verify(mMockEUICCManager, times(1)).downloadSubscription(any(), eq(true), any());
+        assertEquals(1, onsProfileDownloader.getQueueDepth());
+        assertEquals(1, onsProfileDownloader.getActiveDownloadCount());
+    }
+
+    @Test
+    public void testConcurrentRequestsUseDistinctPendingIntents() {
+        PersistableBundle config = new PersistableBundle();
+        config.putString(CarrierConfigManager.KEY_SMDP_SERVER_ADDRESS_STRING, TEST_SMDP_ADDRESS);
+        doReturn(config).when(mMockCarrierConfigManager).getConfigForSubId(anyInt());
+
+        ONSProfileDownloader onsProfileDownloader = new ONSProfileDownloader(mContext,
+                mMockCarrierConfigManager, mMockEUICCManager, mMockONSProfileConfig,
+                mMockDownloadListener, 2, ONSProfileDownloader.DEFAULT_DOWNLOAD_TIMEOUT_MS);
+
+        onsProfileDownloader.downloadProfile(TEST_SUB_ID);
+        onsProfileDownloader.downloadProfile(TEST_SUB_ID_2);
+
+        ArgumentCaptor<PendingIntent> captor = ArgumentCaptor.forClass(PendingIntent.class);
+        verify(mMockEUICCManager, times(2)).downloadSubscription(any(), eq(true),
+                captor.capture());
+        assertFalse(captor.getAllValues().get(0).equals(captor.getAllValues().get(1)));
+        assertEquals(0, onsProfileDownloader.getQueueDepth());
+    }
+
+    @Test
+    public void testDownloadTimeout() {
+        PersistableBundle config = new PersistableBundle();
+        config.putString(CarrierConfigManager.KEY_SMDP_SERVER_ADDRESS_STRING, TEST_SMDP_ADDRESS);
+        doReturn(config).when(mMockCarrierConfigManager).getConfigForSubId(TEST_SUB_ID);
+
+        final ONSProfileDownloader[] onsProfileDownloader = new ONSProfileDownloader[1];
+        Runnable runnable = new Runnable() {
+            @Override
+            public void run() {
+                onsProfileDownloader[0] = new ONSProfileDownloader(mContext,
+                        mMockCarrierConfigManager, mMockEUICCManager, mMockONSProfileConfig,
+                        mMockDownloadListener, 1, 100);
+                onsProfileDownloader[0].downloadProfile(TEST_SUB_ID);
+            }
+        };
+
+        WorkerThread workerThread = new WorkerThread(runnable);
+        workerThread.start();
+
+        verify(mMockDownloadListener, timeout(2000)).onDownloadError(
+                TEST_SUB_ID, ONSProfileDownloader.DownloadRetryResultCode.ERR_RETRY_DOWNLOAD, 0);
+        assertEquals(0, onsProfileDownloader[0].getActiveDownloadCount());
+
+        // A result arriving after the timeout belongs to no request and is dropped.
+        Intent intent = new Intent(mContext, ONSProfileResultReceiver.class);
+        intent.setAction(ONSProfileDownloader.ACTION_ONS_ESIM_DOWNLOAD);
+        intent.putExtra(ONSProfileDownloader.PARAM_PRIMARY_SUBID, TEST_SUB_ID);
+        intent.putExtra(ONSProfileDownloader.PARAM_REQUEST_TYPE,
+                ONSProfileDownloader.REQUEST_CODE_DOWNLOAD_SUB);
+        intent.putExtra(ONSProfileDownloader.PARAM_REQUEST_ID,
+                ONSProfileDownloader.REQUEST_CODE_DOWNLOAD_SUB + 1);
+        onsProfileDownloader[0].onCallbackIntentReceived(intent,
+                EuiccManager.EMBEDDED_SUBSCRIPTION_RESULT_OK);
+
+        verify(mMockDownloadListener, after(500).never()).onDownloadComplete(anyInt());
+        workerThread.exit();
+    }
+
     @After
     public void tearDown() throws Exception {
         super.tearDown();
@@ -23,6 +23,7 @@ import android.content.Intent;
 import android.os.IBinder;
 import android.os.Looper;
 import android.os.ServiceManager;
+import android.os.SystemClock;
 import android.telephony.AvailableNetworkInfo;
 import android.telephony.CellIdentityLte;
 import android.telephony.CellIdentityNr;
@@ -305,6 +306,177 @@ public class ONSProfileSelectorTest extends ONSBaseTest {
         assertTrue(mReady);
     }
 
+    @Test
+    public void testSwitchNeverWorthwhileAnsweredAtScanComplete() {
+        int subId = 5;
+        List<SubscriptionInfo> activeSubscriptionInfoList = new ArrayList<SubscriptionInfo>();
+        List<SubscriptionInfo> oppSubscriptionInfoList = new ArrayList<SubscriptionInfo>();
+        SubscriptionInfo subscriptionInfo1 = new SubscriptionInfo(subId, "", 1, "TMO", "TMO", 1, 1,
+                "123", 1, null, "310", "210", "", true, null, "1", 1, true, null, false, 1, 1, 1,
+                null, null, false, 0);
+        oppSubscriptionInfoList.add(subscriptionInfo1);
+        activeSubscriptionInfoList.add(subscriptionInfo1);
+
+        List<CellInfo> results2 = new ArrayList<CellInfo>();
+        CellInfoLte cellInfoLte = new CellInfoLte();
+        cellInfoLte.setCellIdentity(new CellIdentityLte(310, 210, 1, 1, 1));
+        results2.add((CellInfo) cellInfoLte);
+        ArrayList<String> mccMncs = new ArrayList<>();
+        mccMncs.add("310210");
+        ArrayList<AvailableNetworkInfo> availableNetworkInfos = new ArrayList<AvailableNetworkInfo>();
+        availableNetworkInfos.add(new AvailableNetworkInfo(subId, 1, mccMncs,
+                new ArrayList<Integer>()));
+
+        IUpdateAvailableNetworksCallback mCallback = new IUpdateAvailableNetworksCallback.Stub() {
+            @Override
+            public void onComplete(int result) {
+                mResult = result;
+            }
+        };
+        ONSSwitchCostModel switchCostModel = mock(ONSSwitchCostModel.class);
+        doReturn(false).when(switchCostModel).isSwitchWorthwhile(any(), anyBoolean(), anyInt());
+
+        mResult = -1;
+        mReady = false;
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                Looper.prepare();
+                doReturn(oppSubscriptionInfoList).when(mSubscriptionManager)
+                        .getOpportunisticSubscriptions();
+                doReturn(activeSubscriptionInfoList).when(mSubscriptionManager)
+                        .getActiveSubscriptionInfoList();
+                doReturn(activeSubscriptionInfoList).when(mSubscriptionManager)
+                        .getCompleteActiveSubscriptionInfoList();
+                doReturn(true).when(mSubscriptionManager).isActiveSubId(subId);
+                mONSProfileSelector = new MyONSProfileSelector(mContext,
+                        new MyONSProfileSelector.ONSProfileSelectionCallback() {
+                            public void onProfileSelectionDone() {
+                            }
+                        });
+                mONSProfileSelector.mSwitchCostModel = switchCostModel;
+                mONSProfileSelector.updateOppSubs();
+                mONSProfileSelector.startProfileSelection(availableNetworkInfos, mCallback);
+                mLooper = Looper.myLooper();
+                setReady(true);
+                Looper.loop();
+            }
+        }).start();
+        waitUntilReady();
+        waitForMs(500);
+        clearInvocations(mONSNetworkScanCtlr);
+
+        // The scan goes on while its results are not worth the switch.
+        mONSProfileSelector.mNetworkAvailableCallBackCpy.onNetworkAvailability(results2);
+        assertEquals(-1, mResult);
+        verify(mONSNetworkScanCtlr, never()).stopNetworkScan();
+
+        // Once the scan completed without a better result, the request is answered.
+        mONSProfileSelector.mNetworkAvailableCallBackCpy.onScanComplete();
+        assertEquals(
+                TelephonyManager.UPDATE_AVAILABLE_NETWORKS_NO_OPPORTUNISTIC_SUB_AVAILABLE, mResult);
+        verify(mONSNetworkScanCtlr, times(1)).stopNetworkScan();
+
+        mResult = -1;
+        mONSProfileSelector.mNetworkAvailableCallBackCpy.onScanComplete();
+        assertEquals(-1, mResult);
+        verify(mONSNetworkScanCtlr, times(1)).stopNetworkScan();
+    }
+
+    @Test
+    public void testStartProfileSelectionWithFakeModem() throws Exception {
+        int subId = 5;
+        List<SubscriptionInfo> activeSubscriptionInfoList = new ArrayList<SubscriptionInfo>();
+        List<SubscriptionInfo> oppSubscriptionInfoList = new ArrayList<SubscriptionInfo>();
+        SubscriptionInfo subscriptionInfo1 = new SubscriptionInfo(subId, "", 1, "TMO", "TMO", 1, 1,
+                "123", 1, null, "310", "210", "", true, null, "1", 1, true, null, false, 1, 1, 1,
+                null, null, false, 0);
+        SubscriptionInfo subscriptionInfo2 = new SubscriptionInfo(6, "", 1, "TMO", "TMO", 1, 1,
+                "123", 1, null, "310", "211", "", true, null, "1", 1, false, null, false, 1, 1, 1,
+                null, null, false, 0);
+        oppSubscriptionInfoList.add(subscriptionInfo1);
+        activeSubscriptionInfoList.add(subscriptionInfo1);
+        activeSubscriptionInfoList.add(subscriptionInfo2);
+
+        CellInfoLte cellInfoLte = new CellInfoLte();
+        cellInfoLte.setCellIdentity(new CellIdentityLte(310, 210, 1, 1, 1));
+        ArrayList<String> mccMncs = new ArrayList<>();
+        mccMncs.add("310210");
+        ArrayList<AvailableNetworkInfo> availableNetworkInfos = new ArrayList<AvailableNetworkInfo>();
+        availableNetworkInfos.add(new AvailableNetworkInfo(subId, 1, mccMncs,
+                new ArrayList<Integer>()));
+
+        /* the modem reports the cell 50ms into the scan and takes 50ms to enable the modem */
+        ONSFakeModem modem = new ONSFakeModem();
+        modem.setScanScript(new ONSFakeModem.ScanScript()
+                .results(50, Collections.<CellInfo>singletonList(cellInfoLte)));
+        modem.setEnableModemLatencyMs(50);
+        long[] decisionTimeMs = new long[1];
+        IUpdateAvailableNetworksCallback mCallback = new IUpdateAvailableNetworksCallback.Stub() {
+            @Override
+            public void onComplete(int result) {
+                decisionTimeMs[0] = SystemClock.elapsedRealtime();
+                mResult = result;
+            }
+        };
+
+        mResult = -1;
+        mReady = false;
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                Looper.prepare();
+                doReturn(subscriptionInfo1).when(mSubscriptionManager)
+                        .getActiveSubscriptionInfo(subId);
+                doReturn(oppSubscriptionInfoList).when(mSubscriptionManager)
+                    .getOpportunisticSubscriptions();
+                doReturn(activeSubscriptionInfoList).when(mSubscriptionManager)
+                        .getActiveSubscriptionInfoList();
+                doReturn(activeSubscriptionInfoList).when(mSubscriptionManager)
+                        .getCompleteActiveSubscriptionInfoList();
+                doReturn(true).when(mSubscriptionManager).isActiveSubId(subId);
+                mONSProfileSelector = new MyONSProfileSelector(mContext,
+                    new MyONSProfileSelector.ONSProfileSelectionCallback() {
+                        public void onProfileSelectionDone() {
+                            setReady(true);
+                        }
+                    });
+                mONSProfileSelector.mSubscriptionBoundTelephonyManager =
+                        modem.getTelephonyManager();
+                mONSProfileSelector.mNetworkScanCtlr = new ONSNetworkScanCtlr(mContext,
+                        modem.getTelephonyManager(),
+                        mONSProfileSelector.mNetworkAvailableCallBackCpy);
+                mONSProfileSelector.mNetworkScanCtlr.setIs4gScanEnabled(true);
+                mONSProfileSelector.updateOppSubs();
+                mONSProfileSelector.startProfileSelection(availableNetworkInfos, mCallback);
+                mLooper = Looper.myLooper();
+                setReady(true);
+                Looper.loop();
+            }
+        }).start();
+
+        // Wait till initialization is complete.
+        waitUntilReady();
+        mReady = false;
+
+        // The selection is driven by the scan results of the fake modem.
+        waitUntilReady();
+        try {
+            assertEquals(TelephonyManager.UPDATE_AVAILABLE_NETWORKS_SUCCESS, mResult);
+            assertEquals(1, modem.getEnableModemCount());
+            long decisionLatencyMs = decisionTimeMs[0] - modem.getLastBatchTimeMs();
+            assertTrue("decision latency " + decisionLatencyMs + "ms",
+                    decisionLatencyMs >= 50 && decisionLatencyMs < 1000);
+            // One scan, stopped as soon as the opportunistic network was found.
+            assertEquals(1, modem.getScanRequestCount());
+            assertEquals(1, modem.getScanStopCount());
+            assertEquals(1, modem.getBatchCount());
+        } finally {
+            mONSProfileSelector.mNetworkScanCtlr.mThread.quitSafely();
+            modem.shutdown();
+        }
+    }
+
     @Test
     public void testStartProfileSelectionWithDifferentPrioritySubInfo() {
         int PRIORITY_HIGH = 1;
@@ -0,0 +1,89 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.ons;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class ONSProvisioningFunnelTest {
+    private long mTime;
+    private ONSProvisioningFunnel mFunnel;
+
+    @Before
+    public void setUp() {
+        mTime = 1000;
+        mFunnel = new ONSProvisioningFunnel(() -> mTime);
+    }
+
+    @Test
+    public void testStageDurations() {
+        mFunnel.start();
+        mTime += 2000;
+        mFunnel.markStage(ONSProvisioningFunnel.STAGE_DOWNLOAD_REQUESTED);
+        mTime += 60000;
+        mFunnel.markStage(ONSProvisioningFunnel.STAGE_LPA_RESULT);
+        /* a stage is only timed the first time it is reached */
+        mTime += 60000;
+        mFunnel.markStage(ONSProvisioningFunnel.STAGE_LPA_RESULT);
+        assertEquals(122000, mFunnel.getElapsedMs());
+
+        /* 2s falls in the <5s bucket, 60s in the <2min bucket */
+        assertArrayEquals(new int[] {0, 1, 0, 0, 0, 0, 0},
+                mFunnel.getStageHistogram(ONSProvisioningFunnel.STAGE_DOWNLOAD_REQUESTED));
+        assertArrayEquals(new int[] {0, 0, 0, 1, 0, 0, 0},
+                mFunnel.getStageHistogram(ONSProvisioningFunnel.STAGE_LPA_RESULT));
+    }
+
+    @Test
+    public void testActivationCompletesAttempt() {
+        mFunnel.start();
+        mTime += 500;
+        /* an opportunistic eSIM active before the new one is set up is not counted */
+        mFunnel.markStage(ONSProvisioningFunnel.STAGE_ACTIVATED);
+        assertFalse(mFunnel.hasReached(ONSProvisioningFunnel.STAGE_ACTIVATED));
+
+        mFunnel.markStage(ONSProvisioningFunnel.STAGE_GROUPED);
+        mFunnel.markStage(ONSProvisioningFunnel.STAGE_SET_OPPORTUNISTIC);
+        assertTrue(mFunnel.hasReached(ONSProvisioningFunnel.STAGE_SET_OPPORTUNISTIC));
+        mTime += 40000;
+        mFunnel.markStage(ONSProvisioningFunnel.STAGE_ACTIVATED);
+
+        assertEquals(-1, mFunnel.getElapsedMs());
+        assertArrayEquals(new int[] {0, 0, 0, 1, 0, 0, 0}, mFunnel.getTotalHistogram());
+    }
+
+    @Test
+    public void testAbandonedAttemptNotCounted() {
+        mFunnel.start();
+        mTime += 500;
+        mFunnel.abandon();
+        mFunnel.markStage(ONSProvisioningFunnel.STAGE_DOWNLOAD_REQUESTED);
+
+        assertEquals(-1, mFunnel.getElapsedMs());
+        assertArrayEquals(new int[] {0, 0, 0, 0, 0, 0, 0},
+                mFunnel.getStageHistogram(ONSProvisioningFunnel.STAGE_DOWNLOAD_REQUESTED));
+        assertArrayEquals(new int[] {0, 0, 0, 0, 0, 0, 0}, mFunnel.getTotalHistogram());
+    }
+}
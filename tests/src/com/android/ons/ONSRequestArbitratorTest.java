@@ -0,0 +1,171 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.ons;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+
+import android.telephony.AvailableNetworkInfo;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+@RunWith(JUnit4.class)
+public class ONSRequestArbitratorTest {
+    private static final String CARRIER = ONSRequestArbitrator.REQUESTER_CARRIER_APP;
+    private static final String SYSTEM = ONSRequestArbitrator.REQUESTER_SYSTEM_APP;
+    private static final int STANDALONE_SUB_ID = 10;
+
+    @Mock private ONSRequestArbitrator.Listener mListener;
+    private ONSRequestArbitrator mArbitrator;
+
+    @Before
+    public void setUp() {
+        MockitoAnnotations.initMocks(this);
+        mArbitrator = new ONSRequestArbitrator(networks -> networks.stream().anyMatch(
+                network -> network.getSubId() == STANDALONE_SUB_ID), mListener);
+    }
+
+    @Test
+    public void testCarrierOverSystem() {
+        ONSConfigInput systemRequest = createRequest(1);
+        ONSConfigInput carrierRequest = createRequest(2);
+
+        assertEquals(SYSTEM, mArbitrator.update(SYSTEM, systemRequest, null).getWinner());
+        ONSRequestArbitrator.State state = mArbitrator.update(CARRIER, carrierRequest, null);
+
+        assertEquals(CARRIER, state.getWinner());
+        assertSame(carrierRequest, state.getWinningRequest());
+        verify(mListener).onRequestSuperseded(SYSTEM, systemRequest,
+                ONSRequestArbitrator.SUPERSEDED_BY_HIGHER_PRIORITY);
+    }
+
+    @Test
+    public void testStandaloneFirst() {
+        ONSConfigInput carrierRequest = createRequest(2);
+        ONSConfigInput systemRequest = createRequest(STANDALONE_SUB_ID);
+
+        mArbitrator.update(CARRIER, carrierRequest, null);
+        ONSRequestArbitrator.State state = mArbitrator.update(SYSTEM, systemRequest, null);
+
+        assertEquals(SYSTEM, state.getWinner());
+        verify(mListener).onRequestSuperseded(CARRIER, carrierRequest,
+                ONSRequestArbitrator.SUPERSEDED_BY_HIGHER_PRIORITY);
+        verify(mListener, never()).onRequestSuperseded(SYSTEM, systemRequest,
+                ONSRequestArbitrator.SUPERSEDED_BY_HIGHER_PRIORITY);
+    }
+
+    @Test
+    public void testCarrierFirstWhenBothStandalone() {
+        ONSConfigInput carrierRequest = createRequest(STANDALONE_SUB_ID);
+        ONSConfigInput systemRequest = createRequest(STANDALONE_SUB_ID);
+
+        mArbitrator.update(CARRIER, carrierRequest, null);
+        ONSRequestArbitrator.State state = mArbitrator.update(SYSTEM, systemRequest, null);
+
+        /* the system request used to be started as well and took over the selection */
+        assertEquals(CARRIER, state.getWinner());
+        verify(mListener).onRequestSuperseded(SYSTEM, systemRequest,
+                ONSRequestArbitrator.SUPERSEDED_BY_HIGHER_PRIORITY);
+        verify(mListener, never()).onRequestSuperseded(CARRIER, carrierRequest,
+                ONSRequestArbitrator.SUPERSEDED_BY_HIGHER_PRIORITY);
+    }
+
+    @Test
+    public void testNewerRequestAndWithdrawal() {
+        ONSConfigInput firstRequest = createRequest(1);
+        ONSConfigInput secondRequest = createRequest(2);
+
+        mArbitrator.update(CARRIER, firstRequest, null);
+        mArbitrator.update(CARRIER, secondRequest, null);
+        verify(mListener).onRequestSuperseded(CARRIER, firstRequest,
+                ONSRequestArbitrator.SUPERSEDED_BY_NEWER_REQUEST);
+
+        /* a stale withdrawal does not drop the newer request */
+        assertNull(mArbitrator.withdrawIfCurrent(CARRIER, firstRequest, null));
+        assertSame(secondRequest, mArbitrator.getState().getRequest(CARRIER));
+
+        ONSRequestArbitrator.State state = mArbitrator.update(CARRIER, null, null);
+        assertNull(state.getWinner());
+        verify(mListener).onRequestSuperseded(CARRIER, secondRequest,
+                ONSRequestArbitrator.SUPERSEDED_BY_WITHDRAWAL);
+    }
+
+    @Test
+    public void testStateIsImmutable() {
+        ONSRequestArbitrator.State before = mArbitrator.getState();
+        mArbitrator.update(CARRIER, createRequest(1), null);
+
+        assertNull(before.getRequest(CARRIER));
+        assertNull(before.getWinner());
+    }
+
+    @Test
+    public void testEvaluateDoesNotKeepRequest() {
+        ONSRequestArbitrator.State state = mArbitrator.evaluate(CARRIER, createRequest(1));
+
+        assertEquals(CARRIER, state.getWinner());
+        assertNull(mArbitrator.getState().getRequest(CARRIER));
+    }
+
+    @Test
+    public void testActionsRunInUpdateOrder() throws Exception {
+        Set<String> winners = new HashSet<>();
+        ArrayList<String> order = new ArrayList<>();
+        Thread[] threads = new Thread[8];
+        for (int i = 0; i < threads.length; i++) {
+            final int subId = i;
+            threads[i] = new Thread(() -> mArbitrator.update(SYSTEM, createRequest(subId),
+                    state -> {
+                        order.add(String.valueOf(
+                                state.getWinningRequest().getPreferredDataSub()));
+                        winners.add(state.getWinner());
+                    }));
+            threads[i].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        /* the last action applied matches the published state */
+        assertEquals(threads.length, order.size());
+        assertEquals(order.get(order.size() - 1), String.valueOf(
+                mArbitrator.getState().getWinningRequest().getPreferredDataSub()));
+        assertEquals(new HashSet<>(Arrays.asList(SYSTEM)), winners);
+    }
+
+    private ONSConfigInput createRequest(int subId) {
+        ArrayList<AvailableNetworkInfo> availableNetworks = new ArrayList<>();
+        availableNetworks.add(new AvailableNetworkInfo(subId, 1,
+                new ArrayList<>(Arrays.asList("310210")), new ArrayList<Integer>()));
+        ONSConfigInput request = new ONSConfigInput(availableNetworks, null);
+        request.setPreferredDataSub(subId);
+        return request;
+    }
+}
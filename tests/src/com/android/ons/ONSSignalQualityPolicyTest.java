@@ -0,0 +1,123 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.ons;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import android.telephony.CellIdentityLte;
+import android.telephony.CellIdentityNr;
+import android.telephony.CellInfo;
+import android.telephony.CellInfoLte;
+import android.telephony.CellInfoNr;
+import android.telephony.CellSignalStrengthLte;
+import android.telephony.CellSignalStrengthNr;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+@RunWith(JUnit4.class)
+public class ONSSignalQualityPolicyTest {
+    private static final int DEFAULT_RSRP_THRESHOLD = -110;
+
+    @Test
+    public void testRsrpOnlyWithoutTable() {
+        ONSSignalQualityPolicy policy = new ONSSignalQualityPolicy(null);
+
+        assertTrue(policy.isQualified(createNrCell(48, -100, -20, -10), DEFAULT_RSRP_THRESHOLD));
+        assertFalse(policy.isQualified(createNrCell(48, -115, -5, 20), DEFAULT_RSRP_THRESHOLD));
+        assertTrue(policy.isQualified(createLteCell(-100, -20, -10), DEFAULT_RSRP_THRESHOLD));
+    }
+
+    @Test
+    public void testBandThresholdsTakePrecedence() {
+        ONSSignalQualityPolicy policy = new ONSSignalQualityPolicy(new String[] {
+                "nr=-120,,",
+                "nr:48=,-12,5"});
+
+        /* band 48 checks RSRQ and SINR, with the default RSRP threshold */
+        assertFalse(policy.isQualified(createNrCell(48, -100, -10, 3), DEFAULT_RSRP_THRESHOLD));
+        assertFalse(policy.isQualified(createNrCell(48, -100, -15, 10), DEFAULT_RSRP_THRESHOLD));
+        assertFalse(policy.isQualified(createNrCell(48, -115, -10, 10), DEFAULT_RSRP_THRESHOLD));
+        assertTrue(policy.isQualified(createNrCell(48, -100, -10, 10), DEFAULT_RSRP_THRESHOLD));
+        /* other NR bands only lower the RSRP threshold */
+        assertTrue(policy.isQualified(createNrCell(71, -115, -15, 3), DEFAULT_RSRP_THRESHOLD));
+        /* LTE cells are not covered by the table */
+        assertTrue(policy.isQualified(createLteCell(-100, -20, -10), DEFAULT_RSRP_THRESHOLD));
+    }
+
+    @Test
+    public void testUnreportedMetricsNotChecked() {
+        ONSSignalQualityPolicy policy = new ONSSignalQualityPolicy(new String[] {"lte=,-12,5"});
+
+        assertTrue(policy.isQualified(createLteCell(-100, CellInfo.UNAVAILABLE,
+                CellInfo.UNAVAILABLE), DEFAULT_RSRP_THRESHOLD));
+        assertFalse(policy.isQualified(createLteCell(-100, CellInfo.UNAVAILABLE, 0),
+                DEFAULT_RSRP_THRESHOLD));
+    }
+
+    @Test
+    public void testInvalidEntriesIgnored() {
+        ONSSignalQualityPolicy policy = new ONSSignalQualityPolicy(new String[] {
+                null,
+                "gsm=-100,-10,5",
+                "nr:x=-100,-10,5",
+                "nr=-100,-10",
+                "nr",
+                "lte=,,5"});
+
+        assertTrue(policy.isQualified(createNrCell(48, -100, -20, -10), DEFAULT_RSRP_THRESHOLD));
+        assertFalse(policy.isQualified(createLteCell(-100, -10, 0), DEFAULT_RSRP_THRESHOLD));
+    }
+
+    @Test
+    public void testCompareQuality() {
+        CellInfo highSinr = createNrCell(48, -120, -10, 20);
+        CellInfo lowSinr = createLteCell(-80, -10, 2);
+        CellInfo lowSinrWeakRsrp = createLteCell(-100, -10, 2);
+        CellInfo noSinr = createLteCell(-70, -10, CellInfo.UNAVAILABLE);
+        List<CellInfo> cells = new ArrayList<>(
+                Arrays.asList(noSinr, lowSinrWeakRsrp, lowSinr, highSinr));
+
+        Collections.sort(cells, ONSSignalQualityPolicy::compareQuality);
+
+        assertEquals(Arrays.asList(highSinr, lowSinr, lowSinrWeakRsrp, noSinr), cells);
+    }
+
+    private CellInfo createNrCell(int band, int ssRsrp, int ssRsrq, int ssSinr) {
+        CellIdentityNr cellIdentityNr = new CellIdentityNr(1, 0, 0, new int[] {band}, "310",
+                "210", 0, "", "", Collections.emptyList());
+        return new CellInfoNr(0, false, 0, cellIdentityNr,
+                new CellSignalStrengthNr(CellInfo.UNAVAILABLE, CellInfo.UNAVAILABLE,
+                        CellInfo.UNAVAILABLE, ssRsrp, ssRsrq, ssSinr));
+    }
+
+    private CellInfo createLteCell(int rsrp, int rsrq, int rssnr) {
+        CellInfoLte cellInfoLte = new CellInfoLte();
+        cellInfoLte.setCellIdentity(new CellIdentityLte(310, 210, 1, 1, 1));
+        cellInfoLte.setCellSignalStrength(new CellSignalStrengthLte(CellInfo.UNAVAILABLE, rsrp,
+                rsrq, rssnr, CellInfo.UNAVAILABLE, CellInfo.UNAVAILABLE));
+        return cellInfoLte;
+    }
+}
@@ -0,0 +1,76 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.ons;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class ONSSmdxRetryPolicyTest {
+
+    @Test
+    public void testBuiltInTable() {
+        //0A->OPERATION_SMDX_SUBJECT_REASON_CODE, 8.1.0 / 4.8
+        assertEquals(ONSSmdxRetryPolicy.RETRY_AFTER_DELETE,
+                ONSSmdxRetryPolicy.classify(0xA810048));
+        //8.8.5 / 4.10
+        assertEquals(ONSSmdxRetryPolicy.RETRY_BACKOFF, ONSSmdxRetryPolicy.classify(0xA88504A));
+        //8.10.1 / 3.9
+        assertEquals(ONSSmdxRetryPolicy.RETRY_IMMEDIATE, ONSSmdxRetryPolicy.classify(0xA8A1039));
+        //8.8.1 / 5.1, transport error of any subject
+        assertEquals(ONSSmdxRetryPolicy.RETRY_BACKOFF, ONSSmdxRetryPolicy.classify(0xA881051));
+        //8.11.1 / 6.1
+        assertEquals(ONSSmdxRetryPolicy.RETRY_UNRESOLVABLE,
+                ONSSmdxRetryPolicy.classify(0xA8B1061));
+        //8.11.1 / 2.2
+        assertEquals(ONSSmdxRetryPolicy.RETRY_UNRESOLVABLE,
+                ONSSmdxRetryPolicy.classify(0xA8B1022));
+    }
+
+    @Test
+    public void testCarrierOverrides() {
+        String[] overrides = {
+                "8.11.1/6.1=backoff",
+                "*/6.1=immediate",
+                "8.1.0/4.8=unresolvable",
+                "invalid",
+                "8.1.0/4.8=unknown_class"};
+
+        assertEquals(ONSSmdxRetryPolicy.RETRY_BACKOFF,
+                ONSSmdxRetryPolicy.classify(0xA8B1061, overrides));
+        assertEquals(ONSSmdxRetryPolicy.RETRY_IMMEDIATE,
+                ONSSmdxRetryPolicy.classify(0xA881061, overrides));
+        assertEquals(ONSSmdxRetryPolicy.RETRY_UNRESOLVABLE,
+                ONSSmdxRetryPolicy.classify(0xA810048, overrides));
+        /* codes without override use the built-in table */
+        assertEquals(ONSSmdxRetryPolicy.RETRY_BACKOFF,
+                ONSSmdxRetryPolicy.classify(0xA88504A, overrides));
+    }
+
+    @Test
+    public void testFormatCode() {
+        assertEquals("8.11.1", ONSSmdxRetryPolicy.formatCode(
+                ONSSmdxRetryPolicy.getSubjectCode(0xA8B1051)));
+        assertEquals("5.1", ONSSmdxRetryPolicy.formatCode(
+                ONSSmdxRetryPolicy.getReasonCode(0xA8B1051)));
+        assertEquals("4.10", ONSSmdxRetryPolicy.formatCode(0x04A));
+        assertEquals("3", ONSSmdxRetryPolicy.formatCode(0x003));
+    }
+}
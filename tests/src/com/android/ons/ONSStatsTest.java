@@ -21,6 +21,8 @@ import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 
 import android.content.Context;
 import android.content.SharedPreferences;
@@ -48,6 +50,7 @@ public class ONSStatsTest {
 
     private static final String ONS_ATOM_LOG_FILE = "ons_atom_log_info";
     private static final String KEY_DETAILED_ERROR_CODE = "_detailed_error_code";
+    private static final String KEY_PRIMARY_CARRIER_ID = "_primary_sim_carrier_id";
 
     @Spy private Context mContext;
     @Mock private SubscriptionManager mSubscriptionManager;
@@ -223,6 +226,9 @@ public class ONSStatsTest {
         info = new ONSStatsInfo().setProvisioningResult(Result.ERR_DUPLICATE_DOWNLOAD_REQUEST);
         assertFalse(mONSStats.logEvent(info));
 
+        info = new ONSStatsInfo().setProvisioningResult(Result.ERR_WAITING_FOR_DOWNLOAD_RETRY);
+        assertFalse(mONSStats.logEvent(info));
+
         info = new ONSStatsInfo().setProvisioningResult(Result.ERR_SWITCHING_TO_DUAL_SIM_MODE);
         assertFalse(mONSStats.logEvent(info));
     }
@@ -297,6 +303,7 @@ public class ONSStatsTest {
         ONSStatsInfo info;
         info = new ONSStatsInfo().setProvisioningResult(Result.ERR_WAITING_FOR_INTERNET_CONNECTION);
         assertTrue(mONSStats.logEvent(info));
+        mONSStats.flush();
 
         // For provisioning errors; Result enum ordinal is set as detailed error code.
         assertEquals(
@@ -311,7 +318,35 @@ public class ONSStatsTest {
                         .setDownloadResult(DownloadRetryResultCode.ERR_MEMORY_FULL)
                         .setDetailedErrCode(10223);
         assertTrue(mONSStats.logEvent(info));
+        mONSStats.flush();
         assertEquals(10223, mSharedPreferences.getInt(KEY_DETAILED_ERROR_CODE, -1));
         assertEquals(10223, info.getDetailedErrCode());
     }
+
+    @Test
+    public void testLastLoggedEventRestored() {
+        ONSStatsInfo info =
+                new ONSStatsInfo()
+                        .setPrimarySimSubId(1)
+                        .setProvisioningResult(Result.ERR_AUTO_PROVISIONING_DISABLED);
+        assertTrue(mONSStats.logEvent(info));
+        mONSStats.flush();
+
+        // a new instance, e.g. after the service restarted, still skips the same event.
+        ONSStats onsStats = new ONSStats(mContext, mSubscriptionManager);
+        assertFalse(onsStats.logEvent(info));
+    }
+
+    @Test
+    public void testCarrierIdResolvedOncePerEvent() {
+        ONSStatsInfo info =
+                new ONSStatsInfo()
+                        .setPrimarySimSubId(1)
+                        .setProvisioningResult(Result.ERR_CANNOT_SWITCH_TO_DUAL_SIM_MODE);
+        assertTrue(mONSStats.logEvent(info));
+        mONSStats.flush();
+
+        verify(mSubscriptionManager, times(1)).getActiveSubscriptionInfo(1);
+        assertEquals(123, mSharedPreferences.getInt(KEY_PRIMARY_CARRIER_ID, -1));
+    }
 }
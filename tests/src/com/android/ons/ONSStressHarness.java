@@ -0,0 +1,367 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.ons;
+
+import android.os.SystemClock;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs operations concurrently from several threads, the way binder calls arrive, together with
+ * events delivered from a single thread each, the way handler threads deliver them.
+ *
+ * While the operations run, a sampler thread counts how often the caller threads are blocked
+ * on a monitor, which approximates lock contention, and checks the invariants. Operations pick
+ * their next operation at random by weight, seeded per thread so that runs are comparable.
+ */
+public class ONSStressHarness {
+    /* latencies kept per operation and thread, further calls are only counted */
+    private static final int MAX_SAMPLES = 100000;
+    private static final long SAMPLE_INTERVAL_MS = 1;
+    private static final int INVARIANT_INTERVAL_SAMPLES = 10;
+    private static final int MAX_REPORTED_VIOLATIONS = 20;
+    private static final long JOIN_TIMEOUT_MS = 10000;
+
+    private final List<Operation> mOperations = new ArrayList<>();
+    private final List<EventSource> mEventSources = new ArrayList<>();
+    private final Map<String, Invariant> mInvariants = new LinkedHashMap<>();
+    private final List<String> mViolations = new ArrayList<>();
+    private int mViolationCount;
+
+    public interface Action {
+        void run(int iteration) throws Exception;
+    }
+
+    public interface Invariant {
+        /**
+         * @return description of the violation, or null if the invariant holds.
+         */
+        String check();
+    }
+
+    private static class Operation {
+        final String mName;
+        final int mWeight;
+        final Action mAction;
+
+        Operation(String name, int weight, Action action) {
+            mName = name;
+            mWeight = weight;
+            mAction = action;
+        }
+    }
+
+    private static class EventSource {
+        final String mName;
+        final long mPeriodMs;
+        final Action mAction;
+
+        EventSource(String name, long periodMs, Action action) {
+            mName = name;
+            mPeriodMs = periodMs;
+            mAction = action;
+        }
+    }
+
+    /**
+     * Calls and latencies of one operation.
+     */
+    public static class OperationStats {
+        public final String name;
+        public int count;
+        public int errors;
+        private long[] mLatenciesNs = new long[0];
+
+        OperationStats(String name) {
+            this.name = name;
+        }
+
+        void add(OperationStats stats) {
+            count += stats.count;
+            errors += stats.errors;
+            long[] latencies = Arrays.copyOf(mLatenciesNs,
+                    mLatenciesNs.length + stats.mLatenciesNs.length);
+            System.arraycopy(stats.mLatenciesNs, 0, latencies, mLatenciesNs.length,
+                    stats.mLatenciesNs.length);
+            mLatenciesNs = latencies;
+        }
+
+        void record(long latencyNs, int sampleCount) {
+            if (sampleCount >= mLatenciesNs.length) {
+                mLatenciesNs = Arrays.copyOf(mLatenciesNs, Math.max(16, sampleCount * 2));
+            }
+            mLatenciesNs[sampleCount] = latencyNs;
+        }
+
+        void trim(int sampleCount) {
+            mLatenciesNs = Arrays.copyOf(mLatenciesNs, sampleCount);
+        }
+
+        /**
+         * @param percentile between 0 and 100.
+         * @return latency in microseconds, 0 if nothing was recorded.
+         */
+        public long getLatencyUs(double percentile) {
+            if (mLatenciesNs.length == 0) {
+                return 0;
+            }
+            long[] sorted = mLatenciesNs.clone();
+            Arrays.sort(sorted);
+            int index = (int) Math.ceil(percentile / 100 * sorted.length) - 1;
+            return TimeUnit.NANOSECONDS.toMicros(
+                    sorted[Math.max(0, Math.min(index, sorted.length - 1))]);
+        }
+
+        @Override
+        public String toString() {
+            return name + "{count=" + count + ", errors=" + errors
+                    + ", p50Us=" + getLatencyUs(50) + ", p99Us=" + getLatencyUs(99)
+                    + ", maxUs=" + getLatencyUs(100) + "}";
+        }
+    }
+
+    /**
+     * Result of a run.
+     */
+    public static class Report {
+        public long durationMs;
+        public int blockedSamples;
+        public int threadSamples;
+        public int violationCount;
+        public final List<String> violations = new ArrayList<>();
+        public final Map<String, OperationStats> operations = new LinkedHashMap<>();
+
+        public int getTotalCount() {
+            int total = 0;
+            for (OperationStats stats : operations.values()) {
+                total += stats.count;
+            }
+            return total;
+        }
+
+        public int getErrorCount() {
+            int errors = 0;
+            for (OperationStats stats : operations.values()) {
+                errors += stats.errors;
+            }
+            return errors;
+        }
+
+        public long getThroughputPerSecond() {
+            return durationMs == 0 ? 0 : getTotalCount() * 1000L / durationMs;
+        }
+
+        /**
+         * @return percentage of samples in which a caller thread was blocked on a monitor.
+         */
+        public int getContentionPercent() {
+            return threadSamples == 0 ? 0 : blockedSamples * 100 / threadSamples;
+        }
+
+        @Override
+        public String toString() {
+            return "Report{durationMs=" + durationMs + ", throughput/s="
+                    + getThroughputPerSecond() + ", contention%=" + getContentionPercent()
+                    + ", violations=" + violationCount + " " + violations
+                    + ", operations=" + operations.values() + "}";
+        }
+    }
+
+    /**
+     * Adds an operation called concurrently from all caller threads.
+     *
+     * @param weight relative frequency of the operation.
+     */
+    public ONSStressHarness addOperation(String name, int weight, Action action) {
+        mOperations.add(new Operation(name, weight, action));
+        return this;
+    }
+
+    /**
+     * Adds an event delivered periodically from its own thread.
+     */
+    public ONSStressHarness addEventSource(String name, long periodMs, Action action) {
+        mEventSources.add(new EventSource(name, periodMs, action));
+        return this;
+    }
+
+    /**
+     * Adds an invariant checked while the operations run and once after they stopped.
+     */
+    public ONSStressHarness addInvariant(String name, Invariant invariant) {
+        mInvariants.put(name, invariant);
+        return this;
+    }
+
+    /**
+     * Runs the operations from threadCount threads for durationMs.
+     */
+    public Report run(int threadCount, long durationMs) throws InterruptedException {
+        synchronized (mViolations) {
+            mViolations.clear();
+            mViolationCount = 0;
+        }
+        int totalWeight = 0;
+        for (Operation operation : mOperations) {
+            totalWeight += operation.mWeight;
+        }
+        final int weightSum = totalWeight;
+        final CountDownLatch start = new CountDownLatch(1);
+        final long endTimeMs = SystemClock.elapsedRealtime() + durationMs;
+        final List<Map<String, OperationStats>> threadStats = new ArrayList<>();
+        List<Thread> callers = new ArrayList<>();
+        List<Thread> threads = new ArrayList<>();
+
+        for (int i = 0; i < threadCount; i++) {
+            Map<String, OperationStats> stats = createStats();
+            threadStats.add(stats);
+            final int seed = i;
+            Thread thread = new Thread(() -> {
+                Random random = new Random(seed);
+                int[] sampleCounts = new int[mOperations.size()];
+                awaitStart(start);
+                for (int iteration = 0; SystemClock.elapsedRealtime() < endTimeMs;
+                        iteration++) {
+                    int index = pickOperation(random.nextInt(weightSum));
+                    Operation operation = mOperations.get(index);
+                    OperationStats operationStats = stats.get(operation.mName);
+                    long startNs = System.nanoTime();
+                    try {
+                        operation.mAction.run(iteration);
+                    } catch (Exception e) {
+                        operationStats.errors++;
+                        reportViolation(operation.mName + " threw " + e);
+                    }
+                    long latencyNs = System.nanoTime() - startNs;
+                    operationStats.count++;
+                    if (sampleCounts[index] < MAX_SAMPLES) {
+                        operationStats.record(latencyNs, sampleCounts[index]++);
+                    }
+                }
+                for (int j = 0; j < mOperations.size(); j++) {
+                    stats.get(mOperations.get(j).mName).trim(sampleCounts[j]);
+                }
+            }, "ONSStressCaller" + i);
+            callers.add(thread);
+            threads.add(thread);
+        }
+        for (EventSource source : mEventSources) {
+            threads.add(new Thread(() -> {
+                awaitStart(start);
+                for (int iteration = 0; SystemClock.elapsedRealtime() < endTimeMs;
+                        iteration++) {
+                    try {
+                        source.mAction.run(iteration);
+                    } catch (Exception e) {
+                        reportViolation(source.mName + " threw " + e);
+                    }
+                    SystemClock.sleep(source.mPeriodMs);
+                }
+            }, "ONSStressEvent-" + source.mName));
+        }
+
+        Report report = new Report();
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        long startTimeMs = SystemClock.elapsedRealtime();
+        start.countDown();
+        for (int sample = 0; SystemClock.elapsedRealtime() < endTimeMs; sample++) {
+            for (Thread caller : callers) {
+                report.threadSamples++;
+                if (caller.getState() == Thread.State.BLOCKED) {
+                    report.blockedSamples++;
+                }
+            }
+            if (sample % INVARIANT_INTERVAL_SAMPLES == 0) {
+                checkInvariants();
+            }
+            SystemClock.sleep(SAMPLE_INTERVAL_MS);
+        }
+        for (Thread thread : threads) {
+            thread.join(JOIN_TIMEOUT_MS);
+            if (thread.isAlive()) {
+                reportViolation(thread.getName() + " did not finish");
+            }
+        }
+        report.durationMs = SystemClock.elapsedRealtime() - startTimeMs;
+        checkInvariants();
+
+        report.operations.putAll(createStats());
+        for (Map<String, OperationStats> stats : threadStats) {
+            for (OperationStats operationStats : stats.values()) {
+                report.operations.get(operationStats.name).add(operationStats);
+            }
+        }
+        synchronized (mViolations) {
+            report.violationCount = mViolationCount;
+            report.violations.addAll(mViolations);
+        }
+        return report;
+    }
+
+    private Map<String, OperationStats> createStats() {
+        Map<String, OperationStats> stats = new LinkedHashMap<>();
+        for (Operation operation : mOperations) {
+            stats.put(operation.mName, new OperationStats(operation.mName));
+        }
+        return stats;
+    }
+
+    private int pickOperation(int weight) {
+        for (int i = 0; i < mOperations.size(); i++) {
+            weight -= mOperations.get(i).mWeight;
+            if (weight < 0) {
+                return i;
+            }
+        }
+        return mOperations.size() - 1;
+    }
+
+    private void checkInvariants() {
+        for (Map.Entry<String, Invariant> entry : mInvariants.entrySet()) {
+            String violation = entry.getValue().check();
+            if (violation != null) {
+                reportViolation(entry.getKey() + ": " + violation);
+            }
+        }
+    }
+
+    private void reportViolation(String violation) {
+        synchronized (mViolations) {
+            mViolationCount++;
+            if (mViolations.size() < MAX_REPORTED_VIOLATIONS) {
+                mViolations.add(violation);
+            }
+        }
+    }
+
+    private static void awaitStart(CountDownLatch start) {
+        try {
+            start.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,89 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.ons;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.doReturn;
+
+import android.os.ParcelUuid;
+import android.telephony.SubscriptionInfo;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.UUID;
+
+@RunWith(JUnit4.class)
+public class ONSSubscriptionIndexTest {
+    private static final ParcelUuid GROUP_UUID = new ParcelUuid(new UUID(0, 100));
+
+    @Mock SubscriptionInfo mESim1;
+    @Mock SubscriptionInfo mESim2;
+    @Mock SubscriptionInfo mPSim;
+    private ONSSubscriptionIndex mIndex;
+
+    @Before
+    public void setUp() {
+        MockitoAnnotations.initMocks(this);
+        mIndex = new ONSSubscriptionIndex();
+        setUpSubscription(mESim1, 1, 10, null, true);
+        setUpSubscription(mESim2, 2, 10, GROUP_UUID, true);
+        setUpSubscription(mPSim, 3, 20, GROUP_UUID, false);
+    }
+
+    @Test
+    public void testLookupByCarrierIdAndGroup() {
+        assertEquals(2, mIndex.update(Arrays.asList(mESim1, mESim2, mPSim)));
+
+        assertEquals(Arrays.asList(mESim1, mESim2), mIndex.getByCarrierId(10));
+        assertTrue(mIndex.getByCarrierId(20).isEmpty());
+        assertEquals(Collections.singletonList(mESim2), mIndex.getByGroupUuid(GROUP_UUID));
+    }
+
+    @Test
+    public void testIncrementalUpdate() {
+        mIndex.update(Arrays.asList(mESim1, mESim2));
+        assertEquals(0, mIndex.update(Arrays.asList(mESim1, mESim2)));
+
+        /* eSIM 1 is grouped, eSIM 2 is deleted */
+        doReturn(GROUP_UUID).when(mESim1).getGroupUuid();
+        assertEquals(2, mIndex.update(Collections.singletonList(mESim1)));
+
+        assertEquals(1, mIndex.size());
+        assertEquals(Collections.singletonList(mESim1), mIndex.getByCarrierId(10));
+        assertEquals(Collections.singletonList(mESim1), mIndex.getByGroupUuid(GROUP_UUID));
+
+        assertEquals(1, mIndex.update(null));
+        assertTrue(mIndex.getByCarrierId(10).isEmpty());
+        assertTrue(mIndex.getByGroupUuid(GROUP_UUID).isEmpty());
+    }
+
+    private void setUpSubscription(SubscriptionInfo subInfo, int subId, int carrierId,
+            ParcelUuid groupUuid, boolean embedded) {
+        doReturn(subId).when(subInfo).getSubscriptionId();
+        doReturn(carrierId).when(subInfo).getCarrierId();
+        doReturn(groupUuid).when(subInfo).getGroupUuid();
+        doReturn(embedded).when(subInfo).isEmbedded();
+    }
+}
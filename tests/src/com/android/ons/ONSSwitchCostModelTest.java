@@ -0,0 +1,171 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.ons;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+
+import android.telephony.CellIdentityLte;
+import android.telephony.CellIdentityNr;
+import android.telephony.CellInfo;
+import android.telephony.CellInfoLte;
+import android.telephony.CellInfoNr;
+import android.telephony.CellSignalStrengthLte;
+import android.telephony.CellSignalStrengthNr;
+import android.telephony.LinkCapacityEstimate;
+import android.telephony.TelephonyManager;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+@RunWith(JUnit4.class)
+public class ONSSwitchCostModelTest {
+    private long mTimeMs;
+    private ONSSwitchCostModel mModel;
+
+    @Before
+    public void setUp() {
+        mTimeMs = 0;
+        mModel = new ONSSwitchCostModel(() -> mTimeMs);
+    }
+
+    @Test
+    public void testSwitchWithoutServingEstimate() {
+        assertTrue(mModel.isSwitchWorthwhile(createLteCell(0), false,
+                ONSSwitchCostModel.DEFAULT_MIN_BENEFIT_KBIT));
+    }
+
+    @Test
+    public void testNoSwitchToSlowerCell() {
+        setServingKbps(100000);
+
+        assertFalse(mModel.isSwitchWorthwhile(createLteCell(5), false,
+                ONSSwitchCostModel.DEFAULT_MIN_BENEFIT_KBIT));
+        /* a negative threshold disables the check */
+        assertTrue(mModel.isSwitchWorthwhile(createLteCell(5), false, -1));
+    }
+
+    @Test
+    public void testShortDwellTimeRejectsSwitch() {
+        /* about 7.5 Mbps on the candidate at 0 dB */
+        CellInfo cellInfo = createLteCell(0);
+        setServingKbps(6000);
+        assertTrue(mModel.isSwitchWorthwhile(cellInfo, false,
+                ONSSwitchCostModel.DEFAULT_MIN_BENEFIT_KBIT));
+
+        /* the serving cell changes every 5 seconds */
+        for (int i = 0; i < 4; i++) {
+            mModel.onServingCellChanged(new CellIdentityLte(310, 260, i, 1, 1));
+            mTimeMs += 5000;
+        }
+        mTimeMs -= 5000;
+
+        assertFalse(mModel.isSwitchWorthwhile(cellInfo, false,
+                ONSSwitchCostModel.DEFAULT_MIN_BENEFIT_KBIT));
+        /* enabling the modem of an active subscription is cheap enough */
+        assertTrue(mModel.isSwitchWorthwhile(cellInfo, true,
+                ONSSwitchCostModel.DEFAULT_MIN_BENEFIT_KBIT));
+    }
+
+    @Test
+    public void testSwitchTimeLearned() {
+        CellInfo cellInfo = createLteCell(10);
+        long candidateKbps = ONSSwitchCostModel.estimateThroughputKbps(cellInfo);
+
+        mModel.onSwitchStarted(true);
+        mTimeMs += 13000;
+        mModel.onSwitchCompleted();
+
+        /* 5000 ms moves a quarter of the way to the measured 13000 ms */
+        assertEquals(candidateKbps * (ONSSwitchCostModel.DEFAULT_DWELL_MS - 7000) / 1000,
+                mModel.getExpectedBenefitKbit(cellInfo, false));
+        assertEquals(candidateKbps * (ONSSwitchCostModel.DEFAULT_DWELL_MS
+                        - ONSSwitchCostModel.DEFAULT_MODEM_ENABLE_MS) / 1000,
+                mModel.getExpectedBenefitKbit(cellInfo, true));
+    }
+
+    @Test
+    public void testCombinedCapacityPreferred() {
+        mModel.onServingCapacityChanged(Arrays.asList(
+                new LinkCapacityEstimate(LinkCapacityEstimate.LCE_TYPE_PRIMARY, 100000, 0),
+                new LinkCapacityEstimate(LinkCapacityEstimate.LCE_TYPE_COMBINED, 1000, 0)));
+
+        assertTrue(mModel.isSwitchWorthwhile(createLteCell(10), false,
+                ONSSwitchCostModel.DEFAULT_MIN_BENEFIT_KBIT));
+    }
+
+    @Test
+    public void testEstimateThroughput() {
+        long lteKbps = ONSSwitchCostModel.estimateThroughputKbps(createLteCell(20));
+        long nrKbps = ONSSwitchCostModel.estimateThroughputKbps(createNrCell(20));
+
+        assertEquals(49936, lteKbps, 10);
+        /* NR cells are assumed on a wider channel */
+        assertEquals(2 * lteKbps, nrKbps, 1);
+        assertTrue(lteKbps > ONSSwitchCostModel.estimateThroughputKbps(createLteCell(0)));
+    }
+
+    @Test
+    public void testRegisterFollowsNewSubscription() {
+        TelephonyManager oldTelephonyManager = mock(TelephonyManager.class);
+        TelephonyManager newTelephonyManager = mock(TelephonyManager.class);
+        mModel.register(oldTelephonyManager, Runnable::run);
+        setServingKbps(100000);
+        assertFalse(mModel.isSwitchWorthwhile(createLteCell(5), false,
+                ONSSwitchCostModel.DEFAULT_MIN_BENEFIT_KBIT));
+
+        mModel.register(newTelephonyManager, Runnable::run);
+
+        verify(oldTelephonyManager).unregisterTelephonyCallback(mModel.mTelephonyCallback);
+        verify(newTelephonyManager).registerTelephonyCallback(any(),
+                eq(mModel.mTelephonyCallback));
+        /* the capacity of the previous subscription no longer counts */
+        assertTrue(mModel.isSwitchWorthwhile(createLteCell(5), false,
+                ONSSwitchCostModel.DEFAULT_MIN_BENEFIT_KBIT));
+    }
+
+    private void setServingKbps(int kbps) {
+        mModel.onServingCapacityChanged(Collections.singletonList(
+                new LinkCapacityEstimate(LinkCapacityEstimate.LCE_TYPE_COMBINED, kbps, 0)));
+    }
+
+    private CellInfo createLteCell(int rssnr) {
+        CellInfoLte cellInfoLte = new CellInfoLte();
+        cellInfoLte.setCellIdentity(new CellIdentityLte(310, 210, 1, 1, 1));
+        cellInfoLte.setCellSignalStrength(new CellSignalStrengthLte(CellInfo.UNAVAILABLE, -90,
+                -10, rssnr, CellInfo.UNAVAILABLE, CellInfo.UNAVAILABLE));
+        return cellInfoLte;
+    }
+
+    private CellInfo createNrCell(int ssSinr) {
+        CellIdentityNr cellIdentityNr = new CellIdentityNr(1, 0, 0, new int[] {48}, "310",
+                "210", 0, "", "", Collections.emptyList());
+        return new CellInfoNr(0, false, 0, cellIdentityNr,
+                new CellSignalStrengthNr(CellInfo.UNAVAILABLE, CellInfo.UNAVAILABLE,
+                        CellInfo.UNAVAILABLE, -90, -10, ssSinr));
+    }
+}
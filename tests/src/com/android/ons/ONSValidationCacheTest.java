@@ -0,0 +1,91 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.ons;
+
+import static org.junit.Assert.assertEquals;
+
+import android.telephony.CellIdentity;
+import android.telephony.CellIdentityLte;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class ONSValidationCacheTest {
+    private static final int SUB_ID = 5;
+    private static final CellIdentity CELL_1 = new CellIdentityLte(310, 210, 1, 1, 1);
+    private static final CellIdentity CELL_2 = new CellIdentityLte(310, 210, 2, 2, 1);
+
+    private long mTimeMs;
+    private ONSValidationCache mCache;
+
+    @Before
+    public void setUp() {
+        mTimeMs = 0;
+        mCache = new ONSValidationCache(() -> mTimeMs);
+    }
+
+    @Test
+    public void testResultCachedPerServingCell() {
+        mCache.putResult(SUB_ID, CELL_1, ONSValidationCache.RESULT_VALIDATED);
+
+        assertEquals(ONSValidationCache.RESULT_VALIDATED, mCache.getResult(SUB_ID, CELL_1));
+        assertEquals(ONSValidationCache.RESULT_UNKNOWN, mCache.getResult(SUB_ID, CELL_2));
+        assertEquals(ONSValidationCache.RESULT_UNKNOWN, mCache.getResult(SUB_ID + 1, CELL_1));
+        /* an equal identity reported later hits the same entry */
+        assertEquals(ONSValidationCache.RESULT_VALIDATED,
+                mCache.getResult(SUB_ID, new CellIdentityLte(310, 210, 1, 1, 1)));
+    }
+
+    @Test
+    public void testFailureExpiresBeforeSuccess() {
+        mCache.putResult(SUB_ID, CELL_1, ONSValidationCache.RESULT_VALIDATED);
+        mCache.putResult(SUB_ID, CELL_2, ONSValidationCache.RESULT_FAILED);
+
+        mTimeMs = ONSValidationCache.FAILED_TTL_MS - 1;
+        assertEquals(ONSValidationCache.RESULT_FAILED, mCache.getResult(SUB_ID, CELL_2));
+
+        mTimeMs = ONSValidationCache.FAILED_TTL_MS;
+        assertEquals(ONSValidationCache.RESULT_UNKNOWN, mCache.getResult(SUB_ID, CELL_2));
+        assertEquals(ONSValidationCache.RESULT_VALIDATED, mCache.getResult(SUB_ID, CELL_1));
+
+        mTimeMs = ONSValidationCache.VALIDATED_TTL_MS;
+        assertEquals(ONSValidationCache.RESULT_UNKNOWN, mCache.getResult(SUB_ID, CELL_1));
+    }
+
+    @Test
+    public void testUnknownServingCellNotCached() {
+        mCache.putResult(SUB_ID, null, ONSValidationCache.RESULT_VALIDATED);
+
+        assertEquals(ONSValidationCache.RESULT_UNKNOWN, mCache.getResult(SUB_ID, null));
+    }
+
+    @Test
+    public void testLeastRecentlyUsedEvicted() {
+        for (int i = 0; i <= 16; i++) {
+            mCache.putResult(i, CELL_1, ONSValidationCache.RESULT_VALIDATED);
+            /* keep the first entry in use */
+            mCache.getResult(0, CELL_1);
+        }
+
+        assertEquals(ONSValidationCache.RESULT_VALIDATED, mCache.getResult(0, CELL_1));
+        assertEquals(ONSValidationCache.RESULT_UNKNOWN, mCache.getResult(1, CELL_1));
+        assertEquals(ONSValidationCache.RESULT_VALIDATED, mCache.getResult(16, CELL_1));
+    }
+}
@@ -18,13 +18,18 @@ package com.android.ons;
 import static org.mockito.Mockito.any;
 import static org.mockito.Mockito.doReturn;
 import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.spy;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 
 import android.content.Intent;
 import android.os.Looper;
+import android.os.Process;
 import android.os.RemoteException;
 import android.telephony.AvailableNetworkInfo;
+import android.telephony.CellIdentityLte;
+import android.telephony.CellInfo;
+import android.telephony.CellInfoLte;
 import android.telephony.SubscriptionInfo;
 import android.telephony.SubscriptionManager;
 import android.telephony.TelephonyFrameworkInitializer;
@@ -36,6 +41,7 @@ import androidx.test.runner.AndroidJUnit4;
 import com.android.internal.telephony.IOns;
 import com.android.internal.telephony.ISetOpportunisticDataCallback;
 import com.android.internal.telephony.IUpdateAvailableNetworksCallback;
+import com.android.internal.telephony.TelephonyIntents;
 
 import org.junit.After;
 import org.junit.Before;
@@ -43,8 +49,11 @@ import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.mockito.Mock;
 
+import java.io.PrintWriter;
+import java.io.StringWriter;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Arrays;
+import java.util.List;
 
 @RunWith(AndroidJUnit4.class)
 public class OpportunisticNetworkServiceTest extends ONSBaseTest {
@@ -55,13 +64,15 @@ public class OpportunisticNetworkServiceTest extends ONSBaseTest {
     private IOns iOpportunisticNetworkService;
     private Looper mLooper;
     private OpportunisticNetworkService mOpportunisticNetworkService;
-    private static final String CARRIER_APP_CONFIG_NAME = "carrierApp";
-    private static final String SYSTEM_APP_CONFIG_NAME = "systemApp";
+    private static final String CARRIER_APP_CONFIG_NAME =
+            ONSRequestArbitrator.REQUESTER_CARRIER_APP;
+    private static final String SYSTEM_APP_CONFIG_NAME =
+            ONSRequestArbitrator.REQUESTER_SYSTEM_APP;
 
-    @Mock
-    private HashMap<String, ONSConfigInput> mockONSConfigInputHashMap;
     @Mock
     private ONSProfileSelector mockProfileSelector;
+    @Mock
+    private SubscriptionInfo mPrimarySubInfo;
 
     @Before
     public void setUp() throws Exception {
@@ -142,23 +153,82 @@ public class OpportunisticNetworkServiceTest extends ONSBaseTest {
         onsConfigInput.setPreferredDataSub(availableNetworkInfos.get(0).getSubId());
         ArrayList<SubscriptionInfo> subscriptionInfos = new ArrayList<SubscriptionInfo>();
 
+        ONSRequestArbitrator arbitrator = mOpportunisticNetworkService.mRequestArbitrator;
+        mOpportunisticNetworkService.mProfileSelector = mockProfileSelector;
+
         // Case 1: There is no Carrier app using ONS.
-        doReturn(null).when(mockONSConfigInputHashMap).get(CARRIER_APP_CONFIG_NAME);
         mOpportunisticNetworkService.mIsEnabled = true;
-        mOpportunisticNetworkService.mONSConfigInputHashMap = mockONSConfigInputHashMap;
         mOpportunisticNetworkService.handleSimStateChange();
         waitForMs(500);
-        verify(mockONSConfigInputHashMap, never()).get(SYSTEM_APP_CONFIG_NAME);
+        verify(mockProfileSelector, never()).startProfileSelection(any(), any());
 
         // Case 2: There is a Carrier app using ONS and no System app input.
         doReturn(subscriptionInfos).when(mSubscriptionManager).getActiveSubscriptionInfoList(false);
-        doReturn(onsConfigInput).when(mockONSConfigInputHashMap).get(CARRIER_APP_CONFIG_NAME);
-        doReturn(null).when(mockONSConfigInputHashMap).get(SYSTEM_APP_CONFIG_NAME);
-        mOpportunisticNetworkService.mIsEnabled = true;
-        mOpportunisticNetworkService.mONSConfigInputHashMap = mockONSConfigInputHashMap;
+        arbitrator.update(CARRIER_APP_CONFIG_NAME, onsConfigInput, null);
         mOpportunisticNetworkService.handleSimStateChange();
         waitForMs(50);
-        verify(mockONSConfigInputHashMap,times(1)).get(SYSTEM_APP_CONFIG_NAME);
+        assertNull(arbitrator.getState().getRequest(CARRIER_APP_CONFIG_NAME));
+        verify(mockProfileSelector, never()).startProfileSelection(any(), any());
+
+        // Case 3: The Carrier app request is removed and the System app request takes over.
+        ONSConfigInput systemAppConfigInput = new ONSConfigInput(availableNetworkInfos, mCallback);
+        arbitrator.update(CARRIER_APP_CONFIG_NAME, onsConfigInput, null);
+        arbitrator.update(SYSTEM_APP_CONFIG_NAME, systemAppConfigInput, null);
+        mOpportunisticNetworkService.handleSimStateChange();
+        waitForMs(50);
+        assertEquals(SYSTEM_APP_CONFIG_NAME, arbitrator.getState().getWinner());
+        verify(mockProfileSelector, times(1)).startProfileSelection(any(), any());
+    }
+
+    @Test
+    public void testHandleSimStateChangeRepeated() {
+        ArrayList<String> mccMncs = new ArrayList<>();
+        mccMncs.add("310210");
+        ArrayList<AvailableNetworkInfo> availableNetworkInfos = new ArrayList<>();
+        availableNetworkInfos.add(new AvailableNetworkInfo(2, 1, mccMncs,
+                new ArrayList<Integer>()));
+        ONSConfigInput onsConfigInput = new ONSConfigInput(availableNetworkInfos, null);
+        onsConfigInput.setPrimarySub(1);
+        ArrayList<SubscriptionInfo> subscriptionInfos = new ArrayList<SubscriptionInfo>();
+        subscriptionInfos.add(mPrimarySubInfo);
+        doReturn(1).when(mPrimarySubInfo).getSubscriptionId();
+        doReturn(subscriptionInfos).when(mSubscriptionManager).getActiveSubscriptionInfoList(false);
+        ONSRequestArbitrator arbitrator = mOpportunisticNetworkService.mRequestArbitrator;
+        mOpportunisticNetworkService.mProfileSelector = mockProfileSelector;
+        mOpportunisticNetworkService.mIsEnabled = true;
+        arbitrator.update(CARRIER_APP_CONFIG_NAME, onsConfigInput, null);
+
+        // Primary subscription is active, the carrier app request is kept.
+        mOpportunisticNetworkService.handleSimStateChange();
+        assertEquals(onsConfigInput, arbitrator.getState().getRequest(CARRIER_APP_CONFIG_NAME));
+
+        // Same subscriptions again, checked against the snapshot without reading them.
+        mOpportunisticNetworkService.handleSimStateChange();
+        verify(mSubscriptionManager, times(1)).getActiveSubscriptionInfoList(false);
+        assertEquals(onsConfigInput, arbitrator.getState().getRequest(CARRIER_APP_CONFIG_NAME));
+
+        // Primary subscription disappeared, the carrier app request is removed.
+        subscriptionInfos.clear();
+        mOpportunisticNetworkService.mSubscriptionsChangedListener.onSubscriptionsChanged();
+        mOpportunisticNetworkService.handleSimStateChange();
+        verify(mSubscriptionManager, times(2)).getActiveSubscriptionInfoList(false);
+        assertNull(arbitrator.getState().getRequest(CARRIER_APP_CONFIG_NAME));
+    }
+
+    @Test
+    public void testSimStateChangeBurstHandledOnce() {
+        ONSRequestArbitrator arbitrator = spy(mOpportunisticNetworkService.mRequestArbitrator);
+        mOpportunisticNetworkService.mRequestArbitrator = arbitrator;
+        Intent intent = new Intent(TelephonyIntents.ACTION_SIM_STATE_CHANGED);
+        for (int i = 0; i < 5; i++) {
+            mOpportunisticNetworkService.mBroadcastReceiver.onReceive(mContext, intent);
+            waitForMs(50);
+        }
+        verify(arbitrator, never()).getState();
+
+        // the last broadcast is handled once the window has passed.
+        waitForMs(1000);
+        verify(arbitrator, times(1)).getState();
     }
 
     @Test
@@ -184,9 +254,9 @@ public class OpportunisticNetworkServiceTest extends ONSBaseTest {
         ArrayList<SubscriptionInfo> subscriptionInfos = new ArrayList<SubscriptionInfo>();
 
         doReturn(subscriptionInfos).when(mSubscriptionManager).getActiveSubscriptionInfoList(false);
-        doReturn(onsConfigInput).when(mockONSConfigInputHashMap).get(CARRIER_APP_CONFIG_NAME);
+        mOpportunisticNetworkService.mRequestArbitrator.update(CARRIER_APP_CONFIG_NAME,
+                onsConfigInput, null);
         mOpportunisticNetworkService.mIsEnabled = true;
-        mOpportunisticNetworkService.mONSConfigInputHashMap = mockONSConfigInputHashMap;
 
         mResult = -1;
         ISetOpportunisticDataCallback callbackStub = new ISetOpportunisticDataCallback.Stub() {
@@ -314,12 +384,12 @@ public class OpportunisticNetworkServiceTest extends ONSBaseTest {
         ONSConfigInput onsConfigInput = new ONSConfigInput(availableNetworkInfos, mCallback);
         onsConfigInput.setPrimarySub(1);
         onsConfigInput.setPreferredDataSub(availableNetworkInfos.get(0).getSubId());
-        doReturn(onsConfigInput).when(mockONSConfigInputHashMap).get(CARRIER_APP_CONFIG_NAME);
         doReturn(true).when(mockProfileSelector).hasOpprotunisticSub(any());
         doReturn(false).when(mockProfileSelector).containStandaloneOppSubs(any());
         mOpportunisticNetworkService.mIsEnabled = true;
-        mOpportunisticNetworkService.mONSConfigInputHashMap = mockONSConfigInputHashMap;
         mOpportunisticNetworkService.mProfileSelector = mockProfileSelector;
+        mOpportunisticNetworkService.mRequestArbitrator.update(CARRIER_APP_CONFIG_NAME,
+                onsConfigInput, null);
 
         // Assume carrier app has updated available networks at first.
         // Then system app updated available networks which is not standalone.
@@ -343,10 +413,9 @@ public class OpportunisticNetworkServiceTest extends ONSBaseTest {
 
         // System app updated available networks which equal to null.
         // Case1: start carrier app request, if there is a carrier app request.
-        availableNetworkInfos.clear();
         try {
             IOns onsBinder = (IOns) mOpportunisticNetworkService.onBind(null);
-            onsBinder.updateAvailableNetworks(availableNetworkInfos, mCallback, pkgForDebug);
+            onsBinder.updateAvailableNetworks(new ArrayList<>(), mCallback, pkgForDebug);
         } catch (RemoteException ex) {
             Log.e(TAG, "RemoteException", ex);
         }
@@ -354,16 +423,183 @@ public class OpportunisticNetworkServiceTest extends ONSBaseTest {
 
         // System app updated available networks which equal to null.
         // Case2: stop profile selection, if there is no any carrier app request.
-        doReturn(null).when(mockONSConfigInputHashMap).get(CARRIER_APP_CONFIG_NAME);
+        mOpportunisticNetworkService.mRequestArbitrator.update(CARRIER_APP_CONFIG_NAME, null,
+                null);
         try {
             IOns onsBinder = (IOns) mOpportunisticNetworkService.onBind(null);
-            onsBinder.updateAvailableNetworks(availableNetworkInfos, mCallback, pkgForDebug);
+            onsBinder.updateAvailableNetworks(new ArrayList<>(), mCallback, pkgForDebug);
         } catch (RemoteException ex) {
             Log.e(TAG, "RemoteException", ex);
         }
         verify(mockProfileSelector, times(1)).stopProfileSelection(any());
     }
 
+    @Test
+    public void testDroppedPendingRequestAborted() throws Exception {
+        ArrayList<AvailableNetworkInfo> availableNetworkInfos = new ArrayList<>();
+        availableNetworkInfos.add(new AvailableNetworkInfo(1, 1,
+                new ArrayList<>(Arrays.asList("310210")), new ArrayList<Integer>()));
+        ONSConfigInput carrierRequest = new ONSConfigInput(availableNetworkInfos, null);
+        carrierRequest.setPrimarySub(1);
+        doReturn(true).when(mockProfileSelector).hasOpprotunisticSub(any());
+        doReturn(false).when(mockProfileSelector).containStandaloneOppSubs(any());
+        mOpportunisticNetworkService.mIsEnabled = true;
+        mOpportunisticNetworkService.mProfileSelector = mockProfileSelector;
+        mOpportunisticNetworkService.mRequestArbitrator.update(CARRIER_APP_CONFIG_NAME,
+                carrierRequest, null);
+        int[] pendingResult = {-1};
+        IUpdateAvailableNetworksCallback pendingCallback =
+                new IUpdateAvailableNetworksCallback.Stub() {
+                    @Override
+                    public void onComplete(int result) {
+                        pendingResult[0] = result;
+                    }
+                };
+        IUpdateAvailableNetworksCallback withdrawalCallback =
+                new IUpdateAvailableNetworksCallback.Stub() {
+                    @Override
+                    public void onComplete(int result) {
+                        mResult = result;
+                    }
+                };
+
+        // The system app request is outranked by the carrier app request and stays pending.
+        iOpportunisticNetworkService.updateAvailableNetworks(availableNetworkInfos,
+                pendingCallback, pkgForDebug);
+        assertEquals(-1, pendingResult[0]);
+
+        // Withdrawing it answers the pending callback, which was never served.
+        mResult = -1;
+        iOpportunisticNetworkService.updateAvailableNetworks(new ArrayList<>(),
+                withdrawalCallback, pkgForDebug);
+        assertEquals(TelephonyManager.UPDATE_AVAILABLE_NETWORKS_ABORTED, pendingResult[0]);
+        assertEquals(TelephonyManager.UPDATE_AVAILABLE_NETWORKS_SUCCESS, mResult);
+    }
+
+    @Test
+    public void testThrottledCallsGetDedicatedResult() throws Exception {
+        /* one call per method, no refill, and no exemption for our own uid */
+        mOpportunisticNetworkService.mAdmissionController =
+                new ONSAdmissionController(1, 0, -1, () -> 0L);
+        IUpdateAvailableNetworksCallback updateCallback =
+                new IUpdateAvailableNetworksCallback.Stub() {
+                    @Override
+                    public void onComplete(int result) {
+                        mResult = result;
+                    }
+                };
+        ISetOpportunisticDataCallback setCallback = new ISetOpportunisticDataCallback.Stub() {
+            @Override
+            public void onComplete(int result) {
+                mResult = result;
+            }
+        };
+        ArrayList<String> mccMncs = new ArrayList<>();
+        mccMncs.add("310210");
+        ArrayList<AvailableNetworkInfo> availableNetworkInfos = new ArrayList<>();
+        availableNetworkInfos.add(new AvailableNetworkInfo(1, 1, mccMncs,
+                new ArrayList<Integer>()));
+
+        mResult = -1;
+        iOpportunisticNetworkService.updateAvailableNetworks(availableNetworkInfos,
+                updateCallback, pkgForDebug);
+        assertEquals(
+                TelephonyManager.UPDATE_AVAILABLE_NETWORKS_NO_OPPORTUNISTIC_SUB_AVAILABLE, mResult);
+        iOpportunisticNetworkService.updateAvailableNetworks(availableNetworkInfos,
+                updateCallback, pkgForDebug);
+        assertEquals(ONSAdmissionController.UPDATE_AVAILABLE_NETWORKS_THROTTLED, mResult);
+        /* withdrawing is always admitted */
+        mResult = -1;
+        iOpportunisticNetworkService.updateAvailableNetworks(new ArrayList<>(),
+                updateCallback, pkgForDebug);
+        assertEquals(TelephonyManager.UPDATE_AVAILABLE_NETWORKS_SUCCESS, mResult);
+
+        mResult = -1;
+        iOpportunisticNetworkService.setPreferredDataSubscriptionId(5, false, setCallback,
+                pkgForDebug);
+        assertEquals(
+                TelephonyManager.SET_OPPORTUNISTIC_SUB_NO_OPPORTUNISTIC_SUB_AVAILABLE, mResult);
+        iOpportunisticNetworkService.setPreferredDataSubscriptionId(5, false, setCallback,
+                pkgForDebug);
+        assertEquals(ONSAdmissionController.SET_PREFERRED_DATA_THROTTLED, mResult);
+        /* so is dropping the preference */
+        iOpportunisticNetworkService.setPreferredDataSubscriptionId(
+                SubscriptionManager.DEFAULT_SUBSCRIPTION_ID, false, setCallback, pkgForDebug);
+        assertEquals(1, mOpportunisticNetworkService.mAdmissionController.getRejectedCount(
+                Process.myUid(), ONSAdmissionController.METHOD_SET_PREFERRED_DATA));
+        assertEquals(1, mOpportunisticNetworkService.mAdmissionController.getRejectedCount(
+                Process.myUid(), ONSAdmissionController.METHOD_UPDATE_AVAILABLE_NETWORKS));
+    }
+
+    @Test
+    public void testDumpStartupTimings() {
+        StringWriter stringWriter = new StringWriter();
+        mOpportunisticNetworkService.dump(null, new PrintWriter(stringWriter), null);
+        String dump = stringWriter.toString();
+        assertTrue(dump.contains("initialized=true"));
+        assertTrue(dump.contains("profileSelector="));
+        assertTrue(dump.contains("initialize="));
+    }
+
+    @Test
+    public void testConcurrentBinderCalls() throws Exception {
+        ArrayList<AvailableNetworkInfo> availableNetworkInfos = new ArrayList<>();
+        availableNetworkInfos.add(new AvailableNetworkInfo(1, AvailableNetworkInfo.PRIORITY_HIGH,
+                new ArrayList<>(Arrays.asList("310210")), new ArrayList<Integer>()));
+        CellInfoLte cellInfoLte = new CellInfoLte();
+        cellInfoLte.setCellIdentity(new CellIdentityLte(310, 210, 1, 1, 1));
+        List<CellInfo> cells = Arrays.asList(cellInfoLte);
+        IUpdateAvailableNetworksCallback updateCallback =
+                new IUpdateAvailableNetworksCallback.Stub() {
+                    @Override
+                    public void onComplete(int result) {
+                    }
+                };
+        ISetOpportunisticDataCallback setDataCallback = new ISetOpportunisticDataCallback.Stub() {
+            @Override
+            public void onComplete(int result) {
+            }
+        };
+        ONSStressHarness harness = new ONSStressHarness()
+                .addOperation("updateAvailableNetworks", 4, iteration ->
+                        iOpportunisticNetworkService.updateAvailableNetworks(
+                                iteration % 2 == 0 ? availableNetworkInfos : new ArrayList<>(),
+                                updateCallback, pkgForDebug))
+                .addOperation("setPreferredDataSubscriptionId", 2, iteration ->
+                        iOpportunisticNetworkService.setPreferredDataSubscriptionId(
+                                SubscriptionManager.DEFAULT_SUBSCRIPTION_ID, false,
+                                setDataCallback, pkgForDebug))
+                .addOperation("setEnable", 1, iteration ->
+                        iOpportunisticNetworkService.setEnable(iteration % 2 == 0, pkgForDebug))
+                .addOperation("getPreferredDataSubscriptionId", 4, iteration ->
+                        iOpportunisticNetworkService.getPreferredDataSubscriptionId(
+                                pkgForDebug, pkgForFeature))
+                /* subscription changes and scan results arrive on one thread each */
+                .addEventSource("subscriptionChange", 5, iteration ->
+                        mOpportunisticNetworkService.handleSimStateChange())
+                .addEventSource("scanResults", 5, iteration ->
+                        mOpportunisticNetworkService.mProfileSelector.mNetworkAvailableCallBack
+                                .onNetworkAvailability(cells))
+                .addInvariant("winner is a requester", () -> {
+                    String winner =
+                            mOpportunisticNetworkService.mRequestArbitrator.getState().getWinner();
+                    return winner == null || winner.equals(CARRIER_APP_CONFIG_NAME)
+                            || winner.equals(SYSTEM_APP_CONFIG_NAME)
+                            ? null : "unknown winner " + winner;
+                });
+
+        ONSStressHarness.Report report = harness.run(8, 2000);
+        Log.d(TAG, "testConcurrentBinderCalls: " + report);
+
+        assertTrue(report.getTotalCount() > 0);
+        assertEquals(report.violations.toString(), 0, report.violationCount);
+        assertEquals(0, report.getErrorCount());
+        /* the enabled state settles on the last call */
+        iOpportunisticNetworkService.setEnable(true, pkgForDebug);
+        assertTrue(iOpportunisticNetworkService.isEnabled(pkgForDebug));
+        assertTrue(mOpportunisticNetworkService.mIsEnabled);
+    }
+
     private IOns getIOns() {
         return IOns.Stub.asInterface(
                 TelephonyFrameworkInitializer